@@ -1,55 +1,282 @@
+package bank;
+
+import java.util.List;
 
 /**
  * Abstract class representing a bank account.
  * This class provides basic banking operations like deposits, withdrawals, pay someone, and transfer between accounts.
+ * Balances and amounts are whole cents, see Money.
+ * An account is a view over one row of an AccountTable, which holds the data.
+ * Safe to use from many threads: the balance is updated with compare-and-set,
+ * so concurrent changes are never lost and a withdrawal's funds check holds
+ * for the exact balance it debits.
  * @author Daniel Fuentes, Rogelio Lozano
  * @version 1.0
  */
 public abstract class Account {
-    /** The current balance in the account */
-    protected double balance;
-    /** The unique identifier for the account */
-    protected String accountNumber;
+    /** The table holding this account's data */
+    protected final AccountTable table;
+    /** The row of this account in the table */
+    protected final int row;
     /** The transaction log for every inquiry */
-    private static TransactionLog transactionLog;
-    
+    private static EventLog transactionLog;
+    /** The write-ahead log receiving every balance change */
+    private static WriteAheadLog balanceLog;
+    /** The write-ahead log receiving changes saved together across shards */
+    private static WriteAheadLog linkedLog;
+
     /**
-     * Initializes an account with the given account number and balance.
-     * @param accountNumber the unique identifier for the account
-     * @param balance the initial balance in the account
+     * Initializes an account in a new row of the shared account table.
+     * @param type the row type, see AccountTable
+     * @param accountNumber the unique identifier for the account, all digits
+     * @param balance the initial balance in cents
+     * @param creditLimit the credit limit in cents, 0 if the account has none
+     * @throws IllegalArgumentException if the account number is not numeric
      */
-    public Account(String accountNumber, double balance) {
-        this.accountNumber = accountNumber;
-        this.balance = balance;
+    protected Account(byte type, String accountNumber, long balance, long creditLimit) {
+        this(AccountTable.forAccount(requireKey(accountNumber)), type, requireKey(accountNumber), balance,
+            creditLimit);
     }
 
     /**
-    * Default constructor for account.
-    */
-    public Account() {}
+     * Initializes an account in a new row of a table.
+     * @param table the table to add the account to
+     * @param type the row type, see AccountTable
+     * @param accountNumber the account number
+     * @param balance the initial balance in cents
+     * @param creditLimit the credit limit in cents, 0 if the account has none
+     */
+    private Account(AccountTable table, byte type, long accountNumber, long balance, long creditLimit) {
+        this(table, table.add(type, accountNumber, balance, creditLimit));
+    }
+
+    /**
+     * Creates a view of an account already in a table.
+     * @param table the table holding the account
+     * @param row the row of the account
+     */
+    protected Account(AccountTable table, int row) {
+        this.table = table;
+        this.row = row;
+    }
 
     /**
     * Sets transaction log to log
     * @param log the new transaction log
     */
-    public static void setTransactionLog(TransactionLog log) {
+    public static void setTransactionLog(EventLog log) {
         transactionLog = log;
     }
 
+    /**
+    * Gets the transaction log account activity is written to
+    * @return the transaction log, or null if none is set
+    */
+    public static EventLog getTransactionLog() {
+        return transactionLog;
+    }
+
+    /**
+    * Sets the write-ahead log that balance changes are written to when the
+    * account's table has no balance log of its own.
+    * @param log the balance log, or null to stop logging changes
+    */
+    public static void setBalanceLog(WriteAheadLog log) {
+        balanceLog = log;
+    }
+
+    /**
+    * Gets the write-ahead log that balance changes are written to when the
+    * account's table has no balance log of its own.
+    * @return the balance log, or null if such changes are not logged
+    */
+    public static WriteAheadLog getBalanceLog() {
+        return balanceLog;
+    }
+
+    /**
+    * Sets the write-ahead log that changes saved together, such as both
+    * sides of a transfer, are written to when their accounts are in
+    * different shards.
+    * @param log the linked balance log, or null if the ledger is not sharded
+    */
+    public static void setLinkedLog(WriteAheadLog log) {
+        linkedLog = log;
+    }
+
+    /**
+    * Gets the write-ahead log that changes saved together are written to
+    * when their accounts are in different shards.
+    * @return the linked balance log, or null if there is none
+    */
+    public static WriteAheadLog getLinkedLog() {
+        return linkedLog;
+    }
+
+    /**
+     * Checks whether the balance changed since it was last written to the CSV.
+     * @return true if the balance differs from the saved one
+     */
+    public boolean isDirty() {
+        return table.getBalance(row) != table.getSavedBalance(row);
+    }
+
+    /**
+     * Gets the balance as last written to the customer CSV.
+     * @return the saved balance in cents
+     */
+    public long getSavedBalance() {
+        return table.getSavedBalance(row);
+    }
+
+    /**
+     * Records that a balance has been written to the customer CSV.
+     * @param savedBalance the balance in cents now in the CSV
+     */
+    public void markSaved(long savedBalance) {
+        table.setSavedBalance(row, savedBalance);
+    }
+
+    /**
+     * Writes a balance change to the write-ahead log and waits until it is on disk.
+     * Money coming in is logged before it is added, so a balance never shows
+     * money the log does not have.
+     * @param change cents added to the balance, negative for money taken out
+     * @throws IllegalStateException if the log cannot be written
+     */
+    protected void logChange(long change) {
+        WriteAheadLog log = logFor(table);
+        if (log != null) {
+            log.log(getAccountKey(), change);
+        }
+    }
+
+    /**
+     * Writes money already taken out of the balance to the write-ahead log
+     * and waits until it is on disk. The money is taken out first so the
+     * funds check holds for the balance debited; if the log cannot be
+     * written it is put back before the failure is passed on.
+     * @param amount cents taken out of the balance
+     * @throws IllegalStateException if the log cannot be written
+     */
+    protected void logDebit(long amount) {
+        try {
+            logChange(-amount);
+        } catch (RuntimeException e) {
+            addToBalance(amount);
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the write-ahead log that a table's balance changes go to.
+     * @param table the table
+     * @return the table's own balance log, else the shared one, or null if changes are not logged
+     */
+    private static WriteAheadLog logFor(AccountTable table) {
+        WriteAheadLog log = table.getBalanceLog();
+        return log != null ? log : balanceLog;
+    }
+
+    /**
+     * Writes many balance changes to the write-ahead log with one group commit
+     * and waits until they are all on disk.
+     * With a sharded ledger each shard's changes go to its own log, one
+     * group commit per shard.
+     * The balances must already hold the changes.
+     * @param accountNumbers the accounts that changed
+     * @param changes cents added to each balance, negative for money taken out
+     * @param count number of changes to write
+     */
+    public static void logChanges(long[] accountNumbers, long[] changes, int count) {
+        logChanges(accountNumbers, changes, null, count);
+    }
+
+    /**
+     * Writes many balance changes to the write-ahead log with one group commit
+     * and waits until they are all on disk.
+     * Changes linked to the one after them are saved as one group that a
+     * crash keeps whole or drops whole (see WriteAheadLog). With a sharded
+     * ledger each shard's changes go to its own log, one group commit per
+     * shard, and groups spanning shards go to the linked log.
+     * @param accountNumbers the accounts that changed
+     * @param changes cents added to each balance, negative for money taken out
+     * @param linked true at each change that must be saved together with the next one, or null if none are
+     * @param count number of changes to write
+     * @throws IllegalStateException if a log cannot be written
+     */
+    public static void logChanges(long[] accountNumbers, long[] changes, boolean[] linked, int count) {
+        if (count <= 0) {
+            return;
+        }
+        List<AccountTable> tables = AccountTable.sharedTables();
+        if (tables.size() == 1) {
+            WriteAheadLog log = logFor(tables.get(0));
+            if (log != null) {
+                log.logAll(accountNumbers, changes, linked, count);
+            }
+            return;
+        }
+        //the shard of each change; a group spanning shards goes to the linked log, marked -1
+        int[] shards = new int[count];
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            while (linked != null && linked[end - 1] && end < count) {
+                end++;
+            }
+            int shard = ShardedLedger.shardOf(accountNumbers[start], tables.size());
+            for (int i = start + 1; i < end && linkedLog != null; i++) {
+                if (ShardedLedger.shardOf(accountNumbers[i], tables.size()) != shard) {
+                    shard = -1;
+                }
+            }
+            for (int i = start; i < end; i++) {
+                shards[i] = shard == -1 ? -1 : ShardedLedger.shardOf(accountNumbers[i], tables.size());
+            }
+            start = end;
+        }
+        //split the changes by shard, keeping their order within each
+        long[] shardAccounts = new long[count];
+        long[] shardChanges = new long[count];
+        boolean[] shardLinked = new boolean[count];
+        for (int shard = -1; shard < tables.size(); shard++) {
+            int shardCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (shards[i] == shard) {
+                    shardAccounts[shardCount] = accountNumbers[i];
+                    shardLinked[shardCount] = linked != null && linked[i] && i + 1 < count && shards[i + 1] == shard;
+                    shardChanges[shardCount++] = changes[i];
+                }
+            }
+            WriteAheadLog log = shard == -1 ? linkedLog : logFor(tables.get(shard));
+            if (log != null && shardCount > 0) {
+                log.logAll(shardAccounts, shardChanges, shardLinked, shardCount);
+            }
+        }
+    }
+
     /**
      * Returns the current account balance.
-     * @return the current balance in the account
+     * @return the current balance in cents
      */
-    public double getBalance() {
-        return balance;
+    public long getBalance() {
+        return table.getBalance(row);
     }
     
     /**
      * Sets a new balance for the account.
-     * @param balance the new balance to set
+     * @param balance the new balance in cents
      */
-    public void setBalance(double balance) {
-        this.balance = balance;
+    public void setBalance(long balance) {
+        long previous = table.getAndSetBalance(row, balance);
+        try {
+            logChange(balance - previous);
+        } catch (RuntimeException e) {
+            //the new balance is not on disk, so take the change back out
+            addToBalance(previous - balance);
+            throw e;
+        }
     }
     
     /**
@@ -57,56 +284,149 @@ public abstract class Account {
      * @return the unique account identifier
      */
     public String getAccountNumber() {
-        return accountNumber;
+        return Long.toString(getAccountKey());
     }
     
+    /**
+     * Returns the account number as a number.
+     * @return the numeric account identifier
+     */
+    public long getAccountKey() {
+        return table.getNumber(row);
+    }
+
+    /**
+     * Converts an account number to a number without creating objects.
+     * @param accountNumber the account identifier
+     * @return the numeric value, or -1 if the identifier is not all digits
+     */
+    public static long toAccountKey(String accountNumber) {
+        if (accountNumber == null || accountNumber.isEmpty() || accountNumber.length() > 18) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 0; i < accountNumber.length(); i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    /**
+     * Converts an account number to a number, rejecting ones that are not all digits.
+     * @param accountNumber the account identifier
+     * @return the numeric value
+     * @throws IllegalArgumentException if the identifier is not all digits
+     */
+    private static long requireKey(String accountNumber) {
+        long key = toAccountKey(accountNumber);
+        if (key < 0) {
+            throw new IllegalArgumentException("Account number must be numeric: " + accountNumber);
+        }
+        return key;
+    }
+
     /**
      * Returns the current balance.
-     * @return the current balance in the account
+     * @return the current balance in cents
     */
-    public double inquireBalance() {
+    public long inquireBalance() {
+        long start = System.nanoTime();
+        long balance = getBalance();
         if (transactionLog != null) {
-            transactionLog.logTransaction(
-                String.format("Balance inquiry for %s: $%.2f", 
-                    accountNumber, balance)
-            );
+            transactionLog.logEvent(TransactionType.BALANCE_INQUIRY, getAccountKey(),
+                TransactionEvent.NO_ACCOUNT, 0, balance);
         }
+        BankMetrics.INQUIRY.recordSince(start);
         return balance;
     }
 
     /**
      * Deposits a specified amount into the account.
-     * @param amount the amount to deposit
+     * @param amount the amount to deposit in cents
      */
-    public void deposit(double amount) {
+    public void deposit(long amount) {
         if (amount > 0) {
-            this.balance += amount;
+            long start = System.nanoTime();
+            try {
+                logChange(amount);
+            } catch (RuntimeException e) {
+                BankMetrics.DEPOSIT.recordFailure();
+                throw e;
+            }
+            long updated = addToBalance(amount);
             if (transactionLog != null) {
-                transactionLog.logTransaction(
-                    String.format("Deposit of $%.2f to %s. New balance: $%.2f", 
-                        amount, accountNumber, balance)
-                );
+                transactionLog.logEvent(TransactionType.DEPOSIT, getAccountKey(),
+                    TransactionEvent.NO_ACCOUNT, amount, updated);
             }
+            BankMetrics.DEPOSIT.recordSince(start);
         } else {
+            BankMetrics.DEPOSIT.recordFailure();
             throw new IllegalArgumentException("Deposit amount must be positive");
         }
     }
     
     /**
      * Withdraws a specified amount from the account.
-     * @param amount the amount to withdraw
+     * The funds check and the debit happen as one atomic step.
+     * @param amount the amount to withdraw in cents
      */
-    public void withdraw(double amount) {
-        if (amount > 0 && amount <= balance) {
-            this.balance -= amount;
-            if (transactionLog != null) {
-                transactionLog.logTransaction(
-                    String.format("Withdrawal of $%.2f from %s. New balance: $%.2f", 
-                        amount, accountNumber, balance)
-                );
-            }
-        } else {
-            throw new IllegalArgumentException("Invalid withdrawal amount or insufficient funds");
+    public void withdraw(long amount) {
+        long start = System.nanoTime();
+        long updated;
+        try {
+            updated = takeOut(amount);
+            logDebit(amount);
+        } catch (RuntimeException e) {
+            BankMetrics.WITHDRAWAL.recordFailure();
+            throw e;
+        }
+        if (transactionLog != null) {
+            transactionLog.logEvent(TransactionType.WITHDRAWAL, getAccountKey(),
+                TransactionEvent.NO_ACCOUNT, amount, updated);
         }
+        BankMetrics.WITHDRAWAL.recordSince(start);
+    }
+
+    /**
+     * Takes money out of the balance without logging it.
+     * The funds check and the debit happen as one atomic step; the caller
+     * logs the debit, or adds the money back if it cannot.
+     * @param amount the amount to take out in cents
+     * @return the balance after the debit
+     * @throws IllegalArgumentException if the amount is not positive or more than the balance
+     */
+    protected long takeOut(long amount) {
+        long current;
+        do {
+            current = getBalance();
+            if (amount <= 0 || amount > current) {
+                throw new IllegalArgumentException("Invalid withdrawal amount or insufficient funds");
+            }
+        } while (!compareAndSetBalance(current, current - amount));
+        return current - amount;
+    }
+
+    /**
+     * Atomically adds to the balance.
+     * @param change cents to add, negative to subtract
+     * @return the balance after the change
+     */
+    protected long addToBalance(long change) {
+        return table.addToBalance(row, change);
+    }
+
+    /**
+     * Atomically sets the balance if it still holds the expected value.
+     * Subclasses use this in a retry loop to check and update the balance as one step.
+     * @param expected the balance the change was checked against
+     * @param updated the new balance
+     * @return true if the balance was updated, false if another thread changed it first
+     */
+    protected boolean compareAndSetBalance(long expected, long updated) {
+        return table.compareAndSetBalance(row, expected, updated);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package bank;
+
+import java.util.Arrays;
+
+/**
+ * Index from account number to the transaction log entries involving it.
+ * Each account has a growing array of entry references in log order, each
+ * one a segment sequence and entry number packed into a long, so finding an
+ * account's entries costs a hash lookup and a copy of the result.
+ * The log keeps one for the segment being written; a closed segment's is
+ * saved beside it, see LogSegment.writeAccountIndex.
+ * Accounts are kept in open addressing over primitive arrays, like
+ * AccountRegistry. Safe to use from several threads.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class AccountHistoryIndex {
+    /** Marks an unused slot; account numbers are never negative */
+    private static final long EMPTY = -1;
+    /** Starting number of slots, must be a power of two */
+    private static final int INITIAL_CAPACITY = 256;
+    /** Starting size of an account's entry array */
+    private static final int INITIAL_ENTRIES = 4;
+    /** Bits of a reference holding the entry number within its segment */
+    private static final int ENTRY_BITS = 40;
+
+    /** Account number stored in each slot */
+    private long[] keys;
+    /** Entry references of the account in each slot, oldest first */
+    private long[][] entries;
+    /** Number of references in use for the account in each slot */
+    private int[] counts;
+    /** Number of accounts indexed */
+    private int size;
+
+    /**
+     * Creates an empty index.
+     */
+    public AccountHistoryIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Packs a segment and entry number into a reference.
+     * @param segment segment sequence number
+     * @param entry entry number within the segment
+     * @return the reference
+     */
+    public static long reference(long segment, long entry) {
+        return segment << ENTRY_BITS | entry;
+    }
+
+    /**
+     * Gets the segment sequence number of a reference.
+     * @param reference the reference
+     * @return segment sequence number
+     */
+    public static long segmentOf(long reference) {
+        return reference >>> ENTRY_BITS;
+    }
+
+    /**
+     * Gets the entry number within its segment of a reference.
+     * @param reference the reference
+     * @return entry number
+     */
+    public static long entryOf(long reference) {
+        return reference & ((1L << ENTRY_BITS) - 1);
+    }
+
+    /**
+     * Adds an entry to an account's history. Entries must be added in log order.
+     * @param accountNumber the account
+     * @param reference the entry, see reference
+     */
+    public synchronized void add(long accountNumber, long reference) {
+        if (accountNumber < 0) {
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int slot = findSlot(accountNumber);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = accountNumber;
+            entries[slot] = new long[INITIAL_ENTRIES];
+            size++;
+        } else if (counts[slot] == entries[slot].length) {
+            entries[slot] = Arrays.copyOf(entries[slot], counts[slot] + (counts[slot] >> 1));
+        }
+        entries[slot][counts[slot]++] = reference;
+    }
+
+    /**
+     * Gets the number of entries involving an account.
+     * @param accountNumber the account
+     * @return entry count, 0 if the account has none
+     */
+    public synchronized int count(long accountNumber) {
+        if (accountNumber < 0) {
+            return 0;
+        }
+        int slot = findSlot(accountNumber);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * Copies a run of an account's entries.
+     * @param accountNumber the account
+     * @param from position of the first entry, 0 being the oldest
+     * @param to position after the last entry
+     * @return the references, oldest first, empty if the account has none
+     */
+    public synchronized long[] get(long accountNumber, int from, int to) {
+        if (accountNumber < 0) {
+            return new long[0];
+        }
+        int slot = findSlot(accountNumber);
+        if (keys[slot] == EMPTY) {
+            return new long[0];
+        }
+        int end = Math.min(to, counts[slot]);
+        int start = Math.max(0, Math.min(from, end));
+        return Arrays.copyOfRange(entries[slot], start, end);
+    }
+
+    /**
+     * Gets every account indexed.
+     * @return the account numbers, ascending
+     */
+    public synchronized long[] getAccounts() {
+        long[] accounts = new long[size];
+        int next = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                accounts[next++] = key;
+            }
+        }
+        Arrays.sort(accounts);
+        return accounts;
+    }
+
+    /**
+     * Gets the number of accounts indexed.
+     * @return account count
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would go.
+     * @param key the account number
+     * @return slot index
+     */
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the table size and re-inserts every account.
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        long[][] oldEntries = entries;
+        int[] oldCounts = counts;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                entries[slot] = oldEntries[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Creates empty tables of the given size.
+     * @param capacity number of slots
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        entries = new long[capacity][];
+        counts = new int[capacity];
+    }
+}
@@ -0,0 +1,275 @@
+package bank;
+
+import java.lang.invoke.*;
+import java.util.Arrays;
+
+/**
+ * Index of every account in the bank keyed by account number.
+ * Uses open addressing over primitive arrays so a lookup is a hash and a
+ * few array reads, no matter how many customers there are.
+ * Lookups never lock, so they carry on while new accounts are registered.
+ * A slot's account and owner are published together as one entry, written
+ * before a new slot's key, and a resize fills a new table before swapping
+ * it in, so a lookup sees either a whole entry or nothing, never an
+ * account paired with the owner it replaced. Registrations are serialized.
+ * Removing an account clears its entry but keeps its key in the slot, so
+ * lookups probing past it still find the accounts beyond; the slot is
+ * reused if the number is registered again and dropped on the next resize.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class AccountRegistry {
+    /** Marks an unused slot; account numbers are never negative */
+    private static final long EMPTY = -1;
+    /** Starting number of slots, must be a power of two */
+    private static final int INITIAL_CAPACITY = 256;
+    /** Publishes and reads keys with release and acquire ordering */
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    /** Publishes and reads entries with release and acquire ordering */
+    private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(Entry[].class);
+
+    /** The current table, replaced as a whole on resize */
+    private volatile Slots slots;
+    /** Number of registered accounts */
+    private volatile int size;
+    /** Number of slots holding a key, including those of removed accounts */
+    private int used;
+
+    /**
+     * An account and its owner, replaced together.
+     */
+    private static class Entry {
+        /** The account */
+        final Account account;
+        /** The customer who owns the account */
+        final Customer owner;
+
+        /**
+         * Creates an entry.
+         * @param account the account
+         * @param owner the customer who owns the account
+         */
+        Entry(Account account, Customer owner) {
+            this.account = account;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * The arrays of one table size.
+     */
+    private static class Slots {
+        /** Account number stored in each slot */
+        final long[] keys;
+        /** Account and owner stored in each slot */
+        final Entry[] entries;
+
+        /**
+         * Creates empty arrays of the given size.
+         * @param capacity number of slots
+         */
+        Slots(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            entries = new Entry[capacity];
+        }
+    }
+
+    /**
+     * Creates an empty registry.
+     */
+    public AccountRegistry() {
+        this(INITIAL_CAPACITY / 2);
+    }
+
+    /**
+     * Creates an empty registry sized for the expected number of accounts.
+     * @param expectedAccounts number of accounts expected to be registered
+     */
+    public AccountRegistry(int expectedAccounts) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expectedAccounts * 2) {
+            capacity <<= 1;
+        }
+        slots = new Slots(capacity);
+    }
+
+    /**
+     * Registers every account of a customer.
+     * @param customer the customer whose accounts to register
+     */
+    public void registerCustomer(Customer customer) {
+        for (Account account : customer.getAccounts()) {
+            register(account, customer);
+        }
+    }
+
+    /**
+     * Removes every account of a customer that is still registered to them.
+     * Accounts registered to someone else since are left alone.
+     * @param customer the customer whose accounts to remove
+     */
+    public synchronized void unregisterCustomer(Customer customer) {
+        Slots current = slots;
+        for (Account account : customer.getAccounts()) {
+            int slot = lookup(current, account.getAccountKey());
+            Entry entry = slot < 0 ? null : entry(current, slot);
+            if (entry != null && entry.owner == customer) {
+                //keep the key so lookups still probe past this slot
+                ENTRIES.setRelease(current.entries, slot, null);
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Registers an account, replacing any account with the same number.
+     * @param account the account to register
+     * @param owner the customer who owns the account
+     */
+    public synchronized void register(Account account, Customer owner) {
+        long key = account.getAccountKey();
+        if (key < 0) {
+            throw new IllegalArgumentException("Account number must be numeric: " + account.getAccountNumber());
+        }
+        if ((used + 1) * 2 > slots.keys.length) {
+            resize();
+        }
+        Slots current = slots;
+        int slot = findSlot(current, key);
+        Entry previous = entry(current, slot);
+        ENTRIES.setRelease(current.entries, slot, new Entry(account, owner));
+        if ((long) KEYS.getAcquire(current.keys, slot) == EMPTY) {
+            //publish the key last so a lookup never finds it without its account
+            KEYS.setRelease(current.keys, slot, key);
+            used++;
+        }
+        if (previous == null) {
+            size++;
+        }
+    }
+
+    /**
+     * Finds an account by number.
+     * @param accountNumber the account number
+     * @return the account, or null if no account has that number
+     */
+    public Account getAccount(long accountNumber) {
+        if (accountNumber < 0) {
+            return null;
+        }
+        Slots current = slots;
+        Entry entry = find(current, accountNumber);
+        return entry == null ? null : entry.account;
+    }
+
+    /**
+     * Finds an account by number.
+     * @param accountNumber the account number as text
+     * @return the account, or null if no account has that number
+     */
+    public Account getAccount(String accountNumber) {
+        return getAccount(Account.toAccountKey(accountNumber));
+    }
+
+    /**
+     * Finds the owner of an account.
+     * @param accountNumber the account number
+     * @return the owning customer, or null if no account has that number
+     */
+    public Customer getOwner(long accountNumber) {
+        if (accountNumber < 0) {
+            return null;
+        }
+        Slots current = slots;
+        Entry entry = find(current, accountNumber);
+        return entry == null ? null : entry.owner;
+    }
+
+    /**
+     * Gets the number of registered accounts.
+     * @return account count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would go.
+     * @param table the table to search
+     * @param key the account number
+     * @return slot index
+     */
+    private static int findSlot(Slots table, long key) {
+        long[] keys = table.keys;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        long found;
+        while ((found = (long) KEYS.getAcquire(keys, slot)) != EMPTY && found != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Finds the slot holding a key for a lookup.
+     * An empty slot may be getting its account from a registration, so only
+     * a slot whose key is already published counts.
+     * @param table the table to search
+     * @param key the account number
+     * @return slot index, or -1 if the key is not registered
+     */
+    private static int lookup(Slots table, long key) {
+        int slot = findSlot(table, key);
+        return (long) KEYS.getAcquire(table.keys, slot) == key ? slot : -1;
+    }
+
+    /**
+     * Finds the entry of a registered account.
+     * @param table the table to search
+     * @param key the account number
+     * @return the account and owner, or null if the key is not registered or was removed
+     */
+    private static Entry find(Slots table, long key) {
+        int slot = lookup(table, key);
+        return slot < 0 ? null : entry(table, slot);
+    }
+
+    /**
+     * Reads the entry of a slot.
+     * @param table the table
+     * @param slot the slot
+     * @return the slot's account and owner, or null if the slot is empty or its account was removed
+     */
+    private static Entry entry(Slots table, int slot) {
+        return (Entry) ENTRIES.getAcquire(table.entries, slot);
+    }
+
+    /**
+     * Spreads account numbers across the table; dense numbers would otherwise cluster.
+     * @param key the account number
+     * @return hash of the key
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Doubles the table size, re-inserts every account into the new table,
+     * then swaps it in. Keys of removed accounts are dropped.
+     */
+    private void resize() {
+        Slots old = slots;
+        Slots grown = new Slots(old.keys.length * 2);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY && old.entries[i] != null) {
+                int slot = findSlot(grown, old.keys[i]);
+                grown.keys[slot] = old.keys[i];
+                grown.entries[slot] = old.entries[i];
+            }
+        }
+        used = size;
+        slots = grown;
+    }
+}
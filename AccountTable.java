@@ -0,0 +1,525 @@
+package bank;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Column store holding the data of every account in fixed-size binary records.
+ * Each account is one record: number, balance, saved balance, credit limit,
+ * principle and type. Account objects are small views that hold only the
+ * table and their row, so millions of accounts cost a few dozen bytes each
+ * and the garbage collector never sees the account data at all.
+ * Records live in fixed-size pages, so the table grows without copying and a
+ * row never moves. A table is either in memory, in direct buffers, or a
+ * ledger file whose pages are memory-mapped, so balances are read and
+ * updated in place and opening it is only a mapping and an index build.
+ * Balance and principle updates are atomic on the record, so views are as
+ * safe to share between threads as plain accounts.
+ * A sharded ledger has one table per shard (see ShardedLedger); new
+ * accounts go to the table of the shard their number falls in, and each
+ * table's balance changes go to that shard's write-ahead log.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class AccountTable implements Closeable {
+    /** Type of a checking account row */
+    public static final byte CHECKINGS = 1;
+    /** Type of a savings account row */
+    public static final byte SAVINGS = 2;
+    /** Type of a credit account row */
+    public static final byte CREDIT = 3;
+
+    /** Size of one record in bytes */
+    public static final int RECORD_SIZE = 48;
+    /** Byte offset of the account number within a record */
+    private static final int NUMBER_OFFSET = 0;
+    /** Byte offset of the balance within a record */
+    private static final int BALANCE_OFFSET = 8;
+    /** Byte offset of the saved balance within a record */
+    private static final int SAVED_OFFSET = 16;
+    /** Byte offset of the credit limit within a record */
+    private static final int LIMIT_OFFSET = 24;
+    /** Byte offset of the principle within a record */
+    private static final int PRINCIPLE_OFFSET = 32;
+    /** Byte offset of the account type within a record */
+    private static final int TYPE_OFFSET = 40;
+
+    /** Marks a file as a ledger */
+    private static final int MAGIC = 0x4C454447;
+    /** Version of the ledger file layout */
+    private static final int VERSION = 1;
+    /** Size of the ledger file header: magic, version and row count */
+    private static final int HEADER_SIZE = 64;
+    /** Byte offset of the row count within the header */
+    private static final int SIZE_OFFSET = 8;
+
+    /** Rows per page as a power of two */
+    private static final int PAGE_SHIFT = 16;
+    /** Number of rows in a page */
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    /** Mask giving the row within its page */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    /** Size of one page in bytes */
+    private static final int PAGE_BYTES = PAGE_SIZE * RECORD_SIZE;
+    /** Marks an unused slot in the account number index */
+    private static final long EMPTY = -1;
+    /** Atomic access to the longs of a record */
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    /** Tables that new accounts are added to, one per shard */
+    private static volatile AccountTable[] shared = {new AccountTable()};
+
+    /** Pages of rows; replaced by a longer copy when a page is added */
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+    /** Number of rows added */
+    private volatile int size;
+    /** The ledger file, or null for a table in memory */
+    private FileChannel channel;
+    /** The ledger file header, or null for a table in memory */
+    private MappedByteBuffer header;
+    /** Write-ahead log receiving this table's balance changes, or null */
+    private volatile WriteAheadLog balanceLog;
+    /** Account number of each index slot */
+    private long[] indexKeys;
+    /** Row of each index slot */
+    private int[] indexRows;
+
+    /**
+     * Creates an empty table in memory.
+     */
+    public AccountTable() {
+        allocateIndex(PAGE_SIZE);
+    }
+
+    /**
+     * Opens a ledger file, creating it if it does not exist.
+     * Maps every page and builds the account number index; no record is copied.
+     * @param file the ledger file
+     * @return a table backed by the file
+     * @throws IOException if the file cannot be opened or is not a ledger
+     */
+    public static AccountTable open(Path file) throws IOException {
+        AccountTable table = new AccountTable();
+        table.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = table.channel.size() == 0;
+        table.header = table.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        table.header.order(ByteOrder.LITTLE_ENDIAN);
+        if (created) {
+            table.header.putInt(0, MAGIC).putInt(4, VERSION).putLong(SIZE_OFFSET, 0);
+        } else if (table.header.getInt(0) != MAGIC || table.header.getInt(4) != VERSION) {
+            table.channel.close();
+            throw new IOException("Not a ledger file: " + file);
+        }
+
+        int rows = (int) table.header.getLong(SIZE_OFFSET);
+        int pageCount = (rows + PAGE_MASK) >>> PAGE_SHIFT;
+        ByteBuffer[] mapped = new ByteBuffer[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            mapped[i] = table.mapPage(i);
+        }
+        table.pages = mapped;
+        table.allocateIndex(rows);
+        for (int row = 0; row < rows; row++) {
+            table.indexRow(table.getNumber(row), row);
+        }
+        table.size = rows;
+        return table;
+    }
+
+    /**
+     * Gets the table that new accounts are added to.
+     * @return the shared table, the first shard's if the ledger is sharded
+     */
+    public static AccountTable shared() {
+        return shared[0];
+    }
+
+    /**
+     * Sets the table that new accounts are added to, such as an open ledger.
+     * @param table the new shared table
+     */
+    public static void setShared(AccountTable table) {
+        shared = new AccountTable[] {table};
+    }
+
+    /**
+     * Sets the tables of a sharded ledger that new accounts are added to.
+     * @param tables one table per shard, in shard order
+     */
+    public static void setShared(AccountTable[] tables) {
+        shared = tables.clone();
+    }
+
+    /**
+     * Gets the shared table that holds, or would hold, an account.
+     * @param accountNumber the account number
+     * @return the table of the account's shard
+     */
+    public static AccountTable forAccount(long accountNumber) {
+        AccountTable[] tables = shared;
+        return tables.length == 1 ? tables[0] : tables[ShardedLedger.shardOf(accountNumber, tables.length)];
+    }
+
+    /**
+     * Gets every shared table.
+     * @return one table per shard, in shard order
+     */
+    public static List<AccountTable> sharedTables() {
+        return List.of(shared);
+    }
+
+    /**
+     * Gets the write-ahead log receiving this table's balance changes.
+     * @return the balance log, or null if the table has none of its own
+     */
+    public WriteAheadLog getBalanceLog() {
+        return balanceLog;
+    }
+
+    /**
+     * Sets the write-ahead log receiving this table's balance changes.
+     * @param log the balance log, or null to stop logging changes to it
+     */
+    public void setBalanceLog(WriteAheadLog log) {
+        balanceLog = log;
+    }
+
+    /**
+     * Adds a row for a new account.
+     * @param type CHECKINGS, SAVINGS or CREDIT
+     * @param accountNumber the account number
+     * @param balance the starting balance in cents
+     * @param creditLimit the credit limit in cents, 0 for other accounts
+     * @return the new row
+     * @throws IllegalArgumentException if the account number is not numeric
+     * @throws UncheckedIOException if the ledger file cannot grow
+     */
+    public synchronized int add(byte type, long accountNumber, long balance, long creditLimit) {
+        if (accountNumber < 0) {
+            throw new IllegalArgumentException("Account number must be numeric: " + accountNumber);
+        }
+        int row = size;
+        if (row >>> PAGE_SHIFT == pages.length) {
+            ByteBuffer[] grown = Arrays.copyOf(pages, pages.length + 1);
+            try {
+                grown[pages.length] = channel == null ? newPage() : mapPage(pages.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pages = grown;
+        }
+        ByteBuffer page = pages[row >>> PAGE_SHIFT];
+        int offset = (row & PAGE_MASK) * RECORD_SIZE;
+        page.putLong(offset + NUMBER_OFFSET, accountNumber);
+        page.putLong(offset + BALANCE_OFFSET, balance);
+        page.putLong(offset + SAVED_OFFSET, balance);
+        page.putLong(offset + LIMIT_OFFSET, creditLimit);
+        page.putLong(offset + PRINCIPLE_OFFSET, 0);
+        page.put(offset + TYPE_OFFSET, type);
+        indexRow(accountNumber, row);
+        if (header != null) {
+            header.putLong(SIZE_OFFSET, row + 1);
+        }
+        //publishes the row to threads that read the size
+        size = row + 1;
+        return row;
+    }
+
+    /**
+     * Finds the row of an account.
+     * @param accountNumber the account number
+     * @return the row, or -1 if no account has that number
+     */
+    public synchronized int findRow(long accountNumber) {
+        if (accountNumber < 0) {
+            return -1;
+        }
+        int slot = findSlot(accountNumber);
+        return indexKeys[slot] == EMPTY ? -1 : indexRows[slot];
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Creates a view of a row as the account type it holds.
+     * @param row the row
+     * @return a Checkings, Savings or Credit account backed by the row
+     */
+    public Account view(int row) {
+        switch (getType(row)) {
+            case CHECKINGS:
+                return new Checkings(this, row);
+            case SAVINGS:
+                return new Savings(this, row);
+            case CREDIT:
+                return new Credit(this, row);
+            default:
+                throw new IllegalArgumentException("No account in row " + row);
+        }
+    }
+
+    /**
+     * Sets every balance back to its saved balance.
+     * Used when opening a ledger after a crash, since balances changed in
+     * place since the last checkpoint may or may not have reached the disk;
+     * the write-ahead log then brings them up to date.
+     */
+    public void resetToSaved() {
+        for (int row = 0; row < size; row++) {
+            LONGS.setVolatile(page(row), offset(row) + BALANCE_OFFSET, getSavedBalance(row));
+        }
+    }
+
+    /**
+     * Forces every change to the ledger file onto the disk.
+     * Does nothing for a table in memory.
+     */
+    public void force() {
+        if (channel == null) {
+            return;
+        }
+        for (ByteBuffer page : pages) {
+            ((MappedByteBuffer) page).force();
+        }
+        header.force();
+    }
+
+    /**
+     * Forces the ledger to disk and closes the file.
+     * Views of the table must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            force();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing ledger: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the account number of a row.
+     * @param row the row
+     * @return the account number
+     */
+    public long getNumber(int row) {
+        return page(row).getLong(offset(row) + NUMBER_OFFSET);
+    }
+
+    /**
+     * Gets the account type of a row.
+     * @param row the row
+     * @return CHECKINGS, SAVINGS or CREDIT
+     */
+    public byte getType(int row) {
+        return page(row).get(offset(row) + TYPE_OFFSET);
+    }
+
+    /**
+     * Gets the balance of a row.
+     * @param row the row
+     * @return the balance in cents
+     */
+    public long getBalance(int row) {
+        return (long) LONGS.getVolatile(page(row), offset(row) + BALANCE_OFFSET);
+    }
+
+    /**
+     * Sets the balance of a row.
+     * @param row the row
+     * @param balance the new balance in cents
+     * @return the balance before the change
+     */
+    public long getAndSetBalance(int row, long balance) {
+        return (long) LONGS.getAndSet(page(row), offset(row) + BALANCE_OFFSET, balance);
+    }
+
+    /**
+     * Atomically adds to the balance of a row.
+     * @param row the row
+     * @param change cents to add, negative to subtract
+     * @return the balance after the change
+     */
+    public long addToBalance(int row, long change) {
+        return (long) LONGS.getAndAdd(page(row), offset(row) + BALANCE_OFFSET, change) + change;
+    }
+
+    /**
+     * Atomically sets the balance of a row if it still holds the expected value.
+     * @param row the row
+     * @param expected the balance the change was checked against
+     * @param updated the new balance
+     * @return true if the balance was updated
+     */
+    public boolean compareAndSetBalance(int row, long expected, long updated) {
+        return LONGS.compareAndSet(page(row), offset(row) + BALANCE_OFFSET, expected, updated);
+    }
+
+    /**
+     * Gets the balance of a row as of the last checkpoint.
+     * @param row the row
+     * @return the saved balance in cents
+     */
+    public long getSavedBalance(int row) {
+        return (long) LONGS.getVolatile(page(row), offset(row) + SAVED_OFFSET);
+    }
+
+    /**
+     * Records the balance of a row as of a checkpoint.
+     * @param row the row
+     * @param savedBalance the saved balance in cents
+     */
+    public void setSavedBalance(int row, long savedBalance) {
+        LONGS.setVolatile(page(row), offset(row) + SAVED_OFFSET, savedBalance);
+    }
+
+    /**
+     * Gets the credit limit of a row.
+     * @param row the row
+     * @return the credit limit in cents
+     */
+    public long getCreditLimit(int row) {
+        return (long) LONGS.getVolatile(page(row), offset(row) + LIMIT_OFFSET);
+    }
+
+    /**
+     * Sets the credit limit of a row.
+     * @param row the row
+     * @param creditLimit the new credit limit in cents
+     */
+    public void setCreditLimit(int row, long creditLimit) {
+        LONGS.setVolatile(page(row), offset(row) + LIMIT_OFFSET, creditLimit);
+    }
+
+    /**
+     * Gets the principle of a row.
+     * @param row the row
+     * @return the amount borrowed in cents
+     */
+    public long getPrinciple(int row) {
+        return (long) LONGS.getVolatile(page(row), offset(row) + PRINCIPLE_OFFSET);
+    }
+
+    /**
+     * Sets the principle of a row.
+     * @param row the row
+     * @param principle the amount borrowed in cents
+     */
+    public void setPrinciple(int row, long principle) {
+        LONGS.setVolatile(page(row), offset(row) + PRINCIPLE_OFFSET, principle);
+    }
+
+    /**
+     * Atomically adds to the principle of a row.
+     * @param row the row
+     * @param change cents to add, negative to subtract
+     */
+    public void addToPrinciple(int row, long change) {
+        LONGS.getAndAdd(page(row), offset(row) + PRINCIPLE_OFFSET, change);
+    }
+
+    /**
+     * Finds the page holding a row.
+     * @param row the row
+     * @return the page
+     */
+    private ByteBuffer page(int row) {
+        return pages[row >>> PAGE_SHIFT];
+    }
+
+    /**
+     * Finds where a row starts within its page.
+     * @param row the row
+     * @return byte offset of the record
+     */
+    private static int offset(int row) {
+        return (row & PAGE_MASK) * RECORD_SIZE;
+    }
+
+    /**
+     * Allocates a page in memory, outside the Java heap.
+     * @return the page
+     */
+    private static ByteBuffer newPage() {
+        return ByteBuffer.allocateDirect(PAGE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Maps a page of the ledger file, growing the file if needed.
+     * @param index the page number
+     * @return the mapped page
+     * @throws IOException if the file cannot be mapped
+     */
+    private ByteBuffer mapPage(int index) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) index * PAGE_BYTES, PAGE_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Adds an account number to the index; the caller holds the lock.
+     * A later row with the same number replaces the earlier one.
+     * @param accountNumber the account number
+     * @param row its row
+     */
+    private void indexRow(long accountNumber, int row) {
+        if ((size + 1) * 2 > indexKeys.length) {
+            long[] oldKeys = indexKeys;
+            int[] oldRows = indexRows;
+            allocateIndex(oldKeys.length);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = findSlot(oldKeys[i]);
+                    indexKeys[slot] = oldKeys[i];
+                    indexRows[slot] = oldRows[i];
+                }
+            }
+        }
+        int slot = findSlot(accountNumber);
+        indexKeys[slot] = accountNumber;
+        indexRows[slot] = row;
+    }
+
+    /**
+     * Finds the index slot holding an account number, or the empty slot where it would go.
+     * @param accountNumber the account number
+     * @return slot index
+     */
+    private int findSlot(long accountNumber) {
+        int mask = indexKeys.length - 1;
+        long h = accountNumber * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (indexKeys[slot] != EMPTY && indexKeys[slot] != accountNumber) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Creates an empty index with room for at least the given number of accounts.
+     * @param accounts number of accounts to make room for
+     */
+    private void allocateIndex(int accounts) {
+        int capacity = 256;
+        while (capacity < accounts * 2 + 2) {
+            capacity <<= 1;
+        }
+        indexKeys = new long[capacity];
+        Arrays.fill(indexKeys, EMPTY);
+        indexRows = new int[capacity];
+    }
+}
@@ -0,0 +1,176 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Snapshot of the account balances that differ from the customer CSV.
+ * Holds the full balance, not the change, of every account that changed,
+ * and the newest write-ahead log segment folded into it, so replaying the
+ * log on top of the snapshot skips changes the snapshot already holds.
+ * Changes logged for accounts the ledger does not hold yet, such as
+ * customers onboarded just before a crash, are kept as pending changes
+ * until the customer CSV has been read and the accounts exist.
+ * A shard of a sharded ledger also records the newest segment of the linked
+ * log, which holds changes saved together across shards, that it has folded.
+ * The file is replaced atomically, so there is always one complete snapshot.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class BalanceSnapshot {
+    /** Newest log segment whose changes are included */
+    private long lastSegment;
+    /** Balance in cents by account number */
+    private Map<Long, Long> balances;
+    /** Change in cents by account number, for accounts not in the ledger yet */
+    private Map<Long, Long> pending;
+    /** Newest linked log segment whose changes are included */
+    private long lastLinkedSegment;
+
+    /**
+     * Creates a snapshot with no pending changes.
+     * @param lastSegment newest log segment whose changes are included
+     * @param balances balance in cents by account number
+     */
+    public BalanceSnapshot(long lastSegment, Map<Long, Long> balances) {
+        this(lastSegment, balances, new HashMap<>());
+    }
+
+    /**
+     * Creates a snapshot.
+     * @param lastSegment newest log segment whose changes are included
+     * @param balances balance in cents by account number
+     * @param pending change in cents by account number, for accounts not in the ledger yet
+     */
+    public BalanceSnapshot(long lastSegment, Map<Long, Long> balances, Map<Long, Long> pending) {
+        this(lastSegment, balances, pending, 0);
+    }
+
+    /**
+     * Creates a snapshot that includes changes from the linked log.
+     * @param lastSegment newest log segment whose changes are included
+     * @param balances balance in cents by account number
+     * @param pending change in cents by account number, for accounts not in the ledger yet
+     * @param lastLinkedSegment newest linked log segment whose changes are included, 0 if none
+     */
+    public BalanceSnapshot(long lastSegment, Map<Long, Long> balances, Map<Long, Long> pending,
+            long lastLinkedSegment) {
+        this.lastSegment = lastSegment;
+        this.balances = balances;
+        this.pending = pending;
+        this.lastLinkedSegment = lastLinkedSegment;
+    }
+
+    /**
+     * Gets the newest log segment whose changes are included.
+     * @return segment sequence number, 0 if none
+     */
+    public long getLastSegment() {
+        return lastSegment;
+    }
+
+    /**
+     * Gets the newest linked log segment whose changes are included.
+     * @return segment sequence number, 0 if none
+     */
+    public long getLastLinkedSegment() {
+        return lastLinkedSegment;
+    }
+
+    /**
+     * Gets the balances in the snapshot.
+     * @return balance in cents by account number
+     */
+    public Map<Long, Long> getBalances() {
+        return balances;
+    }
+
+    /**
+     * Gets the changes for accounts the ledger did not hold when they were folded.
+     * @return change in cents by account number
+     */
+    public Map<Long, Long> getPending() {
+        return pending;
+    }
+
+    /**
+     * Checks whether the snapshot holds anything to write.
+     * @return true if there are no balances and no pending changes
+     */
+    public boolean isEmpty() {
+        return balances.isEmpty() && pending.isEmpty();
+    }
+
+    /**
+     * Reads a snapshot file.
+     * @param file the snapshot file
+     * @return the snapshot, or an empty one if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static BalanceSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new BalanceSnapshot(0, new HashMap<>());
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            long lastSegment = in.readLong();
+            int count = in.readInt();
+            Map<Long, Long> balances = readMap(in, count);
+            //snapshots written before pending changes were kept end here
+            Map<Long, Long> pending = in.available() > 0 ? readMap(in, in.readInt()) : new HashMap<>();
+            //and those written before the linked log existed end here
+            long lastLinkedSegment = in.available() > 0 ? in.readLong() : 0;
+            return new BalanceSnapshot(lastSegment, balances, pending, lastLinkedSegment);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, forces it to disk and renames
+     * it over the old snapshot.
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024))) {
+            data.writeLong(lastSegment);
+            writeMap(data, balances);
+            writeMap(data, pending);
+            data.writeLong(lastLinkedSegment);
+            data.flush();
+            out.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads account numbers and amounts.
+     * @param in the snapshot file
+     * @param count number of entries
+     * @return amount in cents by account number
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<Long, Long> readMap(DataInputStream in, int count) throws IOException {
+        Map<Long, Long> map = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            map.put(in.readLong(), in.readLong());
+        }
+        return map;
+    }
+
+    /**
+     * Writes the number of entries, then each account number and amount.
+     * @param out the snapshot file
+     * @param map amount in cents by account number
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeMap(DataOutputStream out, Map<Long, Long> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<Long, Long> entry : map.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+}
@@ -1,3 +1,9 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 /**
@@ -10,21 +16,31 @@ public class BankManagerMenu implements Menu {
     /** Scanner for reading user input */
     private Scanner scanner;
     /** Logger for recording transactions */
-    private TransactionLog logger;
-    /** Map of all customers in the system */
-    private Map<String, Customer> customers;
+    private EventLog logger;
+    /** Store of all customers in the system */
+    private CustomerStore customers;
+    /** Index of all accounts by account number */
+    private AccountRegistry accountRegistry;
+    /** Opens new customers */
+    private CustomerOnboarding onboarding;
+    /** Applies transaction files on the writer owning each account */
+    private PartitionExecutor executor;
 
     /**
      * Creates a new bank manager menu.
      * @param logger transaction logging system
-     * @param customers map of all customers in the system
-     * @param newUsers system for creating new users
-     * @param transactionProcessor processor for handling transactions
+     * @param customers store of all customers in the system
+     * @param onboarding opens new customers
+     * @param executor applies transaction files
      */
-    public BankManagerMenu(TransactionLog logger, Map<String, Customer> customers) {
+    public BankManagerMenu(EventLog logger, CustomerStore customers, CustomerOnboarding onboarding,
+                           PartitionExecutor executor) {
         this.scanner = new Scanner(System.in);
         this.logger = logger;
         this.customers = customers;
+        this.accountRegistry = customers.getAccountRegistry();
+        this.onboarding = onboarding;
+        this.executor = executor;
     }
 
     @Override
@@ -35,7 +51,8 @@ public class BankManagerMenu implements Menu {
         System.out.println("3. Create new user");
         System.out.println("4. Process transaction file");
         System.out.println("5. Generate bank statement");
-        System.out.println("6. Return to main menu");
+        System.out.println("6. Show metrics");
+        System.out.println("7. Return to main menu");
         System.out.println("__________________");
     }
 
@@ -50,15 +67,18 @@ public class BankManagerMenu implements Menu {
                     handleAccountInquiry();
                     return true;
                 case "3":
-                    // handleNewUser();
+                    handleNewUser();
                     return true;
                 case "4":
-                    // handleTransactionFile();
+                    handleTransactionFile();
                     return true;
                 case "5":
-                    // handleBankStatement();
+                    handleBankStatement();
                     return true;
                 case "6":
+                    handleMetrics();
+                    return true;
+                case "7":
                     return false;
                 default:
                     System.out.println("Invalid choice.");
@@ -77,6 +97,7 @@ public class BankManagerMenu implements Menu {
     /**
      * Handles bank manager inquiry of customer accounts by customer name.
      * Can handle customers with same first or last names.
+     * Falls back to partial names when nothing matches exactly.
      */
     private void handleNameInquiry() {
         System.out.println("Enter first name:");
@@ -87,23 +108,24 @@ public class BankManagerMenu implements Menu {
         String lastName = getInput();
 
         // Handle case of multiple customers with same name
-        List<Customer> matchingCustomers = new ArrayList<>();
+        Set<Customer> matches = new LinkedHashSet<>();
         String fullName = firstName + " " + lastName;
         
-        // Search for exact match first
-        Customer exactMatch = customers.get(fullName);
-        if (exactMatch != null) {
-            matchingCustomers.add(exactMatch);
-        }
-        
-        // Search for partial matches (same first or last name)
-        for (Customer customer : customers.values()) {
-            String[] names = customer.getName().split(" ");
-            if (!customer.getName().equals(fullName) && 
-                (names[0].equals(firstName) || names[1].equals(lastName))) {
-                matchingCustomers.add(customer);
+        // Exact matches first, then same first or last name
+        matches.addAll(customers.findByFullName(fullName));
+        matches.addAll(customers.findByFirstName(firstName));
+        matches.addAll(customers.findByLastName(lastName));
+
+        // Nothing matched, so try the names as partial names
+        if (matches.isEmpty()) {
+            if (!firstName.isEmpty()) {
+                matches.addAll(customers.findByNamePrefix(firstName));
+            }
+            if (!lastName.isEmpty()) {
+                matches.addAll(customers.findByNamePrefix(lastName));
             }
         }
+        List<Customer> matchingCustomers = new ArrayList<>(matches);
 
         if (matchingCustomers.isEmpty()) {
             System.out.println("No customers found with that name.");
@@ -142,32 +164,143 @@ public class BankManagerMenu implements Menu {
         System.out.println("__________________");
         String accountNum = getInput();
 
-        boolean found = false;
-        for (Customer customer : customers.values()) {
-            for (Account account : customer.getAccounts()) {
-                if (account.getAccountNumber().equals(accountNum)) {
-                    System.out.printf("%s's %s (%s): $%.2f%n",
-                        customer.getName(),
-                        account.getClass().getSimpleName(),
-                        account.getAccountNumber(),
-                        account.getBalance()
-                    );
-                    found = true;
-                    logger.logTransaction(
-                        String.format("Bank Manager inquired about account %s. Balance: $%.2f",
-                            accountNum, account.getBalance())
-                    );
-                    break;
-                }
+        Account account = accountRegistry.getAccount(accountNum);
+        if (account == null) {
+            System.out.println("Account not found.");
+            return;
+        }
+
+        Customer customer = accountRegistry.getOwner(account.getAccountKey());
+        System.out.printf("%s's %s (%s): $%s%n",
+            customer.getName(),
+            account.getClass().getSimpleName(),
+            account.getAccountNumber(),
+            Money.format(account.getBalance())
+        );
+        logger.logEvent(TransactionType.MANAGER_ACCOUNT_INQUIRY, account.getAccountKey(),
+            TransactionEvent.NO_ACCOUNT, 0, account.getBalance());
+    }
+
+    /**
+     * Handles opening one new customer, or every customer in a file.
+     * @throws IOException if a file cannot be read or the customers cannot be saved
+     */
+    private void handleNewUser() throws IOException {
+        System.out.println("Enter file of new customers (leave blank to enter one customer):");
+        System.out.println("__________________");
+        String file = getInput().trim();
+        if (!file.isEmpty()) {
+            if (!Files.isRegularFile(Paths.get(file))) {
+                System.out.println("File not found.");
+                return;
             }
-            if (found) break;
+            long start = System.nanoTime();
+            int created = onboarding.importFile(file);
+            System.out.printf("Created %,d customers in %,d ms%n", created, (System.nanoTime() - start) / 1_000_000);
+            return;
         }
-        
-        if (!found) {
-            System.out.println("Account not found.");
+
+        String firstName = prompt("Enter first name:");
+        String lastName = prompt("Enter last name:");
+        String dateOfBirth = prompt("Enter date of birth:");
+        String address = prompt("Enter address:");
+        String phone = prompt("Enter phone number:");
+        try {
+            long checkingBalance = Money.parse(prompt("Enter checking starting balance:"));
+            long savingsBalance = Money.parse(prompt("Enter savings starting balance:"));
+            long creditLimit = Money.parse(prompt("Enter credit max:"));
+            Customer customer = onboarding.createCustomer(firstName, lastName, dateOfBirth, address, phone,
+                checkingBalance, savingsBalance, creditLimit);
+            System.out.println("Created customer " + customer.getName() + " (ID: " + customer.getCustomerID() + ")");
+            displayCustomerAccounts(customer);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter a number.");
         }
     }
 
+    /**
+     * Prints a prompt and reads the answer.
+     * @param message the prompt
+     * @return the answer without surrounding whitespace
+     */
+    private String prompt(String message) {
+        System.out.println(message);
+        System.out.println("__________________");
+        return getInput().trim();
+    }
+
+    /**
+     * Handles applying a file of transactions to the accounts.
+     * Prints totals, throughput and latency, and the rows that failed.
+     * @throws IOException if the file cannot be read
+     */
+    private void handleTransactionFile() throws IOException {
+        System.out.println("Enter transaction file name:");
+        System.out.println("__________________");
+        String file = getInput().trim();
+        if (!Files.isRegularFile(Paths.get(file))) {
+            System.out.println("File not found.");
+            return;
+        }
+
+        TransactionFileProcessor.Report report = new TransactionFileProcessor(accountRegistry, logger, executor)
+            .process(file);
+        System.out.printf("Processed %,d transactions: %,d applied, %,d failed%n",
+            report.getRows(), report.getApplied(), report.getFailed());
+        System.out.printf("Took %,d ms (%,.0f transactions/s), latency p50 %,d us, p99 %,d us, max %,d us%n",
+            report.getElapsedNanos() / 1_000_000, report.getRowsPerSecond(),
+            report.getLatencyPercentile(50) / 1000, report.getLatencyPercentile(99) / 1000,
+            report.getMaxLatency() / 1000);
+        for (String failure : report.getFailures()) {
+            System.out.println(failure);
+        }
+        if (report.getFailed() > report.getFailures().size()) {
+            System.out.printf("...and %,d more failures%n", report.getFailed() - report.getFailures().size());
+        }
+    }
+
+    /**
+     * Handles writing monthly statements for one customer or for every customer.
+     * @throws IOException if the log cannot be read or a statement cannot be written
+     */
+    private void handleBankStatement() throws IOException {
+        System.out.println("Enter customer ID (leave blank for all customers):");
+        System.out.println("__________________");
+        String customerID = getInput().trim();
+        System.out.println("Enter month as YYYY-MM (leave blank for this month):");
+        System.out.println("__________________");
+        String monthText = getInput().trim();
+
+        YearMonth month;
+        try {
+            month = monthText.isEmpty() ? YearMonth.now() : YearMonth.parse(monthText);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid month.");
+            return;
+        }
+
+        StatementGenerator generator = new StatementGenerator(customers, logger);
+        long start = System.nanoTime();
+        if (customerID.isEmpty()) {
+            int written = generator.generateAll(month);
+            System.out.printf("Wrote %,d statements in %,d ms%n", written, (System.nanoTime() - start) / 1_000_000);
+        } else {
+            Customer customer = customers.getById(customerID);
+            if (customer == null) {
+                System.out.println("Customer not found.");
+                return;
+            }
+            System.out.println("Wrote " + generator.generate(customer, month));
+        }
+    }
+
+    /**
+     * Handles showing the count and latencies of every banking operation so far.
+     */
+    private void handleMetrics() {
+        System.out.print(BankMetrics.report());
+    }
+
     /**
      * Displays account information for a specific customer.
      * @param customer the customer whose accounts to display
@@ -178,17 +311,13 @@ public class BankManagerMenu implements Menu {
         System.out.println("__________________");
         
         for (Account account : customer.getAccounts()) {
-            System.out.printf("%s (%s): $%.2f%n",
+            System.out.printf("%s (%s): $%s%n",
                 account.getClass().getSimpleName(),
                 account.getAccountNumber(),
-                account.getBalance()
-            );
-            logger.logTransaction(
-                String.format("Bank Manager inquired about %s's %s. Balance: $%.2f",
-                    customer.getName(),
-                    account.getAccountNumber(),
-                    account.getBalance())
+                Money.format(account.getBalance())
             );
+            logger.logEvent(TransactionType.MANAGER_CUSTOMER_INQUIRY, account.getAccountKey(),
+                TransactionEvent.NO_ACCOUNT, 0, account.getBalance());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package bank;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+/**
+ * Counts and latency histograms of every banking operation.
+ * The operations record themselves where they happen: deposits, withdrawals
+ * and inquiries in Account, borrowing and paying off credit in Credit,
+ * transfers in TransferEngine, payments in Person, loading and saving in
+ * CSVHandler and appends in TransactionLog. Deposits, withdrawals and
+ * transfers run through PartitionExecutor are recorded by the executor once
+ * they are on disk. Transfers and payments also count as the withdrawal and
+ * deposit they are made of, on either path.
+ * The histograms are published over JMX under bank:type=Metrics and can be
+ * printed as a table from the bank manager menu.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class BankMetrics {
+    /** Domain and type of the JMX names */
+    private static final String JMX_PREFIX = "bank:type=Metrics,name=";
+
+    /** Deposits into any account */
+    public static final LatencyHistogram DEPOSIT = new LatencyHistogram("Deposit");
+    /** Withdrawals from any account */
+    public static final LatencyHistogram WITHDRAWAL = new LatencyHistogram("Withdrawal");
+    /** Balance inquiries */
+    public static final LatencyHistogram INQUIRY = new LatencyHistogram("Inquiry");
+    /** Money borrowed on credit */
+    public static final LatencyHistogram CREDIT_BORROW = new LatencyHistogram("CreditBorrow");
+    /** Payments toward credit */
+    public static final LatencyHistogram CREDIT_PAYMENT = new LatencyHistogram("CreditPayment");
+    /** Transfers between accounts */
+    public static final LatencyHistogram TRANSFER = new LatencyHistogram("Transfer");
+    /** Payments to another customer */
+    public static final LatencyHistogram PAYMENT = new LatencyHistogram("Payment");
+    /** Loads of the customer data */
+    public static final LatencyHistogram CSV_LOAD = new LatencyHistogram("CSVLoad");
+    /** Saves of the customer data */
+    public static final LatencyHistogram CSV_SAVE = new LatencyHistogram("CSVSave");
+    /** Entries appended to the transaction log */
+    public static final LatencyHistogram LOG_APPEND = new LatencyHistogram("LogAppend");
+
+    /** Every histogram, in the order they are printed */
+    private static final List<LatencyHistogram> ALL = List.of(DEPOSIT, WITHDRAWAL, INQUIRY, CREDIT_BORROW,
+        CREDIT_PAYMENT, TRANSFER, PAYMENT, CSV_LOAD, CSV_SAVE, LOG_APPEND);
+
+    /**
+     * Not used; this class only has static members.
+     */
+    private BankMetrics() {}
+
+    /**
+     * Gets every histogram.
+     * @return the histograms, in the order they are printed
+     */
+    public static List<LatencyHistogram> getAll() {
+        return ALL;
+    }
+
+    /**
+     * Publishes every histogram to the platform MBean server.
+     * Histograms that are already published are left as they are.
+     */
+    public static void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (LatencyHistogram histogram : ALL) {
+            try {
+                ObjectName name = new ObjectName(JMX_PREFIX + histogram.getName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(histogram, name);
+                }
+            } catch (JMException e) {
+                System.err.println("Error publishing metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Clears every histogram.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Renders every histogram as a table, latencies in microseconds.
+     * @return the table, one line per operation
+     */
+    public static String report() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-14s %12s %9s %10s %10s %10s %10s %12s%n",
+            "Operation", "Count", "Failed", "Mean us", "p50 us", "p99 us", "p99.9 us", "Max us"));
+        for (LatencyHistogram histogram : ALL) {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            table.append(String.format("%-14s %,12d %,9d %,10.1f %,10.1f %,10.1f %,10.1f %,12.1f%n",
+                histogram.getName(), snapshot.getCount(), snapshot.getFailures(), snapshot.getMean() / 1000,
+                snapshot.getPercentile(50) / 1000.0, snapshot.getPercentile(99) / 1000.0,
+                snapshot.getPercentile(99.9) / 1000.0, snapshot.getMax() / 1000.0));
+        }
+        return table.toString();
+    }
+}
@@ -1,3 +1,5 @@
+package bank;
+
 import java.util.*;
 /**
  * Manages banking operations for customers and bank managers.
@@ -6,22 +8,31 @@ import java.util.*;
  * @version 1.0
  */
 public class BankOperations {
-    /** Map of customer names to Customer objects */
-    private Map<String, Customer> customers;
+    /** Store of all customers with their name and account indexes */
+    private CustomerStore customers;
     /** Scanner for reading user input */
     private Scanner scanner;
     /** Logger for recording transactions into log */
-    private TransactionLog logger;
+    private EventLog logger;
+    /** Opens new customers */
+    private CustomerOnboarding onboarding;
+    /** Applies every customer's and manager's balance changes */
+    private PartitionExecutor executor;
 
     /**
      * Initializes bank operations with customer data and transaction logging.
-     * @param customers map of customer names to Customer objects
+     * @param customers store of all customers in the system
      * @param logger transaction logging system
+     * @param onboarding opens new customers
+     * @param executor applies deposits, withdrawals, transfers, payments and transaction files
      */
-    public BankOperations(Map<String, Customer> customers, TransactionLog logger) {
+    public BankOperations(CustomerStore customers, EventLog logger, CustomerOnboarding onboarding,
+                          PartitionExecutor executor) {
         this.customers = customers;
         this.scanner = new Scanner(System.in);
         this.logger = logger;
+        this.onboarding = onboarding;
+        this.executor = executor;
     }
 
     /**
@@ -32,14 +43,31 @@ public class BankOperations {
         System.out.println("Enter your name:");
         String name = scanner.nextLine();
         
-        Customer customer = customers.get(name);
-        if (customer == null) {
+        List<Customer> matches = customers.findByFullName(name);
+        if (matches.isEmpty()) {
             System.out.println("Customer not found.");
             return;
         }
+
+        Customer customer = matches.get(0);
+        // Several customers can share a name, so ask for the id
+        if (matches.size() > 1) {
+            System.out.println("Multiple customers found with that name. Enter your customer ID:");
+            String id = scanner.nextLine().trim();
+            customer = null;
+            for (Customer match : matches) {
+                if (match.getCustomerID().equals(id)) {
+                    customer = match;
+                }
+            }
+            if (customer == null) {
+                System.out.println("Customer not found.");
+                return;
+            }
+        }
         
         // Create customer menu
-        CustomerMenu menu = new CustomerMenu(customer, logger, customers);
+        CustomerMenu menu = new CustomerMenu(customer, logger, customers, executor);
         
         // Handle menu operations until user exits
         while (true) {
@@ -57,7 +85,7 @@ public class BankOperations {
      */
     public void handleBankManager() {
         // Create bank manager menu
-        BankManagerMenu menu = new BankManagerMenu(logger, customers);
+        BankManagerMenu menu = new BankManagerMenu(logger, customers, onboarding, executor);
         
         // Handle menu operations until manager exits
         while (true) {
@@ -0,0 +1,707 @@
+package bank;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Serves the bank over a line protocol on a TCP socket, so many customers and
+ * managers can use it at once. Each request is one line of text and gets one
+ * line back, starting with OK or ERROR:
+ * <pre>
+ * LOGIN customerID                 start a customer session
+ * MANAGER                          start a manager session
+ * INQUIRE                          balances of the customer's accounts
+ * DEPOSIT account amount           deposit into one of the customer's accounts
+ * WITHDRAW account amount          withdraw from one of the customer's accounts
+ * TRANSFER from to amount          move money between the customer's accounts
+ * PAY from to amount               pay into another customer's account
+ * HISTORY account count            latest log entries of one of the customer's accounts
+ * FIND firstName lastName          manager: customers with that first or last name
+ * ACCOUNT account                  manager: owner and balance of an account
+ * QUIT                             close the connection
+ * </pre>
+ * Amounts are in dollars, such as 12.50. A list in a response is separated by " | ".
+ * One selector thread accepts connections and reads and writes every socket
+ * without blocking, so an idle session costs a buffer and no thread, and
+ * thousands of sessions can be open at once. Complete request lines are run
+ * on a small pool of worker threads, one request per session at a time so
+ * its responses stay in order; a worker writes its response straight to the
+ * socket and only leaves the selector the part that didn't fit.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class BankServer {
+    /** Port used when none is given */
+    public static final int DEFAULT_PORT = 5050;
+    /** Longest request line accepted, in bytes */
+    private static final int MAX_LINE = 1024;
+    /** Requests a session may have waiting before it stops being read */
+    private static final int MAX_QUEUED_REQUESTS = 32;
+    /** Separates the items of a list in a response */
+    private static final String SEPARATOR = " | ";
+
+    /** Store of all customers */
+    private final CustomerStore customers;
+    /** Log the requests are recorded in */
+    private final EventLog logger;
+    /** Port to listen on, 0 for any free port */
+    private final int requestedPort;
+    /** Number of worker threads */
+    private final int workerCount;
+    /** Runs requests */
+    private ExecutorService workers;
+    /** Waits for socket events */
+    private Selector selector;
+    /** Accepts connections */
+    private ServerSocketChannel server;
+    /** Runs the selector loop */
+    private Thread selectorThread;
+    /** Sessions that have output for the selector to finish writing, or want to close */
+    private final Queue<Session> pendingWrites = new ConcurrentLinkedQueue<>();
+    /** Sessions that can be read again after their queue drained */
+    private final Queue<Session> pendingReads = new ConcurrentLinkedQueue<>();
+    /** Number of open sessions */
+    private volatile int sessionCount;
+    /** Set once stop() has been called */
+    private volatile boolean stopped;
+
+    /**
+     * The state of one connection.
+     * The selector thread reads into it and workers run its requests, so
+     * everything shared between them is guarded by the session itself.
+     */
+    private static class Session {
+        /** The connection */
+        final SocketChannel channel;
+        /** Selector registration of the connection */
+        final SelectionKey key;
+        /** Bytes read that don't make a whole line yet */
+        final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+        /** Request lines waiting to be run */
+        final ArrayDeque<String> requests = new ArrayDeque<>();
+        /** Response bytes the socket hasn't taken yet */
+        final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        /** Whether a worker is running this session's requests */
+        boolean busy;
+        /** Whether reading is paused because too many requests are waiting */
+        boolean paused;
+        /** Whether the connection closes once its output is written */
+        boolean closing;
+        /** The logged in customer, only touched by the worker running the session */
+        Customer customer;
+        /** Whether the session is a manager's */
+        boolean manager;
+
+        /**
+         * Creates the session of a new connection.
+         * @param channel the connection
+         * @param key selector registration of the connection
+         */
+        Session(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Creates a server; nothing is opened until start() is called.
+     * @param customers store of all customers
+     * @param logger log the requests are recorded in
+     * @param port port to listen on, 0 for any free port
+     * @param workerCount number of threads running requests
+     */
+    public BankServer(CustomerStore customers, EventLog logger, int port, int workerCount) {
+        if (port < 0 || workerCount <= 0) {
+            throw new IllegalArgumentException("Port must not be negative and worker count must be positive");
+        }
+        this.customers = customers;
+        this.logger = logger;
+        this.requestedPort = port;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Opens the listening socket and starts serving in the background.
+     * @throws IOException if the port cannot be opened
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(requestedPort), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newFixedThreadPool(workerCount, task -> {
+            Thread thread = new Thread(task, "bank-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        selectorThread = new Thread(this::runSelector, "bank-server-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Gets the port the server is listening on.
+     * @return the port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of open sessions.
+     * @return session count
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Stops accepting requests and closes every connection.
+     * Requests already running are finished first.
+     */
+    public void stop() {
+        stopped = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error stopping bank server: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for socket events and handles them until the server is stopped.
+     */
+    private void runSelector() {
+        while (!stopped) {
+            try {
+                selector.select();
+                Session session;
+                while ((session = pendingWrites.poll()) != null) {
+                    flushOutput(session);
+                }
+                while ((session = pendingReads.poll()) != null) {
+                    if (session.key.isValid()) {
+                        session.key.interestOps(session.key.interestOps() | SelectionKey.OP_READ);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        flushOutput((Session) key.attachment());
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read((Session) key.attachment());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error in bank server: " + e.getMessage());
+            }
+        }
+        closeQuietly(server);
+    }
+
+    /**
+     * Accepts every waiting connection and starts a session for each.
+     * @throws IOException if the listening socket fails
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Session(channel, key));
+            sessionCount++;
+        }
+    }
+
+    /**
+     * Reads what a connection has sent and queues each complete line as a request.
+     * @param session the session to read
+     */
+    private void read(Session session) {
+        try {
+            int read = session.channel.read(session.input);
+            if (read < 0) {
+                close(session);
+                return;
+            }
+            List<String> lines = new ArrayList<>();
+            ByteBuffer input = session.input;
+            input.flip();
+            int start = 0;
+            for (int i = 0; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    int end = i > start && input.get(i - 1) == '\r' ? i - 1 : i;
+                    lines.add(new String(input.array(), start, end - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            input.position(start);
+            input.compact();
+            if (!input.hasRemaining()) {
+                //the buffer is full and still holds no whole line
+                send(session, "ERROR Request too long");
+                synchronized (session) {
+                    session.closing = true;
+                }
+                //already on the selector thread, so close now rather than after the next event
+                flushOutput(session);
+                return;
+            }
+            if (!lines.isEmpty()) {
+                queue(session, lines);
+            }
+        } catch (IOException e) {
+            close(session);
+        }
+    }
+
+    /**
+     * Queues requests of a session and starts a worker on them if none is running.
+     * Stops reading the session while too many requests are waiting.
+     * @param session the session
+     * @param lines the request lines, in order
+     */
+    private void queue(Session session, List<String> lines) {
+        boolean start;
+        synchronized (session) {
+            session.requests.addAll(lines);
+            if (session.requests.size() >= MAX_QUEUED_REQUESTS && !session.paused) {
+                session.paused = true;
+                session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            start = !session.busy;
+            session.busy = true;
+        }
+        if (start) {
+            workers.execute(() -> serve(session));
+        }
+    }
+
+    /**
+     * Runs a session's requests in order until none are waiting.
+     * @param session the session
+     */
+    private void serve(Session session) {
+        while (true) {
+            String request;
+            synchronized (session) {
+                request = session.requests.poll();
+                if (request == null || session.closing) {
+                    session.busy = false;
+                    return;
+                }
+                if (session.paused && session.requests.size() < MAX_QUEUED_REQUESTS / 2) {
+                    session.paused = false;
+                    pendingReads.add(session);
+                    selector.wakeup();
+                }
+            }
+            String response;
+            try {
+                response = handle(session, request.trim());
+            } catch (IllegalArgumentException e) {
+                response = "ERROR " + e.getMessage();
+            } catch (RuntimeException e) {
+                response = "ERROR " + e;
+            }
+            send(session, response);
+        }
+    }
+
+    /**
+     * Runs one request.
+     * @param session the session the request came from
+     * @param request the request line
+     * @return the response line
+     * @throws IllegalArgumentException if the request is not valid
+     */
+    private String handle(Session session, String request) {
+        String[] words = request.split("\\s+");
+        String command = words[0].toUpperCase();
+        switch (command) {
+            case "LOGIN":
+                return login(session, words);
+            case "MANAGER":
+                session.customer = null;
+                session.manager = true;
+                return "OK Bank manager";
+            case "INQUIRE":
+                return inquire(requireCustomer(session));
+            case "DEPOSIT":
+                return deposit(requireCustomer(session), words);
+            case "WITHDRAW":
+                return withdraw(requireCustomer(session), words);
+            case "TRANSFER":
+                return transfer(requireCustomer(session), words);
+            case "PAY":
+                return pay(requireCustomer(session), words);
+            case "HISTORY":
+                return history(requireCustomer(session), words);
+            case "FIND":
+                requireManager(session);
+                return find(words);
+            case "ACCOUNT":
+                requireManager(session);
+                return account(words);
+            case "QUIT":
+                synchronized (session) {
+                    session.closing = true;
+                }
+                return "OK Goodbye";
+            case "":
+                throw new IllegalArgumentException("Empty request");
+            default:
+                throw new IllegalArgumentException("Unknown request " + words[0]);
+        }
+    }
+
+    /**
+     * Starts a customer session.
+     * @param session the session
+     * @param words LOGIN and the customer id
+     * @return the response
+     */
+    private String login(Session session, String[] words) {
+        requireWords(words, 2, "LOGIN customerID");
+        Customer customer = customers.getById(words[1]);
+        if (customer == null) {
+            throw new IllegalArgumentException("Customer not found");
+        }
+        session.customer = customer;
+        session.manager = false;
+        return "OK " + customer.getName();
+    }
+
+    /**
+     * Lists the balances of a customer's accounts and logs the inquiry.
+     * @param customer the customer
+     * @return the response
+     */
+    private String inquire(Customer customer) {
+        StringJoiner balances = new StringJoiner(SEPARATOR, "OK ", "");
+        for (Account account : customer.inquireAllAccounts()) {
+            long balance = account.getBalance();
+            balances.add(account.getClass().getSimpleName() + " " + account.getAccountNumber() + " "
+                + Money.format(balance));
+            logger.logEvent(TransactionType.CUSTOMER_INQUIRY, account.getAccountKey(),
+                TransactionEvent.NO_ACCOUNT, 0, balance);
+        }
+        return balances.toString();
+    }
+
+    /**
+     * Deposits into one of a customer's accounts.
+     * @param customer the customer
+     * @param words DEPOSIT, the account number and the amount
+     * @return the response
+     */
+    private String deposit(Customer customer, String[] words) {
+        requireWords(words, 3, "DEPOSIT account amount");
+        Account account = ownAccount(customer, words[1]);
+        long amount = Money.parse(words[2]);
+        account.deposit(amount);
+        long balance = account.getBalance();
+        logger.logEvent(TransactionType.CUSTOMER_DEPOSIT, account.getAccountKey(),
+            TransactionEvent.NO_ACCOUNT, amount, balance);
+        return "OK " + Money.format(balance);
+    }
+
+    /**
+     * Withdraws from one of a customer's accounts.
+     * @param customer the customer
+     * @param words WITHDRAW, the account number and the amount
+     * @return the response
+     */
+    private String withdraw(Customer customer, String[] words) {
+        requireWords(words, 3, "WITHDRAW account amount");
+        Account account = ownAccount(customer, words[1]);
+        long amount = Money.parse(words[2]);
+        account.withdraw(amount);
+        long balance = account.getBalance();
+        logger.logEvent(TransactionType.CUSTOMER_WITHDRAWAL, account.getAccountKey(),
+            TransactionEvent.NO_ACCOUNT, amount, balance);
+        return "OK " + Money.format(balance);
+    }
+
+    /**
+     * Moves money between two of a customer's accounts.
+     * @param customer the customer
+     * @param words TRANSFER, the two account numbers and the amount
+     * @return the response
+     */
+    private String transfer(Customer customer, String[] words) {
+        requireWords(words, 4, "TRANSFER from to amount");
+        Account source = ownAccount(customer, words[1]);
+        Account destination = ownAccount(customer, words[2]);
+        long amount = Money.parse(words[3]);
+        TransferEngine.shared().transfer(source, destination, amount);
+        long balance = source.getBalance();
+        logger.logEvent(TransactionType.TRANSFER, source.getAccountKey(), destination.getAccountKey(),
+            amount, balance);
+        return "OK " + Money.format(balance);
+    }
+
+    /**
+     * Pays from one of a customer's accounts into another customer's account.
+     * @param customer the paying customer
+     * @param words PAY, the two account numbers and the amount
+     * @return the response
+     */
+    private String pay(Customer customer, String[] words) {
+        requireWords(words, 4, "PAY from to amount");
+        Account source = ownAccount(customer, words[1]);
+        AccountRegistry registry = customers.getAccountRegistry();
+        Account destination = registry.getAccount(words[2]);
+        if (destination == null) {
+            throw new IllegalArgumentException("Recipient account not found");
+        }
+        long amount = Money.parse(words[3]);
+        customer.pay(registry.getOwner(destination.getAccountKey()), source, destination, amount);
+        long balance = source.getBalance();
+        logger.logEvent(TransactionType.PAYMENT, source.getAccountKey(), destination.getAccountKey(),
+            amount, balance);
+        return "OK " + Money.format(balance);
+    }
+
+    /**
+     * Gets the latest log entries of one of a customer's accounts.
+     * @param customer the customer
+     * @param words HISTORY, the account number and the number of entries
+     * @return the response
+     */
+    private String history(Customer customer, String[] words) {
+        requireWords(words, 3, "HISTORY account count");
+        Account account = ownAccount(customer, words[1]);
+        int count;
+        try {
+            count = Integer.parseInt(words[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid count: " + words[2]);
+        }
+        StringJoiner entries = new StringJoiner(SEPARATOR, "OK ", "");
+        for (String entry : logger.getAccountEntries(account.getAccountKey(), count)) {
+            entries.add(entry);
+        }
+        return entries.toString();
+    }
+
+    /**
+     * Finds customers by first or last name and logs the inquiry.
+     * @param words FIND, the first name and the last name
+     * @return the response
+     */
+    private String find(String[] words) {
+        requireWords(words, 3, "FIND firstName lastName");
+        Set<Customer> matches = new LinkedHashSet<>();
+        matches.addAll(customers.findByFullName(words[1] + " " + words[2]));
+        matches.addAll(customers.findByFirstName(words[1]));
+        matches.addAll(customers.findByLastName(words[2]));
+        if (matches.isEmpty()) {
+            throw new IllegalArgumentException("No customers found with that name");
+        }
+        StringJoiner found = new StringJoiner(SEPARATOR, "OK ", "");
+        for (Customer customer : matches) {
+            StringBuilder line = new StringBuilder(customer.getCustomerID()).append(' ').append(customer.getName());
+            for (Account account : customer.getAccounts()) {
+                long balance = account.getBalance();
+                line.append(' ').append(account.getAccountNumber()).append(' ').append(Money.format(balance));
+                logger.logEvent(TransactionType.MANAGER_CUSTOMER_INQUIRY, account.getAccountKey(),
+                    TransactionEvent.NO_ACCOUNT, 0, balance);
+            }
+            found.add(line);
+        }
+        return found.toString();
+    }
+
+    /**
+     * Looks up an account's owner and balance and logs the inquiry.
+     * @param words ACCOUNT and the account number
+     * @return the response
+     */
+    private String account(String[] words) {
+        requireWords(words, 2, "ACCOUNT account");
+        AccountRegistry registry = customers.getAccountRegistry();
+        Account account = registry.getAccount(words[1]);
+        if (account == null) {
+            throw new IllegalArgumentException("Account not found");
+        }
+        long balance = account.getBalance();
+        logger.logEvent(TransactionType.MANAGER_ACCOUNT_INQUIRY, account.getAccountKey(),
+            TransactionEvent.NO_ACCOUNT, 0, balance);
+        return "OK " + registry.getOwner(account.getAccountKey()).getName() + SEPARATOR
+            + account.getClass().getSimpleName() + " " + account.getAccountNumber() + " " + Money.format(balance);
+    }
+
+    /**
+     * Gets the logged in customer of a session.
+     * @param session the session
+     * @return the customer
+     * @throws IllegalArgumentException if no customer is logged in
+     */
+    private static Customer requireCustomer(Session session) {
+        if (session.customer == null) {
+            throw new IllegalArgumentException("Log in first with LOGIN customerID");
+        }
+        return session.customer;
+    }
+
+    /**
+     * Checks that a session is a manager's.
+     * @param session the session
+     * @throws IllegalArgumentException if it is not
+     */
+    private static void requireManager(Session session) {
+        if (!session.manager) {
+            throw new IllegalArgumentException("Start a manager session first with MANAGER");
+        }
+    }
+
+    /**
+     * Checks that a request has enough words.
+     * @param words the words of the request
+     * @param count number of words needed
+     * @param usage how the request is written
+     * @throws IllegalArgumentException if there are too few
+     */
+    private static void requireWords(String[] words, int count, String usage) {
+        if (words.length < count) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    /**
+     * Finds one of a customer's accounts by number.
+     * @param customer the customer
+     * @param accountNumber the account number
+     * @return the account
+     * @throws IllegalArgumentException if the customer has no such account
+     */
+    private static Account ownAccount(Customer customer, String accountNumber) {
+        List<Account> found = customer.inquireAccount(accountNumber);
+        if (found.isEmpty()) {
+            throw new IllegalArgumentException("Account " + accountNumber + " is not yours");
+        }
+        return found.get(0);
+    }
+
+    /**
+     * Sends a response line, writing as much as the socket takes right away
+     * and leaving the rest to the selector.
+     * @param session the session to answer
+     * @param response the response line, without the line break
+     */
+    private void send(Session session, String response) {
+        ByteBuffer bytes = ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8));
+        boolean handOff;
+        synchronized (session) {
+            if (session.output.isEmpty()) {
+                try {
+                    session.channel.write(bytes);
+                } catch (IOException e) {
+                    session.closing = true;
+                    bytes.position(bytes.limit());
+                }
+            }
+            if (bytes.hasRemaining()) {
+                session.output.add(bytes);
+            }
+            handOff = !session.output.isEmpty() || session.closing;
+        }
+        if (handOff) {
+            pendingWrites.add(session);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Writes what a session's socket will take of its waiting output, and
+     * closes the session if it is done. Runs on the selector thread.
+     * @param session the session
+     */
+    private void flushOutput(Session session) {
+        boolean close;
+        synchronized (session) {
+            if (!session.key.isValid()) {
+                return;
+            }
+            try {
+                while (!session.output.isEmpty()) {
+                    ByteBuffer bytes = session.output.peek();
+                    session.channel.write(bytes);
+                    if (bytes.hasRemaining()) {
+                        break;
+                    }
+                    session.output.poll();
+                }
+            } catch (IOException e) {
+                session.output.clear();
+                session.closing = true;
+            }
+            if (session.output.isEmpty()) {
+                session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_WRITE);
+            } else {
+                session.key.interestOps(session.key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            close = session.closing && session.output.isEmpty();
+        }
+        if (close) {
+            close(session);
+        }
+    }
+
+    /**
+     * Closes a session's connection. Runs on the selector thread.
+     * @param session the session
+     */
+    private void close(Session session) {
+        if (session.key.isValid()) {
+            session.key.cancel();
+            sessionCount--;
+        }
+        closeQuietly(session.channel);
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     * @param channel the channel
+     */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //nothing more can be done with it
+        }
+    }
+}
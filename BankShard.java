@@ -0,0 +1,269 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * One shard of a sharded ledger: the accounts of the customers dealt to the
+ * shard, with their own ledger file and balance write-ahead log.
+ * Balance changes on the shard's accounts are logged to its write-ahead log
+ * only, so accounts in different shards never wait on the same group commit.
+ * A checkpoint folds the log into a snapshot of the changed balances and
+ * writes the snapshot into the ledger; after a crash the snapshot and log
+ * are replayed on top of the ledger when the shard is recovered.
+ * Changes for accounts the ledger does not hold yet are kept in the
+ * snapshot as pending until the customer CSV has been read (applyPending).
+ * Changes saved together with another shard's, such as both sides of a
+ * transfer between shards, are in the ledger's linked log instead; the
+ * shard folds its own accounts' share of them and records the newest linked
+ * segment folded in its snapshot, so a linked segment is never applied twice.
+ * Checkpoints take the shard's own lock, so shards checkpoint independently.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class BankShard implements Closeable {
+    /** The file name of the account ledger */
+    private static final String LEDGER_FILE = "bank.ledger";
+    /** The directory holding the balance write-ahead log and snapshot */
+    private static final String WAL_DIRECTORY = "balance_wal";
+    /** The file name of the balance snapshot */
+    private static final String SNAPSHOT_FILE = "balances.snapshot";
+
+    /** Position of this shard in the ledger */
+    private final int index;
+    /** Directory holding this shard's ledger and balance log */
+    private final Path directory;
+    /** The account ledger holding this shard's balances */
+    private final AccountTable ledger;
+    /** Receives every balance change on this shard as it happens */
+    private WriteAheadLog balanceLog;
+    /** Balances not yet written into the ledger, as of the last checkpoint */
+    private BalanceSnapshot snapshot;
+
+    /**
+     * Opens a shard's ledger, creating it if it does not exist.
+     * Call recover before using the shard's balances.
+     * @param index position of the shard in the ledger
+     * @param directory directory holding the shard's ledger and balance log
+     * @throws IOException if the ledger cannot be opened
+     */
+    public BankShard(int index, Path directory) throws IOException {
+        this.index = index;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.ledger = AccountTable.open(directory.resolve(LEDGER_FILE));
+    }
+
+    /**
+     * Gets the position of this shard in the ledger.
+     * @return the shard index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the ledger holding this shard's accounts.
+     * @return the shard's table
+     */
+    public AccountTable getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Replays the snapshot and write-ahead log on top of the saved balances
+     * in the ledger, writes the result into the ledger and starts logging
+     * the shard's balance changes.
+     * @throws IOException if the log or snapshot cannot be read or written
+     */
+    public void recover() throws IOException {
+        recover(null, 0, 1);
+    }
+
+    /**
+     * Replays the snapshot, write-ahead log and this shard's share of the
+     * linked log on top of the saved balances in the ledger, writes the
+     * result into the ledger and starts logging the shard's balance changes.
+     * @param linkedDirectory directory of the linked log, or null if there is none
+     * @param linkedThrough newest linked log segment to fold
+     * @param shardCount number of shards in the ledger
+     * @throws IOException if the log or snapshot cannot be read or written
+     */
+    public synchronized void recover(Path linkedDirectory, long linkedThrough, int shardCount) throws IOException {
+        Path walDirectory = directory.resolve(WAL_DIRECTORY);
+        //balances changed in place since the last checkpoint may not all have reached the disk
+        ledger.resetToSaved();
+        snapshot = BalanceSnapshot.read(walDirectory.resolve(SNAPSHOT_FILE));
+        balanceLog = new WriteAheadLog(walDirectory);
+        foldLog(linkedDirectory, linkedThrough, shardCount);
+        for (Map.Entry<Long, Long> entry : snapshot.getBalances().entrySet()) {
+            int row = ledger.findRow(entry.getKey());
+            if (row >= 0) {
+                ledger.getAndSetBalance(row, entry.getValue());
+            }
+        }
+        writeSnapshotToLedger();
+        ledger.setBalanceLog(balanceLog);
+    }
+
+    /**
+     * Gets the newest linked log segment this shard has folded.
+     * @return segment sequence number, 0 if none
+     */
+    public synchronized long getLastLinkedSegment() {
+        return snapshot == null ? 0 : snapshot.getLastLinkedSegment();
+    }
+
+    /**
+     * Applies the pending changes of accounts the ledger now holds, such as
+     * customers onboarded just before a crash whose rows have been added
+     * back from the customer CSV. The new balances go through the snapshot
+     * like a checkpoint, so a crash part way never applies a change twice.
+     * Changes for accounts still missing stay pending.
+     * @return number of accounts whose changes are still pending
+     * @throws IOException if the snapshot or ledger cannot be written
+     */
+    public synchronized int applyPending() throws IOException {
+        if (snapshot == null || snapshot.getPending().isEmpty()) {
+            return 0;
+        }
+        Map<Long, Long> balances = new HashMap<>(snapshot.getBalances());
+        Map<Long, Long> pending = new HashMap<>();
+        for (Map.Entry<Long, Long> change : snapshot.getPending().entrySet()) {
+            int row = ledger.findRow(change.getKey());
+            if (row < 0) {
+                pending.put(change.getKey(), change.getValue());
+                continue;
+            }
+            balances.put(change.getKey(),
+                balances.getOrDefault(change.getKey(), ledger.getSavedBalance(row)) + change.getValue());
+            ledger.addToBalance(row, change.getValue());
+        }
+        if (pending.size() == snapshot.getPending().size()) {
+            return pending.size();
+        }
+        snapshot = new BalanceSnapshot(snapshot.getLastSegment(), balances, pending,
+            snapshot.getLastLinkedSegment());
+        snapshot.write(directory.resolve(WAL_DIRECTORY).resolve(SNAPSHOT_FILE));
+        writeSnapshotToLedger();
+        return pending.size();
+    }
+
+    /**
+     * Saves every balance of this shard that changed since the last checkpoint.
+     * Does nothing until the shard has been recovered.
+     * @throws IOException if the log, snapshot or ledger cannot be written
+     */
+    public void checkpoint() throws IOException {
+        checkpoint(null, 0, 1);
+    }
+
+    /**
+     * Saves every balance of this shard that changed since the last
+     * checkpoint, including its share of the linked log.
+     * Does nothing until the shard has been recovered.
+     * @param linkedDirectory directory of the linked log, or null if there is none
+     * @param linkedThrough newest linked log segment to fold
+     * @param shardCount number of shards in the ledger
+     * @throws IOException if the log, snapshot or ledger cannot be written
+     */
+    public synchronized void checkpoint(Path linkedDirectory, long linkedThrough, int shardCount)
+            throws IOException {
+        if (balanceLog == null) {
+            return;
+        }
+        foldLog(linkedDirectory, linkedThrough, shardCount);
+        writeSnapshotToLedger();
+    }
+
+    /**
+     * Stops logging balance changes and closes the write-ahead log and ledger.
+     * Checkpoint first to fold the latest balances into the ledger.
+     */
+    @Override
+    public synchronized void close() {
+        if (balanceLog != null) {
+            ledger.setBalanceLog(null);
+            balanceLog.close();
+            balanceLog = null;
+        }
+        ledger.close();
+    }
+
+    /**
+     * Rolls the write-ahead log and folds the closed segments, and this
+     * shard's share of the linked segments not folded yet, into the snapshot.
+     * Changes for accounts not in the ledger are added to the pending changes.
+     * The snapshot records the newest segments it holds and is written before
+     * the segments are deleted, so a crash in between never applies a change
+     * twice. Linked segments are deleted by the ledger once every shard has
+     * folded them.
+     * @param linkedDirectory directory of the linked log, or null if there is none
+     * @param linkedThrough newest linked log segment to fold
+     * @param shardCount number of shards in the ledger
+     * @throws IOException if the log or snapshot cannot be read or written
+     */
+    private void foldLog(Path linkedDirectory, long linkedThrough, int shardCount) throws IOException {
+        Path walDirectory = directory.resolve(WAL_DIRECTORY);
+        long lastSegment = balanceLog.roll();
+        Map<Long, Long> changes = WriteAheadLog.readChanges(walDirectory, snapshot.getLastSegment(), lastSegment);
+        long lastLinkedSegment = snapshot.getLastLinkedSegment();
+        if (linkedDirectory != null && linkedThrough > lastLinkedSegment) {
+            Map<Long, Long> linked = WriteAheadLog.readChanges(linkedDirectory, lastLinkedSegment, linkedThrough);
+            for (Map.Entry<Long, Long> change : linked.entrySet()) {
+                if (ShardedLedger.shardOf(change.getKey(), shardCount) == index) {
+                    changes.merge(change.getKey(), change.getValue(), Long::sum);
+                }
+            }
+            lastLinkedSegment = linkedThrough;
+        }
+        Map<Long, Long> balances = new HashMap<>(snapshot.getBalances());
+        Map<Long, Long> pending = new HashMap<>(snapshot.getPending());
+        for (Map.Entry<Long, Long> change : changes.entrySet()) {
+            int row = ledger.findRow(change.getKey());
+            if (row < 0) {
+                //the account is added when the customer csv is read; keep the change until then
+                pending.merge(change.getKey(), change.getValue(), Long::sum);
+                continue;
+            }
+            long balance = balances.getOrDefault(change.getKey(), ledger.getSavedBalance(row));
+            balances.put(change.getKey(), balance + change.getValue());
+        }
+        snapshot = new BalanceSnapshot(lastSegment, balances, pending, lastLinkedSegment);
+        if (!changes.isEmpty()) {
+            snapshot.write(walDirectory.resolve(SNAPSHOT_FILE));
+        }
+        balanceLog.deleteThrough(lastSegment);
+    }
+
+    /**
+     * Writes the snapshot balances into the ledger as saved balances, forces
+     * the ledger to disk, then deletes the snapshot, or rewrites it with only
+     * the pending changes and newest linked segment if there are any.
+     * A crash before the delete only writes the same balances again.
+     * @throws IOException if the snapshot cannot be deleted
+     */
+    private void writeSnapshotToLedger() throws IOException {
+        Map<Long, Long> balances = snapshot.getBalances();
+        for (Map.Entry<Long, Long> entry : balances.entrySet()) {
+            int row = ledger.findRow(entry.getKey());
+            if (row >= 0) {
+                ledger.setSavedBalance(row, entry.getValue());
+            }
+        }
+        //new accounts are written to the ledger as well
+        ledger.force();
+        if (!balances.isEmpty()) {
+            Path file = directory.resolve(WAL_DIRECTORY).resolve(SNAPSHOT_FILE);
+            snapshot = new BalanceSnapshot(snapshot.getLastSegment(), new HashMap<>(), snapshot.getPending(),
+                snapshot.getLastLinkedSegment());
+            //the linked segments may still be on disk until every shard has folded them
+            if (snapshot.isEmpty() && snapshot.getLastLinkedSegment() == 0) {
+                Files.deleteIfExists(file);
+            } else {
+                snapshot.write(file);
+            }
+        }
+    }
+}
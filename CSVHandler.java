@@ -1,99 +1,427 @@
+package bank;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 
 /**
- * Handles reading and writing customer data from/to CSV files.
+ * Handles the customer CSV and the account ledger.
+ * Balances live in a memory-mapped ledger file that is read and updated in
+ * place; the CSV is the store of customer profiles and the import and export
+ * format for balances. On first start the CSV is imported into a new ledger.
+ * After that startup only maps the ledger, and profiles are read from the
+ * CSV in the background.
+ * Every balance change is written to a write-ahead log as it happens. A
+ * checkpoint every few seconds folds the log into a snapshot of the changed
+ * balances and writes the snapshot into the ledger. After a crash the
+ * snapshot and log are replayed on top of the ledger at startup.
+ * The ledger may be split into shards by account number (see
+ * ShardedLedger), each with its own ledger file and write-ahead log.
  * @author Daniel Fuentes, Rogelio Lozano
  * @version 1.0
  */
 public class CSVHandler {
     /** The file path for bank users data */
     private static final String CSV_FILE = "CS 3331 - Bank Users.csv";
+    /** Seconds between background checkpoints */
+    private static final long CHECKPOINT_PERIOD_SECONDS = 30;
+
+    /** The account ledger holding every balance, one table per shard */
+    private ShardedLedger ledger;
+    /** Set once the balances have been recovered and changes are being logged */
+    private boolean recovered;
+    /** Runs the background checkpoints */
+    private ScheduledExecutorService saver;
+    /** Directory holding the customer CSV, the ledger and the balance log */
+    private Path directory;
+    /** Number of ledger shards if the ledger is new */
+    private int shardCount;
+    /** Store the customers are loaded into, null until loadCustomerData */
+    private CustomerStore customers;
+
+    /**
+     * Creates a handler for the bank files in the working directory.
+     */
+    public CSVHandler() {
+        this(Paths.get(""));
+    }
 
     /**
-     * Loads all customer data from the CSV file.
-     * @return map of customer names to Customer objects
+     * Creates a handler for the bank files in the given directory, with an unsharded ledger if it is new.
+     * @param directory directory holding the customer CSV, the ledger and the balance log
      */
-    public Map<String, Customer> loadCustomerData() {
-        Map<String, Customer> customers = new HashMap<>();
+    public CSVHandler(Path directory) {
+        this(directory, 1);
+    }
+
+    /**
+     * Creates a handler for the bank files in the given directory.
+     * @param directory directory holding the customer CSV, the ledger and the balance log
+     * @param shardCount number of ledger shards if the ledger is new; an existing ledger keeps its own
+     */
+    public CSVHandler(Path directory, int shardCount) {
+        this.directory = directory;
+        this.shardCount = ShardedLedger.shardCount(directory, shardCount);
+    }
+
+    /**
+     * Gets the number of ledger shards.
+     * @return shard count
+     */
+    public int getShardCount() {
+        return ledger == null ? shardCount : ledger.size();
+    }
+
+    /**
+     * Opens the ledger and loads all customer data.
+     * If the ledger is new, the CSV is imported into it before this returns.
+     * Otherwise balances come straight from the ledger and the customer
+     * profiles are read from the CSV in the background; the returned store
+     * waits for them when first used, and throws if they could not be read.
+     * Balances from a snapshot and write-ahead log left by a crash are
+     * applied on top of the ledger, those of accounts only the CSV holds
+     * once the profiles have been read.
+     * @return store of all customers with their name and account indexes
+     * @throws IllegalStateException if the ledger or the CSV cannot be read
+     */
+    public CustomerStore loadCustomerData() {
+        long start = System.nanoTime();
+        customers = new CustomerStore();
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(CSV_FILE));
-            String line = reader.readLine();
-            //loop through each line in csv
-            while ((line = reader.readLine()) != null) {
-                try {
-                    //split by comma but preserve commas inside quotes
-                    String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
-                    
-                    //clean the data by remove quotes and trim
-                    for (int i = 0; i < parts.length; i++) {
-                        parts[i] = parts[i].replace("\"", "").trim();
+            ledger = ShardedLedger.open(directory, shardCount);
+            AccountTable.setShared(ledger.getTables());
+            if (ledger.accountCount() == 0) {
+                //first start, import the csv into the new ledger
+                customers.addAll(readCustomers());
+                ledger.force();
+                recoverBalances();
+                ledger.applyPending();
+                BankMetrics.CSV_LOAD.recordSince(start);
+            } else {
+                recoverBalances();
+                //the load is done when the profiles are
+                customers.loadInBackground(() -> {
+                    List<Customer> loaded;
+                    try {
+                        loaded = readCustomers();
+                    } catch (UncheckedIOException e) {
+                        BankMetrics.CSV_LOAD.recordFailure();
+                        throw e;
                     }
-                    
-                    //create customer from the columns in the csv
-                    String fullName = parts[1] + " " + parts[2];
-                    Customer customer = new Customer(fullName, parts[0]);
-                    
-                    //create the checkings, savings, and credit accounts
-                    List<Account> accounts = new ArrayList<>();
-                    accounts.add(new Checkings(parts[6], Double.parseDouble(parts[7])));
-                    accounts.add(new Savings(parts[8], Double.parseDouble(parts[9])));
-                    accounts.add(new Credit(parts[10], Double.parseDouble(parts[12]), 
-                                         Double.parseDouble(parts[11])));
-                    
-                    customer.setAccounts(accounts);
-                    customers.put(fullName, customer);
-                    
-                } catch (Exception e) {
-                    System.out.println("Error processing line: " + e.getMessage());
+                    //accounts onboarded just before a crash exist again, so their logged changes can be applied
+                    ledger.applyPending();
+                    BankMetrics.CSV_LOAD.recordSince(start);
+                    return loaded;
+                });
+            }
+        } catch (IOException | UncheckedIOException e) {
+            BankMetrics.CSV_LOAD.recordFailure();
+            throw new IllegalStateException("Customer data could not be loaded: " + e.getMessage(), e);
+        }
+        return customers;
+    }
+
+    /**
+     * Reads every customer from the CSV file.
+     * Memory-maps the file, splits it into chunks on record boundaries and
+     * parses the chunks on the common fork-join pool. Accounts already in
+     * the ledger are used as they are; any others are added to it with the
+     * balance in the CSV. Malformed records are reported and skipped.
+     * @return the customers in file order
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private List<Customer> readCustomers() {
+        List<Customer> customers = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(directory.resolve(CSV_FILE), StandardOpenOption.READ)) {
+            List<CSVSplitter.Chunk> chunks = CSVSplitter.split(channel);
+            List<ChunkResult> results = chunks.parallelStream()
+                .map(chunk -> parseChunk(channel, chunk))
+                .collect(Collectors.toList());
+
+            //merge in file order so errors print by line and later ids win
+            for (ChunkResult result : results) {
+                for (String error : result.errors) {
+                    System.out.println(error);
                 }
+                customers.addAll(result.customers);
             }
-            reader.close();
         } catch (IOException e) {
-            System.out.println("Error reading file: " + e.getMessage());
+            throw new UncheckedIOException(e);
         }
         return customers;
     }
 
-     /**
-     * Saves customer data back to the CSV file.
-     * Updates only the balance fields while keeping the other data the same.
-     * @param customers map of customer names to Customer objects to save
+    /**
+     * Customers and error messages from one chunk of the CSV file.
+     */
+    private static class ChunkResult {
+        /** Customers parsed from the chunk, in file order */
+        private List<Customer> customers = new ArrayList<>();
+        /** One message per malformed line */
+        private List<String> errors = new ArrayList<>();
+    }
+
+    /**
+     * Parses every record in one chunk of the CSV file.
+     * @param channel the open CSV file
+     * @param chunk the records to parse
+     * @return the customers and any errors from the chunk
+     */
+    private static ChunkResult parseChunk(FileChannel channel, CSVSplitter.Chunk chunk) {
+        ChunkResult result = new ChunkResult();
+        try (CSVReader reader = chunk.open(channel)) {
+            //skip the header
+            if (chunk.getStart() == 0) {
+                reader.next();
+            }
+            //loop through each record in the chunk
+            while (reader.next()) {
+                try {
+                    result.customers.add(parseCustomer(reader));
+                } catch (Exception e) {
+                    result.errors.add("Error processing line " + reader.getLineNumber() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a customer and their accounts from the current record.
+     * @param reader reader positioned on a customer record
+     * @return the customer
      */
-    public void saveCustomerData(Map<String, Customer> customers) {
+    private static Customer parseCustomer(CSVReader reader) {
+        //create customer from the columns in the csv
+        String fullName = reader.getString(1) + " " + reader.getString(2);
+        Customer customer = new Customer(fullName, reader.getString(0));
+
+        //use the checkings, savings, and credit accounts in the ledger, or create them
+        List<Account> accounts = new ArrayList<>();
+        Account checkings = findAccount(reader.getString(6));
+        accounts.add(checkings != null ? checkings : new Checkings(reader.getString(6), reader.getCents(7)));
+        Account savings = findAccount(reader.getString(8));
+        accounts.add(savings != null ? savings : new Savings(reader.getString(8), reader.getCents(9)));
+        Account credit = findAccount(reader.getString(10));
+        accounts.add(credit != null ? credit : new Credit(reader.getString(10), reader.getCents(12),
+                             reader.getCents(11)));
+
+        customer.setAccounts(accounts);
+        return customer;
+    }
+
+    /**
+     * Finds an account in the ledger.
+     * @param accountNumber the account number
+     * @return a view of the account, or null if the ledger does not hold it
+     */
+    private static Account findAccount(String accountNumber) {
+        long key = Account.toAccountKey(accountNumber);
+        AccountTable table = AccountTable.forAccount(key);
+        int row = table.findRow(key);
+        return row < 0 ? null : table.view(row);
+    }
+
+    /**
+     * Saves every balance that changed since the last checkpoint.
+     * Runs a checkpoint and writes the snapshot into the ledger.
+     */
+    public synchronized void saveCustomerData() {
+        if (!recovered) {
+            return;
+        }
+        long start = System.nanoTime();
         try {
-            //read all lines to keep original data
-            List<String> lines = Files.readAllLines(Paths.get(CSV_FILE));
-            List<String> newLines = new ArrayList<>();
-            newLines.add(lines.get(0));
-            
-            //process each line
-            for (int i = 1; i < lines.size(); i++) {
-                String[] parts = lines.get(i).split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
-                String fullName = parts[1] + " " + parts[2];
-                Customer customer = customers.get(fullName);
-                
-                if (customer != null) {
-                    //update the balance fields
-                    parts[7] = String.format("%.2f", customer.getAccounts().get(0).getBalance());
-                    parts[9] = String.format("%.2f", customer.getAccounts().get(1).getBalance());
-                    parts[12] = String.format("%.2f", customer.getAccounts().get(2).getBalance());
+            ledger.checkpoint();
+            BankMetrics.CSV_SAVE.recordSince(start);
+        } catch (IOException e) {
+            BankMetrics.CSV_SAVE.recordFailure();
+            System.out.println("Error saving data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends new customers to the customer CSV and forces them to disk.
+     * Call before adding their accounts to the ledger, so a failed write
+     * leaves no accounts behind; if the ledger loses the accounts in a crash
+     * they are added back from these records at the next startup.
+     * @param records the new customers in customer CSV column order
+     * @throws IOException if the CSV cannot be written
+     */
+    public synchronized void appendCustomers(List<String[]> records) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String[] record : records) {
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) {
+                    text.append(',');
                 }
-                
-                //join the parts back together
-                newLines.add(String.join(",", parts));
+                text.append(CSVReader.quote(record[i]));
             }
-            
-            //write back to file
-            FileWriter writer = new FileWriter(CSV_FILE);
-            for (String line : newLines) {
-                writer.write(line + "\n");
+            text.append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(CSV_FILE), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            //start on a new line if the last record has no line break
+            long end = channel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            if (end > 0 && channel.read(last, end - 1) == 1 && last.get(0) != '\n') {
+                text.insert(0, '\n');
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                end += channel.write(bytes, end);
             }
-            writer.close();
-            
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes the customer CSV with the balances in the ledger.
+     */
+    public void exportCustomerData() {
+        exportCustomerData(directory.resolve(CSV_FILE).toString());
+    }
+
+    /**
+     * Writes a copy of the customer CSV with the balances in the ledger.
+     * Customer profiles are copied from the customer CSV as they are.
+     * Waits for customers loading in the background first, since the load
+     * adds accounts only the CSV holds to the ledger.
+     * @param file the CSV file to write, may be the customer CSV itself
+     */
+    public synchronized void exportCustomerData(String file) {
+        if (ledger == null) {
+            return;
+        }
+        try {
+            customers.awaitLoaded();
+            writeCSV(Paths.get(file));
+        } catch (IOException | UncheckedIOException | IllegalStateException e) {
+            System.out.println("Error exporting data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts running checkpoints in the background every few seconds, so the
+     * write-ahead log stays short and recovery stays fast.
+     */
+    public void startPeriodicSave() {
+        saver = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "customer-data-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(this::periodicCheckpoint,
+            CHECKPOINT_PERIOD_SECONDS, CHECKPOINT_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background checkpoints, waits for customers loading in the
+     * background and closes the write-ahead log and ledger.
+     * Call saveCustomerData first to fold the latest balances into the ledger.
+     */
+    public void close() {
+        try {
+            if (saver != null) {
+                saver.shutdown();
+                saver.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (customers != null) {
+            try {
+                //the loader adds accounts to the ledger, so it must be done before the ledger is unmapped
+                customers.awaitLoaded();
+            } catch (IllegalStateException e) {
+                //already reported by the loader
+            }
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+    }
+
+    /**
+     * Replays each shard's snapshot and write-ahead log on top of the saved
+     * balances in its ledger, writes the result into the ledger and starts
+     * logging balance changes.
+     */
+    private synchronized void recoverBalances() {
+        ledger.recover();
+        recovered = true;
+    }
+
+    /**
+     * Background checkpoint.
+     */
+    private synchronized void periodicCheckpoint() {
+        try {
+            ledger.checkpoint();
         } catch (IOException e) {
             System.out.println("Error saving data: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a CSV with the profiles from the customer CSV and the balances in the ledger.
+     * The new CSV is written to a temporary file and renamed over the target,
+     * so the file on disk is always complete.
+     * @param target the CSV file to write
+     * @throws IOException if a CSV cannot be read or written
+     */
+    private void writeCSV(Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (CSVReader reader = new CSVReader(new FileInputStream(directory.resolve(CSV_FILE).toFile()));
+             FileOutputStream file = new FileOutputStream(temp.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8))) {
+            //process each record, the header is copied as is
+            boolean header = true;
+            while (reader.next()) {
+                String[] parts = new String[reader.getFieldCount()];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = reader.getString(i);
+                }
+                if (!header && parts.length > 12) {
+                    //take the checking, savings and credit balances from the ledger
+                    updateBalance(parts, 6, 7);
+                    updateBalance(parts, 8, 9);
+                    updateBalance(parts, 10, 12);
+                }
+                header = false;
+
+                //join the parts back together, quoting where needed
+                for (int i = 0; i < parts.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(CSVReader.quote(parts[i]));
+                }
+                writer.write('\n');
+            }
+            writer.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Replaces a balance column with the balance in the ledger, if the ledger holds that account.
+     * @param parts fields of a CSV record
+     * @param numberColumn column holding the account number
+     * @param balanceColumn column holding the balance
+     */
+    private void updateBalance(String[] parts, int numberColumn, int balanceColumn) {
+        Account account = ledger.findAccount(Account.toAccountKey(parts[numberColumn]));
+        if (account != null) {
+            parts[balanceColumn] = Money.format(account.getBalance());
+        }
+    }
+}
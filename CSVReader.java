@@ -0,0 +1,470 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass RFC 4180 CSV tokenizer.
+ * Reads the input once through a byte buffer, handling quoted fields,
+ * escaped quotes ("") and line breaks inside quotes. Fields of the current
+ * record are kept as byte ranges, so numbers are parsed straight from the
+ * buffer and Strings are only created when a caller asks for one.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class CSVReader implements Closeable {
+    /** Size of the read buffer when reading from a stream */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Largest mantissa that converts to a double exactly */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /** Powers of ten that are exact as doubles */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Source of more input, or null when reading a fixed buffer */
+    private InputStream in;
+    /** Input bytes */
+    private ByteBuffer data;
+    /** Next byte to read */
+    private int position;
+    /** End of valid input in the buffer */
+    private int limit;
+    /** Unescaped bytes of the current record */
+    private byte[] record = new byte[1024];
+    /** Bytes used in the record buffer */
+    private int recordLength;
+    /** Start of each field in the record buffer */
+    private int[] fieldStarts = new int[16];
+    /** End of each field in the record buffer */
+    private int[] fieldEnds = new int[16];
+    /** Number of fields in the current record */
+    private int fieldCount;
+    /** Line the next record starts on */
+    private long line = 1;
+    /** Line the current record started on */
+    private long recordLine;
+
+    /**
+     * Creates a reader over a stream.
+     * @param in the CSV input
+     */
+    public CSVReader(InputStream in) {
+        this.in = in;
+        this.data = ByteBuffer.allocate(BUFFER_SIZE);
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Creates a reader over a fixed range of a buffer, such as a chunk of a memory-mapped file.
+     * @param data buffer holding CSV text
+     * @param start first byte to read
+     * @param end end of the range, exclusive
+     * @param firstLine line number of the first byte
+     */
+    public CSVReader(ByteBuffer data, int start, int end, long firstLine) {
+        this.data = data;
+        this.position = start;
+        this.limit = end;
+        this.line = firstLine;
+    }
+
+    /**
+     * Reads the next record.
+     * @return true if a record was read, false at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    public boolean next() throws IOException {
+        fieldCount = 0;
+        recordLength = 0;
+        if (peek() < 0) {
+            return false;
+        }
+        recordLine = line;
+
+        while (true) {
+            int start = recordLength;
+            int b = peek();
+            if (b == '"') {
+                readQuoted();
+            } else {
+                readUnquoted();
+            }
+            addField(start, recordLength);
+
+            b = read();
+            if (b == ',') {
+                continue;
+            }
+            if (b == '\r' && peek() == '\n') {
+                read();
+            }
+            if (b == '\r' || b == '\n') {
+                line++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Gets the number of fields in the current record.
+     * @return field count
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Gets the line the current record started on.
+     * @return one-based line number
+     */
+    public long getLineNumber() {
+        return recordLine;
+    }
+
+    /**
+     * Gets a field as text without surrounding whitespace.
+     * @param field zero-based field index
+     * @return the field value
+     */
+    public String getString(int field) {
+        checkField(field);
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        return new String(record, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets a field as a number, parsed directly from the record bytes.
+     * Plain decimals such as -1289.68 are converted exactly without creating a String.
+     * @param field zero-based field index
+     * @return the field value
+     * @throws NumberFormatException if the field is not a number
+     */
+    public double getDouble(int field) {
+        checkField(field);
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        int i = start;
+        boolean negative = false;
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            negative = record[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = record[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    break;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        //anything unusual goes through the standard parser
+        if (i < end || digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(getString(field));
+        }
+        double value = mantissa;
+        if (fractionDigits > 0) {
+            value /= POWERS_OF_TEN[fractionDigits];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Gets a dollar amount field as cents, parsed directly from the record bytes.
+     * More than two decimal places are rounded half up; anything unusual,
+     * such as an exponent, goes through Money.parse.
+     * @param field zero-based field index
+     * @return the amount in cents
+     * @throws NumberFormatException if the field is not an amount
+     */
+    public long getCents(int field) {
+        checkField(field);
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        int i = start;
+        boolean negative = false;
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            negative = record[i] == '-';
+            i++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = record[i];
+            if (b >= '0' && b <= '9') {
+                digits++;
+                if (fractionDigits < 0) {
+                    cents = cents * 10 + (b - '0');
+                } else if (fractionDigits < 2) {
+                    cents = cents * 10 + (b - '0');
+                    fractionDigits++;
+                } else {
+                    if (fractionDigits == 2 && b >= '5') {
+                        cents++;
+                    }
+                    fractionDigits = 3;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        //more digits could overflow once scaled to cents
+        if (i < end || digits == 0 || digits > 16) {
+            return Money.parse(getString(field));
+        }
+        //scale up to whole cents
+        if (fractionDigits <= 0) {
+            cents *= Money.CENTS_PER_DOLLAR;
+        } else if (fractionDigits == 1) {
+            cents *= 10;
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Gets a field as a whole number, parsed directly from the record bytes.
+     * @param field zero-based field index
+     * @return the field value
+     * @throws NumberFormatException if the field is not a whole number
+     */
+    public long getLong(int field) {
+        checkField(field);
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        int i = start;
+        boolean negative = false;
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            negative = record[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            return Long.parseLong(getString(field));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = record[i];
+            if (b < '0' || b > '9') {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Closes the underlying stream, if any.
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    /**
+     * Quotes a value for writing to a CSV file if it needs it.
+     * @param value the field value
+     * @return the value, quoted and escaped if it contains a comma, quote or line break
+     */
+    public static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Reads a quoted field into the record buffer, unescaping doubled quotes.
+     * Any text between the closing quote and the next separator is kept as is.
+     * @throws IOException if the input cannot be read
+     */
+    private void readQuoted() throws IOException {
+        read();
+        while (true) {
+            int b = read();
+            if (b < 0) {
+                return;
+            }
+            if (b == '"') {
+                if (peek() != '"') {
+                    break;
+                }
+                read();
+            } else if (b == '\n' || (b == '\r' && peek() != '\n')) {
+                //a line break of any style counts once, as it does between records
+                line++;
+            }
+            append((byte) b);
+        }
+        readUnquoted();
+    }
+
+    /**
+     * Reads an unquoted field into the record buffer, up to the next separator.
+     * @throws IOException if the input cannot be read
+     */
+    private void readUnquoted() throws IOException {
+        while (true) {
+            if (position >= limit && !refill()) {
+                return;
+            }
+            //copy straight from the buffer until a separator
+            int end = position;
+            while (end < limit) {
+                byte b = data.get(end);
+                if (b == ',' || b == '\n' || b == '\r') {
+                    break;
+                }
+                end++;
+            }
+            ensureRecordCapacity(end - position);
+            for (int i = position; i < end; i++) {
+                record[recordLength++] = data.get(i);
+            }
+            position = end;
+            if (end < limit) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads one byte.
+     * @return the byte, or -1 at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    private int read() throws IOException {
+        if (position >= limit && !refill()) {
+            return -1;
+        }
+        return data.get(position++) & 0xFF;
+    }
+
+    /**
+     * Looks at the next byte without consuming it.
+     * @return the byte, or -1 at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    private int peek() throws IOException {
+        if (position >= limit && !refill()) {
+            return -1;
+        }
+        return data.get(position) & 0xFF;
+    }
+
+    /**
+     * Reads more input from the stream into the buffer.
+     * @return true if more bytes are available
+     * @throws IOException if the input cannot be read
+     */
+    private boolean refill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        int read = in.read(data.array(), 0, data.capacity());
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Adds one byte to the record buffer.
+     * @param b the byte
+     */
+    private void append(byte b) {
+        ensureRecordCapacity(1);
+        record[recordLength++] = b;
+    }
+
+    /**
+     * Grows the record buffer if it cannot hold more bytes.
+     * @param extra number of bytes about to be added
+     */
+    private void ensureRecordCapacity(int extra) {
+        if (recordLength + extra > record.length) {
+            byte[] bigger = new byte[Math.max(record.length * 2, recordLength + extra)];
+            System.arraycopy(record, 0, bigger, 0, recordLength);
+            record = bigger;
+        }
+    }
+
+    /**
+     * Records the byte range of a field.
+     * @param start start in the record buffer
+     * @param end end in the record buffer, exclusive
+     */
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] starts = new int[fieldCount * 2];
+            int[] ends = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+            fieldStarts = starts;
+            fieldEnds = ends;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * Checks that a field exists in the current record.
+     * @param field zero-based field index
+     */
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IllegalArgumentException("Missing column " + (field + 1));
+        }
+    }
+
+    /**
+     * Finds the first non-space byte of a field.
+     * @param field zero-based field index
+     * @return position in the record buffer
+     */
+    private int trimStart(int field) {
+        int start = fieldStarts[field];
+        while (start < fieldEnds[field] && record[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Finds the end of a field without trailing spaces.
+     * @param field zero-based field index
+     * @param start trimmed start of the field
+     * @return position after the last non-space byte
+     */
+    private int trimEnd(int field, int start) {
+        int end = fieldEnds[field];
+        while (end > start && record[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,271 @@
+package bank;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Splits a CSV file into chunks that start and end on record boundaries,
+ * so the chunks can be parsed in parallel.
+ * A line break only ends a record when it is outside quotes. To know that
+ * without reading the file from the start, the file is cut into equal
+ * ranges, the quotes and line breaks in every range are counted in parallel,
+ * and a running total gives the quote state and line number at each cut.
+ * Each cut is then moved forward to the next line break outside quotes.
+ * Line breaks are LF, CRLF or a lone CR, counted the way CSVReader counts them.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class CSVSplitter {
+    /** Largest chunk to map at once, well under the 2 GB limit of a mapped buffer */
+    private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+    /** Files smaller than this are not worth splitting */
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * A range of whole records in a CSV file.
+     */
+    public static class Chunk {
+        /** First byte of the chunk */
+        private final long start;
+        /** End of the chunk, exclusive */
+        private final long end;
+        /** Line number of the first byte */
+        private final long firstLine;
+
+        /**
+         * Creates a chunk.
+         * @param start first byte of the chunk
+         * @param end end of the chunk, exclusive
+         * @param firstLine line number of the first byte
+         */
+        public Chunk(long start, long end, long firstLine) {
+            this.start = start;
+            this.end = end;
+            this.firstLine = firstLine;
+        }
+
+        /**
+         * Gets the first byte of the chunk.
+         * @return byte offset in the file
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the end of the chunk.
+         * @return byte offset in the file, exclusive
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Gets the line number of the first record in the chunk.
+         * @return one-based line number
+         */
+        public long getFirstLine() {
+            return firstLine;
+        }
+
+        /**
+         * Maps the chunk into memory and opens a reader over it.
+         * @param channel the file the chunk came from
+         * @return reader over the records in the chunk
+         * @throws IOException if the chunk cannot be mapped
+         */
+        public CSVReader open(FileChannel channel) throws IOException {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            return new CSVReader(data, 0, data.limit(), firstLine);
+        }
+    }
+
+    /**
+     * Splits a file into about one chunk per core.
+     * @param channel the CSV file
+     * @return chunks in file order, covering the whole file
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Chunk> split(FileChannel channel) throws IOException {
+        return split(channel, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Splits a file into about the given number of chunks.
+     * Small files become a single chunk, and large ones are cut finer so
+     * that no chunk is too big to map.
+     * @param channel the CSV file
+     * @param chunkCount number of chunks wanted
+     * @return chunks in file order, covering the whole file
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Chunk> split(FileChannel channel, int chunkCount) throws IOException {
+        try {
+            return findChunks(channel, chunkCount);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Cuts the file into ranges and moves each cut to a record boundary.
+     * @param channel the CSV file
+     * @param chunkCount number of chunks wanted
+     * @return chunks in file order, covering the whole file
+     * @throws IOException if the file size cannot be read
+     */
+    private static List<Chunk> findChunks(FileChannel channel, int chunkCount) throws IOException {
+        long size = channel.size();
+        int count = (int) Math.max(1, Math.min(chunkCount, size / MIN_CHUNK_SIZE));
+        count = (int) Math.max(count, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+        long[] cuts = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            cuts[i] = size * i / count;
+        }
+        return splitAt(channel, cuts);
+    }
+
+    /**
+     * Moves each cut to a record boundary and makes the chunks between them.
+     * Tests call this directly to cut at chosen offsets.
+     * @param channel the CSV file
+     * @param cuts ascending offsets, the first 0 and the last the file size
+     * @return chunks in file order, covering the whole file
+     */
+    static List<Chunk> splitAt(FileChannel channel, long[] cuts) {
+        long size = cuts[cuts.length - 1];
+        int count = cuts.length - 1;
+
+        //count quotes and line breaks in every range at once
+        long[][] counts = IntStream.range(0, count).parallel()
+            .mapToObj(i -> count(channel, cuts[i], cuts[i + 1]))
+            .toArray(long[][]::new);
+
+        //running totals give the quote state and line number at each cut
+        boolean[] inQuotes = new boolean[count];
+        long[] lines = new long[count];
+        long quotes = 0;
+        long line = 1;
+        for (int i = 0; i < count; i++) {
+            inQuotes[i] = (quotes & 1) == 1;
+            lines[i] = line;
+            quotes += counts[i][0];
+            line += counts[i][1];
+        }
+
+        //move every cut but the first to the next record boundary
+        long[][] boundaries = IntStream.range(0, count).parallel()
+            .mapToObj(i -> i == 0 ? new long[] {0, 1} : findBoundary(channel, cuts[i], inQuotes[i], lines[i]))
+            .toArray(long[][]::new);
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long end = i + 1 < count ? boundaries[i + 1][0] : size;
+            //a long quoted field can swallow a whole range
+            if (end > boundaries[i][0]) {
+                chunks.add(new Chunk(boundaries[i][0], end, boundaries[i][1]));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Counts the quotes and line breaks in a range of the file.
+     * A CR at the end of the range is a line break unless the byte after it is an LF.
+     * @param channel the CSV file
+     * @param start first byte of the range
+     * @param end end of the range, exclusive
+     * @return number of quotes and number of line breaks
+     */
+    private static long[] count(FileChannel channel, long start, long end) {
+        //one byte past the range tells whether a CR at its end starts a CRLF
+        MappedByteBuffer data = map(channel, start, Math.min(end + 1, size(channel)) - start);
+        long quotes = 0;
+        long lines = 0;
+        int length = (int) (end - start);
+        for (int i = 0; i < length; i++) {
+            byte b = data.get(i);
+            if (b == '"') {
+                quotes++;
+            } else if (isLineBreak(data, i, b)) {
+                lines++;
+            }
+        }
+        return new long[] {quotes, lines};
+    }
+
+    /**
+     * Finds the first record boundary at or after a position.
+     * @param channel the CSV file
+     * @param from position to search from
+     * @param inQuotes whether the position is inside a quoted field
+     * @param line line number at the position
+     * @return offset of the next record and its line number
+     */
+    private static long[] findBoundary(FileChannel channel, long from, boolean inQuotes, long line) {
+        long size = size(channel);
+        long position = from;
+        while (position < size) {
+            //map one byte more than is scanned, to see what follows a CR
+            long length = Math.min(size - position, MAX_CHUNK_SIZE);
+            MappedByteBuffer data = map(channel, position, Math.min(size - position, length + 1));
+            for (int i = 0; i < length; i++) {
+                byte b = data.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (isLineBreak(data, i, b)) {
+                    line++;
+                    if (!inQuotes) {
+                        return new long[] {position + i + 1, line};
+                    }
+                }
+            }
+            position += length;
+        }
+        return new long[] {size, line};
+    }
+
+    /**
+     * Checks whether a byte ends a line: an LF, or a CR not followed by an LF.
+     * The CR of a CRLF is not counted, so the pair counts once.
+     * @param data mapped bytes
+     * @param i position of the byte
+     * @param b the byte
+     * @return true if the line ends after this byte
+     */
+    private static boolean isLineBreak(MappedByteBuffer data, int i, byte b) {
+        return b == '\n' || (b == '\r' && (i + 1 >= data.limit() || data.get(i + 1) != '\n'));
+    }
+
+    /**
+     * Maps a range of the file, turning read errors into unchecked ones for use in streams.
+     * @param channel the CSV file
+     * @param start first byte of the range
+     * @param length size of the range
+     * @return read-only view of the range
+     */
+    private static MappedByteBuffer map(FileChannel channel, long start, long length) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets the size of the file, turning read errors into unchecked ones for use in streams.
+     * @param channel the CSV file
+     * @return size in bytes
+     */
+    private static long size(FileChannel channel) {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,3 +1,5 @@
+package bank;
+
 /**
  * Represents a checking account with the ability to transfer funds.
  * @author Daniel Fuentes, Rogelio Lozano
@@ -8,21 +10,29 @@ public class Checkings extends Account{
     /**
      * Initializes a Checkings account with the given account number and balance.
      * @param accountNumber the account identifier
-     * @param balance the initial balance
+     * @param balance the initial balance in cents
+     */
+    public Checkings(String accountNumber, long balance){
+        super(AccountTable.CHECKINGS, accountNumber, balance, 0);
+    }
+
+    /**
+     * Creates a view of a Checkings account already in a table.
+     * @param table the table holding the account
+     * @param row the row of the account
      */
-    public Checkings(String accountNumber, double balance){
-        super(accountNumber, balance);
+    public Checkings(AccountTable table, int row) {
+        super(table, row);
     }
     
     /**
      * Transfers a specified amount to another account and verfies if the amount given is valid and they have enough money in the acocunt.
      * @param to the target account
-     * @param amount the amount to transfer
+     * @param amount the amount to transfer in cents
      */
-    public void tansfer(Account to, double amount){
-        if ( amount > 0 && amount <= balance){
-            this.withdraw(amount);
-            to.deposit(amount);
+    public void tansfer(Account to, long amount){
+        if ( amount > 0 && amount <= getBalance()){
+            TransferEngine.shared().transfer(this, to, amount);
         }else{
             throw new IllegalArgumentException("Not Valid Transfer Amount");
         }
@@ -1,82 +1,108 @@
+package bank;
+
 /**
  * Represents a credit account where the balance is negative, with a set credit limit.
+ * Borrowing checks the limit and debits the balance as one atomic step.
  * @author Daniel Fuentes, Rogelio Lozano
  * @version 1.0
  */
 public class Credit extends Account {
-    /** Maximum amount that can be borrowed */
-    private double creditLimit;
-    /** Current amount borrowed */
-    private double principle;
     
     /**
      * Initializes a Credit account with an account number, balance, and credit limit.
      * @param accountNumber the account identifier
-     * @param balance the initial balance (negative value for credit)
-     * @param creditLimit the maximum credit limit
+     * @param balance the initial balance in cents (negative value for credit)
+     * @param creditLimit the maximum credit limit in cents
+     */
+    public Credit(String accountNumber, long balance, long creditLimit){
+        super(AccountTable.CREDIT, accountNumber, balance, creditLimit);
+    }
+
+    /**
+     * Creates a view of a Credit account already in a table.
+     * @param table the table holding the account
+     * @param row the row of the account
      */
-    public Credit(String accountNumber, double balance, double creditLimit){
-        super(accountNumber, balance);
-        this.creditLimit = creditLimit;
-        this.principle = 0;
+    public Credit(AccountTable table, int row){
+        super(table, row);
     }
 
     /**
      * Sets the credit limit.
-     * @param creditLimit new credit limit
+     * @param creditLimit new credit limit in cents
      */
-    public void setCreditLimit(double creditLimit){
-        this.creditLimit = creditLimit;
+    public void setCreditLimit(long creditLimit){
+        table.setCreditLimit(row, creditLimit);
     }
 
     /**
      * Sets the principle amount.
-     * @param principle new principle amount
+     * @param principle new principle amount in cents
      */
-    public void setPrinciple(double principle){
-        this.principle = principle;
+    public void setPrinciple(long principle){
+        table.setPrinciple(row, principle);
     }
 
     /**
      * Gets the credit limit.
-     * @return current credit limit
+     * @return current credit limit in cents
      */
-    public double getCreditLimit(){
-        return creditLimit;
+    public long getCreditLimit(){
+        return table.getCreditLimit(row);
     }
 
     /**
      * Gets the principle amount.
-     * @return current principle
+     * @return current principle in cents
      */
-    public double getPrinciple(){
-        return principle;
+    public long getPrinciple(){
+        return table.getPrinciple(row);
     }
 
     /**
      * Borrows a specified amount, increasing the balance and principle.
      * Checks if the amount is invalid or exceeds the credit limit
-     * @param amount the amount to borrow
+     * @param amount the amount to borrow in cents
      * 
      */
-    public void borrow(double amount){
-        if ((amount > 0) && ((Math.abs(balance) + amount) <= creditLimit)) {
-            balance -= amount;
-            principle += amount;
-        }else{
-            throw new IllegalArgumentException("Not Valid Amount or Would Exceed Credit Limit");
+    public void borrow(long amount){
+        long start = System.nanoTime();
+        long current;
+        do {
+            current = getBalance();
+            if (!((amount > 0) && ((Math.abs(current) + amount) <= getCreditLimit()))) {
+                BankMetrics.CREDIT_BORROW.recordFailure();
+                throw new IllegalArgumentException("Not Valid Amount or Would Exceed Credit Limit");
+            }
+        } while (!compareAndSetBalance(current, current - amount));
+        try {
+            logDebit(amount);
+        } catch (RuntimeException e) {
+            BankMetrics.CREDIT_BORROW.recordFailure();
+            throw e;
         }
+        table.addToPrinciple(row, amount);
+        BankMetrics.CREDIT_BORROW.recordSince(start);
     }
 
     /**
      * Makes a payment towards the credit balance, reducing the principle.
-     * @param amount the amount to pay
+     * @param amount the amount to pay in cents
      */
-    public void pay(double amount){
+    public void pay(long amount){
         if (amount > 0){
-            balance += amount;
-            principle -= amount;
+            long start = System.nanoTime();
+            try {
+                logChange(amount);
+            } catch (RuntimeException e) {
+                BankMetrics.CREDIT_PAYMENT.recordFailure();
+                throw e;
+            }
+            addToBalance(amount);
+            table.addToPrinciple(row, -amount);
+            BankMetrics.CREDIT_PAYMENT.recordSince(start);
         }else{
+            BankMetrics.CREDIT_PAYMENT.recordFailure();
             throw new IllegalArgumentException("Invalid Payment Amount");
         }
     }
@@ -1,3 +1,5 @@
+package bank;
+
 /**
  * Represents a bank customer that extends the Person class.
  * Contains customer-specific information and functionality.
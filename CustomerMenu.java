@@ -1,3 +1,5 @@
+package bank;
+
 import java.util.*;
 
 /**
@@ -12,21 +14,26 @@ public class CustomerMenu implements Menu {
     /** The customer using this menu */
     private Customer customer;
     /** Logger for recording transactions */
-    private TransactionLog logger;
-    /** Map of all customers in the system */
-    private Map<String, Customer> customers;
+    private EventLog logger;
+    /** Store of all customers in the system */
+    private CustomerStore customers;
+    /** Applies deposits, withdrawals, transfers and payments on the writer owning each account */
+    private PartitionExecutor executor;
 
     /**
      * Creates a new customer menu instance.
      * @param customer the customer using the menu
      * @param logger transaction logging system
-     * @param customers map of all customers in the system
+     * @param customers store of all customers in the system
+     * @param executor applies the customer's deposits, withdrawals, transfers and payments
      */
-    public CustomerMenu(Customer customer, TransactionLog logger, Map<String, Customer> customers) {
+    public CustomerMenu(Customer customer, EventLog logger, CustomerStore customers,
+                        PartitionExecutor executor) {
         this.scanner = new Scanner(System.in);
         this.customer = customer;
         this.logger = logger;
         this.customers = customers;
+        this.executor = executor;
     }
 
     @Override
@@ -87,18 +94,14 @@ public class CustomerMenu implements Menu {
         System.out.println("\nYour account balances:");
         System.out.println("__________________");
         for (Account account : accounts) {
-            System.out.printf("%s (%s): $%.2f%n", 
+            System.out.printf("%s (%s): $%s%n", 
                 account.getClass().getSimpleName(), 
                 account.getAccountNumber(), 
-                account.getBalance()
+                Money.format(account.getBalance())
             );
             System.out.println("__________________");
-            logger.logTransaction(
-                String.format("%s made a balance inquiry on %s. Balance: $%.2f",
-                    customer.getName(),
-                    account.getAccountNumber(),
-                    account.getBalance())
-            );
+            logger.logEvent(TransactionType.CUSTOMER_INQUIRY, account.getAccountKey(),
+                TransactionEvent.NO_ACCOUNT, 0, account.getBalance());
         }
     }
 
@@ -112,10 +115,10 @@ public class CustomerMenu implements Menu {
         System.out.println("\nSelect account for deposit:");
         System.out.println("__________________");
         for (int i = 0; i < accounts.size(); i++) {
-            System.out.printf("%d. %s ($%.2f)%n", 
+            System.out.printf("%d. %s ($%s)%n", 
                 i + 1, 
                 accounts.get(i).getAccountNumber(), 
-                accounts.get(i).getBalance()
+                Money.format(accounts.get(i).getBalance())
             );
         }
         try {
@@ -125,15 +128,15 @@ public class CustomerMenu implements Menu {
             if (accountChoice >= 0 && accountChoice < accounts.size()) {
                 System.out.println("Enter amount to deposit:");
                 System.out.println("__________________");
-                double amount = Double.parseDouble(getInput());
+                long amount = Money.parse(getInput());
                 
                 Account selectedAccount = accounts.get(accountChoice);
-                selectedAccount.deposit(amount);
+                long balance = PartitionExecutor.await(executor.deposit(selectedAccount, amount));
                 
-                System.out.printf("Successfully deposited $%.2f%n", amount);
+                System.out.printf("Successfully deposited $%s%n", Money.format(amount));
                 System.out.println("__________________");
-                logger.logTransaction(String.format("%s deposited $%.2f to %s", 
-                    customer.getName(), amount, selectedAccount.getAccountNumber()));
+                logger.logEvent(TransactionType.CUSTOMER_DEPOSIT, selectedAccount.getAccountKey(),
+                    TransactionEvent.NO_ACCOUNT, amount, balance);
             } else {
                 System.out.println("Invalid account selection.");
             }
@@ -154,10 +157,10 @@ public class CustomerMenu implements Menu {
         System.out.println("\nSelect account for withdrawal:");
         System.out.println("__________________");
         for (int i = 0; i < accounts.size(); i++) {
-            System.out.printf("%d. %s ($%.2f)%n", 
+            System.out.printf("%d. %s ($%s)%n", 
                 i + 1, 
                 accounts.get(i).getAccountNumber(), 
-                accounts.get(i).getBalance()
+                Money.format(accounts.get(i).getBalance())
             );
         }
 
@@ -169,14 +172,14 @@ public class CustomerMenu implements Menu {
             if (accountChoice >= 0 && accountChoice < accounts.size()) {
                 System.out.println("Enter amount to withdraw:");
                 System.out.println("__________________");
-                double amount = Double.parseDouble(getInput());
+                long amount = Money.parse(getInput());
                 
                 Account selectedAccount = accounts.get(accountChoice);
-                selectedAccount.withdraw(amount);
+                long balance = PartitionExecutor.await(executor.withdraw(selectedAccount, amount));
                 
-                System.out.printf("Successfully withdrew $%.2f%n", amount);
-                logger.logTransaction(String.format("%s withdrew $%.2f from %s", 
-                    customer.getName(), amount, selectedAccount.getAccountNumber()));
+                System.out.printf("Successfully withdrew $%s%n", Money.format(amount));
+                logger.logEvent(TransactionType.CUSTOMER_WITHDRAWAL, selectedAccount.getAccountKey(),
+                    TransactionEvent.NO_ACCOUNT, amount, balance);
             } else {
                 System.out.println("Invalid account selection.");
             }
@@ -198,10 +201,10 @@ public class CustomerMenu implements Menu {
         // Display accounts
         System.out.println("\nYour accounts:");
         for (int i = 0; i < accounts.size(); i++) {
-            System.out.printf("%d. %s ($%.2f)%n", 
+            System.out.printf("%d. %s ($%s)%n", 
                 i + 1, 
                 accounts.get(i).getAccountNumber(), 
-                accounts.get(i).getBalance()
+                Money.format(accounts.get(i).getBalance())
             );
         }
 
@@ -223,18 +226,16 @@ public class CustomerMenu implements Menu {
                 toAccount >= 0 && toAccount < accounts.size()) {
                     
                 System.out.println("Enter amount to transfer:");
-                double amount = Double.parseDouble(getInput());
+                long amount = Money.parse(getInput());
                 
                 Account source = accounts.get(fromAccount);
                 Account destination = accounts.get(toAccount);
                 
-                source.withdraw(amount);
-                destination.deposit(amount);
+                long balance = PartitionExecutor.await(executor.transfer(source, destination, amount));
                 
-                System.out.printf("Successfully transferred $%.2f%n", amount);
-                logger.logTransaction(String.format("%s transferred $%.2f from %s to %s", 
-                    customer.getName(), amount, source.getAccountNumber(), 
-                    destination.getAccountNumber()));
+                System.out.printf("Successfully transferred $%s%n", Money.format(amount));
+                logger.logEvent(TransactionType.TRANSFER, source.getAccountKey(),
+                    destination.getAccountKey(), amount, balance);
             } else {
                 System.out.println("Invalid account selection.");
             }
@@ -255,21 +256,38 @@ public class CustomerMenu implements Menu {
             // Get recipient
             System.out.println("Enter recipient's name:");
             String recipientName = getInput();
-            Customer recipient = customers.get(recipientName);
+            List<Customer> matches = customers.findByFullName(recipientName);
             
-            if (recipient == null) {
+            if (matches.isEmpty()) {
                 System.out.println("Recipient not found.");
                 return;
             }
 
+            // If several customers share the name, let the payer choose
+            Customer recipient = matches.get(0);
+            if (matches.size() > 1) {
+                System.out.println("Multiple customers found:");
+                for (int i = 0; i < matches.size(); i++) {
+                    System.out.printf("%d. %s (ID: %s)%n", 
+                        i + 1, matches.get(i).getName(), matches.get(i).getCustomerID());
+                }
+                System.out.print("Select recipient (1-" + matches.size() + "): ");
+                int choice = Integer.parseInt(getInput()) - 1;
+                if (choice < 0 || choice >= matches.size()) {
+                    System.out.println("Invalid selection.");
+                    return;
+                }
+                recipient = matches.get(choice);
+            }
+
             // Show payer's accounts
             List<Account> payerAccounts = customer.inquireAllAccounts();
             System.out.println("\nYour accounts:");
             for (int i = 0; i < payerAccounts.size(); i++) {
-                System.out.printf("%d. %s ($%.2f)%n", 
+                System.out.printf("%d. %s ($%s)%n", 
                     i + 1, 
                     payerAccounts.get(i).getAccountNumber(), 
-                    payerAccounts.get(i).getBalance()
+                    Money.format(payerAccounts.get(i).getBalance())
                 );
             }
 
@@ -295,16 +313,18 @@ public class CustomerMenu implements Menu {
                 toAccount >= 0 && toAccount < recipientAccounts.size()) {
                 
                 System.out.println("Enter amount to pay:");
-                double amount = Double.parseDouble(getInput());
+                long amount = Money.parse(getInput());
                 
-                customer.pay(recipient, 
+                long balance = customer.pay(recipient, 
                            payerAccounts.get(fromAccount), 
                            recipientAccounts.get(toAccount), 
-                           amount);
+                           amount,
+                           executor);
                 
-                System.out.printf("Successfully paid $%.2f to %s%n", amount, recipientName);
-                logger.logTransaction(String.format("%s paid %s $%.2f", 
-                    customer.getName(), recipientName, amount));
+                System.out.printf("Successfully paid $%s to %s%n", Money.format(amount), recipientName);
+                Account source = payerAccounts.get(fromAccount);
+                logger.logEvent(TransactionType.PAYMENT, source.getAccountKey(),
+                    recipientAccounts.get(toAccount).getAccountKey(), amount, balance);
             } else {
                 System.out.println("Invalid account selection.");
             }
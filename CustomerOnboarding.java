@@ -0,0 +1,253 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Opens new customers with a checking, savings and credit account.
+ * One customer can be created at a time, or a whole file of new customers
+ * with the columns First Name, Last Name, Date of Birth, Address, Phone
+ * Number, Checking Starting Balance, Savings Starting Balance and Credit Max.
+ * Account numbers are the account type's leading digit followed by a
+ * nine-digit sequence, such as 1000000107 for a checking account, and
+ * customer ids come from a sequence too. Both sequences are atomic counters
+ * starting after the highest number already in use, so any number of
+ * threads can open customers without locking and without collisions; a
+ * file reserves a whole block of numbers with one increment.
+ * New customers are appended to the customer CSV and published to the
+ * customer store in batches, so searches carry on while a file is imported.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class CustomerOnboarding {
+    /** Account numbers of one type differ only below this */
+    private static final long NUMBER_BLOCK = 1_000_000_000L;
+    /** Customers from a file created and published together */
+    private static final int BATCH_SIZE = 4096;
+
+    /** Store the new customers are published to */
+    private final CustomerStore customers;
+    /** Writes the new customers to the customer CSV, or null to keep them in memory only */
+    private final CSVHandler csvHandler;
+    /** Next account number sequence */
+    private final AtomicLong nextSequence = new AtomicLong();
+    /** Next customer id */
+    private final AtomicLong nextCustomerId = new AtomicLong();
+    /** Whether the counters start after the numbers already in use */
+    private volatile boolean seeded;
+
+    /**
+     * A customer read from a file, with the numbers reserved for them.
+     */
+    private static class NewCustomer {
+        /** The customer's profile in customer CSV column order */
+        final String[] record;
+        /** Checking balance in cents */
+        final long checkingBalance;
+        /** Savings balance in cents */
+        final long savingsBalance;
+        /** Credit limit in cents */
+        final long creditLimit;
+
+        /**
+         * Creates a new customer's profile.
+         * @param record profile in customer CSV column order, ids and numbers filled in later
+         * @param checkingBalance checking balance in cents
+         * @param savingsBalance savings balance in cents
+         * @param creditLimit credit limit in cents
+         */
+        NewCustomer(String[] record, long checkingBalance, long savingsBalance, long creditLimit) {
+            this.record = record;
+            this.checkingBalance = checkingBalance;
+            this.savingsBalance = savingsBalance;
+            this.creditLimit = creditLimit;
+        }
+    }
+
+    /**
+     * Creates an onboarding service.
+     * @param customers store the new customers are published to
+     * @param csvHandler writes new customers to the customer CSV, or null to keep them in memory only
+     */
+    public CustomerOnboarding(CustomerStore customers, CSVHandler csvHandler) {
+        this.customers = customers;
+        this.csvHandler = csvHandler;
+    }
+
+    /**
+     * Opens a new customer with a checking, savings and credit account.
+     * @param firstName the first name
+     * @param lastName the last name
+     * @param dateOfBirth the date of birth
+     * @param address the address
+     * @param phone the phone number
+     * @param checkingBalance opening checking balance in cents
+     * @param savingsBalance opening savings balance in cents
+     * @param creditLimit credit limit in cents
+     * @return the new customer
+     * @throws IllegalArgumentException if a name is blank or an amount is negative
+     * @throws IOException if the customer cannot be written to the customer CSV
+     */
+    public Customer createCustomer(String firstName, String lastName, String dateOfBirth, String address,
+                                   String phone, long checkingBalance, long savingsBalance, long creditLimit)
+            throws IOException {
+        NewCustomer profile = validate(firstName, lastName, dateOfBirth, address, phone,
+            checkingBalance, savingsBalance, creditLimit);
+        return publish(Collections.singletonList(profile)).get(0);
+    }
+
+    /**
+     * Opens every customer in a file of new customers.
+     * Rows that are not valid are reported and skipped; the rest are created.
+     * @param file path of the file
+     * @return number of customers created
+     * @throws IOException if the file cannot be read or the customer CSV cannot be written
+     */
+    public int importFile(String file) throws IOException {
+        int created = 0;
+        try (CSVReader reader = new CSVReader(Files.newInputStream(Paths.get(file)))) {
+            List<NewCustomer> batch = new ArrayList<>(BATCH_SIZE);
+            boolean first = true;
+            while (reader.next()) {
+                if (first && reader.getString(0).equalsIgnoreCase("First Name")) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                try {
+                    if (reader.getFieldCount() < 8) {
+                        throw new IllegalArgumentException("Expected 8 columns but found " + reader.getFieldCount());
+                    }
+                    batch.add(validate(reader.getString(0), reader.getString(1), reader.getString(2),
+                        reader.getString(3), reader.getString(4), reader.getCents(5), reader.getCents(6),
+                        reader.getCents(7)));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Error processing line " + reader.getLineNumber() + ": " + e.getMessage());
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    created += publish(batch).size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                created += publish(batch).size();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Checks a new customer's details and puts them in customer CSV order.
+     * @param firstName the first name
+     * @param lastName the last name
+     * @param dateOfBirth the date of birth
+     * @param address the address
+     * @param phone the phone number
+     * @param checkingBalance opening checking balance in cents
+     * @param savingsBalance opening savings balance in cents
+     * @param creditLimit credit limit in cents
+     * @return the profile, without id or account numbers yet
+     * @throws IllegalArgumentException if a name is blank or an amount is negative
+     */
+    private static NewCustomer validate(String firstName, String lastName, String dateOfBirth, String address,
+                                        String phone, long checkingBalance, long savingsBalance,
+                                        long creditLimit) {
+        if (firstName == null || firstName.isBlank() || lastName == null || lastName.isBlank()) {
+            throw new IllegalArgumentException("First and last name are required");
+        }
+        if (checkingBalance < 0 || savingsBalance < 0 || creditLimit < 0) {
+            throw new IllegalArgumentException("Balances and credit limit must not be negative");
+        }
+        String[] record = new String[13];
+        record[1] = firstName.trim();
+        record[2] = lastName.trim();
+        record[3] = dateOfBirth == null ? "" : dateOfBirth.trim();
+        record[4] = address == null ? "" : address.trim();
+        record[5] = phone == null ? "" : phone.trim();
+        record[7] = Money.format(checkingBalance);
+        record[9] = Money.format(savingsBalance);
+        record[11] = Money.format(creditLimit);
+        record[12] = Money.format(0);
+        return new NewCustomer(record, checkingBalance, savingsBalance, creditLimit);
+    }
+
+    /**
+     * Reserves numbers for a batch of new customers, writes them to the
+     * customer CSV, creates their accounts and publishes them to the store.
+     * @param batch the new customers
+     * @return the customers created, in order
+     * @throws IOException if the customer CSV cannot be written
+     */
+    private List<Customer> publish(List<NewCustomer> batch) throws IOException {
+        seed();
+        //one increment reserves the numbers of the whole batch
+        long sequence = nextSequence.getAndAdd(batch.size());
+        long customerId = nextCustomerId.getAndAdd(batch.size());
+        if (sequence + batch.size() > NUMBER_BLOCK) {
+            throw new IllegalStateException("No account numbers left");
+        }
+
+        List<String[]> records = new ArrayList<>(batch.size());
+        for (NewCustomer profile : batch) {
+            String[] record = profile.record;
+            record[0] = Long.toString(customerId++);
+            record[6] = Long.toString(AccountTable.CHECKINGS * NUMBER_BLOCK + sequence);
+            record[8] = Long.toString(AccountTable.SAVINGS * NUMBER_BLOCK + sequence);
+            record[10] = Long.toString(AccountTable.CREDIT * NUMBER_BLOCK + sequence);
+            sequence++;
+            records.add(record);
+        }
+
+        //the profiles are on disk before their accounts are in the ledger, so a failed write leaves no accounts
+        if (csvHandler != null) {
+            csvHandler.appendCustomers(records);
+        }
+
+        List<Customer> created = new ArrayList<>(batch.size());
+        for (NewCustomer profile : batch) {
+            String[] record = profile.record;
+            Customer customer = new Customer(record[1] + " " + record[2], record[0]);
+            List<Account> accounts = new ArrayList<>(3);
+            accounts.add(new Checkings(record[6], profile.checkingBalance));
+            accounts.add(new Savings(record[8], profile.savingsBalance));
+            accounts.add(new Credit(record[10], 0, profile.creditLimit));
+            customer.setAccounts(accounts);
+            created.add(customer);
+        }
+        customers.addAll(created);
+        return created;
+    }
+
+    /**
+     * Starts the counters after the highest account number in the ledger
+     * and the highest customer id in the store. Runs once.
+     */
+    private void seed() {
+        if (seeded) {
+            return;
+        }
+        synchronized (this) {
+            if (seeded) {
+                return;
+            }
+            long highest = 0;
+            for (AccountTable table : AccountTable.sharedTables()) {
+                for (int row = 0; row < table.size(); row++) {
+                    long number = table.getNumber(row);
+                    if (number >= NUMBER_BLOCK && number / NUMBER_BLOCK <= AccountTable.CREDIT) {
+                        highest = Math.max(highest, number % NUMBER_BLOCK);
+                    }
+                }
+            }
+            long highestId = 0;
+            for (Customer customer : customers.getCustomers()) {
+                highestId = Math.max(highestId, Account.toAccountKey(customer.getCustomerID()));
+            }
+            nextSequence.set(highest + 1);
+            nextCustomerId.set(highestId + 1);
+            seeded = true;
+        }
+    }
+}
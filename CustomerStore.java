@@ -0,0 +1,411 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Holds every customer in the bank together with the indexes used to find them.
+ * Customers are keyed by their unique id, so several customers may share a name.
+ * Name lookups go through first-name, last-name and full-name indexes and a
+ * prefix trie, so a search costs time in proportion to the number of matches.
+ * Safe to use from several threads: searches share a read lock and changes
+ * take the write lock, while account lookups through the registry never lock.
+ * Customers can be loaded in the background, in which case every method
+ * waits for the load to finish.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class CustomerStore {
+    /** Most customers added under one hold of the write lock */
+    private static final int PUBLISH_BATCH = 1024;
+
+    /** Customers by unique id */
+    private Map<String, Customer> customersById;
+    /** Customers by full name */
+    private Map<String, List<Customer>> byFullName;
+    /** Customers by first name */
+    private Map<String, List<Customer>> byFirstName;
+    /** Customers by last name */
+    private Map<String, List<Customer>> byLastName;
+    /** First and last names for partial-name searches */
+    private TrieNode namePrefixes;
+    /** Index of all accounts by account number */
+    private AccountRegistry accountRegistry;
+    /** Guards the customer map and every index */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Completes once customers loading in the background have been added */
+    private volatile CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
+
+    /**
+     * One letter of the name prefix trie.
+     * Most nodes have one child and no customers, so both are created only when needed.
+     */
+    private static class TrieNode {
+        /** Next letters, or null for a leaf */
+        private Map<Character, TrieNode> children;
+        /** Customers with a first or last name ending at this letter, or null if none */
+        private List<Customer> customers;
+
+        /**
+         * Gets the child for a letter.
+         * @param letter the next letter
+         * @return the child node, or null if there is none
+         */
+        private TrieNode child(char letter) {
+            return children == null ? null : children.get(letter);
+        }
+
+        /**
+         * Gets the child for a letter, creating it if needed.
+         * @param letter the next letter
+         * @return the child node
+         */
+        private TrieNode addChild(char letter) {
+            if (children == null) {
+                children = new HashMap<>(2);
+            }
+            return children.computeIfAbsent(letter, key -> new TrieNode());
+        }
+    }
+
+    /**
+     * Creates an empty customer store.
+     */
+    public CustomerStore() {
+        this.customersById = new LinkedHashMap<>();
+        this.byFullName = new HashMap<>();
+        this.byFirstName = new HashMap<>();
+        this.byLastName = new HashMap<>();
+        this.namePrefixes = new TrieNode();
+        this.accountRegistry = new AccountRegistry();
+    }
+
+    /**
+     * Adds a customer and indexes their names and accounts.
+     * A customer with the same id replaces the existing one.
+     * @param customer the customer to add
+     */
+    public void add(Customer customer) {
+        awaitLoaded();
+        lock.writeLock().lock();
+        try {
+            index(customer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds many customers at once, in order.
+     * Takes the write lock once per batch, so searches running at the same
+     * time wait for one batch at most, never for the whole collection.
+     * A later customer with the same id replaces an earlier one.
+     * @param customers the customers to add
+     */
+    public void addAll(Collection<Customer> customers) {
+        awaitLoaded();
+        Iterator<Customer> next = customers.iterator();
+        while (next.hasNext()) {
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < PUBLISH_BATCH && next.hasNext(); i++) {
+                    index(next.next());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Loads customers on a background thread and adds them in order.
+     * Every other method waits for the load to finish, so the store can be
+     * handed out before the customers are read. If the load fails, every
+     * other method throws instead of answering from a partly filled store.
+     * @param loader supplies the customers, in order
+     */
+    public void loadInBackground(Supplier<Collection<Customer>> loader) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        loading = done;
+        Thread thread = new Thread(() -> {
+            try {
+                Collection<Customer> loaded = loader.get();
+                lock.writeLock().lock();
+                try {
+                    for (Customer customer : loaded) {
+                        index(customer);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Error loading customers: " + e.getMessage());
+                done.completeExceptionally(e);
+            } finally {
+                done.complete(null);
+            }
+        }, "customer-profile-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits until customers loading in the background have been added.
+     * @throws IllegalStateException if the background load failed
+     */
+    public void awaitLoaded() {
+        try {
+            loading.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Customer data could not be loaded: " + e.getCause().getMessage(),
+                e.getCause());
+        }
+    }
+
+    /**
+     * Adds a customer to the map and indexes; the caller holds the write lock.
+     * @param customer the customer to add
+     */
+    private void index(Customer customer) {
+        Customer previous = customersById.put(customer.getCustomerID(), customer);
+        if (previous != null) {
+            removeFromIndexes(previous);
+            //accounts the new customer keeps are registered to them again below
+            accountRegistry.unregisterCustomer(previous);
+        }
+        String[] names = splitName(customer.getName());
+        byFullName.computeIfAbsent(customer.getName(), name -> new ArrayList<>()).add(customer);
+        byFirstName.computeIfAbsent(names[0], name -> new ArrayList<>()).add(customer);
+        byLastName.computeIfAbsent(names[1], name -> new ArrayList<>()).add(customer);
+        addPrefix(names[0], customer);
+        addPrefix(names[1], customer);
+        accountRegistry.registerCustomer(customer);
+    }
+
+    /**
+     * Finds a customer by unique id.
+     * @param customerID the customer's id
+     * @return the customer, or null if not found
+     */
+    public Customer getById(String customerID) {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return customersById.get(customerID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every customer with the given full name.
+     * @param fullName first and last name separated by a space
+     * @return matching customers, empty if none
+     */
+    public List<Customer> findByFullName(String fullName) {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return copyOf(byFullName.get(fullName));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every customer with the given first name.
+     * @param firstName the first name
+     * @return matching customers, empty if none
+     */
+    public List<Customer> findByFirstName(String firstName) {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return copyOf(byFirstName.get(firstName));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every customer with the given last name.
+     * @param lastName the last name
+     * @return matching customers, empty if none
+     */
+    public List<Customer> findByLastName(String lastName) {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return copyOf(byLastName.get(lastName));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every customer whose first or last name starts with the given text.
+     * Ignores case.
+     * @param prefix start of a first or last name
+     * @return matching customers, each listed once
+     */
+    public List<Customer> findByNamePrefix(String prefix) {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            TrieNode node = namePrefixes;
+            String key = prefix.toLowerCase();
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            Set<Customer> found = new LinkedHashSet<>();
+            if (node != null && !key.isEmpty()) {
+                collect(node, found);
+            }
+            return new ArrayList<>(found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the index of all accounts by account number.
+     * @return the account registry
+     */
+    public AccountRegistry getAccountRegistry() {
+        awaitLoaded();
+        return accountRegistry;
+    }
+
+    /**
+     * Gets every customer in the store.
+     * @return copy of all customers, in the order they were added
+     */
+    public List<Customer> getCustomers() {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(customersById.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of customers.
+     * @return customer count
+     */
+    public int size() {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return customersById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits a full name into first name and the rest.
+     * @param fullName the full name
+     * @return first name and last name
+     */
+    private static String[] splitName(String fullName) {
+        int space = fullName.indexOf(' ');
+        if (space < 0) {
+            return new String[] {fullName, ""};
+        }
+        return new String[] {fullName.substring(0, space), fullName.substring(space + 1)};
+    }
+
+    /**
+     * Adds a name to the prefix trie.
+     * @param name a first or last name
+     * @param customer the customer with that name
+     */
+    private void addPrefix(String name, Customer customer) {
+        if (name.isEmpty()) {
+            return;
+        }
+        TrieNode node = namePrefixes;
+        String key = name.toLowerCase();
+        for (int i = 0; i < key.length(); i++) {
+            node = node.addChild(key.charAt(i));
+        }
+        if (node.customers == null) {
+            node.customers = new ArrayList<>(1);
+        }
+        node.customers.add(customer);
+    }
+
+    /**
+     * Removes a name from the prefix trie.
+     * @param name a first or last name
+     * @param customer the customer with that name
+     */
+    private void removePrefix(String name, Customer customer) {
+        TrieNode node = namePrefixes;
+        String key = name.toLowerCase();
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        if (node != null && node.customers != null) {
+            node.customers.remove(customer);
+        }
+    }
+
+    /**
+     * Removes a replaced customer from the name indexes.
+     * @param customer the customer being replaced
+     */
+    private void removeFromIndexes(Customer customer) {
+        String[] names = splitName(customer.getName());
+        removeFrom(byFullName, customer.getName(), customer);
+        removeFrom(byFirstName, names[0], customer);
+        removeFrom(byLastName, names[1], customer);
+        removePrefix(names[0], customer);
+        removePrefix(names[1], customer);
+    }
+
+    /**
+     * Removes a customer from one name index.
+     * @param index the index
+     * @param name the name the customer is listed under
+     * @param customer the customer to remove
+     */
+    private static void removeFrom(Map<String, List<Customer>> index, String name, Customer customer) {
+        List<Customer> matches = index.get(name);
+        if (matches != null) {
+            matches.remove(customer);
+            if (matches.isEmpty()) {
+                index.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Collects every customer under a trie node.
+     * @param node the node to start from
+     * @param found set receiving the customers
+     */
+    private static void collect(TrieNode node, Set<Customer> found) {
+        if (node.customers != null) {
+            found.addAll(node.customers);
+        }
+        if (node.children != null) {
+            for (TrieNode child : node.children.values()) {
+                collect(child, found);
+            }
+        }
+    }
+
+    /**
+     * Copies an index entry so callers can't change the index.
+     * @param matches list from an index, may be null
+     * @return a new list with the same customers
+     */
+    private static List<Customer> copyOf(List<Customer> matches) {
+        return matches == null ? new ArrayList<>() : new ArrayList<>(matches);
+    }
+}
@@ -0,0 +1,122 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * The log of every banking activity, as the rest of the bank uses it.
+ * TransactionLog keeps one log; ShardedTransactionLog keeps one per ledger
+ * shard and merges them when read, so callers see the same log either way.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public interface EventLog {
+    /**
+     * Sets how account numbers are turned into owner names when rendering entries.
+     * @param owners looks up the owner's name for an account number
+     */
+    void setOwnerResolver(LongFunction<String> owners);
+
+    /**
+     * Logs a new transaction event.
+     * @param type kind of activity
+     * @param accountNumber account the activity happened on
+     * @param counterparty other account involved, or TransactionEvent.NO_ACCOUNT
+     * @param amount cents moved, or 0 for inquiries
+     * @param balance balance of the account in cents after the activity
+     * @throws IllegalStateException if the log could not write earlier entries
+     */
+    void logEvent(TransactionType type, long accountNumber, long counterparty, long amount, long balance);
+
+    /**
+     * Blocks until every entry logged before this call has been written.
+     * @throws IllegalStateException if the entries could not be written
+     */
+    void flush();
+
+    /**
+     * Writes every queued entry and closes the log.
+     * Entries logged after this call are rejected.
+     * @throws IllegalStateException if the entries could not be written
+     */
+    void close();
+
+    /**
+     * Gets the most recent log entries kept in memory, oldest first.
+     * @return list of recent transaction logs
+     */
+    List<String> getRecentEntries();
+
+    /**
+     * Gets the most recent events kept in memory, oldest first.
+     * @return list of recent transaction events
+     */
+    List<TransactionEvent> getRecentEvents();
+
+    /**
+     * Gets one page of log entries.
+     * @param firstEntry zero-based index of the first entry to return
+     * @param pageSize maximum number of entries to return
+     * @return list of at most pageSize transaction logs
+     * @throws IllegalArgumentException if the position or size is negative
+     */
+    List<String> getLogEntries(long firstEntry, int pageSize);
+
+    /**
+     * Gets every log entry written within a time range.
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @return list of transaction logs in the range, oldest first
+     */
+    List<String> getLogEntriesBetween(long fromMillis, long toMillis);
+
+    /**
+     * Reads every event written within a time range, oldest first.
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @param consumer receives each event in the range
+     * @throws IOException if the log cannot be read
+     */
+    void readEventsBetween(long fromMillis, long toMillis, Consumer<TransactionEvent> consumer) throws IOException;
+
+    /**
+     * Gets the most recent log entries involving an account.
+     * @param accountNumber the account
+     * @param limit maximum number of entries
+     * @return list of transaction logs, oldest first
+     */
+    List<String> getAccountEntries(long accountNumber, int limit);
+
+    /**
+     * Gets the most recent events involving an account, as the account or the counterparty.
+     * @param accountNumber the account
+     * @param limit maximum number of events
+     * @return the events, oldest first
+     */
+    List<TransactionEvent> getAccountEvents(long accountNumber, int limit);
+
+    /**
+     * Gets the events involving an account within a time range.
+     * @param accountNumber the account
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @return the events, oldest first
+     */
+    List<TransactionEvent> getAccountEventsBetween(long accountNumber, long fromMillis, long toMillis);
+
+    /**
+     * Streams every log entry as text without loading the log into memory.
+     * The caller must close the stream.
+     * @return lazily read stream of transaction logs
+     */
+    Stream<String> streamLogEntries();
+
+    /**
+     * Streams every log entry as a typed event without loading the log into memory.
+     * The caller must close the stream.
+     * @return lazily read stream of transaction events
+     */
+    Stream<TransactionEvent> streamEvents();
+}
@@ -0,0 +1,288 @@
+package bank;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts and latency distribution of one kind of operation.
+ * Latencies go into log-linear buckets like an HDR histogram: values below
+ * 16 ns have a bucket each, and every power of two above that is split into
+ * 16 buckets, so a percentile is within about 6% of the real value from
+ * nanoseconds up to over an hour, in under 700 buckets.
+ * Recording allocates nothing and takes no lock. The counts are striped:
+ * each thread is given the next stripe in turn the first time it records,
+ * and keeps it, so threads started one after another, such as the workers
+ * of a pool, record on different stripes and don't contend on a counter or
+ * share a cache line until there are more of them than stripes. Reading
+ * adds the stripes up.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+    /** Bits of a value kept below its highest bit */
+    private static final int SUB_BUCKET_BITS = 4;
+    /** Buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Highest bit of the largest value told apart, larger values are counted as this */
+    private static final int MAX_BIT = 42;
+    /** Number of buckets */
+    private static final int BUCKETS = (MAX_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    /** Slot of the latency total within a stripe */
+    private static final int SUM = BUCKETS;
+    /** Slot of the longest latency within a stripe */
+    private static final int MAX = BUCKETS + 1;
+    /** Slot of the failure count within a stripe */
+    private static final int FAILURES = BUCKETS + 2;
+    /** Slots per stripe, padded so stripes don't share a cache line */
+    private static final int STRIDE = BUCKETS + 16;
+
+    /** Next stripe number to give a thread */
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+    /** Stripe number of each thread, the same in every histogram */
+    private static final ThreadLocal<Integer> THREAD_STRIPE = ThreadLocal.withInitial(NEXT_STRIPE::getAndIncrement);
+
+    /** Name of the operation */
+    private final String name;
+    /** Every stripe's slots, one after another */
+    private final AtomicLongArray slots;
+    /** Stripe count minus one, the count being a power of two */
+    private final int stripeMask;
+
+    /**
+     * Counts of a histogram added up at one moment.
+     */
+    public static class Snapshot {
+        /** Operations in each bucket */
+        private final long[] buckets;
+        /** Number of operations */
+        private final long count;
+        /** Total latency in nanoseconds */
+        private final long sum;
+        /** Longest latency in nanoseconds */
+        private final long max;
+        /** Number of rejected operations */
+        private final long failures;
+
+        /**
+         * Creates a snapshot.
+         * @param buckets operations in each bucket
+         * @param count number of operations
+         * @param sum total latency in nanoseconds
+         * @param max longest latency in nanoseconds
+         * @param failures number of rejected operations
+         */
+        Snapshot(long[] buckets, long count, long sum, long max, long failures) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.failures = failures;
+        }
+
+        /**
+         * Gets the number of operations.
+         * @return operation count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the number of rejected operations.
+         * @return failure count
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Gets the mean latency.
+         * @return mean in nanoseconds, 0 if there were no operations
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Gets the longest latency.
+         * @return maximum in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the latency that a percentage of operations were at or under.
+         * @param percentile the percentage, such as 99.9
+         * @return the latency in nanoseconds, the top of its bucket but never above the maximum
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank) {
+                    //the last bucket also holds every larger latency, so its top may be under them
+                    return bucket == BUCKETS - 1 ? max : Math.min(highestValue(bucket), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Creates an empty histogram.
+     * @param name name of the operation
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+        int stripes = Integer.highestOneBit(Math.max(8, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1;
+        this.stripeMask = stripes - 1;
+        this.slots = new AtomicLongArray(stripes * STRIDE);
+    }
+
+    /**
+     * Gets the name of the operation.
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records an operation that started at the given time and just finished.
+     * @param startNanos System.nanoTime() when the operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records an operation's latency.
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int base = stripe();
+        slots.getAndIncrement(base + bucketOf(value));
+        slots.getAndAdd(base + SUM, value);
+        long max;
+        while ((max = slots.get(base + MAX)) < value && !slots.compareAndSet(base + MAX, max, value)) {
+            //another thread on this stripe raised it first, check again
+        }
+    }
+
+    /**
+     * Records a rejected operation.
+     */
+    public void recordFailure() {
+        slots.getAndIncrement(stripe() + FAILURES);
+    }
+
+    /**
+     * Adds up every stripe.
+     * @return the counts as of now
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        long failures = 0;
+        for (int base = 0; base < slots.length(); base += STRIDE) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                long value = slots.get(base + bucket);
+                buckets[bucket] += value;
+                count += value;
+            }
+            sum += slots.get(base + SUM);
+            max = Math.max(max, slots.get(base + MAX));
+            failures += slots.get(base + FAILURES);
+        }
+        return new Snapshot(buckets, count, sum, max, failures);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, 0);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public long getFailures() {
+        return snapshot().getFailures();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return snapshot().getMean() / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return snapshot().getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return snapshot().getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return snapshot().getPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return snapshot().getMax() / 1000.0;
+    }
+
+    /**
+     * Finds the first slot of the calling thread's stripe.
+     * @return slot index
+     */
+    private int stripe() {
+        return (THREAD_STRIPE.get() & stripeMask) * STRIDE;
+    }
+
+    /**
+     * Finds the bucket of a latency.
+     * @param value latency in nanoseconds, not negative
+     * @return bucket index
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_BIT);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        if (highestBit == MAX_BIT && value >>> MAX_BIT > 1) {
+            return BUCKETS - 1;
+        }
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Finds the largest latency that falls in a bucket.
+     * @param bucket bucket index
+     * @return latency in nanoseconds
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
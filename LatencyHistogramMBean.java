@@ -0,0 +1,56 @@
+package bank;
+
+/**
+ * Management interface of a LatencyHistogram, so each banking operation's
+ * counts and latencies can be read over JMX.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public interface LatencyHistogramMBean {
+    /**
+     * Gets the number of operations that completed.
+     * @return operation count
+     */
+    long getCount();
+
+    /**
+     * Gets the number of operations that were rejected.
+     * @return failure count
+     */
+    long getFailures();
+
+    /**
+     * Gets the mean latency.
+     * @return mean in microseconds
+     */
+    double getMeanMicros();
+
+    /**
+     * Gets the median latency.
+     * @return 50th percentile in microseconds
+     */
+    double getP50Micros();
+
+    /**
+     * Gets the 99th percentile latency.
+     * @return 99th percentile in microseconds
+     */
+    double getP99Micros();
+
+    /**
+     * Gets the 99.9th percentile latency.
+     * @return 99.9th percentile in microseconds
+     */
+    double getP999Micros();
+
+    /**
+     * Gets the longest latency.
+     * @return maximum in microseconds
+     */
+    double getMaxMicros();
+
+    /**
+     * Clears every count.
+     */
+    void reset();
+}
@@ -0,0 +1,354 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Brings transaction history written in the older text formats into the
+ * binary transaction log, so no history is lost when the format changes.
+ * Two formats are imported:
+ * the single transaction_log.txt file written before the log had segments,
+ * which goes into segment 0, ahead of every other segment, and
+ * segments whose entries are text lines rather than binary records, which
+ * are converted in place and keep the timestamps in their index.
+ * Each line is parsed back into a typed event. Lines that name no account,
+ * such as payments between customers, are kept word for word in a text
+ * file beside their segment and logged as LEGACY_TEXT events pointing at it.
+ * A segment is built in a staging directory and moved into place with its
+ * data file last, and a segment counts as imported once its data is binary,
+ * so a crash part way only repeats the import.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class LegacyLogImporter {
+    /** Name of the text file written before the log had segments */
+    public static final String LEGACY_FILE = "transaction_log.txt";
+    /** Suffix of the file holding the lines of a segment that name no account */
+    public static final String TEXT_SUFFIX = ".txt";
+    /** Directory inside the log directory where segments are built */
+    private static final String STAGING_DIR = "import";
+    /** Size of one encoded entry */
+    private static final int RECORD_SIZE = TransactionEvent.RECORD_SIZE;
+
+    /** Text of a BALANCE_INQUIRY event */
+    private static final Pattern BALANCE_INQUIRY = Pattern.compile("Balance inquiry for (\\d+): \\$(-?[\\d.]+)");
+    /** Text of a DEPOSIT event */
+    private static final Pattern DEPOSIT = Pattern.compile(
+        "Deposit of \\$([\\d.]+) to (\\d+)\\. New balance: \\$(-?[\\d.]+)");
+    /** Text of a WITHDRAWAL event */
+    private static final Pattern WITHDRAWAL = Pattern.compile(
+        "Withdrawal of \\$([\\d.]+) from (\\d+)\\. New balance: \\$(-?[\\d.]+)");
+    /** Text of a CUSTOMER_INQUIRY event */
+    private static final Pattern CUSTOMER_INQUIRY = Pattern.compile(
+        ".+ made a balance inquiry on (\\d+)\\. Balance: \\$(-?[\\d.]+)");
+    /** Text of a CUSTOMER_DEPOSIT event */
+    private static final Pattern CUSTOMER_DEPOSIT = Pattern.compile(".+ deposited \\$([\\d.]+) to (\\d+)");
+    /** Text of a CUSTOMER_WITHDRAWAL event */
+    private static final Pattern CUSTOMER_WITHDRAWAL = Pattern.compile(".+ withdrew \\$([\\d.]+) from (\\d+)");
+    /** Text of a TRANSFER event */
+    private static final Pattern TRANSFER = Pattern.compile(".+ transferred \\$([\\d.]+) from (\\d+) to (\\d+)");
+    /** Text of a MANAGER_ACCOUNT_INQUIRY event */
+    private static final Pattern MANAGER_ACCOUNT_INQUIRY = Pattern.compile(
+        "Bank Manager inquired about account (\\d+)\\. Balance: \\$(-?[\\d.]+)");
+    /** Text of a MANAGER_CUSTOMER_INQUIRY event */
+    private static final Pattern MANAGER_CUSTOMER_INQUIRY = Pattern.compile(
+        "Bank Manager inquired about .+'s (\\d+)\\. Balance: \\$(-?[\\d.]+)");
+
+    /**
+     * Utility class, not instantiated.
+     */
+    private LegacyLogImporter() {
+    }
+
+    /**
+     * Imports the legacy text file into segment 0 unless it already has
+     * been, and converts every segment still holding text lines.
+     * Does nothing when there is no text history.
+     * Must run before the log opens its segments.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @param legacyFile the text file written before the log had segments, may not exist
+     * @throws IOException if the history cannot be read or the segments written
+     */
+    public static void importInto(Path directory, String baseName, Path legacyFile) throws IOException {
+        TreeSet<Long> sequences = findSegments(directory, baseName);
+        Path staging = directory.resolve(STAGING_DIR);
+        //a staging directory left by a crash holds nothing that is not rebuilt below
+        deleteStaging(staging);
+
+        for (long sequence : sequences) {
+            LogSegment segment = new LogSegment(directory, baseName, sequence);
+            if (firstByte(segment) > 0) {
+                convertSegment(directory, baseName, segment, staging);
+            } else {
+                removeLeftovers(directory, baseName, sequence);
+            }
+        }
+
+        if (Files.exists(legacyFile) && firstByte(new LogSegment(directory, baseName, 0)) != 0) {
+            //the file stopped being written before any segment, so keep its entries first
+            long timestamp = Files.getLastModifiedTime(legacyFile).toMillis();
+            for (long sequence : sequences) {
+                LogSegment segment = new LogSegment(directory, baseName, sequence);
+                if (segment.getEntryCount() > 0) {
+                    timestamp = Math.min(timestamp, segment.getFirstTimestamp());
+                    break;
+                }
+            }
+            List<String> lines = Files.readAllLines(legacyFile, StandardCharsets.UTF_8);
+            lines.removeIf(String::isBlank);
+            if (!lines.isEmpty()) {
+                long[] timestamps = new long[lines.size()];
+                Arrays.fill(timestamps, timestamp);
+                writeSegment(directory, baseName, 0, lines, timestamps, staging);
+            }
+        }
+        deleteStaging(staging);
+    }
+
+    /**
+     * Reads the kept text lines of every segment in a log directory.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @return the lines of each segment that has any, keyed by segment sequence
+     * @throws IOException if a text file cannot be read
+     */
+    public static Map<Long, List<String>> readText(Path directory, String baseName) throws IOException {
+        Map<Long, List<String>> text = new HashMap<>();
+        Pattern textFile = Pattern.compile(Pattern.quote(baseName) + "-(\\d+)" + Pattern.quote(TEXT_SUFFIX));
+        if (!Files.isDirectory(directory)) {
+            return text;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = textFile.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    text.put(Long.parseLong(matcher.group(1)), Files.readAllLines(file, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Parses a text log line back into a typed event.
+     * @param line the log line
+     * @param timestamp time the line was logged, in epoch milliseconds
+     * @return the event, or null if the line names no account or has an unknown format
+     */
+    public static TransactionEvent parse(String line, long timestamp) {
+        try {
+            Matcher m;
+            if ((m = BALANCE_INQUIRY.matcher(line)).matches()) {
+                return event(TransactionType.BALANCE_INQUIRY, timestamp, m.group(1), null, null, m.group(2));
+            }
+            if ((m = DEPOSIT.matcher(line)).matches()) {
+                return event(TransactionType.DEPOSIT, timestamp, m.group(2), null, m.group(1), m.group(3));
+            }
+            if ((m = WITHDRAWAL.matcher(line)).matches()) {
+                return event(TransactionType.WITHDRAWAL, timestamp, m.group(2), null, m.group(1), m.group(3));
+            }
+            if ((m = MANAGER_ACCOUNT_INQUIRY.matcher(line)).matches()) {
+                return event(TransactionType.MANAGER_ACCOUNT_INQUIRY, timestamp, m.group(1), null, null, m.group(2));
+            }
+            if ((m = MANAGER_CUSTOMER_INQUIRY.matcher(line)).matches()) {
+                return event(TransactionType.MANAGER_CUSTOMER_INQUIRY, timestamp, m.group(1), null, null, m.group(2));
+            }
+            if ((m = CUSTOMER_INQUIRY.matcher(line)).matches()) {
+                return event(TransactionType.CUSTOMER_INQUIRY, timestamp, m.group(1), null, null, m.group(2));
+            }
+            if ((m = CUSTOMER_DEPOSIT.matcher(line)).matches()) {
+                return event(TransactionType.CUSTOMER_DEPOSIT, timestamp, m.group(2), null, m.group(1), null);
+            }
+            if ((m = CUSTOMER_WITHDRAWAL.matcher(line)).matches()) {
+                return event(TransactionType.CUSTOMER_WITHDRAWAL, timestamp, m.group(2), null, m.group(1), null);
+            }
+            if ((m = TRANSFER.matcher(line)).matches()) {
+                return event(TransactionType.TRANSFER, timestamp, m.group(2), m.group(3), m.group(1), null);
+            }
+        } catch (IllegalArgumentException e) {
+            //an amount or account number out of range; keep the line as text
+        }
+        return null;
+    }
+
+    /**
+     * Builds an event from the parts of a parsed line.
+     * @param type kind of activity
+     * @param timestamp time of the activity
+     * @param account account number
+     * @param counterparty other account number, or null
+     * @param amount dollar amount moved, or null for inquiries
+     * @param balance dollar balance shown, or null if the line has none
+     * @return the event
+     */
+    private static TransactionEvent event(TransactionType type, long timestamp, String account,
+                                          String counterparty, String amount, String balance) {
+        return new TransactionEvent(type, timestamp, Long.parseLong(account),
+            counterparty == null ? TransactionEvent.NO_ACCOUNT : Long.parseLong(counterparty),
+            amount == null ? 0 : Money.parse(amount), balance == null ? 0 : Money.parse(balance));
+    }
+
+    /**
+     * Finds the sequence numbers of the segments in a log directory.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @return the sequence numbers, ascending
+     * @throws IOException if the directory cannot be listed
+     */
+    private static TreeSet<Long> findSegments(Path directory, String baseName) throws IOException {
+        TreeSet<Long> sequences = new TreeSet<>();
+        if (!Files.isDirectory(directory)) {
+            return sequences;
+        }
+        Pattern segmentFile = Pattern.compile(Pattern.quote(baseName) + "-(\\d+)"
+            + "(" + Pattern.quote(LogSegment.LOG_SUFFIX) + "|" + Pattern.quote(LogSegment.COMPRESSED_SUFFIX) + ")");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = segmentFile.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    sequences.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Reads the first byte of a segment. A binary entry starts with the high
+     * byte of its timestamp, which is 0, and a text line never does.
+     * @param segment the segment
+     * @return the byte, or -1 if the segment is empty or has no data file
+     * @throws IOException if the segment cannot be read
+     */
+    private static int firstByte(LogSegment segment) throws IOException {
+        try (InputStream in = segment.openStream(0)) {
+            return in.read();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Converts a segment of text lines into binary entries with the same timestamps.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @param segment the text segment
+     * @param staging directory to build the new segment in
+     * @throws IOException if the segment cannot be read or written
+     */
+    private static void convertSegment(Path directory, String baseName, LogSegment segment, Path staging)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(segment.openStream(0), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        //only lines the index has a timestamp for were fully written
+        int count = (int) Math.min(lines.size(), segment.getEntryCount());
+        long[] timestamps = segment.readTimestamps(0, count);
+        writeSegment(directory, baseName, segment.getSequence(), lines.subList(0, count), timestamps, staging);
+    }
+
+    /**
+     * Writes text lines as a binary segment and moves it into the log directory,
+     * replacing the segment with the same sequence number.
+     * The kept text and index are moved first and the data file last, so the
+     * segment only reads as binary once it is complete.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @param sequence sequence number of the segment
+     * @param lines the log lines, oldest first
+     * @param timestamps time each line was logged
+     * @param staging directory to build the segment in
+     * @throws IOException if the segment cannot be written
+     */
+    private static void writeSegment(Path directory, String baseName, long sequence, List<String> lines,
+                                     long[] timestamps, Path staging) throws IOException {
+        deleteStaging(staging);
+        Files.createDirectories(staging);
+        LogSegment built = new LogSegment(staging, baseName, sequence);
+        built.openForAppend();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        List<String> text = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            TransactionEvent event = parse(lines.get(i), timestamps[i]);
+            if (event == null) {
+                //point at the line's place in the kept text, see TransactionRenderer
+                event = new TransactionEvent(TransactionType.LEGACY_TEXT, timestamps[i], TransactionEvent.NO_ACCOUNT,
+                    TransactionEvent.NO_ACCOUNT, text.size(), sequence);
+                text.add(lines.get(i));
+            }
+            TransactionEvent.encode(record, 0, event.getType(), event.getTimestamp(), event.getAccountNumber(),
+                event.getCounterparty(), event.getAmount(), event.getBalance());
+            built.append(record, 0, RECORD_SIZE, event.getTimestamp());
+        }
+        built.closeForAppend(true);
+
+        String name = String.format("%s-%06d", baseName, sequence);
+        if (!text.isEmpty()) {
+            Path textFile = staging.resolve(name + TEXT_SUFFIX);
+            Files.write(textFile, text, StandardCharsets.UTF_8);
+            install(textFile, directory);
+        }
+        install(staging.resolve(name + LogSegment.INDEX_SUFFIX), directory);
+        install(staging.resolve(name + LogSegment.LOG_SUFFIX), directory);
+        removeLeftovers(directory, baseName, sequence);
+    }
+
+    /**
+     * Forces a built file to disk and moves it into the log directory, replacing any file of the same name.
+     * @param file the file in the staging directory
+     * @param directory directory holding the log segments
+     * @throws IOException if the file cannot be moved
+     */
+    private static void install(Path file, Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(file, directory.resolve(file.getFileName()),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the compressed copy of a segment whose uncompressed data file is
+     * binary, left when a crash stopped a conversion after its data file was
+     * moved in. The segment is compressed again later.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @param sequence sequence number of the segment
+     * @throws IOException if the files cannot be deleted
+     */
+    private static void removeLeftovers(Path directory, String baseName, long sequence) throws IOException {
+        String name = String.format("%s-%06d", baseName, sequence);
+        if (Files.exists(directory.resolve(name + LogSegment.LOG_SUFFIX))) {
+            Files.deleteIfExists(directory.resolve(name + LogSegment.COMPRESSED_SUFFIX));
+            Files.deleteIfExists(directory.resolve(name + LogSegment.BLOCKS_SUFFIX));
+        }
+    }
+
+    /**
+     * Deletes the staging directory and everything in it.
+     * @param staging the staging directory
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void deleteStaging(Path staging) throws IOException {
+        if (!Files.isDirectory(staging)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(staging)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(staging);
+    }
+}
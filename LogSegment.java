@@ -0,0 +1,594 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.*;
+import java.util.function.Consumer;
+import java.util.zip.*;
+
+/**
+ * One rolling segment of the transaction log.
+ * Each segment is a file of encoded entries plus a sidecar index holding the
+ * offset and timestamp of every entry, so readers can seek straight to an entry.
+ * Closed segments can be compressed; the index keeps the uncompressed offsets.
+ * A segment is compressed in independent blocks with a sidecar of block
+ * offsets, so reading one entry only decompresses the block holding it.
+ * A closed segment also has a sidecar from account number to the entries
+ * involving that account, so an account's history is found without keeping
+ * every segment's entries in memory.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class LogSegment {
+    /** Suffix of an uncompressed segment file */
+    public static final String LOG_SUFFIX = ".log";
+    /** Suffix of a compressed segment file */
+    public static final String COMPRESSED_SUFFIX = ".log.gz";
+    /** Suffix of the sidecar index file */
+    public static final String INDEX_SUFFIX = ".idx";
+    /** Suffix of the sidecar holding where each compressed block starts */
+    public static final String BLOCKS_SUFFIX = ".blk";
+    /** Suffix of the sidecar from account number to the account's entries */
+    public static final String ACCOUNTS_SUFFIX = ".acx";
+    /** Size of one index record: entry offset and timestamp */
+    private static final int INDEX_RECORD_SIZE = 16;
+    /** Size of one account record: account number, position of its first entry number and entry count */
+    private static final int ACCOUNT_RECORD_SIZE = 24;
+    /** Size of the write buffers used while the segment is active */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Uncompressed bytes in each compressed block */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /** Position of this segment in the log */
+    private long sequence;
+    /** Segment file while uncompressed */
+    private Path logPath;
+    /** Segment file once compressed */
+    private Path compressedPath;
+    /** Sidecar index file */
+    private Path indexPath;
+    /** Sidecar of compressed block offsets */
+    private Path blocksPath;
+    /** Sidecar from account number to entries */
+    private Path accountsPath;
+    /** Number of entries in the segment */
+    private long entryCount;
+    /** Uncompressed size of the segment in bytes */
+    private long sizeBytes;
+    /** Timestamp of the first entry, or -1 when empty */
+    private long firstTimestamp = -1;
+    /** Timestamp of the last entry, or -1 when empty */
+    private long lastTimestamp = -1;
+    /** Appender for entries while the segment is active */
+    private FileChannel logChannel;
+    /** Appender for index records while the segment is active */
+    private FileChannel indexChannel;
+    /** Pending entry bytes */
+    private ByteBuffer logBuffer;
+    /** Pending index records */
+    private ByteBuffer indexBuffer;
+
+    /**
+     * Creates a handle to the segment with the given sequence number.
+     * Reads the entry count and first/last timestamps from its index if it exists.
+     * @param directory directory holding the log segments
+     * @param baseName common file name prefix of the segments
+     * @param sequence position of this segment in the log
+     * @throws IOException if the index cannot be read
+     */
+    public LogSegment(Path directory, String baseName, long sequence) throws IOException {
+        this.sequence = sequence;
+        String name = String.format("%s-%06d", baseName, sequence);
+        this.logPath = directory.resolve(name + LOG_SUFFIX);
+        this.compressedPath = directory.resolve(name + COMPRESSED_SUFFIX);
+        this.indexPath = directory.resolve(name + INDEX_SUFFIX);
+        this.blocksPath = directory.resolve(name + BLOCKS_SUFFIX);
+        this.accountsPath = directory.resolve(name + ACCOUNTS_SUFFIX);
+
+        if (Files.exists(indexPath)) {
+            try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                entryCount = index.size() / INDEX_RECORD_SIZE;
+                if (entryCount > 0) {
+                    firstTimestamp = readIndex(index, 0, 8);
+                    lastTimestamp = readIndex(index, entryCount - 1, 8);
+                }
+            }
+        }
+        if (Files.exists(logPath)) {
+            sizeBytes = Files.size(logPath);
+        }
+    }
+
+    /**
+     * Gets the position of this segment in the log.
+     * @return the segment sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the number of entries in the segment.
+     * @return entry count
+     */
+    public synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the uncompressed size of the segment.
+     * @return size in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Gets the timestamp of the first entry.
+     * @return epoch milliseconds, or -1 when the segment is empty
+     */
+    public synchronized long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * Gets the timestamp of the last entry.
+     * @return epoch milliseconds, or -1 when the segment is empty
+     */
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Gets the day the segment started on.
+     * @return local date of the first entry, or null when the segment is empty
+     */
+    public LocalDate getStartDay() {
+        long first = getFirstTimestamp();
+        if (first < 0) {
+            return null;
+        }
+        return Instant.ofEpochMilli(first).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    /**
+     * Checks whether the segment has been compressed.
+     * @return true if only the compressed file is left
+     */
+    public boolean isCompressed() {
+        return !Files.exists(logPath) && Files.exists(compressedPath);
+    }
+
+    /**
+     * Checks whether the segment has its account sidecar.
+     * @return true if the account sidecar has been written
+     */
+    public boolean hasAccountIndex() {
+        return Files.exists(accountsPath);
+    }
+
+    /**
+     * Opens the segment for appending entries.
+     * @throws IOException if the files cannot be opened
+     */
+    public synchronized void openForAppend() throws IOException {
+        logChannel = FileChannel.open(logPath,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        indexChannel = FileChannel.open(indexPath,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        logBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        indexBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        sizeBytes = logChannel.size();
+    }
+
+    /**
+     * Adds an entry to the segment. The entry reaches the file on the next write.
+     * @param source buffer holding the encoded entry
+     * @param offset byte position of the entry in the source buffer
+     * @param length size of the entry in bytes
+     * @param timestamp time the entry was logged, in epoch milliseconds
+     * @throws IOException if a full buffer cannot be written
+     */
+    public synchronized void append(ByteBuffer source, int offset, int length, long timestamp) throws IOException {
+        if (length > logBuffer.remaining() || indexBuffer.remaining() < INDEX_RECORD_SIZE) {
+            write(false);
+        }
+        if (length > logBuffer.capacity()) {
+            logBuffer = ByteBuffer.allocateDirect(length);
+        }
+        logBuffer.put(logBuffer.position(), source, offset, length);
+        logBuffer.position(logBuffer.position() + length);
+        indexBuffer.putLong(sizeBytes).putLong(timestamp);
+
+        sizeBytes += length;
+        entryCount++;
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Writes all pending entries and index records to disk.
+     * The entries are written before their index records so the index never
+     * points past the end of the segment.
+     * @param fsync true to force the files to disk after writing
+     * @throws IOException if the write fails
+     */
+    public synchronized void write(boolean fsync) throws IOException {
+        drain(logBuffer, logChannel);
+        if (fsync) {
+            logChannel.force(false);
+        }
+        drain(indexBuffer, indexChannel);
+        if (fsync) {
+            indexChannel.force(false);
+        }
+    }
+
+    /**
+     * Writes pending data and closes the segment for appending.
+     * @param fsync true to force the files to disk before closing
+     * @throws IOException if the write or close fails
+     */
+    public synchronized void closeForAppend(boolean fsync) throws IOException {
+        if (logChannel == null) {
+            return;
+        }
+        write(fsync);
+        logChannel.close();
+        indexChannel.close();
+        logChannel = null;
+        indexChannel = null;
+        logBuffer = null;
+        indexBuffer = null;
+    }
+
+    /**
+     * Compresses a closed segment and removes the uncompressed file.
+     * Every block is a separate gzip member, so the file is still one valid
+     * gzip stream, and the offset of each member goes in the blocks sidecar.
+     * The compressed copy is written under a temporary name first so a crash
+     * never leaves a half-written segment in place.
+     * @throws IOException if compression fails
+     */
+    public void compress() throws IOException {
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        Path temp = compressedPath.resolveSibling(compressedPath.getFileName() + ".tmp");
+        Path blocksTemp = blocksPath.resolveSibling(blocksPath.getFileName() + ".tmp");
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(logPath), BUFFER_SIZE);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream blocks = new DataOutputStream(new BufferedOutputStream(
+                 Files.newOutputStream(blocksTemp)))) {
+            byte[] block = new byte[BLOCK_SIZE];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(BLOCK_SIZE);
+            int read;
+            while ((read = in.readNBytes(block, 0, BLOCK_SIZE)) > 0) {
+                blocks.writeLong(out.position());
+                compressed.reset();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, BUFFER_SIZE)) {
+                    gzip.write(block, 0, read);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(compressed.toByteArray());
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+            }
+        }
+        Files.move(blocksTemp, blocksPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp, compressedPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(logPath);
+    }
+
+    /**
+     * Writes the account sidecar of a closed segment.
+     * The file holds the number of accounts, then one record per account in
+     * account number order saying where its entry numbers start and how many
+     * there are, then the entry numbers of every account, oldest first.
+     * It is written under a temporary name first, like a compressed segment.
+     * @param history the entries of every account in this segment
+     * @throws IOException if the file cannot be written
+     */
+    public void writeAccountIndex(AccountHistoryIndex history) throws IOException {
+        long[] accounts = history.getAccounts();
+        Path temp = accountsPath.resolveSibling(accountsPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp), BUFFER_SIZE))) {
+            out.writeLong(accounts.length);
+            long position = 0;
+            for (long account : accounts) {
+                int count = history.count(account);
+                out.writeLong(account);
+                out.writeLong(position);
+                out.writeLong(count);
+                position += count;
+            }
+            for (long account : accounts) {
+                for (long reference : history.get(account, 0, Integer.MAX_VALUE)) {
+                    out.writeLong(AccountHistoryIndex.entryOf(reference));
+                }
+            }
+        }
+        Files.move(temp, accountsPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the most recent entry numbers of an account from the account sidecar.
+     * Binary searches the account records, so the cost depends on the number
+     * of entries returned, not on the size of the segment.
+     * @param accountNumber the account
+     * @param limit maximum number of entry numbers
+     * @return the entry numbers, oldest first, empty if the account has none in this segment
+     * @throws IOException if the sidecar cannot be read
+     */
+    public long[] readAccountEntries(long accountNumber, int limit) throws IOException {
+        try (FileChannel accounts = FileChannel.open(accountsPath, StandardOpenOption.READ)) {
+            long accountCount = readLong(accounts, 0);
+            long low = 0;
+            long high = accountCount;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (readLong(accounts, 8 + mid * ACCOUNT_RECORD_SIZE) < accountNumber) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            long record = 8 + low * ACCOUNT_RECORD_SIZE;
+            if (low == accountCount || readLong(accounts, record) != accountNumber || limit <= 0) {
+                return new long[0];
+            }
+            long first = readLong(accounts, record + 8);
+            long count = readLong(accounts, record + 16);
+            int take = (int) Math.min(count, limit);
+            ByteBuffer values = ByteBuffer.allocate(take * 8);
+            long position = 8 + accountCount * ACCOUNT_RECORD_SIZE + (first + count - take) * 8;
+            while (values.hasRemaining()) {
+                if (accounts.read(values, position + values.position()) < 0) {
+                    throw new EOFException("Account index ends before the entries of " + accountNumber);
+                }
+            }
+            long[] entries = new long[take];
+            values.flip();
+            values.asLongBuffer().get(entries);
+            return entries;
+        }
+    }
+
+    /**
+     * Finds the first entry logged at or after the given time.
+     * Uses a binary search over the index.
+     * @param timestamp time to search for, in epoch milliseconds
+     * @return entry number, or the entry count if every entry is older
+     * @throws IOException if the index cannot be read
+     */
+    public long findEntry(long timestamp) throws IOException {
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long low = 0;
+            long high = index.size() / INDEX_RECORD_SIZE;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (readIndex(index, mid, 8) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Reads the timestamps of a run of entries from the index.
+     * @param firstEntry first entry to read
+     * @param count number of entries to read
+     * @return timestamps of the entries, in order
+     * @throws IOException if the index cannot be read
+     */
+    public long[] readTimestamps(long firstEntry, int count) throws IOException {
+        long[] timestamps = new long[count];
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer records = ByteBuffer.allocate(count * INDEX_RECORD_SIZE);
+            index.read(records, firstEntry * INDEX_RECORD_SIZE);
+            records.flip();
+            for (int i = 0; i < count && records.remaining() >= INDEX_RECORD_SIZE; i++) {
+                records.getLong();
+                timestamps[i] = records.getLong();
+            }
+        }
+        return timestamps;
+    }
+
+    /**
+     * Opens a stream positioned at the given entry.
+     * Seeks directly in an uncompressed segment and skips ahead in a compressed one.
+     * @param entry entry number to start reading from
+     * @return stream over the segment starting at that entry
+     * @throws IOException if the segment cannot be opened
+     */
+    public InputStream openStream(long entry) throws IOException {
+        long offset = 0;
+        if (entry > 0) {
+            try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                if (entry >= index.size() / INDEX_RECORD_SIZE) {
+                    return InputStream.nullInputStream();
+                }
+                offset = readIndex(index, entry, 0);
+            }
+        }
+        InputStream in;
+        try {
+            FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ);
+            channel.position(offset);
+            in = Channels.newInputStream(channel);
+        } catch (NoSuchFileException e) {
+            //already compressed, so decompress from the block holding the entry
+            long blockStart = blockStart(offset);
+            in = openCompressed(blockStart);
+            in.skipNBytes(offset - blockStart);
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Reads single entries, given in ascending order, skipping the ones between.
+     * An uncompressed segment is read at each entry's offset; in a compressed
+     * one only the blocks holding the entries are decompressed.
+     * @param entries entry numbers, ascending
+     * @param from index of the first entry number to read
+     * @param to index after the last entry number to read
+     * @param record array buffer the size of one entry, filled with each entry in turn
+     * @param consumer called with the record after each entry is read
+     * @throws IOException if the segment cannot be read
+     */
+    public void readEntries(long[] entries, int from, int to, ByteBuffer record, Consumer<ByteBuffer> consumer)
+            throws IOException {
+        byte[] bytes = record.array();
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            FileChannel log;
+            try {
+                log = FileChannel.open(logPath, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                log = null;
+            }
+            if (log != null) {
+                try (FileChannel channel = log) {
+                    for (int i = from; i < to; i++) {
+                        long offset = readIndex(index, entries[i], 0);
+                        record.clear();
+                        while (record.hasRemaining()) {
+                            if (channel.read(record, offset + record.position()) < 0) {
+                                throw new EOFException("Segment ends before entry " + entries[i]);
+                            }
+                        }
+                        consumer.accept(record);
+                    }
+                }
+                return;
+            }
+
+            //decompress each block the entries are in, once
+            InputStream in = null;
+            long position = 0;
+            try {
+                for (int i = from; i < to; i++) {
+                    long offset = readIndex(index, entries[i], 0);
+                    long blockStart = blockStart(offset);
+                    if (in == null || offset < position || blockStart > position) {
+                        if (in != null) {
+                            in.close();
+                        }
+                        in = new BufferedInputStream(openCompressed(blockStart), BUFFER_SIZE);
+                        position = blockStart;
+                    }
+                    in.skipNBytes(offset - position);
+                    if (in.readNBytes(bytes, 0, bytes.length) < bytes.length) {
+                        throw new EOFException("Segment ends before entry " + entries[i]);
+                    }
+                    position = offset + bytes.length;
+                    consumer.accept(record);
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds where the compressed block holding an uncompressed offset starts.
+     * Segments compressed before blocks were used are one block.
+     * @param offset uncompressed byte offset
+     * @return uncompressed offset the block starts at
+     */
+    private long blockStart(long offset) {
+        return Files.exists(blocksPath) ? offset / BLOCK_SIZE * BLOCK_SIZE : 0;
+    }
+
+    /**
+     * Opens the compressed file at the block starting at an uncompressed offset.
+     * The stream carries on into the following blocks.
+     * @param blockStart uncompressed offset of the block, from blockStart
+     * @return decompressing stream positioned at the block
+     * @throws IOException if the files cannot be read
+     */
+    private InputStream openCompressed(long blockStart) throws IOException {
+        long compressedOffset = 0;
+        if (blockStart > 0) {
+            try (FileChannel blocks = FileChannel.open(blocksPath, StandardOpenOption.READ)) {
+                ByteBuffer value = ByteBuffer.allocate(8);
+                blocks.read(value, blockStart / BLOCK_SIZE * 8);
+                compressedOffset = value.getLong(0);
+            }
+        }
+        FileChannel channel = FileChannel.open(compressedPath, StandardOpenOption.READ);
+        channel.position(compressedOffset);
+        return new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+    }
+
+    /**
+     * Deletes every file belonging to this segment.
+     * @throws IOException if a file cannot be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(compressedPath);
+        Files.deleteIfExists(indexPath);
+        Files.deleteIfExists(blocksPath);
+        Files.deleteIfExists(accountsPath);
+    }
+
+    /**
+     * Reads one long from an index record.
+     * @param index open index file
+     * @param entry entry number
+     * @param field byte offset of the field within the record
+     * @return the field value
+     * @throws IOException if the read fails
+     */
+    private static long readIndex(FileChannel index, long entry, int field) throws IOException {
+        try {
+            return readLong(index, entry * INDEX_RECORD_SIZE + field);
+        } catch (EOFException e) {
+            throw new EOFException("Index ends before entry " + entry);
+        }
+    }
+
+    /**
+     * Reads one long from a file.
+     * @param channel open file
+     * @param position byte position of the value
+     * @return the value
+     * @throws IOException if the read fails or the file ends first
+     */
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(8);
+        while (value.hasRemaining()) {
+            if (channel.read(value, position + value.position()) < 0) {
+                throw new EOFException("File ends before byte " + position);
+            }
+        }
+        return value.getLong(0);
+    }
+
+    /**
+     * Writes everything in a buffer to a channel.
+     * @param buffer buffer holding pending data
+     * @param channel channel to write to
+     * @throws IOException if the write fails
+     */
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -1,3 +1,5 @@
+package bank;
+
 /**
  * Interface for menu operations in the banking system.
  * Provides standard methods for displaying menus and handling user choices.
@@ -0,0 +1,115 @@
+package bank;
+
+/**
+ * Amounts of money held as a whole number of cents in a long.
+ * Balances and amounts are plain longs everywhere in the bank, so arithmetic
+ * is exact and allocates nothing; this class converts them to and from text
+ * at the edges, when reading the CSV, reading user input and printing.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public final class Money {
+    /** Number of cents in a dollar */
+    public static final long CENTS_PER_DOLLAR = 100;
+
+    /**
+     * Not used; this class only has static helpers.
+     */
+    private Money() {}
+
+    /**
+     * Converts text such as "1234.56", "-0.5" or "$20" to cents.
+     * More than two decimal places are rounded half up, away from zero.
+     * @param text the amount in dollars
+     * @return the amount in cents
+     * @throws NumberFormatException if the text is not an amount or has too many dollars to count in cents
+     */
+    public static long parse(String text) {
+        String value = text.trim();
+        int i = 0;
+        boolean negative = false;
+        if (i < value.length() && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i) == '-';
+            i++;
+        }
+        if (i < value.length() && value.charAt(i) == '$') {
+            i++;
+        }
+        long dollars = 0;
+        long cents = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (fractionDigits < 0) {
+                    dollars = dollars * 10 + (c - '0');
+                    if (dollars > Long.MAX_VALUE / CENTS_PER_DOLLAR) {
+                        throw new NumberFormatException("Amount too large: \"" + text + "\"");
+                    }
+                } else if (fractionDigits < 2) {
+                    cents = cents * 10 + (c - '0');
+                    fractionDigits++;
+                } else if (fractionDigits == 2) {
+                    roundUp = c >= '5';
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                throw new NumberFormatException("For input string: \"" + text + "\"");
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("For input string: \"" + text + "\"");
+        }
+        //"1.5" means 150 cents
+        if (fractionDigits == 1) {
+            cents *= 10;
+        }
+        long total = dollars * CENTS_PER_DOLLAR + cents + (roundUp ? 1 : 0);
+        if (total < 0) {
+            throw new NumberFormatException("Amount too large: \"" + text + "\"");
+        }
+        return negative ? -total : total;
+    }
+
+    /**
+     * Formats cents as dollars with two decimal places, such as "-1289.68".
+     * @param cents the amount in cents
+     * @return the amount in dollars
+     */
+    public static String format(long cents) {
+        StringBuilder text = new StringBuilder(24);
+        if (cents < 0) {
+            text.append('-');
+        }
+        //split before taking the sign off, since Long.MIN_VALUE has no positive counterpart
+        long remainder = Math.abs(cents % CENTS_PER_DOLLAR);
+        text.append(Math.abs(cents / CENTS_PER_DOLLAR)).append('.');
+        if (remainder < 10) {
+            text.append('0');
+        }
+        return text.append(remainder).toString();
+    }
+
+    /**
+     * Converts a dollar amount held as a double to cents, rounding to the nearest cent.
+     * @param dollars the amount in dollars
+     * @return the amount in cents
+     */
+    public static long fromDouble(double dollars) {
+        return Math.round(dollars * CENTS_PER_DOLLAR);
+    }
+
+    /**
+     * Converts cents to dollars as a double, for display or statistics only.
+     * @param cents the amount in cents
+     * @return the amount in dollars
+     */
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_DOLLAR;
+    }
+}
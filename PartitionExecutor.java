@@ -0,0 +1,999 @@
+package bank;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Applies deposits, withdrawals and transfers on single-writer partitions.
+ * Accounts are split into partitions by customer the same way the
+ * ledger is split into shards (see ShardedLedger), and each partition has
+ * one writer thread that applies every change to its accounts. Commands are
+ * queued in a preallocated ring per partition and the writer takes them out
+ * in batches, applies the batch, writes all of its balance changes to the
+ * write-ahead log with one group commit and only then reports the results.
+ * As in Account, money going out is taken out of the balance when it is
+ * applied and put back if the commit fails, and money coming in is only
+ * added once the commit has it on disk, so no one sees a balance the log
+ * does not have; the writer counts credits waiting for the commit when it
+ * checks the funds of a later command in the batch.
+ * Since one thread applies every change to an account, hot accounts never
+ * see threads fighting over them: the cost of a busy account is one thread
+ * working through a queue.
+ * A transfer between partitions is queued on both: the source's writer
+ * debits and logs the debit and the credit together as one linked group
+ * (see WriteAheadLog), and the destination's writer, when it reaches the
+ * transfer, commits what it has applied so far and waits until that group
+ * is on disk before adding the credit. Commands are queued on every partition they touch at
+ * once, so each partition sees them in the same order and a writer only
+ * ever waits on a command queued before its own, on a writer that commits
+ * before it waits in turn; rows on the same account are applied in the
+ * order they were submitted.
+ * If the balance log fails, the writer puts back the money it took out
+ * for every change the log did not take, fails those commands and every
+ * command queued on it after them, and stops taking new ones, so callers
+ * see the failure rather than hang. A transfer is never half done: its
+ * credit is added if and only if its source logged it.
+ * Results come back as futures, or through Command.completed for commands
+ * submitted in bulk. Either runs on a writer thread, so it must be short;
+ * an exception it throws goes to the writer's uncaught exception handler.
+ * Commands record the same metrics and account events as Account.deposit
+ * and withdraw and TransferEngine, but take no TransferEngine locks: the
+ * customer menu, payments and transaction files run through the executor,
+ * while server sessions still take the lock path, and
+ * TransferEngine.totalBalance only sees transfers on that path whole.
+ * Accounts are still updated with compare-and-set, so changes made outside
+ * the executor are safe, only not ordered with its commands.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class PartitionExecutor implements Closeable {
+    /** Default number of commands each partition's ring can hold */
+    private static final int DEFAULT_RING_SIZE = 8192;
+    /** Most commands a writer applies before a group commit */
+    private static final int MAX_BATCH = 1024;
+    /** Slots for the credits waiting for a commit, a power of two at least twice the changes in a batch */
+    private static final int CREDIT_SLOTS = MAX_BATCH * 4;
+    /** Marks an unused credit slot; account numbers are never negative */
+    private static final long EMPTY = -1;
+
+    /** Command has not been debited yet */
+    private static final int PENDING = 0;
+    /** Command has been debited but the debit is not on disk yet */
+    private static final int UNCOMMITTED = 1;
+    /** Command has been applied and its changes are on disk */
+    private static final int APPLIED = 2;
+    /** Command failed and changed nothing */
+    private static final int FAILED = 3;
+    /** Counts down the partitions still working on a command */
+    private static final VarHandle SIDES;
+
+    static {
+        try {
+            SIDES = MethodHandles.lookup().findVarHandle(Command.class, "sides", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** The partitions, each with its writer */
+    private final Partition[] partitions;
+
+    /**
+     * Kinds of command.
+     */
+    public enum Kind {
+        /** Money put into the To account */
+        DEPOSIT,
+        /** Money taken out of the From account */
+        WITHDRAW,
+        /** Money moved from the From account to the To account */
+        TRANSFER
+    }
+
+    /**
+     * One change to apply, with its result once it has been applied.
+     * Subclasses override completed to receive the result.
+     */
+    public static class Command {
+        /** What the command does */
+        private final Kind kind;
+        /** Account debited, or null for a deposit */
+        private final Account from;
+        /** Account credited, or null for a withdrawal */
+        private final Account to;
+        /** Amount in cents */
+        private final long amount;
+        /** Balance of the debited account, or of the deposit account, after the command */
+        private long balance;
+        /** Balance of a transfer's credited account after the command */
+        private long creditBalance;
+        /** Why the command failed, if it did */
+        private String failure;
+        /** PENDING, UNCOMMITTED, APPLIED or FAILED, set by the debiting writer */
+        private volatile int state;
+        /** Crediting writer parked until the debit is done */
+        private volatile Thread waiter;
+        /** Partitions still working on the command */
+        private volatile int sides;
+        /** System.nanoTime when the command was queued */
+        private long submitted;
+
+        /**
+         * Creates a command.
+         * @param kind what the command does
+         * @param from account debited, or null for a deposit
+         * @param to account credited, or null for a withdrawal
+         * @param amount amount in cents
+         * @throws IllegalArgumentException if the amount is not positive, an
+         *         account the kind needs is missing or a transfer's accounts are the same
+         */
+        public Command(Kind kind, Account from, Account to, long amount) {
+            if ((kind != Kind.DEPOSIT && from == null) || (kind != Kind.WITHDRAW && to == null)) {
+                throw new IllegalArgumentException("Missing account for " + kind);
+            }
+            if (amount <= 0) {
+                switch (kind) {
+                    case DEPOSIT:
+                        throw new IllegalArgumentException("Deposit amount must be positive");
+                    case WITHDRAW:
+                        throw new IllegalArgumentException("Invalid withdrawal amount or insufficient funds");
+                    default:
+                        throw new IllegalArgumentException("Transfer amount must be positive");
+                }
+            }
+            if (kind == Kind.TRANSFER && from.getAccountKey() == to.getAccountKey()) {
+                throw new IllegalArgumentException("Cannot transfer to same account");
+            }
+            this.kind = kind;
+            this.from = kind == Kind.DEPOSIT ? null : from;
+            this.to = kind == Kind.WITHDRAW ? null : to;
+            this.amount = amount;
+        }
+
+        /**
+         * Gets what the command does.
+         * @return the kind
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Gets the account debited.
+         * @return the account, or null for a deposit
+         */
+        public Account getFrom() {
+            return from;
+        }
+
+        /**
+         * Gets the account credited.
+         * @return the account, or null for a withdrawal
+         */
+        public Account getTo() {
+            return to;
+        }
+
+        /**
+         * Gets the amount.
+         * @return amount in cents
+         */
+        public long getAmount() {
+            return amount;
+        }
+
+        /**
+         * Checks whether the command was applied.
+         * @return true if it was applied, false if it failed or is not done
+         */
+        public boolean isApplied() {
+            return state == APPLIED;
+        }
+
+        /**
+         * Gets the balance after the command.
+         * @return balance in cents of the debited account, or of the deposit account
+         */
+        public long getBalance() {
+            return balance;
+        }
+
+        /**
+         * Gets why the command failed.
+         * @return the reason, or null if it was applied
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * Gets the time the command was queued.
+         * @return System.nanoTime when it was queued
+         */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * Called once the command has been applied and its balance changes
+         * are on disk, or once it has failed.
+         * Runs on a writer thread.
+         */
+        protected void completed() {
+        }
+    }
+
+    /**
+     * Command whose result completes a future.
+     */
+    private static class FutureCommand extends Command {
+        /** Completed with the balance after the command, or with why it failed */
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        /**
+         * Creates a command.
+         * @param kind what the command does
+         * @param from account debited, or null
+         * @param to account credited, or null
+         * @param amount amount in cents
+         */
+        FutureCommand(Kind kind, Account from, Account to, long amount) {
+            super(kind, from, to, amount);
+        }
+
+        @Override
+        protected void completed() {
+            if (isApplied()) {
+                result.complete(getBalance());
+            } else {
+                result.completeExceptionally(new IllegalArgumentException(getFailure()));
+            }
+        }
+    }
+
+    /**
+     * One partition: its ring of queued commands and the writer applying them.
+     */
+    private class Partition extends Thread {
+        /** Index of this partition */
+        final int index;
+        /** Guards the ring */
+        final ReentrantLock lock = new ReentrantLock();
+        /** Signalled when commands are queued or the executor closes */
+        final Condition notEmpty = lock.newCondition();
+        /** Signalled when the writer takes commands out */
+        final Condition notFull = lock.newCondition();
+        /** Queued commands */
+        final Command[] ring;
+        /** Count of commands taken out of the ring */
+        long head;
+        /** Count of commands put into the ring */
+        long tail;
+        /** Set once the executor is closing */
+        boolean closed;
+        /** Why the writer stopped applying commands, or null while it works */
+        volatile String failure;
+        /** Commands of the batch being applied */
+        final Command[] batch = new Command[MAX_BATCH];
+        /** Numbers of the accounts changed since the last commit */
+        final long[] changedAccounts = new long[MAX_BATCH * 2];
+        /** Accounts changed since the last commit, or null for a credit another partition adds */
+        final Account[] changedViews = new Account[MAX_BATCH * 2];
+        /** Changes made since the last commit */
+        final long[] changes = new long[MAX_BATCH * 2];
+        /** True at each change logged together with the next one, the two sides of a transfer */
+        final boolean[] linked = new boolean[MAX_BATCH * 2];
+        /** Cents of each debit taken out of the balance at once, the rest coming out of credits not yet added */
+        final long[] taken = new long[MAX_BATCH * 2];
+        /** Number of changes made since the last commit */
+        int changeCount;
+        /** Account number in each slot of the credits not yet added, or EMPTY */
+        final long[] creditKeys = new long[CREDIT_SLOTS];
+        /** Account in each slot of the credits not yet added */
+        final Account[] creditViews = new Account[CREDIT_SLOTS];
+        /** Cents waiting to be added to the account in each slot once committed */
+        final long[] credits = new long[CREDIT_SLOTS];
+        /** Slots in use among the credits not yet added */
+        final int[] creditSlots = new int[MAX_BATCH * 2];
+        /** Number of slots in use among the credits not yet added */
+        int creditCount;
+        /** Position in the batch of the first command not yet committed */
+        int committed;
+
+        /**
+         * Creates a partition.
+         * @param index index of this partition
+         * @param ringSize number of commands the ring can hold
+         */
+        Partition(int index, int ringSize) {
+            super("partition-writer-" + index);
+            this.index = index;
+            this.ring = new Command[ringSize];
+            Arrays.fill(creditKeys, EMPTY);
+            setDaemon(true);
+        }
+
+        /**
+         * Gets the free room in the ring; the caller holds the lock.
+         * @return number of commands that can still be queued
+         */
+        int free() {
+            return ring.length - (int) (tail - head);
+        }
+
+        /**
+         * Queues a command; the caller holds the lock and checked there is room.
+         * @param command the command
+         */
+        void put(Command command) {
+            ring[(int) (tail % ring.length)] = command;
+            tail++;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int count;
+                lock.lock();
+                try {
+                    while (head == tail) {
+                        if (closed) {
+                            return;
+                        }
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    count = (int) Math.min(MAX_BATCH, tail - head);
+                    for (int i = 0; i < count; i++) {
+                        int slot = (int) ((head + i) % ring.length);
+                        batch[i] = ring[slot];
+                        ring[slot] = null;
+                    }
+                    head += count;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                committed = 0;
+                for (int i = 0; i < count; i++) {
+                    if (failure != null) {
+                        reject(batch[i]);
+                        continue;
+                    }
+                    int mark = changeCount;
+                    try {
+                        apply(batch[i], i);
+                    } catch (RuntimeException e) {
+                        //a commit before a cross-partition credit already wrote the earlier changes
+                        takeBack(Math.min(mark, changeCount));
+                        undo(batch[i], e.getMessage());
+                    }
+                }
+                //one group commit for the whole batch, before any result is reported
+                if (failure == null) {
+                    commit(count);
+                }
+                for (int i = 0; i < count; i++) {
+                    finish(batch[i]);
+                    batch[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Applies this partition's side of a command.
+         * Money going out is taken out of the balance at once, and money
+         * coming in waits to be added until the commit has it on disk.
+         * @param command the command
+         * @param position position of the command in the batch
+         */
+        private void apply(Command command, int position) {
+            switch (command.kind) {
+                case DEPOSIT:
+                    command.balance = command.to.getBalance() + addCredit(command.to, command.amount);
+                    record(command.to, true, command.amount, false, 0);
+                    command.state = UNCOMMITTED;
+                    break;
+                case WITHDRAW:
+                    debit(command);
+                    break;
+                default:
+                    if (debits(command)) {
+                        debit(command);
+                    } else {
+                        //the source belongs to another partition, which may be waiting on this one
+                        commit(position);
+                        awaitDebit(command);
+                        credit(command);
+                    }
+            }
+        }
+
+        /**
+         * Takes the money out of the source, and notes the credit of a
+         * transfer's destination, logged with the debit as one group.
+         * The funds check counts credits to the source that are waiting for
+         * the commit, and the part of the debit they cover is taken out of
+         * them instead of the balance.
+         * @param command the command
+         */
+        private void debit(Command command) {
+            Account from = command.from;
+            long waiting = creditOf(from);
+            long current;
+            long now;
+            do {
+                current = from.getBalance();
+                if (command.amount > current + waiting) {
+                    fail(command, "Insufficient funds in " + from.getAccountNumber());
+                    return;
+                }
+                now = Math.max(0, Math.min(command.amount, current));
+            } while (!from.compareAndSetBalance(current, current - now));
+            if (now < command.amount) {
+                addCredit(from, now - command.amount);
+            }
+            command.balance = current + waiting - command.amount;
+            record(from, true, -command.amount, command.to != null, now);
+            if (command.to != null) {
+                if (partitionOf(command.to) == index) {
+                    command.creditBalance = command.to.getBalance() + addCredit(command.to, command.amount);
+                    record(command.to, true, command.amount, false, 0);
+                } else {
+                    //the destination's writer adds it once this commit is done
+                    record(command.to, false, command.amount, false, 0);
+                }
+            }
+            command.state = UNCOMMITTED;
+        }
+
+        /**
+         * Puts a transfer's money into the destination once the source has
+         * logged both sides. Nothing is logged here, the source's commit
+         * already has the credit on disk.
+         * @param command the command
+         */
+        private void credit(Command command) {
+            if (command.state == APPLIED) {
+                command.creditBalance = command.to.addToBalance(command.amount);
+            }
+        }
+
+        /**
+         * Waits until another partition's debit of a command is on disk or has failed.
+         * @param command the command
+         */
+        private void awaitDebit(Command command) {
+            command.waiter = this;
+            while (command.state == PENDING || command.state == UNCOMMITTED) {
+                LockSupport.park(command);
+            }
+        }
+
+        /**
+         * Writes the changes since the last commit to the balance log with
+         * one group commit, adds the credits waiting for it, then lets other
+         * partitions add the credits of transfers they receive.
+         * If the log fails, the partition fails instead.
+         * @param end position in the batch of the first command not to commit
+         * @return true if the changes are on disk
+         */
+        private boolean commit(int end) {
+            try {
+                Account.logChanges(changedAccounts, changes, linked, changeCount);
+            } catch (RuntimeException e) {
+                stop("Balance log failed: " + e.getMessage(), end);
+                return false;
+            }
+            for (int i = 0; i < creditCount; i++) {
+                int slot = creditSlots[i];
+                if (credits[slot] != 0) {
+                    creditViews[slot].addToBalance(credits[slot]);
+                }
+            }
+            clearCredits();
+            Arrays.fill(changedViews, 0, changeCount, null);
+            changeCount = 0;
+            for (int i = committed; i < end; i++) {
+                Command command = batch[i];
+                if (command.state == UNCOMMITTED) {
+                    command.state = APPLIED;
+                    LockSupport.unpark(command.waiter);
+                }
+            }
+            committed = end;
+            return true;
+        }
+
+        /**
+         * Stops the partition: takes back every change since the last
+         * commit, fails those commands and rejects every command after them.
+         * Callers see the reason in each failed command and when submitting.
+         * @param reason why the partition stopped
+         * @param end position in the batch of the first command not yet applied
+         */
+        private void stop(String reason, int end) {
+            lock.lock();
+            try {
+                failure = reason;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            takeBack(0);
+            clearCredits();
+            for (int i = committed; i < end; i++) {
+                undo(batch[i], reason);
+            }
+            committed = end;
+        }
+
+        /**
+         * Takes back the changes made after a point, newest first, and forgets them.
+         * Only money taken out of a balance is put back in, and credits were
+         * never added, so a balance is never pushed below what it was.
+         * @param mark number of changes to keep
+         */
+        private void takeBack(int mark) {
+            for (int i = changeCount - 1; i >= mark; i--) {
+                Account account = changedViews[i];
+                if (account == null) {
+                    continue;
+                }
+                if (changes[i] > 0) {
+                    addCredit(account, -changes[i]);
+                } else {
+                    if (taken[i] > 0) {
+                        account.addToBalance(taken[i]);
+                    }
+                    if (-changes[i] > taken[i]) {
+                        addCredit(account, -changes[i] - taken[i]);
+                    }
+                }
+            }
+            Arrays.fill(changedViews, mark, changeCount, null);
+            changeCount = mark;
+        }
+
+        /**
+         * Fails a command whose changes on this partition were taken back.
+         * A debit is failed so no other partition credits it; the credit side
+         * of a transfer changed nothing here, its source decides it.
+         * @param command the command
+         * @param reason why it failed
+         */
+        private void undo(Command command, String reason) {
+            if (debits(command) && (command.state == PENDING || command.state == UNCOMMITTED)) {
+                fail(command, reason);
+            }
+        }
+
+        /**
+         * Fails a command queued on this partition after it stopped.
+         * A transfer from another partition is still credited if its source
+         * logged it, since that log has the credit on disk.
+         * @param command the command
+         */
+        private void reject(Command command) {
+            if (debits(command)) {
+                fail(command, failure);
+            } else {
+                awaitDebit(command);
+                credit(command);
+            }
+        }
+
+        /**
+         * Fails a command this partition debits, so no other partition waits on it.
+         * @param command the command
+         * @param reason why it failed
+         */
+        private void fail(Command command, String reason) {
+            command.failure = reason;
+            command.state = FAILED;
+            LockSupport.unpark(command.waiter);
+        }
+
+        /**
+         * Checks whether this partition debits a command, or deposits it.
+         * @param command the command
+         * @return true if this partition decides whether the command is applied
+         */
+        private boolean debits(Command command) {
+            return command.from == null || partitionOf(command.from) == index;
+        }
+
+        /**
+         * Notes a balance change for the batch's group commit.
+         * @param account the account that changed
+         * @param local true if this partition changes the balance, false for a credit another partition adds
+         * @param change cents added to the balance
+         * @param linkedToNext true if the change must be logged together with the next one
+         * @param takenNow cents of a debit already taken out of the balance
+         */
+        private void record(Account account, boolean local, long change, boolean linkedToNext, long takenNow) {
+            changedAccounts[changeCount] = account.getAccountKey();
+            changedViews[changeCount] = local ? account : null;
+            linked[changeCount] = linkedToNext;
+            taken[changeCount] = takenNow;
+            changes[changeCount++] = change;
+        }
+
+        /**
+         * Gets the credits to an account waiting for the next commit.
+         * @param account the account
+         * @return cents waiting, 0 if none
+         */
+        private long creditOf(Account account) {
+            int slot = creditSlot(account.getAccountKey());
+            return creditKeys[slot] == EMPTY ? 0 : credits[slot];
+        }
+
+        /**
+         * Adds to the credits of an account waiting for the next commit.
+         * @param account the account
+         * @param change cents to add, negative to take some back
+         * @return the cents now waiting for the account
+         */
+        private long addCredit(Account account, long change) {
+            long key = account.getAccountKey();
+            int slot = creditSlot(key);
+            if (creditKeys[slot] == EMPTY) {
+                creditKeys[slot] = key;
+                creditViews[slot] = account;
+                creditSlots[creditCount++] = slot;
+            }
+            credits[slot] += change;
+            return credits[slot];
+        }
+
+        /**
+         * Finds the slot holding an account's waiting credits, or the empty slot where they would go.
+         * @param key the account number
+         * @return slot index
+         */
+        private int creditSlot(long key) {
+            int mask = CREDIT_SLOTS - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (creditKeys[slot] != EMPTY && creditKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Forgets every waiting credit.
+         */
+        private void clearCredits() {
+            for (int i = 0; i < creditCount; i++) {
+                int slot = creditSlots[i];
+                creditKeys[slot] = EMPTY;
+                creditViews[slot] = null;
+                credits[slot] = 0;
+            }
+            creditCount = 0;
+        }
+    }
+
+    /**
+     * Creates an executor with one partition per ledger shard, or per processor if the ledger is not sharded.
+     */
+    public PartitionExecutor() {
+        this(Math.max(AccountTable.sharedTables().size(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates an executor with the given number of partitions.
+     * @param partitionCount number of partitions, each with its own writer thread
+     */
+    public PartitionExecutor(int partitionCount) {
+        this(partitionCount, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * Creates an executor with the given number of partitions and ring size.
+     * @param partitionCount number of partitions, each with its own writer thread
+     * @param ringSize number of commands each partition can hold before submitting blocks
+     * @throws IllegalArgumentException if either number is not positive
+     */
+    public PartitionExecutor(int partitionCount, int ringSize) {
+        if (partitionCount <= 0 || ringSize <= 0) {
+            throw new IllegalArgumentException("Partition count and ring size must be positive");
+        }
+        this.partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, ringSize);
+        }
+        for (Partition partition : partitions) {
+            partition.start();
+        }
+    }
+
+    /**
+     * Gets the number of partitions.
+     * @return partition count
+     */
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Finds the partition that owns an account.
+     * @param account the account
+     * @return partition index
+     */
+    public int partitionOf(Account account) {
+        return ShardedLedger.shardOf(account.getAccountKey(), partitions.length);
+    }
+
+    /**
+     * Deposits money into an account.
+     * @param account the account
+     * @param amount amount in cents
+     * @return completes with the balance after the deposit once it is on disk
+     * @throws IllegalArgumentException if the amount is not positive
+     */
+    public CompletableFuture<Long> deposit(Account account, long amount) {
+        return submitForResult(new FutureCommand(Kind.DEPOSIT, null, account, amount));
+    }
+
+    /**
+     * Withdraws money from an account.
+     * @param account the account
+     * @param amount amount in cents
+     * @return completes with the balance after the withdrawal once it is on
+     *         disk, or with an IllegalArgumentException if the funds are short
+     * @throws IllegalArgumentException if the amount is not positive
+     */
+    public CompletableFuture<Long> withdraw(Account account, long amount) {
+        return submitForResult(new FutureCommand(Kind.WITHDRAW, account, null, amount));
+    }
+
+    /**
+     * Moves money from one account to another.
+     * @param from account to take the money from
+     * @param to account to put the money in
+     * @param amount amount in cents
+     * @return completes with the source balance after the transfer once both
+     *         sides are on disk, or with an IllegalArgumentException if the funds are short
+     * @throws IllegalArgumentException if the amount is not positive or the accounts are the same
+     */
+    public CompletableFuture<Long> transfer(Account from, Account to, long amount) {
+        return submitForResult(new FutureCommand(Kind.TRANSFER, from, to, amount));
+    }
+
+    /**
+     * Waits for a deposit, withdrawal or transfer to finish, for callers that
+     * want the same behaviour as calling the account directly.
+     * @param result the future returned by deposit, withdraw or transfer
+     * @return balance after the command
+     * @throws IllegalArgumentException if the command failed
+     * @throws IllegalStateException if the wait was interrupted
+     */
+    public static long await(CompletableFuture<Long> result) {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the result");
+        }
+    }
+
+    /**
+     * Queues a command and returns its future.
+     * @param command the command
+     * @return the command's future
+     */
+    private CompletableFuture<Long> submitForResult(FutureCommand command) {
+        submit(command);
+        return command.result;
+    }
+
+    /**
+     * Queues one command, waiting while its partitions are full.
+     * @param command the command
+     * @throws IllegalStateException if the executor is closed
+     */
+    public void submit(Command command) {
+        submitAll(new Command[] {command}, 1);
+    }
+
+    /**
+     * Queues many commands in order, taking each partition's lock once per
+     * ringful rather than once per command. Waits while partitions are full.
+     * @param commands the commands
+     * @param count number of commands to queue
+     * @throws IllegalStateException if the executor is closed
+     */
+    public void submitAll(Command[] commands, int count) {
+        int piece = partitions[0].ring.length;
+        int[] needed = new int[partitions.length];
+        for (int start = 0; start < count; start += piece) {
+            int end = Math.min(count, start + piece);
+            Arrays.fill(needed, 0);
+            for (int i = start; i < end; i++) {
+                for (Partition partition : partitionsOf(commands[i])) {
+                    needed[partition.index]++;
+                }
+            }
+            enqueue(commands, start, end, needed);
+        }
+    }
+
+    /**
+     * Queues a run of commands on every partition they touch at once.
+     * Takes the locks in ascending order and holds them all while queueing,
+     * so every partition sees the commands in the same order as any other
+     * commands queued at the same time. If a partition is full, every lock
+     * is let go before waiting for room.
+     * @param commands the commands
+     * @param start first command to queue
+     * @param end one past the last command to queue
+     * @param needed number of commands each partition will receive, at most its ring size
+     */
+    private void enqueue(Command[] commands, int start, int end, int[] needed) {
+        while (true) {
+            Partition full = null;
+            int locked = 0;
+            try {
+                for (; locked < partitions.length; locked++) {
+                    if (needed[locked] > 0) {
+                        partitions[locked].lock.lock();
+                        if (partitions[locked].closed) {
+                            throw new IllegalStateException("Executor is closed");
+                        }
+                        if (partitions[locked].failure != null) {
+                            throw new IllegalStateException("Partition " + locked + " failed: "
+                                + partitions[locked].failure);
+                        }
+                        if (partitions[locked].free() < needed[locked]) {
+                            full = partitions[locked];
+                            break;
+                        }
+                    }
+                }
+                if (full == null) {
+                    long now = System.nanoTime();
+                    for (int i = start; i < end; i++) {
+                        Command command = commands[i];
+                        Partition[] touched = partitionsOf(command);
+                        command.submitted = now;
+                        command.sides = touched.length;
+                        for (Partition partition : touched) {
+                            partition.put(command);
+                        }
+                    }
+                    for (Partition partition : partitions) {
+                        if (needed[partition.index] > 0) {
+                            partition.notEmpty.signal();
+                        }
+                    }
+                    return;
+                }
+            } finally {
+                for (int i = Math.min(locked, partitions.length - 1); i >= 0; i--) {
+                    if (needed[i] > 0) {
+                        partitions[i].lock.unlock();
+                    }
+                }
+            }
+            awaitRoom(full, needed[full.index]);
+        }
+    }
+
+    /**
+     * Waits until a partition has room for a number of commands.
+     * @param partition the full partition
+     * @param room number of commands that must fit
+     */
+    private static void awaitRoom(Partition partition, int room) {
+        partition.lock.lock();
+        try {
+            while (partition.free() < room && !partition.closed && partition.failure == null) {
+                partition.notFull.awaitUninterruptibly();
+            }
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the partitions a command is queued on.
+     * @param command the command
+     * @return the debiting partition first, then the crediting one if different
+     */
+    private Partition[] partitionsOf(Command command) {
+        if (command.kind == Kind.DEPOSIT) {
+            return new Partition[] {partitions[partitionOf(command.to)]};
+        }
+        Partition debit = partitions[partitionOf(command.from)];
+        if (command.kind == Kind.WITHDRAW || partitionOf(command.to) == debit.index) {
+            return new Partition[] {debit};
+        }
+        return new Partition[] {debit, partitions[partitionOf(command.to)]};
+    }
+
+    /**
+     * Marks one partition done with a command and reports its result once every partition is.
+     * An applied command is logged and counted as the deposits and
+     * withdrawals it is made of, as Account and TransferEngine do.
+     * @param command the command
+     */
+    private static void finish(Command command) {
+        if ((int) SIDES.getAndAdd(command, -1) != 1) {
+            return;
+        }
+        LatencyHistogram metric = command.kind == Kind.DEPOSIT ? BankMetrics.DEPOSIT
+            : command.kind == Kind.WITHDRAW ? BankMetrics.WITHDRAWAL : BankMetrics.TRANSFER;
+        if (command.state == APPLIED) {
+            EventLog log = Account.getTransactionLog();
+            if (command.from != null) {
+                if (log != null) {
+                    log.logEvent(TransactionType.WITHDRAWAL, command.from.getAccountKey(),
+                        TransactionEvent.NO_ACCOUNT, command.amount, command.balance);
+                }
+                BankMetrics.WITHDRAWAL.recordSince(command.submitted);
+            }
+            if (command.to != null) {
+                if (log != null) {
+                    log.logEvent(TransactionType.DEPOSIT, command.to.getAccountKey(), TransactionEvent.NO_ACCOUNT,
+                        command.amount, command.from == null ? command.balance : command.creditBalance);
+                }
+                BankMetrics.DEPOSIT.recordSince(command.submitted);
+            }
+            if (command.kind == Kind.TRANSFER) {
+                metric.recordSince(command.submitted);
+            }
+        } else {
+            metric.recordFailure();
+        }
+        try {
+            command.completed();
+        } catch (RuntimeException e) {
+            //the writer carries on with the other commands; the thread's handler reports the error
+            Thread writer = Thread.currentThread();
+            writer.getUncaughtExceptionHandler().uncaughtException(writer, e);
+        }
+    }
+
+    /**
+     * Applies every queued command, then stops the writers.
+     * Commands submitted after this call are rejected.
+     */
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            partition.lock.lock();
+            try {
+                partition.closed = true;
+                partition.notEmpty.signalAll();
+                partition.notFull.signalAll();
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        boolean interrupted = false;
+        for (Partition partition : partitions) {
+            while (true) {
+                try {
+                    partition.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
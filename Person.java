@@ -1,3 +1,5 @@
+package bank;
+
 import java.util.*;
 
 /**
@@ -62,10 +64,11 @@ public abstract class Person {
     public List<Account> inquireAccount(String accountNumber) {
         //create new list for matching accounts
         List<Account> foundAccounts = new ArrayList<>();
+        long key = Account.toAccountKey(accountNumber);
         
         //loop through accounts to find matches
         for (Account account : accounts) {
-            if (account.getAccountNumber().equals(accountNumber)) {
+            if (key >= 0 && account.getAccountKey() == key) {
                 foundAccounts.add(account);
             }
         }
@@ -75,47 +78,58 @@ public abstract class Person {
     /**
      * Method for bank managers to find accounts by account number.
      * @param accountNumber account number to search for
-     * @param allCustomers map of all customers in the system
+     * @param registry index of all accounts in the system
      * @return list of same accounts
      */
-    public static List<Account> inquireAccount(String accountNumber, Map<String, Customer> allCustomers) {
-        //look through all customers
-        for (Customer customer : allCustomers.values()) {
-            //check each customer's accounts
-            for (Account account : customer.getAccounts()) {
-                if (account.getAccountNumber().equals(accountNumber)) {
-                    //create list for found account
-                    List<Account> found = new ArrayList<>();
-                    found.add(account);
-                    return found;
-                }
-            }
+    public static List<Account> inquireAccount(String accountNumber, AccountRegistry registry) {
+        List<Account> found = new ArrayList<>();
+        //look up the account directly by number
+        Account account = registry.getAccount(accountNumber);
+        if (account != null) {
+            found.add(account);
         }
         //return empty list if not found
-        return new ArrayList<>();
+        return found;
     }
     
     /**
      * Method for bank managers to find accounts by customer name.
+     * Returns the accounts of every customer with that name.
      * @param firstName customer's first name
      * @param lastName customer's lsat name
-     * @param allCustomers map of all customers in the system
+     * @param allCustomers store of all customers in the system
      * @return list of customer's accounts
      */
-    public static List<Account> inquireAccount(String firstName, String lastName, Map<String, Customer> allCustomers) {
+    public static List<Account> inquireAccount(String firstName, String lastName, CustomerStore allCustomers) {
         //combine first and last name
         String fullName = firstName + " " + lastName;
         
-        //look up customer in our map
-        Customer customer = allCustomers.get(fullName);
-        
-        if (customer != null) {
-            //return copy of customer's accounts
-            return new ArrayList<>(customer.getAccounts());
+        //collect the accounts of every customer with that name
+        List<Account> found = new ArrayList<>();
+        for (Customer customer : allCustomers.findByFullName(fullName)) {
+            found.addAll(customer.getAccounts());
         }
         
-        //return empty list if customer not found
-        return new ArrayList<>();
+        //empty list if customer not found
+        return found;
+    }
+    
+    /**
+     * Checks whether an account belongs to this person by account number,
+     * since the same account can be reached through more than one view.
+     * @param account the account to look for
+     * @return true if one of this person's accounts has that number
+     */
+    private boolean owns(Account account) {
+        if (account == null) {
+            return false;
+        }
+        for (Account owned : accounts) {
+            if (owned.getAccountKey() == account.getAccountKey()) {
+                return true;
+            }
+        }
+        return false;
     }
     
     /**
@@ -132,31 +146,74 @@ public abstract class Person {
      * @param receiver person receiving the payment
      * @param fromAccount account to take payment from
      * @param toAccount account to send money to
-     * @param amount amount fo money to pay
+     * @param amount amount fo money to pay in cents
      */
-    public void pay(Person receiver, Account fromAccount, Account toAccount, double amount) {
+    public void pay(Person receiver, Account fromAccount, Account toAccount, long amount) {
+        long start = System.nanoTime();
+        checkPayment(receiver, fromAccount, toAccount, amount);
+        
+        //if everythigng is found then do the paying process in one step
+        try {
+            TransferEngine.shared().transfer(fromAccount, toAccount, amount);
+            
+        } catch (IllegalArgumentException e) {
+            BankMetrics.PAYMENT.recordFailure();
+            throw new IllegalArgumentException("Payment failed: " + e.getMessage());
+        }
+        BankMetrics.PAYMENT.recordSince(start);
+    }
+
+    /**
+     * Makes a payment to another person's account through the writer that owns the paying account.
+     * Waits until the payment is on disk.
+     * @param receiver person receiving the payment
+     * @param fromAccount account to take payment from
+     * @param toAccount account to send money to
+     * @param amount amount fo money to pay in cents
+     * @param executor executor applying the payment
+     * @return balance of the paying account after the payment, in cents
+     */
+    public long pay(Person receiver, Account fromAccount, Account toAccount, long amount,
+                    PartitionExecutor executor) {
+        long start = System.nanoTime();
+        checkPayment(receiver, fromAccount, toAccount, amount);
+        
+        long balance;
+        try {
+            balance = PartitionExecutor.await(executor.transfer(fromAccount, toAccount, amount));
+        } catch (IllegalArgumentException e) {
+            BankMetrics.PAYMENT.recordFailure();
+            throw new IllegalArgumentException("Payment failed: " + e.getMessage());
+        }
+        BankMetrics.PAYMENT.recordSince(start);
+        return balance;
+    }
+
+    /**
+     * Checks that a payment is valid before any money moves.
+     * @param receiver person receiving the payment
+     * @param fromAccount account to take payment from
+     * @param toAccount account to send money to
+     * @param amount amount fo money to pay in cents
+     * @throws IllegalArgumentException if the amount is not positive or an account has the wrong owner
+     */
+    private void checkPayment(Person receiver, Account fromAccount, Account toAccount, long amount) {
         //check if amount is valid
         if (amount <= 0) {
+            BankMetrics.PAYMENT.recordFailure();
             throw new IllegalArgumentException("Payment amount must be positive");
         }
         
         //check if sending account belongs to this person
-        if (!this.accounts.contains(fromAccount)) {
+        if (!owns(fromAccount)) {
+            BankMetrics.PAYMENT.recordFailure();
             throw new IllegalArgumentException("Source account does not belong to you");
         }
         
         //check if receiving account belongs to receiver
-        if (!receiver.getAccounts().contains(toAccount)) {
+        if (!receiver.owns(toAccount)) {
+            BankMetrics.PAYMENT.recordFailure();
             throw new IllegalArgumentException("Destination account does not belong to receiver");
         }
-        
-        //if everythigng is found then do the paying process
-        try {
-            fromAccount.withdraw(amount);
-            toAccount.deposit(amount);
-            
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Payment failed: " + e.getMessage());
-        }
     }
-}
\ No newline at end of file
+}
@@ -1,3 +1,6 @@
+package bank;
+
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -9,21 +12,62 @@ public class RunBank {
     /**
      * Main starting point for the banking application.
      * Initializes the system, presents menu options, and user interaction.
+     * With the argument "export", writes the ledger balances into the
+     * customer CSV, or into the file named after it, and exits.
+     * With the argument "serve", serves the bank over the network on the
+     * port named after it (see BankServer) until EXIT is typed.
+     * @param args optional "export" and the file to export to, or "serve" and the port
      */
     public static void main(String[] args) {
         /** Stores all customer data */
-        Map<String, Customer> customers;
+        CustomerStore customers;
         /** Handles user input */
         Scanner scanner = new Scanner(System.in);
-        /** Records all transactions */
-        TransactionLog logger = new TransactionLog();
-        /** Manages CSV file operations */
-        CSVHandler csvHandler = new CSVHandler();
+        /** Manages CSV file operations, with a ledger shard per processor if the ledger is new */
+        CSVHandler csvHandler = new CSVHandler(Paths.get(""), Runtime.getRuntime().availableProcessors());
+        /** Records all transactions, split like the ledger */
+        EventLog logger = csvHandler.getShardCount() == 1 ? new TransactionLog()
+            : new ShardedTransactionLog(csvHandler.getShardCount());
+        /** Applies balance changes on a writer per partition of the accounts, started once the ledger is open */
+        PartitionExecutor executor = null;
         
         try {
             // loads data
             customers = csvHandler.loadCustomerData();
-            BankOperations operations = new BankOperations(customers, logger);
+            if (args.length > 0 && args[0].equalsIgnoreCase("export")) {
+                if (args.length > 1) {
+                    csvHandler.exportCustomerData(args[1]);
+                } else {
+                    csvHandler.exportCustomerData();
+                }
+                return;
+            }
+            csvHandler.startPeriodicSave();
+            BankMetrics.registerMBeans();
+
+            // lets the log show owner names when it is read
+            logger.setOwnerResolver(accountNumber -> {
+                Customer owner = customers.getAccountRegistry().getOwner(accountNumber);
+                return owner == null ? null : owner.getName();
+            });
+            CustomerOnboarding onboarding = new CustomerOnboarding(customers, csvHandler);
+            executor = new PartitionExecutor();
+            BankOperations operations = new BankOperations(customers, logger, onboarding, executor);
+
+            if (args.length > 0 && args[0].equalsIgnoreCase("serve")) {
+                int port = args.length > 1 ? Integer.parseInt(args[1]) : BankServer.DEFAULT_PORT;
+                BankServer server = new BankServer(customers, logger, port,
+                    Runtime.getRuntime().availableProcessors() * 4);
+                server.start();
+                System.out.println("Serving El Paso Miners Bank on port " + server.getPort());
+                System.out.println("Type 'EXIT' to stop");
+                while (scanner.hasNextLine() && !scanner.nextLine().trim().equalsIgnoreCase("EXIT")) {
+                    System.out.println(server.getSessionCount() + " open sessions");
+                }
+                server.stop();
+                csvHandler.saveCustomerData();
+                return;
+            }
 
             // main menu loop
             while (true) {
@@ -50,9 +94,9 @@ public class RunBank {
                 }
             }
 
-            // save and exit
-            csvHandler.saveCustomerData(customers);
-            logger.exitUpdate();
+            // apply anything still queued, then save and exit
+            executor.close();
+            csvHandler.saveCustomerData();
             System.out.println("____________________");
             System.out.println("Thank you for using El Paso Miners Bank!");
             
@@ -60,6 +104,12 @@ public class RunBank {
             System.out.println("Fatal error: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            // stop the writers and background saves and write out any queued log entries
+            if (executor != null) {
+                executor.close();
+            }
+            csvHandler.close();
+            logger.close();
             scanner.close();
         }
     }
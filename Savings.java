@@ -1,3 +1,5 @@
+package bank;
+
 /**
  * Represents a savings account with the ability to transfer funds to another account.
  * @author Daniel Fuentes, Rogelio Lozano
@@ -8,21 +10,29 @@ public class Savings extends Account {
     /**
      * Initializes a Savings account with an account number and balance.
      * @param accountNumber the account identifier
-     * @param balance the initial balance
+     * @param balance the initial balance in cents
+     */
+    public Savings(String accountNumber, long balance){
+        super(AccountTable.SAVINGS, accountNumber, balance, 0);
+    }
+
+    /**
+     * Creates a view of a Savings account already in a table.
+     * @param table the table holding the account
+     * @param row the row of the account
      */
-    public Savings(String accountNumber, double balance){
-        super(accountNumber, balance);
+    public Savings(AccountTable table, int row) {
+        super(table, row);
     }
 
     /**
      * Transfers a specified amount to another account.
      * @param to the target account
-     * @param amount the amount to transfer
+     * @param amount the amount to transfer in cents
      */
-    public void tansfer(Account to, double amount){
-        if ( amount > 0 && balance >= amount){
-            this.withdraw(amount);
-            to.deposit(amount);
+    public void tansfer(Account to, long amount){
+        if ( amount > 0 && getBalance() >= amount){
+            TransferEngine.shared().transfer(this, to, amount);
         }else{
             throw new IllegalArgumentException("Not Valid Transfer Amount");
         }
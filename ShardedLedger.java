@@ -0,0 +1,324 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The account ledger split into shards by customer.
+ * Account numbers are a leading type digit (checking, savings or credit)
+ * followed by the customer's sequence, such as 1001, 2001 and 3001 in the
+ * customer CSV or 1000000107 for an onboarded customer's checking account.
+ * Customers are dealt out to the shards in turn by their sequence, so a
+ * customer's checking, savings and credit accounts share a shard and the
+ * shards stay even as new customers are added.
+ * Each shard has its own ledger file, balance write-ahead log and lock (see
+ * BankShard), so operations on one account never wait on another shard.
+ * Transfers lock only the account they debit (see TransferEngine), so a
+ * transfer between shards needs no more coordination than one within a shard.
+ * Both sides of a transfer are saved as one write-ahead log group; when they
+ * are in different shards the group goes to the ledger's linked log, which
+ * every shard folds its own accounts' changes from at recovery and checkpoint.
+ * With one shard the ledger and balance log sit in the bank directory
+ * itself, as they did before the ledger was sharded; with more, each shard
+ * has a shard-N directory. The number of shards is fixed when the ledger is
+ * created, since it decides where every account lives.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class ShardedLedger implements Closeable {
+    /** File name of the ledger of an unsharded bank */
+    private static final String LEDGER_FILE = "bank.ledger";
+    /** Name prefix of each shard's directory */
+    private static final String SHARD_PREFIX = "shard-";
+    /** Directory of the log of changes saved together across shards */
+    private static final String LINKED_DIRECTORY = "linked_wal";
+
+    /** The bank directory */
+    private final Path directory;
+    /** The shards, in order */
+    private final BankShard[] shards;
+    /** Receives changes saved together across shards, null until recovered or with one shard */
+    private WriteAheadLog linkedLog;
+
+    /**
+     * Creates a ledger from open shards.
+     * @param directory the bank directory
+     * @param shards the shards, in order
+     */
+    private ShardedLedger(Path directory, BankShard[] shards) {
+        this.directory = directory;
+        this.shards = shards;
+    }
+
+    /**
+     * Opens every shard of the ledger in a directory, creating them if needed.
+     * The shards are not recovered yet.
+     * @param directory the bank directory
+     * @param shardCount number of shards for a new ledger, see shardCount
+     * @return the open ledger
+     * @throws IOException if a shard cannot be opened
+     */
+    public static ShardedLedger open(Path directory, int shardCount) throws IOException {
+        int count = shardCount(directory, shardCount);
+        BankShard[] shards = new BankShard[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                shards[i] = new BankShard(i, shardDirectory(directory, i, count));
+            }
+        } catch (IOException e) {
+            for (BankShard shard : shards) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+            throw e;
+        }
+        return new ShardedLedger(directory, shards);
+    }
+
+    /**
+     * Gets the number of shards of the ledger in a directory.
+     * An existing ledger keeps the number it was created with; only a new
+     * one uses the number asked for.
+     * @param directory the bank directory
+     * @param requested number of shards for a new ledger
+     * @return the number of shards
+     * @throws IllegalArgumentException if the number asked for is not positive
+     */
+    public static int shardCount(Path directory, int requested) {
+        if (requested <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        if (Files.exists(directory.resolve(LEDGER_FILE))) {
+            return 1;
+        }
+        int existing = 0;
+        while (Files.isDirectory(directory.resolve(SHARD_PREFIX + existing))) {
+            existing++;
+        }
+        return existing > 0 ? existing : requested;
+    }
+
+    /**
+     * Gets the directory of one shard.
+     * @param directory the bank directory
+     * @param shard the shard index
+     * @param shardCount number of shards
+     * @return the bank directory itself for an unsharded bank, else the shard's directory
+     */
+    public static Path shardDirectory(Path directory, int shard, int shardCount) {
+        return shardCount == 1 ? directory : directory.resolve(SHARD_PREFIX + shard);
+    }
+
+    /**
+     * Finds the shard an account number belongs to.
+     * @param accountNumber the account number
+     * @param shardCount number of shards
+     * @return the shard index
+     */
+    public static int shardOf(long accountNumber, int shardCount) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        return (int) (customerSequence(accountNumber) % shardCount);
+    }
+
+    /**
+     * Gets the customer sequence of an account number, the number without
+     * its leading type digit, which is the same for all of a customer's accounts.
+     * @param accountNumber the account number
+     * @return the sequence, 0 for a negative or one-digit number
+     */
+    public static long customerSequence(long accountNumber) {
+        long number = Math.max(0, accountNumber);
+        long typeDigit = 1;
+        while (typeDigit <= number / 10) {
+            typeDigit *= 10;
+        }
+        return number % typeDigit;
+    }
+
+    /**
+     * Gets the number of shards.
+     * @return shard count
+     */
+    public int size() {
+        return shards.length;
+    }
+
+    /**
+     * Gets one shard.
+     * @param shard the shard index
+     * @return the shard
+     */
+    public BankShard get(int shard) {
+        return shards[shard];
+    }
+
+    /**
+     * Gets the shard an account belongs to.
+     * @param accountNumber the account number
+     * @return the account's shard
+     */
+    public BankShard shardFor(long accountNumber) {
+        return shards[shardOf(accountNumber, shards.length)];
+    }
+
+    /**
+     * Gets the ledger table of every shard.
+     * @return one table per shard, in shard order
+     */
+    public AccountTable[] getTables() {
+        AccountTable[] tables = new AccountTable[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            tables[i] = shards[i].getLedger();
+        }
+        return tables;
+    }
+
+    /**
+     * Gets the number of accounts in every shard together.
+     * @return account count
+     */
+    public int accountCount() {
+        int count = 0;
+        for (BankShard shard : shards) {
+            count += shard.getLedger().size();
+        }
+        return count;
+    }
+
+    /**
+     * Finds an account in the ledger.
+     * @param accountNumber the account number
+     * @return a view of the account, or null if the ledger does not hold it
+     */
+    public Account findAccount(long accountNumber) {
+        AccountTable table = shardFor(accountNumber).getLedger();
+        int row = table.findRow(accountNumber);
+        return row < 0 ? null : table.view(row);
+    }
+
+    /**
+     * Recovers every shard's balances from its snapshot and write-ahead log,
+     * and from the linked log with more than one shard.
+     * A shard that cannot be recovered is reported and the rest carry on.
+     */
+    public void recover() {
+        long linkedThrough = 0;
+        if (shards.length > 1) {
+            try {
+                linkedLog = new WriteAheadLog(directory.resolve(LINKED_DIRECTORY));
+                linkedThrough = linkedLog.roll();
+            } catch (IOException e) {
+                //the shards recover without it and fold its changes once it can be read
+                System.out.println("Error opening linked balance log: " + e.getMessage());
+            }
+        }
+        for (BankShard shard : shards) {
+            try {
+                shard.recover(linkedLog == null ? null : directory.resolve(LINKED_DIRECTORY), linkedThrough,
+                    shards.length);
+            } catch (IOException e) {
+                System.out.println("Error recovering balances of shard " + shard.getIndex() + ": "
+                    + e.getMessage());
+            }
+        }
+        if (linkedLog != null) {
+            try {
+                deleteFoldedLinkedSegments();
+            } catch (IOException e) {
+                System.out.println("Error deleting linked balance log: " + e.getMessage());
+            }
+            Account.setLinkedLog(linkedLog);
+        }
+    }
+
+    /**
+     * Applies every shard's pending balance changes to the accounts the
+     * ledger now holds. Call once the customer CSV has been read.
+     * A shard that cannot be saved is reported and the rest carry on.
+     * Accounts still unknown are reported once, as a count, and their
+     * changes stay pending.
+     */
+    public void applyPending() {
+        int unknown = 0;
+        for (BankShard shard : shards) {
+            try {
+                unknown += shard.applyPending();
+            } catch (IOException e) {
+                System.out.println("Error applying pending balances of shard " + shard.getIndex() + ": "
+                    + e.getMessage());
+            }
+        }
+        if (unknown > 0) {
+            System.out.println("Error applying pending balances: " + unknown
+                + " accounts in the balance log are not in the ledger; their changes are kept");
+        }
+    }
+
+    /**
+     * Checkpoints every shard.
+     * Each shard is checkpointed under its own lock, one after another. The
+     * linked log is rolled first and its closed segments are deleted once
+     * every shard has folded them.
+     * @throws IOException if a shard cannot be saved; the shards after it are still saved
+     */
+    public void checkpoint() throws IOException {
+        long linkedThrough = linkedLog == null ? 0 : linkedLog.roll();
+        Path linkedDirectory = linkedLog == null ? null : directory.resolve(LINKED_DIRECTORY);
+        IOException failure = null;
+        for (BankShard shard : shards) {
+            try {
+                shard.checkpoint(linkedDirectory, linkedThrough, shards.length);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (linkedLog != null) {
+            deleteFoldedLinkedSegments();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Deletes the linked log segments that every shard has folded.
+     * @throws IOException if a segment cannot be deleted
+     */
+    private void deleteFoldedLinkedSegments() throws IOException {
+        long folded = Long.MAX_VALUE;
+        for (BankShard shard : shards) {
+            folded = Math.min(folded, shard.getLastLinkedSegment());
+        }
+        linkedLog.deleteThrough(folded);
+    }
+
+    /**
+     * Forces every shard's ledger to disk.
+     */
+    public void force() {
+        for (BankShard shard : shards) {
+            shard.getLedger().force();
+        }
+    }
+
+    /**
+     * Closes every shard and the linked log.
+     */
+    @Override
+    public void close() {
+        if (linkedLog != null) {
+            if (Account.getLinkedLog() == linkedLog) {
+                Account.setLinkedLog(null);
+            }
+            linkedLog.close();
+            linkedLog = null;
+        }
+        for (BankShard shard : shards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * Transaction log split into one log per ledger shard.
+ * An event goes to the log of the shard its account belongs to (see
+ * ShardedLedger), so each shard has its own queue, flusher, segments and
+ * history index, and logging on one shard never waits on another.
+ * Reads ask every shard and merge the results by time, so callers see one
+ * log as before. A transfer between shards is logged on the debited
+ * account's shard only; an account's history asks every shard's index, so
+ * the other side still finds it.
+ * Each shard's log lives in a shard-N directory under the log directory.
+ * History from the text transaction_log.txt file is imported into shard 0.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class ShardedTransactionLog implements EventLog {
+    /** Directory that stores the log segments of the whole system */
+    private static final String LOG_DIR = "transaction_logs";
+    /** Name prefix of each shard's log directory */
+    private static final String SHARD_PREFIX = "shard-";
+    /** Default number of entries each shard's queue can hold */
+    private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    /** Default number of entries written per batch */
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    /** Default time in milliseconds a partial batch waits before being written */
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+    /** Default number of recent entries kept in memory */
+    private static final int DEFAULT_TAIL_CAPACITY = 1000;
+    /** Default size at which a segment is closed and a new one started */
+    private static final long DEFAULT_MAX_SEGMENT_BYTES = 16L * 1024 * 1024;
+    /** Orders events by time; the sort is stable, so ties keep shard order */
+    private static final Comparator<TransactionEvent> BY_TIME =
+        Comparator.comparingLong(TransactionEvent::getTimestamp);
+
+    /** Log of each shard */
+    private final TransactionLog[] shards;
+    /** Number of recent entries returned by getRecentEntries */
+    private final int tailCapacity;
+    /** Turns events into text lines when the log is read */
+    private volatile TransactionRenderer renderer;
+
+    /**
+     * Opens the shard logs under the default log directory with default settings.
+     * @param shardCount number of ledger shards
+     */
+    public ShardedTransactionLog(int shardCount) {
+        this(Paths.get(LOG_DIR), shardCount, TransactionLog.Durability.FLUSH_PER_BATCH, DEFAULT_BATCH_SIZE,
+            DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_QUEUE_CAPACITY, DEFAULT_TAIL_CAPACITY, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * Opens the shard logs with the given group-commit and segment settings, used by every shard.
+     * @param directory directory holding a log directory per shard
+     * @param shardCount number of ledger shards
+     * @param durability how strongly each batch is pushed to disk
+     * @param batchSize maximum number of entries written per batch
+     * @param flushIntervalMillis maximum time a partial batch waits before being written
+     * @param queueCapacity maximum number of entries waiting in memory, per shard
+     * @param tailCapacity number of recent entries kept in memory
+     * @param maxSegmentBytes size at which a segment is closed and a new one started
+     */
+    public ShardedTransactionLog(Path directory, int shardCount, TransactionLog.Durability durability,
+                                 int batchSize, long flushIntervalMillis, int queueCapacity, int tailCapacity,
+                                 long maxSegmentBytes) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        this.tailCapacity = tailCapacity;
+        this.shards = new TransactionLog[shardCount];
+        try {
+            TransactionLog.importLegacyLog(directory.resolve(SHARD_PREFIX + 0),
+                directory.resolveSibling(LegacyLogImporter.LEGACY_FILE));
+        } catch (IOException e) {
+            System.err.println("Error importing transaction log history: " + e.getMessage());
+        }
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new TransactionLog(directory.resolve(SHARD_PREFIX + i), durability, batchSize,
+                flushIntervalMillis, queueCapacity, tailCapacity, maxSegmentBytes);
+        }
+        this.renderer = new TransactionRenderer(null, shards[0].getLegacyText());
+    }
+
+    /**
+     * Gets the number of shards.
+     * @return shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void setOwnerResolver(LongFunction<String> owners) {
+        renderer = new TransactionRenderer(owners, shards[0].getLegacyText());
+        for (TransactionLog shard : shards) {
+            shard.setOwnerResolver(owners);
+        }
+    }
+
+    @Override
+    public void logEvent(TransactionType type, long accountNumber, long counterparty, long amount, long balance) {
+        shardFor(accountNumber).logEvent(type, accountNumber, counterparty, amount, balance);
+    }
+
+    @Override
+    public void flush() {
+        for (TransactionLog shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        //close every shard even if one of them failed
+        IllegalStateException failure = null;
+        for (TransactionLog shard : shards) {
+            try {
+                shard.close();
+            } catch (IllegalStateException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public List<String> getRecentEntries() {
+        return render(getRecentEvents());
+    }
+
+    @Override
+    public List<TransactionEvent> getRecentEvents() {
+        List<TransactionEvent> events = new ArrayList<>();
+        for (TransactionLog shard : shards) {
+            events.addAll(shard.getRecentEvents());
+        }
+        events.sort(BY_TIME);
+        return new ArrayList<>(events.subList(Math.max(0, events.size() - tailCapacity), events.size()));
+    }
+
+    @Override
+    public List<String> getLogEntries(long firstEntry, int pageSize) {
+        if (firstEntry < 0 || pageSize < 0) {
+            throw new IllegalArgumentException("Page position and size must not be negative");
+        }
+        try (Stream<TransactionEvent> events = streamEvents()) {
+            return render(events.skip(firstEntry).limit(pageSize).collect(Collectors.toList()));
+        }
+    }
+
+    @Override
+    public List<String> getLogEntriesBetween(long fromMillis, long toMillis) {
+        List<TransactionEvent> events = new ArrayList<>();
+        try {
+            readEventsBetween(fromMillis, toMillis, events::add);
+        } catch (IOException e) {
+            System.err.println("Error reading transaction log: " + e.getMessage());
+        }
+        return render(events);
+    }
+
+    /**
+     * Reads every event written within a time range, oldest first.
+     * Each shard's events in the range are read, then merged by time.
+     * Entries logged before this call are flushed first so they are included.
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @param consumer receives each event in the range
+     * @throws IOException if a segment cannot be read
+     */
+    @Override
+    public void readEventsBetween(long fromMillis, long toMillis, Consumer<TransactionEvent> consumer)
+            throws IOException {
+        List<TransactionEvent> events = new ArrayList<>();
+        for (TransactionLog shard : shards) {
+            shard.readEventsBetween(fromMillis, toMillis, events::add);
+        }
+        events.sort(BY_TIME);
+        events.forEach(consumer);
+    }
+
+    @Override
+    public List<String> getAccountEntries(long accountNumber, int limit) {
+        return render(getAccountEvents(accountNumber, limit));
+    }
+
+    /**
+     * Gets the most recent events involving an account, as the account or the counterparty.
+     * Asks every shard's history index, since a transfer is logged on the
+     * shard of the account it debits.
+     * Entries logged before this call are flushed first so they are included.
+     * @param accountNumber the account
+     * @param limit maximum number of events
+     * @return the events, oldest first
+     */
+    @Override
+    public List<TransactionEvent> getAccountEvents(long accountNumber, int limit) {
+        List<TransactionEvent> events = new ArrayList<>();
+        for (TransactionLog shard : shards) {
+            events.addAll(shard.getAccountEvents(accountNumber, limit));
+        }
+        events.sort(BY_TIME);
+        return new ArrayList<>(events.subList(Math.max(0, events.size() - Math.max(limit, 0)), events.size()));
+    }
+
+    @Override
+    public List<TransactionEvent> getAccountEventsBetween(long accountNumber, long fromMillis, long toMillis) {
+        List<TransactionEvent> events = new ArrayList<>();
+        for (TransactionLog shard : shards) {
+            events.addAll(shard.getAccountEventsBetween(accountNumber, fromMillis, toMillis));
+        }
+        events.sort(BY_TIME);
+        return events;
+    }
+
+    @Override
+    public Stream<String> streamLogEntries() {
+        TransactionRenderer current = renderer;
+        return streamEvents().map(current::render);
+    }
+
+    /**
+     * Streams every log entry as a typed event without loading the log into memory.
+     * Every shard's log is streamed at once and merged by time, so only
+     * one event per shard is held at a time.
+     * Entries logged before this call are flushed first so they are included.
+     * The caller must close the stream.
+     * @return lazily read stream of transaction events
+     */
+    @Override
+    public Stream<TransactionEvent> streamEvents() {
+        List<Stream<TransactionEvent>> streams = new ArrayList<>();
+        for (TransactionLog shard : shards) {
+            streams.add(shard.streamEvents());
+        }
+        Iterator<TransactionEvent> merged = new MergingIterator(streams);
+        Stream<TransactionEvent> events = StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false);
+        for (Stream<TransactionEvent> stream : streams) {
+            events = events.onClose(stream::close);
+        }
+        return events;
+    }
+
+    /**
+     * Gets the log of the shard an account belongs to.
+     * @param accountNumber the account
+     * @return the shard's log
+     */
+    private TransactionLog shardFor(long accountNumber) {
+        return shards[ShardedLedger.shardOf(accountNumber, shards.length)];
+    }
+
+    /**
+     * Renders events as text lines.
+     * @param events the events to render
+     * @return the log lines, in the same order
+     */
+    private List<String> render(List<TransactionEvent> events) {
+        TransactionRenderer current = renderer;
+        List<String> lines = new ArrayList<>(events.size());
+        for (TransactionEvent event : events) {
+            lines.add(current.render(event));
+        }
+        return lines;
+    }
+
+    /**
+     * Merges streams that are each in time order into one stream in time order.
+     * Ties go to the stream listed first.
+     */
+    private static class MergingIterator implements Iterator<TransactionEvent> {
+        /** Source of each stream's events */
+        private final List<Iterator<TransactionEvent>> sources = new ArrayList<>();
+        /** Next event of each stream, or null once it has ended */
+        private final TransactionEvent[] heads;
+
+        /**
+         * Creates an iterator over the streams.
+         * @param streams streams in time order
+         */
+        MergingIterator(List<Stream<TransactionEvent>> streams) {
+            heads = new TransactionEvent[streams.size()];
+            for (Stream<TransactionEvent> stream : streams) {
+                sources.add(stream.iterator());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSource() >= 0;
+        }
+
+        @Override
+        public TransactionEvent next() {
+            int source = nextSource();
+            if (source < 0) {
+                throw new NoSuchElementException();
+            }
+            TransactionEvent event = heads[source];
+            heads[source] = null;
+            return event;
+        }
+
+        /**
+         * Fills the heads and finds the stream with the oldest one.
+         * @return index of that stream, or -1 if every stream has ended
+         */
+        private int nextSource() {
+            int oldest = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] == null && sources.get(i).hasNext()) {
+                    heads[i] = sources.get(i).next();
+                }
+                if (heads[i] != null && (oldest < 0 || heads[i].getTimestamp() < heads[oldest].getTimestamp())) {
+                    oldest = i;
+                }
+            }
+            return oldest;
+        }
+    }
+}
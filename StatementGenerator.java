@@ -0,0 +1,200 @@
+package bank;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Writes monthly bank statements to text files, one per customer.
+ * The month of the transaction log is read once and its entries are grouped
+ * by account, both the account they happened on and the other account of a
+ * transfer or payment, so no customer's statement rescans the log. The
+ * statements are then rendered and written in parallel across customers.
+ * Generating a single customer's statement reads only that customer's
+ * entries for the month, through the log's per-account history index.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class StatementGenerator {
+    /** Default directory the statements are written to */
+    private static final String STATEMENT_DIR = "statements";
+    /**
+     * Entries that move money, the only ones shown on a statement. There is
+     * one per operation; the DEPOSIT and WITHDRAWAL an account logs for the
+     * same money would show it twice.
+     */
+    private static final Set<TransactionType> MONEY_MOVEMENTS = EnumSet.of(TransactionType.CUSTOMER_DEPOSIT,
+        TransactionType.CUSTOMER_WITHDRAWAL, TransactionType.TRANSFER, TransactionType.PAYMENT);
+    /** Format of an entry's date and time */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    /** Format of the statement month in headings */
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("MMMM yyyy", Locale.US);
+
+    /** Customers to write statements for */
+    private final CustomerStore customers;
+    /** Log the entries are read from */
+    private final EventLog log;
+    /** Directory the statements are written to */
+    private final Path directory;
+    /** Renders entries with their owners' names */
+    private final TransactionRenderer renderer;
+
+    /**
+     * Creates a generator writing to the default statements directory.
+     * @param customers customers to write statements for
+     * @param log log the entries are read from
+     */
+    public StatementGenerator(CustomerStore customers, EventLog log) {
+        this(customers, log, Paths.get(STATEMENT_DIR));
+    }
+
+    /**
+     * Creates a generator.
+     * @param customers customers to write statements for
+     * @param log log the entries are read from
+     * @param directory directory the statements are written to
+     */
+    public StatementGenerator(CustomerStore customers, EventLog log, Path directory) {
+        this.customers = customers;
+        this.log = log;
+        this.directory = directory;
+        AccountRegistry registry = customers.getAccountRegistry();
+        this.renderer = new TransactionRenderer(accountNumber -> {
+            Customer owner = registry.getOwner(accountNumber);
+            return owner == null ? null : owner.getName();
+        });
+    }
+
+    /**
+     * Writes a statement for every customer.
+     * @param month the month the statements cover
+     * @return number of statements written
+     * @throws IOException if the log cannot be read or a statement cannot be written
+     */
+    public int generateAll(YearMonth month) throws IOException {
+        Map<Long, List<TransactionEvent>> entries = groupByAccount(month);
+        Files.createDirectories(directory);
+        List<Customer> all = customers.getCustomers();
+        try {
+            all.parallelStream().forEach(customer -> {
+                try {
+                    write(customer, month, entries);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return all.size();
+    }
+
+    /**
+     * Writes the statement of one customer.
+     * @param customer the customer
+     * @param month the month the statement covers
+     * @return the statement file
+     * @throws IOException if the log cannot be read or the statement cannot be written
+     */
+    public Path generate(Customer customer, YearMonth month) throws IOException {
+        long from = startOf(month);
+        long to = startOf(month.plusMonths(1)) - 1;
+        Map<Long, List<TransactionEvent>> entries = new HashMap<>();
+        for (Account account : customer.getAccounts()) {
+            long key = account.getAccountKey();
+            for (TransactionEvent event : log.getAccountEventsBetween(key, from, to)) {
+                if (MONEY_MOVEMENTS.contains(event.getType())) {
+                    add(entries, key, event);
+                }
+            }
+        }
+        Files.createDirectories(directory);
+        return write(customer, month, entries);
+    }
+
+    /**
+     * Reads the month's entries once and groups them by the accounts involved.
+     * @param month the month to read
+     * @return entries of each account, oldest first
+     * @throws IOException if the log cannot be read
+     */
+    private Map<Long, List<TransactionEvent>> groupByAccount(YearMonth month) throws IOException {
+        Map<Long, List<TransactionEvent>> entries = new HashMap<>();
+        log.readEventsBetween(startOf(month), startOf(month.plusMonths(1)) - 1, event -> {
+            if (!MONEY_MOVEMENTS.contains(event.getType())) {
+                return;
+            }
+            add(entries, event.getAccountNumber(), event);
+            long counterparty = event.getCounterparty();
+            if (counterparty != TransactionEvent.NO_ACCOUNT && counterparty != event.getAccountNumber()) {
+                add(entries, counterparty, event);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Gets the time a month starts in the local time zone.
+     * @param month the month
+     * @return start of the month in epoch milliseconds
+     */
+    private static long startOf(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Adds an entry to an account's list.
+     * @param entries entries of each account
+     * @param account the account
+     * @param event the entry
+     */
+    private static void add(Map<Long, List<TransactionEvent>> entries, long account, TransactionEvent event) {
+        entries.computeIfAbsent(account, key -> new ArrayList<>()).add(event);
+    }
+
+    /**
+     * Renders and writes one customer's statement.
+     * @param customer the customer
+     * @param month the month the statement covers
+     * @param entries entries of each account
+     * @return the statement file
+     * @throws IOException if the statement cannot be written
+     */
+    private Path write(Customer customer, YearMonth month, Map<Long, List<TransactionEvent>> entries)
+            throws IOException {
+        Path file = directory.resolve(customer.getCustomerID() + "_" + month + ".txt");
+        ZoneId zone = ZoneId.systemDefault();
+        //entries are in time order, so the formatted minute is reused until it changes
+        long minute = -1;
+        String time = "";
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("El Paso Miners Bank\n");
+            writer.write("Statement for " + month.format(MONTH_FORMAT) + "\n");
+            writer.write(customer.getName() + " (ID: " + customer.getCustomerID() + ")\n");
+            for (Account account : customer.getAccounts()) {
+                writer.write("\n" + account.getClass().getSimpleName() + " " + account.getAccountNumber() + "\n");
+                writer.write("__________________\n");
+                List<TransactionEvent> events = entries.getOrDefault(account.getAccountKey(),
+                    Collections.emptyList());
+                if (events.isEmpty()) {
+                    writer.write("No transactions this month.\n");
+                }
+                for (TransactionEvent event : events) {
+                    if (event.getTimestamp() / 60_000 != minute) {
+                        minute = event.getTimestamp() / 60_000;
+                        time = TIME_FORMAT.format(Instant.ofEpochMilli(event.getTimestamp()).atZone(zone));
+                    }
+                    writer.write(time);
+                    writer.write("  ");
+                    writer.write(renderer.render(event));
+                    writer.write('\n');
+                }
+                writer.write("Current balance: $" + Money.format(account.getBalance()) + "\n");
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,151 @@
+package bank;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single typed entry of the transaction log.
+ * Events are stored as fixed-size binary records so they can be written
+ * without building text and read back without parsing.
+ * Record layout: timestamp, account number, counterparty, amount, resulting
+ * balance and type, each stored as an 8-byte value.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class TransactionEvent {
+    /** Size in bytes of one encoded event */
+    public static final int RECORD_SIZE = 48;
+    /** Account number used when an event has no counterparty */
+    public static final long NO_ACCOUNT = -1;
+    /** Byte offset of the timestamp within a record */
+    public static final int TIMESTAMP_OFFSET = 0;
+    /** Byte offset of the account number within a record */
+    public static final int ACCOUNT_OFFSET = 8;
+    /** Byte offset of the counterparty account number within a record */
+    public static final int COUNTERPARTY_OFFSET = 16;
+    /** Byte offset of the amount within a record */
+    private static final int AMOUNT_OFFSET = 24;
+    /** Byte offset of the resulting balance within a record */
+    private static final int BALANCE_OFFSET = 32;
+    /** Byte offset of the type within a record */
+    private static final int TYPE_OFFSET = 40;
+    /** Cached type values so decoding does not allocate */
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    /** Kind of activity */
+    private TransactionType type;
+    /** Time of the activity in epoch milliseconds */
+    private long timestamp;
+    /** Account the activity happened on */
+    private long accountNumber;
+    /** Other account involved, or NO_ACCOUNT */
+    private long counterparty;
+    /** Amount moved, or 0 for inquiries */
+    private long amount;
+    /** Balance of the account after the activity */
+    private long balance;
+
+    /**
+     * Creates an event.
+     * @param type kind of activity
+     * @param timestamp time of the activity in epoch milliseconds
+     * @param accountNumber account the activity happened on
+     * @param counterparty other account involved, or NO_ACCOUNT
+     * @param amount cents moved, or 0 for inquiries
+     * @param balance balance of the account in cents after the activity
+     */
+    public TransactionEvent(TransactionType type, long timestamp, long accountNumber,
+                            long counterparty, long amount, long balance) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.accountNumber = accountNumber;
+        this.counterparty = counterparty;
+        this.amount = amount;
+        this.balance = balance;
+    }
+
+    /**
+     * Gets the kind of activity.
+     * @return the event type
+     */
+    public TransactionType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the time of the activity.
+     * @return epoch milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the account the activity happened on.
+     * @return account number
+     */
+    public long getAccountNumber() {
+        return accountNumber;
+    }
+
+    /**
+     * Gets the other account involved.
+     * @return counterparty account number, or NO_ACCOUNT
+     */
+    public long getCounterparty() {
+        return counterparty;
+    }
+
+    /**
+     * Gets the amount moved.
+     * @return the amount in cents, or 0 for inquiries
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * Gets the balance after the activity.
+     * @return the resulting balance in cents
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * Encodes an event into a buffer at the given position.
+     * Uses absolute puts only, so the buffer position is unchanged and nothing is allocated.
+     * @param buffer buffer to write into
+     * @param position byte position of the record
+     * @param type kind of activity
+     * @param timestamp time of the activity in epoch milliseconds
+     * @param accountNumber account the activity happened on
+     * @param counterparty other account involved, or NO_ACCOUNT
+     * @param amount cents moved, or 0 for inquiries
+     * @param balance balance of the account in cents after the activity
+     */
+    public static void encode(ByteBuffer buffer, int position, TransactionType type, long timestamp,
+                              long accountNumber, long counterparty, long amount, long balance) {
+        buffer.putLong(position + TIMESTAMP_OFFSET, timestamp);
+        buffer.putLong(position + ACCOUNT_OFFSET, accountNumber);
+        buffer.putLong(position + COUNTERPARTY_OFFSET, counterparty);
+        buffer.putLong(position + AMOUNT_OFFSET, amount);
+        buffer.putLong(position + BALANCE_OFFSET, balance);
+        buffer.putLong(position + TYPE_OFFSET, type.ordinal());
+    }
+
+    /**
+     * Decodes the event stored at the given position of a buffer.
+     * @param buffer buffer holding encoded records
+     * @param position byte position of the record
+     * @return the decoded event
+     */
+    public static TransactionEvent decode(ByteBuffer buffer, int position) {
+        return new TransactionEvent(
+            TYPES[(int) buffer.getLong(position + TYPE_OFFSET)],
+            buffer.getLong(position + TIMESTAMP_OFFSET),
+            buffer.getLong(position + ACCOUNT_OFFSET),
+            buffer.getLong(position + COUNTERPARTY_OFFSET),
+            buffer.getLong(position + AMOUNT_OFFSET),
+            buffer.getLong(position + BALANCE_OFFSET));
+    }
+}
@@ -0,0 +1,541 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Applies a file of deposits, withdrawals, transfers and payments in bulk.
+ * The file is a CSV with the columns Action, From Account, To Account and
+ * Amount; a deposit only needs To and a withdrawal only needs From.
+ * One thread streams and validates the rows and submits them in chunks to
+ * a PartitionExecutor, whose writer threads each own a partition of the
+ * accounts, so rows on the same account are applied in file order. A
+ * transfer between two partitions goes to both: the writer owning the
+ * source debits it, and the writer owning the destination waits for that
+ * result before crediting, so money is never credited before it has been
+ * taken out.
+ * A row that fails is reported with its line number and the rest of the
+ * file carries on. Every writer writes the balance changes of a batch to
+ * the write-ahead log in one group commit.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class TransactionFileProcessor {
+    /** Rows submitted to the executor at a time */
+    private static final int CHUNK_SIZE = 1024;
+    /** Most failure messages kept for the report; the rest are only counted */
+    private static final int MAX_REPORTED_FAILURES = 1000;
+
+    /** Accounts the rows refer to */
+    private final AccountRegistry accounts;
+    /** Log receiving an event for every applied row, or null */
+    private final EventLog logger;
+    /** Number of partitions of a private executor */
+    private final int workers;
+    /** Executor shared with the rest of the bank, or null to start one per file */
+    private final PartitionExecutor executor;
+
+    /**
+     * Kinds of row in a transaction file.
+     */
+    private enum Action {
+        /** Money put into the To account */
+        DEPOSIT,
+        /** Money taken out of the From account */
+        WITHDRAW,
+        /** Money moved between accounts of the same customer */
+        TRANSFER,
+        /** Money moved to another customer's account */
+        PAY
+    }
+
+    /**
+     * One validated row of the file.
+     */
+    private static class Row extends PartitionExecutor.Command {
+        /** File being processed */
+        final Run run;
+        /** Line number in the file */
+        final long line;
+        /** What the row does */
+        final Action action;
+
+        /**
+         * Creates a row.
+         * @param run file being processed
+         * @param line line number in the file
+         * @param action what the row does
+         * @param from account debited, or null
+         * @param to account credited, or null
+         * @param amount amount in cents
+         */
+        Row(Run run, long line, Action action, Account from, Account to, long amount) {
+            super(action == Action.DEPOSIT ? PartitionExecutor.Kind.DEPOSIT
+                : action == Action.WITHDRAW ? PartitionExecutor.Kind.WITHDRAW
+                : PartitionExecutor.Kind.TRANSFER, from, to, amount);
+            this.run = run;
+            this.line = line;
+            this.action = action;
+        }
+
+        @Override
+        protected void completed() {
+            run.completed(this);
+        }
+    }
+
+    /**
+     * A failed row kept for the report.
+     */
+    private static class Failure {
+        /** Line number in the file */
+        final long line;
+        /** Why the row failed */
+        final String reason;
+
+        /**
+         * Creates a failure.
+         * @param line line number in the file
+         * @param reason why the row failed
+         */
+        Failure(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Totals of one file while it is processed.
+     * Rows complete on the executor's writer threads.
+     */
+    private class Run {
+        /** Rows applied */
+        final LongAdder applied = new LongAdder();
+        /** Rows that failed */
+        final LongAdder failed = new LongAdder();
+        /** First failures by line, latest line on top */
+        final PriorityQueue<Failure> failures =
+            new PriorityQueue<>(Comparator.comparingLong((Failure failure) -> failure.line).reversed());
+        /** Rows by the power of two of their latency in nanoseconds */
+        final AtomicLongArray latencyCounts = new AtomicLongArray(64);
+        /** Rows submitted and not completed, plus one until reading ends */
+        final AtomicLong outstanding = new AtomicLong(1);
+
+        /**
+         * Counts a failed row and keeps it if it is among the first lines failed.
+         * @param line line number in the file
+         * @param reason why it failed
+         */
+        void fail(long line, String reason) {
+            failed.increment();
+            synchronized (failures) {
+                if (failures.size() < MAX_REPORTED_FAILURES) {
+                    failures.add(new Failure(line, reason));
+                } else if (line < failures.peek().line) {
+                    failures.poll();
+                    failures.add(new Failure(line, reason));
+                }
+            }
+        }
+
+        /**
+         * Counts a row as submitted.
+         */
+        void submitted() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * Records a row's result and logs an event for it if it was applied.
+         * @param row the row, applied and durable or failed
+         */
+        void completed(Row row) {
+            if (row.isApplied()) {
+                applied.increment();
+                latencyCounts.incrementAndGet(64 - Long.numberOfLeadingZeros(System.nanoTime() - row.getSubmitted()));
+                if (logger != null) {
+                    logEvent(row);
+                }
+            } else {
+                fail(row.line, row.getFailure());
+            }
+            release();
+        }
+
+        /**
+         * Marks reading done and waits for every submitted row to complete.
+         */
+        void awaitCompletion() {
+            release();
+            boolean interrupted = false;
+            synchronized (this) {
+                while (outstanding.get() > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Takes one off the outstanding count and wakes the reader when it reaches zero.
+         */
+        private void release() {
+            if (outstanding.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Logs the event of an applied row.
+         * @param row the row
+         */
+        private void logEvent(Row row) {
+            switch (row.action) {
+                case DEPOSIT:
+                    logger.logEvent(TransactionType.CUSTOMER_DEPOSIT, row.getTo().getAccountKey(),
+                        TransactionEvent.NO_ACCOUNT, row.getAmount(), row.getBalance());
+                    break;
+                case WITHDRAW:
+                    logger.logEvent(TransactionType.CUSTOMER_WITHDRAWAL, row.getFrom().getAccountKey(),
+                        TransactionEvent.NO_ACCOUNT, row.getAmount(), row.getBalance());
+                    break;
+                default:
+                    logger.logEvent(row.action == Action.TRANSFER ? TransactionType.TRANSFER
+                        : TransactionType.PAYMENT, row.getFrom().getAccountKey(),
+                        row.getTo().getAccountKey(), row.getAmount(), row.getBalance());
+            }
+        }
+
+        /**
+         * Builds the report once every row has completed.
+         * @param rows rows read
+         * @param elapsed time taken
+         * @return the report
+         */
+        Report report(long rows, long elapsed) {
+            List<Failure> first = new ArrayList<>(failures);
+            first.sort(Comparator.comparingLong(failure -> failure.line));
+            List<String> messages = new ArrayList<>();
+            for (Failure failure : first) {
+                messages.add("Line " + failure.line + ": " + failure.reason);
+            }
+            long[] counts = new long[latencyCounts.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = latencyCounts.get(i);
+            }
+            return new Report(rows, applied.sum(), failed.sum(), Collections.unmodifiableList(messages),
+                elapsed, counts);
+        }
+    }
+
+    /**
+     * Totals and timings of one processed file.
+     */
+    public static class Report {
+        /** Rows read, not counting the header */
+        private final long rows;
+        /** Rows applied */
+        private final long applied;
+        /** Rows that failed */
+        private final long failed;
+        /** First failures in file order */
+        private final List<String> failures;
+        /** Time from the first row read to the last row durable */
+        private final long elapsedNanos;
+        /** Rows by the power of two of their latency in nanoseconds */
+        private final long[] latencyCounts;
+
+        /**
+         * Creates a report.
+         * @param rows rows read
+         * @param applied rows applied
+         * @param failed rows that failed
+         * @param failures first failures in file order
+         * @param elapsedNanos time taken
+         * @param latencyCounts rows by power of two of their latency
+         */
+        Report(long rows, long applied, long failed, List<String> failures, long elapsedNanos,
+               long[] latencyCounts) {
+            this.rows = rows;
+            this.applied = applied;
+            this.failed = failed;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latencyCounts = latencyCounts;
+        }
+
+        /**
+         * Gets the number of rows read.
+         * @return rows read, not counting the header
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Gets the number of rows applied.
+         * @return rows applied
+         */
+        public long getApplied() {
+            return applied;
+        }
+
+        /**
+         * Gets the number of rows that failed.
+         * @return rows that failed
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Gets the first failures, at most 1000, as "Line N: reason".
+         * @return failures in file order
+         */
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Gets the time taken to process the file.
+         * @return nanoseconds from the first row read to the last row durable
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Gets the throughput.
+         * @return rows per second
+         */
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Gets a latency percentile, from a row being submitted to the executor to
+         * its balance change being on disk.
+         * Rounded up to the next power of two nanoseconds.
+         * @param percentile percentile between 0 and 100
+         * @return latency in nanoseconds, 0 if nothing was applied
+         */
+        public long getLatencyPercentile(double percentile) {
+            long total = 0;
+            for (long count : latencyCounts) {
+                total += count;
+            }
+            long wanted = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < latencyCounts.length; i++) {
+                seen += latencyCounts[i];
+                if (seen >= wanted && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Gets the slowest latency, rounded up to the next power of two nanoseconds.
+         * @return latency in nanoseconds, 0 if nothing was applied
+         */
+        public long getMaxLatency() {
+            return getLatencyPercentile(100);
+        }
+    }
+
+    /**
+     * Creates a processor that starts a private executor with one partition per processor for each file.
+     * @param accounts accounts the rows refer to
+     * @param logger log receiving an event for every applied row, or null
+     */
+    public TransactionFileProcessor(AccountRegistry accounts, EventLog logger) {
+        this(accounts, logger, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a processor that starts a private executor for each file.
+     * @param accounts accounts the rows refer to
+     * @param logger log receiving an event for every applied row, or null
+     * @param workers number of partitions, each with its own writer thread
+     * @throws IllegalArgumentException if there are no workers
+     */
+    public TransactionFileProcessor(AccountRegistry accounts, EventLog logger, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+        this.accounts = accounts;
+        this.logger = logger;
+        this.workers = workers;
+        this.executor = null;
+    }
+
+    /**
+     * Creates a processor that submits its rows to the bank's executor,
+     * so they are ordered with every other change to the same accounts.
+     * @param accounts accounts the rows refer to
+     * @param logger log receiving an event for every applied row, or null
+     * @param executor the executor, left open when a file is done
+     */
+    public TransactionFileProcessor(AccountRegistry accounts, EventLog logger, PartitionExecutor executor) {
+        this.accounts = accounts;
+        this.logger = logger;
+        this.workers = executor.getPartitionCount();
+        this.executor = executor;
+    }
+
+    /**
+     * Processes a transaction file.
+     * @param file path of the file
+     * @return totals, failures and timings
+     * @throws IOException if the file cannot be read
+     */
+    public Report process(String file) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(file))) {
+            return process(in);
+        }
+    }
+
+    /**
+     * Processes transactions in CSV form.
+     * @param in the CSV, read to the end but not closed
+     * @return totals, failures and timings
+     * @throws IOException if the CSV cannot be read
+     */
+    public Report process(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        PartitionExecutor target = executor != null ? executor : new PartitionExecutor(workers);
+        Run run = new Run();
+        long rows = 0;
+        try {
+            PartitionExecutor.Command[] chunk = new PartitionExecutor.Command[CHUNK_SIZE];
+            int count = 0;
+            CSVReader reader = new CSVReader(in);
+            while (reader.next()) {
+                if (rows == 0 && reader.getString(0).equalsIgnoreCase("action")) {
+                    continue;
+                }
+                rows++;
+                Row row = parse(reader, run);
+                if (row == null) {
+                    continue;
+                }
+                run.submitted();
+                chunk[count++] = row;
+                if (count == chunk.length) {
+                    target.submitAll(chunk, count);
+                    count = 0;
+                }
+            }
+            target.submitAll(chunk, count);
+            run.awaitCompletion();
+        } finally {
+            if (target != executor) {
+                target.close();
+            }
+        }
+        return run.report(rows, System.nanoTime() - start);
+    }
+
+    /**
+     * Validates the current record and turns it into a row.
+     * @param reader reader positioned on the record
+     * @param run file being processed, told about rows that fail validation
+     * @return the row, or null if it failed validation
+     */
+    private Row parse(CSVReader reader, Run run) {
+        long line = reader.getLineNumber();
+        if (reader.getFieldCount() < 4) {
+            return invalid(run, line, "Expected Action, From Account, To Account and Amount");
+        }
+        Action action;
+        switch (reader.getString(0).toLowerCase()) {
+            case "deposit":
+                action = Action.DEPOSIT;
+                break;
+            case "withdraw":
+            case "withdrawal":
+                action = Action.WITHDRAW;
+                break;
+            case "transfer":
+                action = Action.TRANSFER;
+                break;
+            case "pay":
+            case "payment":
+                action = Action.PAY;
+                break;
+            default:
+                return invalid(run, line, "Unknown action " + reader.getString(0));
+        }
+        long amount;
+        try {
+            amount = reader.getCents(3);
+        } catch (NumberFormatException e) {
+            return invalid(run, line, "Invalid amount " + reader.getString(3));
+        }
+        if (amount <= 0) {
+            return invalid(run, line, "Amount must be positive");
+        }
+        Account from = null;
+        Account to = null;
+        if (action != Action.DEPOSIT) {
+            from = lookup(reader, 1);
+            if (from == null) {
+                return invalid(run, line, "No account " + reader.getString(1));
+            }
+        }
+        if (action != Action.WITHDRAW) {
+            to = lookup(reader, 2);
+            if (to == null) {
+                return invalid(run, line, "No account " + reader.getString(2));
+            }
+        }
+        if (from != null && to != null) {
+            if (from.getAccountKey() == to.getAccountKey()) {
+                return invalid(run, line, "Cannot transfer to same account");
+            }
+            Customer sender = accounts.getOwner(from.getAccountKey());
+            Customer receiver = accounts.getOwner(to.getAccountKey());
+            if (action == Action.TRANSFER && sender != receiver) {
+                return invalid(run, line, "Transfer accounts must belong to the same customer");
+            }
+        }
+        return new Row(run, line, action, from, to, amount);
+    }
+
+    /**
+     * Finds the account named by a field without creating a String.
+     * @param reader reader positioned on the record
+     * @param field zero-based field index
+     * @return the account, or null if the field is not a known account number
+     */
+    private Account lookup(CSVReader reader, int field) {
+        try {
+            return accounts.getAccount(reader.getLong(field));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records a row that failed validation.
+     * @param run file being processed
+     * @param line line number in the file
+     * @param reason why it failed
+     * @return null, for parse to return
+     */
+    private static Row invalid(Run run, long line, String reason) {
+        run.fail(line, reason);
+        return null;
+    }
+}
@@ -1,84 +1,1025 @@
+package bank;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.regex.*;
+import java.util.stream.*;
 /**
  * Handles logging of all banking transactions.
  * Maintains record of activities in the system.
+ * Every activity is a typed event encoded into a fixed-size binary record
+ * (see TransactionEvent); text lines are only rendered when the log is read.
+ * Records are queued in a preallocated ring buffer and written in batches by a
+ * background flusher (group commit) into rolling log segments, split by size or by day.
+ * Every segment has an index of entry offsets and timestamps, and closed
+ * segments are compressed in the background.
+ * An index from account number to that account's entries is kept in memory
+ * for the active segment, updated as batches are written, and saved beside
+ * each segment when it is closed, so an account's history is read without
+ * scanning anyone else's and startup only reads the active segment.
+ * The log is append-only; only a bounded tail of recent entries stays in memory.
+ * History written by older versions as text, the transaction_log.txt file
+ * beside the log directory and text segments, is imported into binary
+ * segments when the log is first opened, see LegacyLogImporter.
+ * If a batch cannot be written the flusher stops: flush and close report
+ * the failure and no further entries are accepted, so an entry is never
+ * reported written unless it is on disk.
  * @author Daniel Fuentes, Rogelio Lozano
  * @version 1.0
  */
-public class TransactionLog {
-    /**File that stores all activites of the whole system */
-    private static final String LOG_FILE = "transaction_log.txt";
-    /** List storing all transaction log entries  */
-    private List<String> currentLogs;
+public class TransactionLog implements EventLog {
+    /** Directory that stores the log segments of the whole system */
+    private static final String LOG_DIR = "transaction_logs";
+    /** File name prefix of every log segment */
+    private static final String LOG_NAME = "transaction_log";
+    /** Default number of entries the in-memory queue can hold */
+    private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    /** Default number of entries written per batch */
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    /** Default time in milliseconds a partial batch waits before being written */
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+    /** Default number of recent entries kept in memory */
+    private static final int DEFAULT_TAIL_CAPACITY = 1000;
+    /** Default size at which a segment is closed and a new one started */
+    private static final long DEFAULT_MAX_SEGMENT_BYTES = 16L * 1024 * 1024;
+    /** Size of one encoded entry */
+    private static final int RECORD_SIZE = TransactionEvent.RECORD_SIZE;
+    /** Matches the file names of log segments and captures their sequence number */
+    private static final Pattern SEGMENT_FILE = Pattern.compile(
+        Pattern.quote(LOG_NAME) + "-(\\d+)(\\.log|\\.log\\.gz|\\.idx)");
+
+    /**
+     * How strongly a written batch is pushed to disk.
+     */
+    public enum Durability {
+        /** Write each batch to the file channel and let the OS decide when it reaches disk */
+        FLUSH_PER_BATCH,
+        /** Write each batch and fsync once per batch */
+        FSYNC_PER_BATCH,
+        /** Write and fsync every entry on its own */
+        FSYNC_PER_ENTRY
+    }
+
+    /** Directory holding the log segments */
+    private Path directory;
+    /** All segments, oldest first; the last one is being written */
+    private List<LogSegment> segments;
+    /** Segment currently being written */
+    private LogSegment activeSegment;
+    /** Size at which the active segment is rolled */
+    private long maxSegmentBytes;
+    /** Timestamp of the last written entry, keeps the index ordered */
+    private long lastTimestamp;
+    /** Background worker compressing closed segments */
+    private ExecutorService compressor;
+    /** Turns events into text lines when the log is read */
+    private volatile TransactionRenderer renderer;
+    /** Imported text lines that name no account, keyed by segment sequence */
+    private Map<Long, List<String>> legacyText;
+    /** Ring buffer of encoded recent entries */
+    private ByteBuffer recentLogs;
+    /** Number of entries the recent ring can hold */
+    private int recentCapacity;
+    /** Index of the oldest entry in the recent ring */
+    private int recentStart;
+    /** Number of entries currently in the recent ring */
+    private int recentCount;
+    /** Ring buffer of encoded entries waiting to be written */
+    private ByteBuffer pending;
+    /** Number of entries the pending ring can hold */
+    private int pendingCapacity;
+    /** Count of entries taken from the pending ring by the flusher */
+    private long pendingHead;
+    /** Count of entries put into the pending ring by callers */
+    private long pendingTail;
+    /** Entries copied out of the pending ring for the current batch */
+    private ByteBuffer batchBuffer;
+    /** Background thread writing batches to the active segment */
+    private Thread flusher;
+    /** Durability level used for each batch */
+    private Durability durability;
+    /** Maximum number of entries written per batch */
+    private int batchSize;
+    /** Maximum time a partial batch waits before it is written */
+    private long flushIntervalMillis;
+    /** Number of entries written to the log so far */
+    private long writtenCount;
+    /** Set when a caller is waiting in flush() */
+    private boolean flushRequested;
+    /** Entries of every account in the active segment, by segment and entry number */
+    private AccountHistoryIndex history;
+    /** Account of each entry in the batch being written */
+    private long[] batchAccounts;
+    /** Counterparty of each entry in the batch being written */
+    private long[] batchCounterparties;
+    /** Reference of each entry in the batch being written */
+    private long[] batchReferences;
+    /** Set once close() has been called */
+    private volatile boolean closed;
+    /** Error that stopped the flusher, if any; no entries are accepted after it */
+    private volatile IOException failure;
 
     /**
      * Creates a new transaction logger.
-     * Initializes the log
+     * Initializes the log with default batching, segment size and flush-per-batch durability.
      */
     public TransactionLog() {
-        this.currentLogs = new ArrayList<>();
-        loadExistingLogs();
+        this(Paths.get(LOG_DIR), Durability.FLUSH_PER_BATCH, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS,
+            DEFAULT_QUEUE_CAPACITY, DEFAULT_TAIL_CAPACITY, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * Creates a new transaction logger with the given group-commit and segment settings.
+     * @param directory directory holding the log segments
+     * @param durability how strongly each batch is pushed to disk
+     * @param batchSize maximum number of entries written per batch
+     * @param flushIntervalMillis maximum time a partial batch waits before being written
+     * @param queueCapacity maximum number of entries waiting in memory
+     * @param tailCapacity number of recent entries kept in memory
+     * @param maxSegmentBytes size at which a segment is closed and a new one started
+     */
+    public TransactionLog(Path directory, Durability durability, int batchSize, long flushIntervalMillis,
+                          int queueCapacity, int tailCapacity, long maxSegmentBytes) {
+        if (batchSize <= 0 || flushIntervalMillis <= 0 || queueCapacity <= 0
+                || tailCapacity <= 0 || maxSegmentBytes <= 0) {
+            throw new IllegalArgumentException(
+                "Batch size, flush interval, queue capacity, tail capacity and segment size must be positive");
+        }
+        this.directory = directory;
+        this.segments = new ArrayList<>();
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.legacyText = new HashMap<>();
+        this.recentCapacity = tailCapacity;
+        this.recentLogs = ByteBuffer.allocate(tailCapacity * RECORD_SIZE);
+        this.pendingCapacity = queueCapacity;
+        this.pending = ByteBuffer.allocate(queueCapacity * RECORD_SIZE);
+        this.batchBuffer = ByteBuffer.allocateDirect(Math.min(batchSize, queueCapacity) * RECORD_SIZE);
+        this.durability = durability;
+        this.batchSize = Math.min(batchSize, queueCapacity);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.compressor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "transaction-log-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.history = new AccountHistoryIndex();
+        this.batchAccounts = new long[this.batchSize];
+        this.batchCounterparties = new long[this.batchSize];
+        this.batchReferences = new long[this.batchSize];
+        loadLegacyLog(directory.resolveSibling(LegacyLogImporter.LEGACY_FILE));
+        this.renderer = new TransactionRenderer(null, legacyText);
+        openSegments();
+        loadRecentLogs();
+        indexSegments();
+
+        //start the background writer
+        this.flusher = new Thread(this::runFlusher, "transaction-log-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Sets how account numbers are turned into owner names when rendering entries.
+     * @param owners looks up the owner's name for an account number
+     */
+    @Override
+    public void setOwnerResolver(LongFunction<String> owners) {
+        this.renderer = new TransactionRenderer(owners, legacyText);
+    }
+
+    /**
+     * Gets the imported text lines that name no account, for rendering LEGACY_TEXT events.
+     * @return the lines, keyed by segment sequence
+     */
+    public Map<Long, List<String>> getLegacyText() {
+        return legacyText;
+    }
+
+    /**
+     * Imports history written in the older text formats into a log directory.
+     * Runs before the log is opened, see LegacyLogImporter.
+     * @param directory directory holding the log segments
+     * @param legacyFile the text file written before the log had segments, may not exist
+     * @throws IOException if the history cannot be read or the segments written
+     */
+    static void importLegacyLog(Path directory, Path legacyFile) throws IOException {
+        LegacyLogImporter.importInto(directory, LOG_NAME, legacyFile);
+    }
+
+    /**
+     * Imports history written in the older text formats and loads the text
+     * lines kept from it.
+     * @param legacyFile the text file written before the log had segments, may not exist
+     */
+    private void loadLegacyLog(Path legacyFile) {
+        try {
+            importLegacyLog(directory, legacyFile);
+            legacyText = LegacyLogImporter.readText(directory, LOG_NAME);
+        } catch (IOException e) {
+            System.err.println("Error importing transaction log history: " + e.getMessage());
+        }
     }
 
     /**
-     * Loads existing transaction logs from file.
-     * Creates new log file if it doesn't exist.
+     * Finds the existing segments and opens the newest one for appending.
+     * Creates the log directory and first segment if they don't exist.
+     * Older segments that are still uncompressed are queued for compression.
      */
-    private void loadExistingLogs() {
+    private void openSegments() {
         try {
-            File file = new File(LOG_FILE);
-            if (file.exists()) {
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    currentLogs.add(line);
+            Files.createDirectories(directory);
+            TreeSet<Long> sequences = new TreeSet<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                    if (matcher.matches()) {
+                        sequences.add(Long.parseLong(matcher.group(1)));
+                    }
                 }
-                reader.close();
-            } else {
-                file.createNewFile();
+            }
+            if (sequences.isEmpty()) {
+                sequences.add(1L);
+            }
+            for (long sequence : sequences) {
+                segments.add(new LogSegment(directory, LOG_NAME, sequence));
+            }
+
+            activeSegment = segments.get(segments.size() - 1);
+            activeSegment.openForAppend();
+            lastTimestamp = activeSegment.getLastTimestamp();
+            for (LogSegment segment : segments) {
+                if (segment != activeSegment && !segment.isCompressed()) {
+                    compressInBackground(segment);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error opening transaction log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the most recent entries from the newest segments.
+     * Uses the segment indexes to seek to the tail, so startup cost depends
+     * on the tail size, not the history size.
+     */
+    private void loadRecentLogs() {
+        LinkedList<TransactionEvent> tail = new LinkedList<>();
+        try {
+            //walk back through the segments until the tail is full
+            for (int s = segments.size() - 1; s >= 0 && tail.size() < recentCapacity; s--) {
+                LogSegment segment = segments.get(s);
+                long take = Math.min(recentCapacity - tail.size(), segment.getEntryCount());
+                List<TransactionEvent> events = new ArrayList<>();
+                readEvents(segment, segment.getEntryCount() - take, (int) take, events::add);
+                tail.addAll(0, events);
             }
         } catch (IOException e) {
             System.err.println("Error loading transaction log: " + e.getMessage());
         }
+        for (TransactionEvent event : tail) {
+            int slot = nextRecentSlot();
+            TransactionEvent.encode(recentLogs, slot, event.getType(), event.getTimestamp(),
+                event.getAccountNumber(), event.getCounterparty(), event.getAmount(), event.getBalance());
+        }
     }
 
     /**
-     * Gets all current log entries. 
-     * @return list of all transaction logs
+     * Indexes the active segment into memory and writes the account sidecar of
+     * any closed segment missing one, such as the one being written when a
+     * crash happened or one from before segments had them.
+     * Runs before the flusher starts, so no entries are written meanwhile.
      */
-    public List<String> getLogEntries() {
-        return new ArrayList<>(currentLogs);
+    private void indexSegments() {
+        try {
+            for (LogSegment segment : segments) {
+                if (segment == activeSegment) {
+                    indexSegment(segment, history);
+                } else if (!segment.hasAccountIndex()) {
+                    AccountHistoryIndex closed = new AccountHistoryIndex();
+                    indexSegment(segment, closed);
+                    segment.writeAccountIndex(closed);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error indexing transaction log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads every entry of a segment into an account history index.
+     * @param segment the segment to read
+     * @param index the index to add the entries to
+     * @throws IOException if the segment cannot be read
+     */
+    private void indexSegment(LogSegment segment, AccountHistoryIndex index) throws IOException {
+        long sequence = segment.getSequence();
+        long[] entry = {0};
+        readEvents(segment, 0, (int) segment.getEntryCount(), event -> indexEntry(index,
+            event.getAccountNumber(), event.getCounterparty(), AccountHistoryIndex.reference(sequence, entry[0]++)));
     }
 
     /**
-     * Logs a new transaction and writes it to file.
-     * Immediately keeps the transaction.
-     * @param transaction the transaction details to log
+     * Adds an entry to the history of its account and of its counterparty.
+     * @param index the index to add the entry to
+     * @param accountNumber account the entry happened on
+     * @param counterparty other account involved, or TransactionEvent.NO_ACCOUNT
+     * @param reference segment and entry number of the entry
      */
-    public void logTransaction(String transaction) {
-        String logEntry = String.format(transaction);
-        currentLogs.add(logEntry);
-        
-        //immediately write to file
-        try (FileWriter writer = new FileWriter(LOG_FILE, true)) {
-            writer.write(logEntry + "\n");
+    private static void indexEntry(AccountHistoryIndex index, long accountNumber, long counterparty,
+                                   long reference) {
+        index.add(accountNumber, reference);
+        if (counterparty != TransactionEvent.NO_ACCOUNT && counterparty != accountNumber) {
+            index.add(counterparty, reference);
+        }
+    }
+
+    /**
+     * Reserves the next slot of the recent ring, dropping the oldest entry when full.
+     * @return byte position of the slot
+     */
+    private int nextRecentSlot() {
+        int index = (recentStart + recentCount) % recentCapacity;
+        if (recentCount < recentCapacity) {
+            recentCount++;
+        } else {
+            recentStart = (recentStart + 1) % recentCapacity;
+        }
+        return index * RECORD_SIZE;
+    }
+
+    /**
+     * Gets the most recent log entries kept in memory, oldest first.
+     * @return list of recent transaction logs
+     */
+    @Override
+    public List<String> getRecentEntries() {
+        return render(getRecentEvents());
+    }
+
+    /**
+     * Gets the most recent events kept in memory, oldest first.
+     * @return list of recent transaction events
+     */
+    @Override
+    public List<TransactionEvent> getRecentEvents() {
+        List<TransactionEvent> events = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < recentCount; i++) {
+                events.add(TransactionEvent.decode(recentLogs, ((recentStart + i) % recentCapacity) * RECORD_SIZE));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Gets one page of log entries read from the segments.
+     * Seeks to the first entry through the segment indexes.
+     * @param firstEntry zero-based index of the first entry to return
+     * @param pageSize maximum number of entries to return
+     * @return list of at most pageSize transaction logs
+     */
+    @Override
+    public List<String> getLogEntries(long firstEntry, int pageSize) {
+        if (firstEntry < 0 || pageSize < 0) {
+            throw new IllegalArgumentException("Page position and size must not be negative");
+        }
+        awaitWritten();
+        List<TransactionEvent> page = new ArrayList<>();
+        long skipped = 0;
+        try {
+            for (LogSegment segment : getSegments()) {
+                long count = segment.getEntryCount();
+                if (page.size() >= pageSize) {
+                    break;
+                }
+                if (skipped + count <= firstEntry) {
+                    skipped += count;
+                    continue;
+                }
+                long start = Math.max(0, firstEntry - skipped);
+                int take = (int) Math.min(pageSize - page.size(), count - start);
+                readEvents(segment, start, take, page::add);
+                skipped += count;
+            }
         } catch (IOException e) {
-            System.err.println("Error writing to transaction log: " + e.getMessage());
+            System.err.println("Error reading transaction log: " + e.getMessage());
         }
+        return render(page);
     }
 
     /**
-     * Updates the log file with all current transactions before system exit.
-     * Writes all logged transactions.
+     * Gets every log entry written within a time range.
+     * Skips segments outside the range and binary searches the index of the
+     * others, so only matching entries are read.
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @return list of transaction logs in the range, oldest first
      */
-    public void exitUpdate() {
-        try (FileWriter writer = new FileWriter(LOG_FILE)) {
-            for (String log : currentLogs) {
-                writer.write(log + "\n");
+    @Override
+    public List<String> getLogEntriesBetween(long fromMillis, long toMillis) {
+        List<TransactionEvent> events = new ArrayList<>();
+        try {
+            readEventsBetween(fromMillis, toMillis, events::add);
+        } catch (IOException e) {
+            System.err.println("Error reading transaction log: " + e.getMessage());
+        }
+        return render(events);
+    }
+
+    /**
+     * Reads every event written within a time range in one pass, oldest first.
+     * Skips segments outside the range and binary searches the index of the
+     * others, so only matching entries are read.
+     * Entries logged before this call are flushed first so they are included.
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @param consumer receives each event in the range
+     * @throws IOException if a segment cannot be read
+     */
+    @Override
+    public void readEventsBetween(long fromMillis, long toMillis, Consumer<TransactionEvent> consumer)
+            throws IOException {
+        awaitWritten();
+        for (LogSegment segment : getSegments()) {
+            if (segment.getEntryCount() == 0 || segment.getLastTimestamp() < fromMillis
+                    || segment.getFirstTimestamp() > toMillis) {
+                continue;
+            }
+            long start = segment.findEntry(fromMillis);
+            long end = toMillis == Long.MAX_VALUE ? segment.getEntryCount() : segment.findEntry(toMillis + 1);
+            readEvents(segment, start, (int) (end - start), consumer);
+        }
+    }
+
+    /**
+     * Gets the most recent log entries involving an account.
+     * @param accountNumber the account
+     * @param limit maximum number of entries
+     * @return list of transaction logs, oldest first
+     */
+    @Override
+    public List<String> getAccountEntries(long accountNumber, int limit) {
+        return render(getAccountEvents(accountNumber, limit));
+    }
+
+    /**
+     * Gets the most recent events involving an account, as the account or the counterparty.
+     * Looks the account up in each segment's account index, newest first,
+     * until enough are found, so the cost depends on the number returned and
+     * the number of segments, not on the size of the log.
+     * Entries logged before this call are flushed first so they are included.
+     * @param accountNumber the account
+     * @param limit maximum number of events
+     * @return the events, oldest first
+     */
+    @Override
+    public List<TransactionEvent> getAccountEvents(long accountNumber, int limit) {
+        awaitWritten();
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<LogSegment> all;
+        LogSegment active;
+        AccountHistoryIndex activeHistory;
+        synchronized (this) {
+            all = new ArrayList<>(segments);
+            active = activeSegment;
+            activeHistory = history;
+        }
+        //newest segment first, then put back in log order
+        List<long[]> found = new ArrayList<>();
+        int total = 0;
+        try {
+            for (int s = all.size() - 1; s >= 0 && total < limit; s--) {
+                long[] references = accountReferences(all.get(s), active, activeHistory, accountNumber, limit - total);
+                found.add(references);
+                total += references.length;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading transaction log: " + e.getMessage());
+        }
+        long[] references = new long[total];
+        int next = 0;
+        for (int i = found.size() - 1; i >= 0; i--) {
+            System.arraycopy(found.get(i), 0, references, next, found.get(i).length);
+            next += found.get(i).length;
+        }
+        return readReferences(references);
+    }
+
+    /**
+     * Gets the events involving an account within a time range.
+     * Skips segments wholly outside the range, binary searches the account's
+     * entries in the others by timestamp, then reads only the ones in the range.
+     * Entries logged before this call are flushed first so they are included.
+     * @param accountNumber the account
+     * @param fromMillis start of the range in epoch milliseconds, inclusive
+     * @param toMillis end of the range in epoch milliseconds, inclusive
+     * @return the events, oldest first
+     */
+    @Override
+    public List<TransactionEvent> getAccountEventsBetween(long accountNumber, long fromMillis, long toMillis) {
+        awaitWritten();
+        List<LogSegment> all;
+        LogSegment active;
+        AccountHistoryIndex activeHistory;
+        synchronized (this) {
+            all = new ArrayList<>(segments);
+            active = activeSegment;
+            activeHistory = history;
+        }
+        LongStream.Builder inRange = LongStream.builder();
+        try {
+            for (LogSegment segment : all) {
+                if (segment.getEntryCount() == 0 || segment.getLastTimestamp() < fromMillis
+                        || segment.getFirstTimestamp() > toMillis) {
+                    continue;
+                }
+                long[] references = accountReferences(segment, active, activeHistory, accountNumber,
+                    Integer.MAX_VALUE);
+                int start = firstReferenceAtOrAfter(references, segment, fromMillis);
+                int end = toMillis == Long.MAX_VALUE ? references.length
+                    : firstReferenceAtOrAfter(references, segment, toMillis + 1);
+                for (int i = start; i < end; i++) {
+                    inRange.add(references[i]);
+                }
             }
         } catch (IOException e) {
-            System.err.println("Error updating transaction log on exit: " + e.getMessage());
+            System.err.println("Error reading transaction log: " + e.getMessage());
+            return new ArrayList<>();
         }
+        return readReferences(inRange.build().toArray());
+    }
+
+    /**
+     * Gets the most recent references to an account's entries in one segment.
+     * The active segment is looked up in memory and a closed one in its account sidecar.
+     * @param segment the segment
+     * @param active the active segment when the query started
+     * @param activeHistory the in-memory index of that active segment
+     * @param accountNumber the account
+     * @param limit maximum number of references
+     * @return the references, in log order
+     * @throws IOException if the account sidecar cannot be read
+     */
+    private static long[] accountReferences(LogSegment segment, LogSegment active, AccountHistoryIndex activeHistory,
+                                            long accountNumber, int limit) throws IOException {
+        if (segment == active) {
+            int count = activeHistory.count(accountNumber);
+            return activeHistory.get(accountNumber, Math.max(0, count - limit), count);
+        }
+        long[] references = segment.readAccountEntries(accountNumber, limit);
+        for (int i = 0; i < references.length; i++) {
+            references[i] = AccountHistoryIndex.reference(segment.getSequence(), references[i]);
+        }
+        return references;
+    }
+
+    /**
+     * Finds the first reference whose entry is at or after a time.
+     * @param references entry references within one segment in log order, so timestamps never decrease
+     * @param segment the segment holding the entries
+     * @param timestamp time in epoch milliseconds
+     * @return position of the first such reference, or the number of references if there is none
+     * @throws IOException if the segment index cannot be read
+     */
+    private int firstReferenceAtOrAfter(long[] references, LogSegment segment, long timestamp)
+            throws IOException {
+        int low = 0;
+        int high = references.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long entryTime = segment.readTimestamps(AccountHistoryIndex.entryOf(references[middle]), 1)[0];
+            if (entryTime < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads the entries behind a list of references.
+     * References in the same segment are read together.
+     * @param references entry references in log order
+     * @return the events, in the same order
+     */
+    private List<TransactionEvent> readReferences(long[] references) {
+        List<TransactionEvent> events = new ArrayList<>(references.length);
+        if (references.length == 0) {
+            return events;
+        }
+        Map<Long, LogSegment> bySequence = segmentsBySequence();
+        long[] entries = new long[references.length];
+        for (int i = 0; i < references.length; i++) {
+            entries[i] = AccountHistoryIndex.entryOf(references[i]);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        try {
+            int from = 0;
+            while (from < references.length) {
+                long sequence = AccountHistoryIndex.segmentOf(references[from]);
+                int to = from + 1;
+                while (to < references.length && AccountHistoryIndex.segmentOf(references[to]) == sequence) {
+                    to++;
+                }
+                bySequence.get(sequence).readEntries(entries, from, to, record,
+                    view -> events.add(TransactionEvent.decode(view, 0)));
+                from = to;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading transaction log: " + e.getMessage());
+        }
+        return events;
+    }
+
+    /**
+     * Gets a snapshot of the segments keyed by sequence number.
+     * @return segments by sequence number
+     */
+    private Map<Long, LogSegment> segmentsBySequence() {
+        Map<Long, LogSegment> bySequence = new HashMap<>();
+        for (LogSegment segment : getSegments()) {
+            bySequence.put(segment.getSequence(), segment);
+        }
+        return bySequence;
+    }
+
+    /**
+     * Streams every log entry as text without loading the log into memory.
+     * Entries logged before this call are flushed first so they are included.
+     * The caller must close the stream.
+     * @return lazily read stream of transaction logs
+     */
+    @Override
+    public Stream<String> streamLogEntries() {
+        TransactionRenderer current = renderer;
+        return streamEvents().map(current::render);
+    }
+
+    /**
+     * Streams every log entry as a typed event without loading the log into memory.
+     * Segments are opened one at a time as the stream reaches them, and a
+     * segment cut short, such as by a crash, ends at its last whole entry.
+     * Entries logged before this call are flushed first so they are included.
+     * The caller must close the stream.
+     * @return lazily read stream of transaction events
+     */
+    @Override
+    public Stream<TransactionEvent> streamEvents() {
+        awaitWritten();
+        return getSegments().stream().flatMap(segment -> {
+            try {
+                InputStream in = segment.openStream(0);
+                byte[] record = new byte[RECORD_SIZE];
+                ByteBuffer view = ByteBuffer.wrap(record);
+                return LongStream.range(0, segment.getEntryCount()).mapToObj(i -> {
+                    try {
+                        //a short read is a truncated tail; stop rather than decode stale bytes
+                        return in.readNBytes(record, 0, RECORD_SIZE) == RECORD_SIZE
+                            ? TransactionEvent.decode(view, 0) : null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).takeWhile(Objects::nonNull).onClose(() -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Reads a run of entries from one segment.
+     * @param segment segment to read from
+     * @param firstEntry first entry to read
+     * @param count number of entries to read
+     * @param consumer receives each decoded event, in order
+     * @throws IOException if the segment cannot be read
+     */
+    private void readEvents(LogSegment segment, long firstEntry, int count,
+                            Consumer<TransactionEvent> consumer) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        byte[] record = new byte[RECORD_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(record);
+        try (InputStream in = segment.openStream(firstEntry)) {
+            for (int i = 0; i < count && in.readNBytes(record, 0, RECORD_SIZE) == RECORD_SIZE; i++) {
+                consumer.accept(TransactionEvent.decode(view, 0));
+            }
+        }
+    }
+
+    /**
+     * Renders events as text lines.
+     * @param events the events to render
+     * @return the log lines, in the same order
+     */
+    private List<String> render(List<TransactionEvent> events) {
+        TransactionRenderer current = renderer;
+        List<String> lines = new ArrayList<>(events.size());
+        for (TransactionEvent event : events) {
+            lines.add(current.render(event));
+        }
+        return lines;
+    }
+
+    /**
+     * Gets a snapshot of the current segment list.
+     * @return segments, oldest first
+     */
+    private synchronized List<LogSegment> getSegments() {
+        return new ArrayList<>(segments);
+    }
+
+    /**
+     * Logs a new transaction event.
+     * The event is encoded straight into the pending ring buffer and written by
+     * the background flusher with the next batch, so nothing is allocated here.
+     * Blocks while the ring is full.
+     * @param type kind of activity
+     * @param accountNumber account the activity happened on
+     * @param counterparty other account involved, or TransactionEvent.NO_ACCOUNT
+     * @param amount cents moved, or 0 for inquiries
+     * @param balance balance of the account in cents after the activity
+     * @throws IllegalStateException if the log could not write earlier entries
+     */
+    @Override
+    public void logEvent(TransactionType type, long accountNumber, long counterparty,
+                         long amount, long balance) {
+        checkWritable();
+        if (closed) {
+            System.err.println("Error writing to transaction log: log is closed");
+            return;
+        }
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+        synchronized (this) {
+            try {
+                while (pendingTail - pendingHead == pendingCapacity && !closed && failure == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Error writing to transaction log: interrupted while queueing");
+                return;
+            }
+            checkWritable();
+            if (closed) {
+                System.err.println("Error writing to transaction log: log is closed");
+                return;
+            }
+            int slot = (int) (pendingTail % pendingCapacity) * RECORD_SIZE;
+            TransactionEvent.encode(pending, slot, type, timestamp, accountNumber, counterparty, amount, balance);
+            TransactionEvent.encode(recentLogs, nextRecentSlot(), type, timestamp,
+                accountNumber, counterparty, amount, balance);
+            pendingTail++;
+            if (pendingTail - pendingHead >= batchSize) {
+                notifyAll();
+            }
+        }
+        BankMetrics.LOG_APPEND.recordSince(start);
+    }
+
+    /**
+     * Blocks until every entry logged before this call has been written
+     * with the configured durability.
+     * @throws IllegalStateException if the log could not be written
+     */
+    @Override
+    public void flush() {
+        awaitWritten();
+        checkWritable();
+    }
+
+    /**
+     * Blocks until every entry logged before this call has been written,
+     * or the flusher has stopped. Reads wait here so they include the
+     * latest entries, and still see what is on disk after a failure.
+     */
+    private synchronized void awaitWritten() {
+        long target = pendingTail;
+        flushRequested = true;
+        notifyAll();
+        try {
+            while (writtenCount < target && flusher.isAlive()) {
+                wait(flushIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Throws if entries can no longer be written.
+     */
+    private void checkWritable() {
+        IOException error = failure;
+        if (error != null) {
+            throw new IllegalStateException("Transaction log cannot be written: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * Writes every queued entry, stops the flusher and closes the active segment.
+     * Waits for background compression to finish.
+     * Entries logged after this call are rejected.
+     * @throws IllegalStateException if the log could not be written
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        awaitWritten();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+            if (activeSegment != null) {
+                activeSegment.closeForAppend(durability != Durability.FLUSH_PER_BATCH);
+            }
+            compressor.shutdown();
+            compressor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing transaction log: " + e.getMessage());
+        }
+        checkWritable();
+    }
+
+    /**
+     * Flusher loop. Waits until a batch is full, the flush interval has passed
+     * since the first waiting entry, or a flush is requested, then copies the
+     * batch out of the ring and writes it.
+     */
+    private void runFlusher() {
+        while (true) {
+            int count;
+            synchronized (this) {
+                try {
+                    while (pendingTail == pendingHead) {
+                        if (closed) {
+                            return;
+                        }
+                        wait(flushIntervalMillis);
+                    }
+                    //keep filling until size or time threshold is reached
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                    while (pendingTail - pendingHead < batchSize && !flushRequested && !closed) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    //only close() stops the flusher
+                }
+
+                count = (int) Math.min(batchSize, pendingTail - pendingHead);
+                batchBuffer.clear();
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) ((pendingHead + i) % pendingCapacity) * RECORD_SIZE;
+                    batchBuffer.put(i * RECORD_SIZE, pending, slot, RECORD_SIZE);
+                }
+                pendingHead += count;
+                if (pendingHead == pendingTail) {
+                    flushRequested = false;
+                }
+                //wake callers waiting for space
+                notifyAll();
+            }
+            if (!writeBatch(count)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the current batch to the active segment using the configured durability.
+     * Rolls to a new segment when the size limit or a day boundary is reached.
+     * @param count number of entries in the batch buffer
+     * @return true if the batch was written, false if the log failed and the flusher must stop
+     */
+    private boolean writeBatch(int count) {
+        try {
+            if (activeSegment != null) {
+                int indexed = 0;
+                for (int i = 0; i < count; i++) {
+                    int position = i * RECORD_SIZE;
+                    //entries can be queued slightly out of order, keep the index sorted
+                    long timestamp = Math.max(
+                        batchBuffer.getLong(position + TransactionEvent.TIMESTAMP_OFFSET), lastTimestamp);
+                    batchBuffer.putLong(position + TransactionEvent.TIMESTAMP_OFFSET, timestamp);
+                    if (needsRoll(RECORD_SIZE, timestamp)) {
+                        //the closed segment's index must be whole before it is saved
+                        activeSegment.closeForAppend(durability != Durability.FLUSH_PER_BATCH);
+                        indexBatch(indexed, i);
+                        indexed = i;
+                        roll();
+                    }
+                    activeSegment.append(batchBuffer, position, RECORD_SIZE, timestamp);
+                    lastTimestamp = timestamp;
+                    batchAccounts[i] = batchBuffer.getLong(position + TransactionEvent.ACCOUNT_OFFSET);
+                    batchCounterparties[i] = batchBuffer.getLong(position + TransactionEvent.COUNTERPARTY_OFFSET);
+                    batchReferences[i] = AccountHistoryIndex.reference(
+                        activeSegment.getSequence(), activeSegment.getEntryCount() - 1);
+                    if (durability == Durability.FSYNC_PER_ENTRY) {
+                        activeSegment.write(true);
+                    }
+                }
+                activeSegment.write(durability == Durability.FSYNC_PER_BATCH);
+                indexBatch(indexed, count);
+            }
+        } catch (IOException e) {
+            //the batch is not on disk: stop, so flush never reports it written
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+            return false;
+        }
+        synchronized (this) {
+            writtenCount += count;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a run of the current batch to the active segment's history index.
+     * Only entries that are on disk are indexed, so queries can always read them.
+     * @param from first entry of the batch to index
+     * @param to entry after the last one to index
+     */
+    private void indexBatch(int from, int to) {
+        for (int i = from; i < to; i++) {
+            indexEntry(history, batchAccounts[i], batchCounterparties[i], batchReferences[i]);
+        }
+    }
+
+    /**
+     * Checks whether the next entry would exceed the segment size or falls on a different day.
+     * @param entrySize size of the next entry in bytes
+     * @param timestamp time of the next entry
+     * @return true if a new segment must be started first
+     */
+    private boolean needsRoll(int entrySize, long timestamp) {
+        if (activeSegment.getEntryCount() == 0) {
+            return false;
+        }
+        LocalDate day = Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()).toLocalDate();
+        return activeSegment.getSizeBytes() + entrySize > maxSegmentBytes || !day.equals(activeSegment.getStartDay());
+    }
+
+    /**
+     * Saves the account index of the active segment, which must already be
+     * closed for appending, and starts a new segment with an empty index.
+     * The index file is written before the switch, so a query always finds
+     * a closed segment's entries on disk.
+     * @throws IOException if the index cannot be saved or the new segment opened
+     */
+    private void roll() throws IOException {
+        LogSegment closedSegment = activeSegment;
+        closedSegment.writeAccountIndex(history);
+
+        LogSegment next = new LogSegment(directory, LOG_NAME, closedSegment.getSequence() + 1);
+        next.openForAppend();
+        synchronized (this) {
+            segments.add(next);
+            activeSegment = next;
+            history = new AccountHistoryIndex();
+        }
+        compressInBackground(closedSegment);
+    }
+
+    /**
+     * Queues a closed segment for compression.
+     * @param segment the segment to compress
+     */
+    private void compressInBackground(LogSegment segment) {
+        compressor.submit(() -> {
+            try {
+                segment.compress();
+            } catch (IOException e) {
+                System.err.println("Error compressing transaction log segment: " + e.getMessage());
+            }
+        });
     }
-}
\ No newline at end of file
+}
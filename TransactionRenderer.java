@@ -0,0 +1,93 @@
+package bank;
+
+import java.util.*;
+import java.util.function.LongFunction;
+
+/**
+ * Turns typed transaction events back into the human-readable log lines.
+ * Rendering only happens when someone reads the log, never when logging.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class TransactionRenderer {
+    /** Name shown when an account's owner is unknown */
+    private static final String UNKNOWN_OWNER = "Unknown customer";
+
+    /** Looks up the owner's name for an account number */
+    private LongFunction<String> owners;
+    /** Text lines imported from older logs, keyed by segment sequence */
+    private Map<Long, List<String>> legacyText;
+
+    /**
+     * Creates a renderer.
+     * @param owners looks up the owner's name for an account number, may be null
+     */
+    public TransactionRenderer(LongFunction<String> owners) {
+        this(owners, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a renderer for a log holding imported text lines.
+     * @param owners looks up the owner's name for an account number, may be null
+     * @param legacyText text lines imported from older logs, keyed by segment sequence, see LegacyLogImporter
+     */
+    public TransactionRenderer(LongFunction<String> owners, Map<Long, List<String>> legacyText) {
+        this.owners = owners;
+        this.legacyText = legacyText;
+    }
+
+    /**
+     * Renders an event as a log line.
+     * @param event the event to render
+     * @return the log line
+     */
+    public String render(TransactionEvent event) {
+        long account = event.getAccountNumber();
+        switch (event.getType()) {
+            case BALANCE_INQUIRY:
+                return String.format("Balance inquiry for %d: $%s", account, Money.format(event.getBalance()));
+            case DEPOSIT:
+                return String.format("Deposit of $%s to %d. New balance: $%s",
+                    Money.format(event.getAmount()), account, Money.format(event.getBalance()));
+            case WITHDRAWAL:
+                return String.format("Withdrawal of $%s from %d. New balance: $%s",
+                    Money.format(event.getAmount()), account, Money.format(event.getBalance()));
+            case CUSTOMER_INQUIRY:
+                return String.format("%s made a balance inquiry on %d. Balance: $%s",
+                    ownerOf(account), account, Money.format(event.getBalance()));
+            case CUSTOMER_DEPOSIT:
+                return String.format("%s deposited $%s to %d", ownerOf(account), Money.format(event.getAmount()), account);
+            case CUSTOMER_WITHDRAWAL:
+                return String.format("%s withdrew $%s from %d", ownerOf(account), Money.format(event.getAmount()), account);
+            case TRANSFER:
+                return String.format("%s transferred $%s from %d to %d",
+                    ownerOf(account), Money.format(event.getAmount()), account, event.getCounterparty());
+            case PAYMENT:
+                return String.format("%s paid %s $%s",
+                    ownerOf(account), ownerOf(event.getCounterparty()), Money.format(event.getAmount()));
+            case MANAGER_ACCOUNT_INQUIRY:
+                return String.format("Bank Manager inquired about account %d. Balance: $%s",
+                    account, Money.format(event.getBalance()));
+            case MANAGER_CUSTOMER_INQUIRY:
+                return String.format("Bank Manager inquired about %s's %d. Balance: $%s",
+                    ownerOf(account), account, Money.format(event.getBalance()));
+            case LEGACY_TEXT:
+                //the amount is the line's place in the text kept for the segment named by the balance
+                List<String> lines = legacyText.get(event.getBalance());
+                return lines != null && event.getAmount() < lines.size()
+                    ? lines.get((int) event.getAmount()) : "Imported entry " + event.getAmount() + " is missing";
+            default:
+                return event.getType() + " on " + account;
+        }
+    }
+
+    /**
+     * Looks up the name of an account's owner.
+     * @param account the account number
+     * @return the owner's name, or a placeholder if unknown
+     */
+    private String ownerOf(long account) {
+        String name = owners == null ? null : owners.apply(account);
+        return name == null ? UNKNOWN_OWNER : name;
+    }
+}
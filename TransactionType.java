@@ -0,0 +1,31 @@
+package bank;
+
+/**
+ * Kinds of activity recorded in the transaction log.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public enum TransactionType {
+    /** Balance read through an account */
+    BALANCE_INQUIRY,
+    /** Money deposited into an account, logged by the account for every deposit, whatever made it */
+    DEPOSIT,
+    /** Money withdrawn from an account, logged by the account for every withdrawal, whatever made it */
+    WITHDRAWAL,
+    /** Customer viewed the balance of one of their accounts */
+    CUSTOMER_INQUIRY,
+    /** Customer deposited money, from the customer menu, a session or a transaction file */
+    CUSTOMER_DEPOSIT,
+    /** Customer withdrew money, from the customer menu, a session or a transaction file */
+    CUSTOMER_WITHDRAWAL,
+    /** Customer moved money between their own accounts */
+    TRANSFER,
+    /** Customer paid another customer */
+    PAYMENT,
+    /** Bank manager looked up an account by number */
+    MANAGER_ACCOUNT_INQUIRY,
+    /** Bank manager looked up a customer's accounts by name */
+    MANAGER_CUSTOMER_INQUIRY,
+    /** Line imported from a text log that names no account, kept as text beside its segment, see LegacyLogImporter */
+    LEGACY_TEXT
+}
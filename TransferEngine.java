@@ -0,0 +1,163 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Moves money between accounts so that no money is lost or seen in flight.
+ * Accounts map to a fixed set of lock stripes by account number. A transfer
+ * holds the stripe of the account it debits while it takes the money out,
+ * with the funds check done atomically, saves the debit and the credit to
+ * the balance log as one group and only then puts the money in the other
+ * account, so after a crash either both sides of a transfer are replayed
+ * or neither is, and no balance ever shows money the log does not have.
+ * Only the debited account is locked: a credit can't fail once the log
+ * holds it, so popular payees receiving many payments at once never wait
+ * on each other.
+ * Anything that needs a consistent view of several accounts takes their
+ * stripes in ascending order, so it never sees a transfer half done and
+ * never deadlocks.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class TransferEngine {
+    /** Default number of lock stripes, must be a power of two */
+    private static final int DEFAULT_STRIPES = 1024;
+    /** Engine shared by every part of the bank */
+    private static final TransferEngine SHARED = new TransferEngine();
+    /** Links the debit of a transfer to its credit in the balance log */
+    private static final boolean[] LINKED_PAIR = {true, false};
+
+    /** Lock stripes indexed by account number hash */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Creates an engine with the default number of lock stripes.
+     */
+    public TransferEngine() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates an engine with the given number of lock stripes.
+     * @param stripeCount number of stripes, rounded up to a power of two
+     */
+    public TransferEngine(int stripeCount) {
+        int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Gets the engine shared by every part of the bank.
+     * @return the shared engine
+     */
+    public static TransferEngine shared() {
+        return SHARED;
+    }
+
+    /**
+     * Moves money from one account to another as one step.
+     * The money is taken out of the source before it is logged, which only
+     * hides it while the log is written; if the log cannot be written it is
+     * put back and neither balance changes.
+     * @param from account to take the money from
+     * @param to account to put the money in
+     * @param amount amount to move in cents
+     * @throws IllegalArgumentException if the amount is invalid, the accounts
+     *         are the same or the source has too little money
+     * @throws IllegalStateException if the balance log cannot be written
+     */
+    public void transfer(Account from, Account to, long amount) {
+        if (amount <= 0) {
+            BankMetrics.TRANSFER.recordFailure();
+            throw new IllegalArgumentException("Transfer amount must be positive");
+        }
+        long fromKey = from.getAccountKey();
+        long toKey = to.getAccountKey();
+        if (fromKey == toKey) {
+            BankMetrics.TRANSFER.recordFailure();
+            throw new IllegalArgumentException("Cannot transfer to same account");
+        }
+        long start = System.nanoTime();
+        long debited;
+        long credited;
+        ReentrantLock lock = stripeFor(from);
+        lock.lock();
+        try {
+            //checks funds and debits in one atomic step
+            debited = from.takeOut(amount);
+            try {
+                Account.logChanges(new long[] {fromKey, toKey}, new long[] {-amount, amount}, LINKED_PAIR, 2);
+            } catch (RuntimeException e) {
+                //neither side is on disk, so the money goes back where it was
+                from.addToBalance(amount);
+                throw e;
+            }
+            credited = to.addToBalance(amount);
+        } catch (RuntimeException e) {
+            BankMetrics.TRANSFER.recordFailure();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        EventLog log = Account.getTransactionLog();
+        if (log != null) {
+            log.logEvent(TransactionType.WITHDRAWAL, fromKey, TransactionEvent.NO_ACCOUNT, amount, debited);
+            log.logEvent(TransactionType.DEPOSIT, toKey, TransactionEvent.NO_ACCOUNT, amount, credited);
+        }
+        BankMetrics.TRANSFER.recordSince(start);
+    }
+
+    /**
+     * Adds up the balances of several accounts with no transfer half done.
+     * Takes the stripes of every account in ascending order. Transfers run
+     * through PartitionExecutor take no stripes, so they can be seen half done.
+     * @param accounts the accounts to add up
+     * @return total balance in cents
+     */
+    public long totalBalance(Collection<? extends Account> accounts) {
+        //find every stripe involved, each once, in ascending order
+        BitSet needed = new BitSet(stripes.length);
+        for (Account account : accounts) {
+            needed.set(stripeIndex(account));
+        }
+        List<ReentrantLock> held = new ArrayList<>();
+        try {
+            for (int i = needed.nextSetBit(0); i >= 0; i = needed.nextSetBit(i + 1)) {
+                stripes[i].lock();
+                held.add(stripes[i]);
+            }
+            long total = 0;
+            for (Account account : accounts) {
+                total += account.getBalance();
+            }
+            return total;
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the lock stripe for an account.
+     * @param account the account
+     * @return the stripe lock
+     */
+    private ReentrantLock stripeFor(Account account) {
+        return stripes[stripeIndex(account)];
+    }
+
+    /**
+     * Finds the stripe an account maps to.
+     * @param account the account
+     * @return stripe index
+     */
+    private int stripeIndex(Account account) {
+        long h = account.getAccountKey() * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (stripes.length - 1);
+    }
+}
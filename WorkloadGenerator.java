@@ -0,0 +1,373 @@
+package bank;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Writes synthetic customer and transaction files for load and soak tests.
+ * Customer files have the customer CSV's columns, and customer i has the
+ * checking, savings and credit accounts 1000000000 + i, 2000000000 + i and
+ * 3000000000 + i, the numbering new customers get. Transaction files have
+ * the columns TransactionFileProcessor reads and only use accounts of a
+ * customer file of the same size.
+ * Activity is skewed the way real traffic is: the customer acting and the
+ * customer being paid are each drawn from a Zipf distribution, so a few hot
+ * accounts see much of the traffic. Which customers are hot is scattered
+ * over the file rather than being the first ones.
+ * Output is the same for the same seed, and rows are streamed to disk one
+ * at a time, so files of any size take no more memory than a small one.
+ * Run with: java WorkloadGenerator customers file count [seed]
+ *       or: java WorkloadGenerator transactions file customers count [seed]
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class WorkloadGenerator {
+    /** Seed used when none is given */
+    public static final long DEFAULT_SEED = 42;
+    /** Default Zipf exponent of the customer making a transaction */
+    public static final double DEFAULT_ACCOUNT_SKEW = 0.99;
+    /** Default Zipf exponent of the customer receiving a payment */
+    public static final double DEFAULT_PAYEE_SKEW = 1.2;
+    /** Account numbers of one type differ only below this */
+    private static final long NUMBER_BLOCK = 1_000_000_000L;
+    /** Header of a customer file */
+    private static final String CUSTOMER_HEADER = "Identification Number,First Name,Last Name,Date of Birth,"
+        + "Address,Phone Number,Checking Account Number,Checking Starting Balance,Savings Account Number,"
+        + "Savings Starting Balance,Credit Account Number,Credit Max,Credit Starting Balance";
+    /** Header of a transaction file */
+    private static final String TRANSACTION_HEADER = "Action,From Account,To Account,Amount";
+    /** Percent of transactions that are deposits, withdrawals and transfers; the rest are payments */
+    private static final int DEPOSIT_PERCENT = 30;
+    /** See DEPOSIT_PERCENT */
+    private static final int WITHDRAW_PERCENT = 20;
+    /** See DEPOSIT_PERCENT */
+    private static final int TRANSFER_PERCENT = 20;
+    /** Size of the file write buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** First names customers are given */
+    private static final String[] FIRST_NAMES = {"Mickey", "Minnie", "Donald", "Daisy", "Goofy", "Pluto",
+        "Arae", "Maria", "Jose", "Juan", "Ana", "Luis", "Carmen", "Jorge", "Sofia", "Diego", "Elena",
+        "Miguel", "Lucia", "Carlos", "Rosa", "James", "Mary", "John", "Linda", "Robert", "Susan", "David",
+        "Karen", "Daniel", "Nancy", "Rogelio", "Laura", "Pedro", "Isabel", "Andres", "Teresa", "Oscar"};
+    /** Last names customers are given */
+    private static final String[] LAST_NAMES = {"Mouse", "Duck", "Disney", "Zarzosa", "Garcia", "Martinez",
+        "Hernandez", "Lopez", "Gonzalez", "Perez", "Sanchez", "Ramirez", "Torres", "Flores", "Rivera",
+        "Gomez", "Diaz", "Reyes", "Cruz", "Morales", "Ortiz", "Gutierrez", "Chavez", "Ramos", "Smith",
+        "Johnson", "Williams", "Brown", "Jones", "Miller", "Davis", "Wilson", "Fuentes", "Lozano"};
+    /** Streets of generated addresses */
+    private static final String[] STREETS = {"W. University Ave", "N. Mesa St", "Montana Ave", "Alameda Ave",
+        "Dyer St", "Zaragoza Rd", "Lee Trevino Dr", "Doniphan Dr", "Yarbrough Dr", "Paisano Dr"};
+    /** Month abbreviations of birth dates */
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep",
+        "Oct", "Nov", "Dec"};
+
+    /** Seed of every file written */
+    private final long seed;
+    /** Zipf exponent of the customer making a transaction */
+    private final double accountSkew;
+    /** Zipf exponent of the customer receiving a payment */
+    private final double payeeSkew;
+
+    /**
+     * Draws ranks 1 to n from a Zipf distribution in constant time and memory,
+     * using rejection-inversion sampling (Hormann and Derflinger).
+     */
+    private static class Zipf {
+        /** Number of ranks */
+        private final long n;
+        /** The exponent */
+        private final double exponent;
+        /** hIntegral(1.5) - 1 */
+        private final double hIntegralX1;
+        /** hIntegral(n + 0.5) */
+        private final double hIntegralN;
+        /** Accepts a sample without the full check when close enough to its rank */
+        private final double s;
+
+        /**
+         * Creates a distribution.
+         * @param n number of ranks
+         * @param exponent the exponent, greater than 0
+         */
+        Zipf(long n, double exponent) {
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        /**
+         * Draws a rank.
+         * @param random source of randomness
+         * @return rank from 1, the most likely, to n
+         */
+        long sample(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        /**
+         * The unnormalized probability of rank x.
+         * @param x the rank
+         * @return x to the power of minus the exponent
+         */
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        /**
+         * Integral of h, shifted so it is defined for an exponent of 1.
+         * @param x upper bound
+         * @return the integral
+         */
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return expm1OverX((1 - exponent) * logX) * logX;
+        }
+
+        /**
+         * Inverse of hIntegral.
+         * @param x value of hIntegral
+         * @return the bound it was computed for
+         */
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(log1pOverX(t) * x);
+        }
+
+        /**
+         * log(1 + x) / x, accurate near 0.
+         * @param x the argument
+         * @return the value
+         */
+        private static double log1pOverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        /**
+         * (e^x - 1) / x, accurate near 0.
+         * @param x the argument
+         * @return the value
+         */
+        private static double expm1OverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+
+    /**
+     * Creates a generator with the default skew.
+     * @param seed seed of every file written
+     */
+    public WorkloadGenerator(long seed) {
+        this(seed, DEFAULT_ACCOUNT_SKEW, DEFAULT_PAYEE_SKEW);
+    }
+
+    /**
+     * Creates a generator.
+     * @param seed seed of every file written
+     * @param accountSkew Zipf exponent of the customer making a transaction, higher is hotter
+     * @param payeeSkew Zipf exponent of the customer receiving a payment
+     */
+    public WorkloadGenerator(long seed, double accountSkew, double payeeSkew) {
+        if (accountSkew <= 0 || payeeSkew <= 0) {
+            throw new IllegalArgumentException("Skew must be positive");
+        }
+        this.seed = seed;
+        this.accountSkew = accountSkew;
+        this.payeeSkew = payeeSkew;
+    }
+
+    /**
+     * Gets the checking account number of a generated customer.
+     * @param customer the customer's id, from 1
+     * @return the account number
+     */
+    public static long checkingAccount(long customer) {
+        return AccountTable.CHECKINGS * NUMBER_BLOCK + customer;
+    }
+
+    /**
+     * Gets the savings account number of a generated customer.
+     * @param customer the customer's id, from 1
+     * @return the account number
+     */
+    public static long savingsAccount(long customer) {
+        return AccountTable.SAVINGS * NUMBER_BLOCK + customer;
+    }
+
+    /**
+     * Gets the credit account number of a generated customer.
+     * @param customer the customer's id, from 1
+     * @return the account number
+     */
+    public static long creditAccount(long customer) {
+        return AccountTable.CREDIT * NUMBER_BLOCK + customer;
+    }
+
+    /**
+     * Writes a customer file.
+     * @param file the file to write
+     * @param count number of customers, with ids 1 to count
+     * @throws IOException if the file cannot be written
+     */
+    public void writeCustomers(Path file, long count) throws IOException {
+        checkCount(count);
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder line = new StringBuilder(256);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(CUSTOMER_HEADER);
+            writer.write('\n');
+            for (long id = 1; id <= count; id++) {
+                line.setLength(0);
+                long creditMax = 1000 + random.nextInt(9000);
+                line.append(id).append(',')
+                    .append(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]).append(',')
+                    .append(LAST_NAMES[random.nextInt(LAST_NAMES.length)]).append(',')
+                    .append(1 + random.nextInt(28)).append('-').append(MONTHS[random.nextInt(12)]).append('-');
+                appendTwoDigits(line, random.nextInt(100));
+                line.append(",\"").append(1 + random.nextInt(9999)).append(' ')
+                    .append(STREETS[random.nextInt(STREETS.length)]).append(", El Paso, TX 799");
+                appendTwoDigits(line, random.nextInt(100));
+                line.append("\",(915) ").append(200 + random.nextInt(800)).append('-');
+                appendTwoDigits(line, random.nextInt(100));
+                appendTwoDigits(line, random.nextInt(100));
+                line.append(',').append(checkingAccount(id)).append(',')
+                    .append(Money.format(random.nextLong(1_000_000))).append(',')
+                    .append(savingsAccount(id)).append(',')
+                    .append(Money.format(random.nextLong(2_000_000))).append(',')
+                    .append(creditAccount(id)).append(',').append(creditMax).append(',')
+                    .append(Money.format(-random.nextLong(creditMax * 100))).append('\n');
+                writer.append(line);
+            }
+        }
+    }
+
+    /**
+     * Writes a transaction file for a customer file of the given size.
+     * Deposits go into checking, withdrawals come out of checking, transfers
+     * go either way between a customer's two accounts and payments go from
+     * savings into another customer's checking.
+     * @param file the file to write
+     * @param customers number of customers in the matching customer file
+     * @param count number of transactions
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTransactions(Path file, long customers, long count) throws IOException {
+        checkCount(customers);
+        SplittableRandom random = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        Zipf accounts = new Zipf(customers, accountSkew);
+        Zipf payees = new Zipf(customers, payeeSkew);
+        long accountScatter = scatter(customers, 0.618033988749895);
+        long payeeScatter = scatter(customers, 0.414213562373095);
+        StringBuilder line = new StringBuilder(64);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(TRANSACTION_HEADER);
+            writer.write('\n');
+            for (long i = 0; i < count; i++) {
+                long customer = (accounts.sample(random) - 1) * accountScatter % customers + 1;
+                //mostly small amounts with the odd large one
+                String amount = Money.format(random.nextInt(100) < 95 ? 1 + random.nextInt(10_000)
+                    : 10_000 + random.nextInt(500_000));
+                int kind = random.nextInt(100);
+                line.setLength(0);
+                if (kind < DEPOSIT_PERCENT) {
+                    line.append("deposit,,").append(checkingAccount(customer));
+                } else if (kind < DEPOSIT_PERCENT + WITHDRAW_PERCENT) {
+                    line.append("withdraw,").append(checkingAccount(customer)).append(',');
+                } else if (kind < DEPOSIT_PERCENT + WITHDRAW_PERCENT + TRANSFER_PERCENT) {
+                    boolean toSavings = random.nextBoolean();
+                    line.append("transfer,")
+                        .append(toSavings ? checkingAccount(customer) : savingsAccount(customer)).append(',')
+                        .append(toSavings ? savingsAccount(customer) : checkingAccount(customer));
+                } else {
+                    long payee = (payees.sample(random) - 1) * payeeScatter % customers + 1;
+                    line.append("pay,").append(savingsAccount(customer)).append(',')
+                        .append(checkingAccount(payee));
+                }
+                line.append(',').append(amount).append('\n');
+                writer.append(line);
+            }
+        }
+    }
+
+    /**
+     * Picks a multiplier that maps Zipf ranks onto customers one to one,
+     * so the hottest customers are spread over the file.
+     * @param customers number of customers
+     * @param fraction where in the range to start looking
+     * @return a multiplier sharing no factor with the number of customers
+     */
+    private static long scatter(long customers, double fraction) {
+        long multiplier = Math.max(1, (long) (customers * fraction));
+        while (gcd(multiplier, customers) != 1) {
+            multiplier++;
+        }
+        return multiplier;
+    }
+
+    /**
+     * Greatest common divisor.
+     * @param a first number
+     * @param b second number
+     * @return the divisor
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long next = a % b;
+            a = b;
+            b = next;
+        }
+        return a;
+    }
+
+    /**
+     * Appends a number from 0 to 99 as two digits.
+     * @param line the line to append to
+     * @param value the number
+     */
+    private static void appendTwoDigits(StringBuilder line, int value) {
+        line.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Checks that a number of customers fits the account numbering.
+     * @param count number of customers
+     * @throws IllegalArgumentException if it doesn't
+     */
+    private static void checkCount(long count) {
+        if (count <= 0 || count >= NUMBER_BLOCK) {
+            throw new IllegalArgumentException("Number of customers must be from 1 to " + (NUMBER_BLOCK - 1));
+        }
+    }
+
+    /**
+     * Writes a customer or transaction file from the command line.
+     * @param args "customers", the file, the count and an optional seed, or
+     *             "transactions", the file, the number of customers, the count and an optional seed
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equalsIgnoreCase("customers")) {
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+            new WorkloadGenerator(seed).writeCustomers(Paths.get(args[1]), Long.parseLong(args[2]));
+        } else if (args.length >= 4 && args[0].equalsIgnoreCase("transactions")) {
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_SEED;
+            new WorkloadGenerator(seed).writeTransactions(Paths.get(args[1]), Long.parseLong(args[2]),
+                Long.parseLong(args[3]));
+        } else {
+            System.out.println("Usage: java WorkloadGenerator customers file count [seed]");
+            System.out.println("       java WorkloadGenerator transactions file customers count [seed]");
+        }
+    }
+}
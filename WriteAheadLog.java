@@ -0,0 +1,472 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Write-ahead log of account balance changes.
+ * Every deposit, withdrawal, borrow and payment appends the account number
+ * and the signed change in cents to an in-memory queue and waits until a background
+ * thread has written and fsynced it. The thread writes everything queued in
+ * one go, so one fsync commits the changes of every waiting caller (group
+ * commit), and the log file stays open between writes.
+ * The log is split into numbered segments. A checkpoint rolls to a new
+ * segment and folds the closed ones into a snapshot, after which they are
+ * deleted. Changes are stored as differences, so the order in which
+ * concurrent callers reach the log does not matter.
+ * Changes that must be saved together, such as both sides of a transfer,
+ * are written as a group: a header record holding the negated number of
+ * changes in place of an account number and a checksum of them in place of
+ * a change, then the changes. A group cut short by a crash or failing its
+ * checksum ends the segment when it is read, so either every change in it
+ * counts or none does.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public class WriteAheadLog implements Closeable {
+    /** Size of one record: account number and change */
+    public static final int RECORD_SIZE = 16;
+    /** File name prefix of a segment */
+    private static final String SEGMENT_PREFIX = "balance-";
+    /** File name suffix of a segment */
+    private static final String SEGMENT_SUFFIX = ".wal";
+    /** Default number of changes that can wait to be written */
+    private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    /** Multiplier mixing each value into a group checksum */
+    private static final long CHECKSUM_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** Directory holding the segments */
+    private Path directory;
+    /** Segment receiving new changes */
+    private FileChannel channel;
+    /** Sequence number of the segment receiving new changes */
+    private long segmentSequence;
+    /** Guards the channel while it is written or rolled */
+    private final Object channelLock = new Object();
+
+    /** Ring of changes waiting to be written */
+    private ByteBuffer pending;
+    /** Number of records the ring holds */
+    private int pendingCapacity;
+    /** Count of changes taken by the writer thread */
+    private long pendingHead;
+    /** Count of changes ever queued */
+    private long pendingTail;
+    /** Count of changes written and forced to disk */
+    private long durableCount;
+    /** Changes copied out of the ring for writing */
+    private ByteBuffer batch;
+    /** Set once the log stops accepting changes */
+    private boolean closed;
+    /** Error that stopped the writer thread, if any */
+    private IOException failure;
+    /** Background thread that writes and fsyncs queued changes */
+    private Thread writer;
+
+    /**
+     * Opens the log in a directory, continuing after its newest segment.
+     * @param directory directory holding the segments, created if needed
+     * @throws IOException if the directory or segment cannot be opened
+     */
+    public WriteAheadLog(Path directory) throws IOException {
+        this(directory, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Opens the log in a directory, continuing after its newest segment.
+     * @param directory directory holding the segments, created if needed
+     * @param queueCapacity number of changes that can wait to be written
+     * @throws IOException if the directory or segment cannot be opened
+     */
+    public WriteAheadLog(Path directory, int queueCapacity) throws IOException {
+        this.directory = directory;
+        this.pendingCapacity = queueCapacity;
+        this.pending = ByteBuffer.allocate(queueCapacity * RECORD_SIZE);
+        this.batch = ByteBuffer.allocateDirect(queueCapacity * RECORD_SIZE);
+        Files.createDirectories(directory);
+        List<Long> existing = listSegments(directory);
+        this.segmentSequence = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        openSegment();
+
+        this.writer = new Thread(this::runWriter, "balance-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Records a balance change and waits until it is on disk.
+     * @param accountNumber the account that changed
+     * @param change cents added to the balance, negative for money taken out
+     * @throws IllegalStateException if the log is closed or cannot be written
+     */
+    public synchronized void log(long accountNumber, long change) {
+        try {
+            long sequence = enqueue(accountNumber, change);
+            notifyAll();
+            awaitDurable(sequence);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving balance change");
+        }
+    }
+
+    /**
+     * Records many balance changes and waits once until all of them are on disk.
+     * @param accountNumbers the accounts that changed
+     * @param changes cents added to each balance, negative for money taken out
+     * @param count number of changes to record
+     * @throws IllegalStateException if the log is closed or cannot be written
+     */
+    public void logAll(long[] accountNumbers, long[] changes, int count) {
+        logAll(accountNumbers, changes, null, count);
+    }
+
+    /**
+     * Records many balance changes and waits once until all of them are on disk.
+     * Changes linked to the one after them are written as one group, which
+     * after a crash is either read back whole or not at all.
+     * @param accountNumbers the accounts that changed
+     * @param changes cents added to each balance, negative for money taken out
+     * @param linked true at each change that must be saved together with the next one, or null if none are
+     * @param count number of changes to record
+     * @throws IllegalArgumentException if a group does not fit in the queue
+     * @throws IllegalStateException if the log is closed or cannot be written
+     */
+    public synchronized void logAll(long[] accountNumbers, long[] changes, boolean[] linked, int count) {
+        try {
+            long sequence = pendingTail;
+            int start = 0;
+            while (start < count) {
+                int end = start + 1;
+                while (linked != null && linked[end - 1] && end < count) {
+                    end++;
+                }
+                if (end - start == 1) {
+                    sequence = enqueue(accountNumbers[start], changes[start]);
+                } else {
+                    sequence = enqueueGroup(accountNumbers, changes, start, end);
+                }
+                start = end;
+            }
+            notifyAll();
+            awaitDurable(sequence);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving balance change");
+        }
+    }
+
+    /**
+     * Puts a group of changes in the ring behind a header record, waiting
+     * until there is room for all of them so no other change lands inside.
+     * The caller holds the lock.
+     * @param accountNumbers the accounts that changed
+     * @param changes cents added to each balance
+     * @param start index of the first change in the group
+     * @param end index after the last change in the group
+     * @return the sequence number of the last change
+     * @throws IllegalArgumentException if the group does not fit in the queue
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    private long enqueueGroup(long[] accountNumbers, long[] changes, int start, int end)
+            throws InterruptedException {
+        int size = end - start;
+        if (size + 1 > pendingCapacity) {
+            throw new IllegalArgumentException("Too many changes to save together: " + size);
+        }
+        awaitRoom(size + 1);
+        long sequence = enqueue(-size, checksum(accountNumbers, changes, start, end));
+        for (int i = start; i < end; i++) {
+            sequence = enqueue(accountNumbers[i], changes[i]);
+        }
+        return sequence;
+    }
+
+    /**
+     * Puts a change in the ring, waking the writer and waiting while the ring is full.
+     * The caller holds the lock.
+     * @param accountNumber the account that changed
+     * @param change cents added to the balance
+     * @return the sequence number of the change
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    private long enqueue(long accountNumber, long change) throws InterruptedException {
+        awaitRoom(1);
+        int position = (int) (pendingTail % pendingCapacity) * RECORD_SIZE;
+        pending.putLong(position, accountNumber).putLong(position + 8, change);
+        return ++pendingTail;
+    }
+
+    /**
+     * Waits until the ring has room for some records, waking the writer if it is full.
+     * The caller holds the lock.
+     * @param records number of records that must fit
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void awaitRoom(int records) throws InterruptedException {
+        if (pendingCapacity - (pendingTail - pendingHead) < records) {
+            notifyAll();
+        }
+        while (pendingCapacity - (pendingTail - pendingHead) < records && !closed && failure == null) {
+            wait();
+        }
+        checkWritable();
+    }
+
+    /**
+     * Waits until a change is on disk. The caller holds the lock.
+     * @param sequence the sequence number of the change
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void awaitDurable(long sequence) throws InterruptedException {
+        //the writer commits everything queued so far with one fsync
+        while (durableCount < sequence && failure == null) {
+            wait();
+        }
+        checkWritable();
+    }
+
+    /**
+     * Starts a new segment.
+     * Changes committed before this call are in the segments returned.
+     * @return sequence number of the newest closed segment, or 0 if there is none
+     * @throws IOException if the new segment cannot be opened
+     */
+    public long roll() throws IOException {
+        synchronized (channelLock) {
+            channel.close();
+            long closedSegment = segmentSequence;
+            segmentSequence++;
+            openSegment();
+            return closedSegment;
+        }
+    }
+
+    /**
+     * Deletes every segment up to and including the given one.
+     * @param lastSegment sequence number of the newest segment to delete
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteThrough(long lastSegment) throws IOException {
+        for (long sequence : listSegments(directory)) {
+            if (sequence <= lastSegment) {
+                Files.deleteIfExists(segmentPath(directory, sequence));
+            }
+        }
+    }
+
+    /**
+     * Waits for queued changes to be written, stops the writer thread and closes the log.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+            synchronized (channelLock) {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing balance log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds up the changes per account in a range of segments.
+     * A partly written record at the end of a segment, left by a crash, is
+     * ignored, and so is everything from a group that was not written whole.
+     * @param directory directory holding the segments
+     * @param afterSegment only segments with a higher sequence number are read
+     * @param throughSegment newest segment to read
+     * @return total change in cents by account number
+     * @throws IOException if a segment cannot be read
+     */
+    public static Map<Long, Long> readChanges(Path directory, long afterSegment, long throughSegment)
+            throws IOException {
+        Map<Long, Long> changes = new HashMap<>();
+        for (long sequence : listSegments(directory)) {
+            if (sequence <= afterSegment || sequence > throughSegment) {
+                continue;
+            }
+            Path segment = segmentPath(directory, sequence);
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(segment), 64 * 1024))) {
+                long records = Files.size(segment) / RECORD_SIZE;
+                long i = 0;
+                while (i < records) {
+                    long accountNumber = in.readLong();
+                    long change = in.readLong();
+                    i++;
+                    if (accountNumber >= 0) {
+                        changes.merge(accountNumber, change, Long::sum);
+                        continue;
+                    }
+                    //a group header: the changes after it count only if all of them were written
+                    long size = -accountNumber;
+                    if (size < 0 || size > records - i) {
+                        break;
+                    }
+                    long[] groupAccounts = new long[(int) size];
+                    long[] groupChanges = new long[(int) size];
+                    for (int j = 0; j < size; j++) {
+                        groupAccounts[j] = in.readLong();
+                        groupChanges[j] = in.readLong();
+                    }
+                    i += size;
+                    if (checksum(groupAccounts, groupChanges, 0, (int) size) != change) {
+                        break;
+                    }
+                    for (int j = 0; j < size; j++) {
+                        changes.merge(groupAccounts[j], groupChanges[j], Long::sum);
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Computes the checksum of a group of changes, stored in its header record.
+     * @param accountNumbers the accounts that changed
+     * @param changes cents added to each balance
+     * @param start index of the first change in the group
+     * @param end index after the last change in the group
+     * @return the checksum
+     */
+    private static long checksum(long[] accountNumbers, long[] changes, int start, int end) {
+        long checksum = end - start;
+        for (int i = start; i < end; i++) {
+            checksum = (checksum ^ accountNumbers[i]) * CHECKSUM_MULTIPLIER;
+            checksum = (checksum ^ changes[i]) * CHECKSUM_MULTIPLIER;
+        }
+        return checksum;
+    }
+
+    /**
+     * Lists the sequence numbers of the segments in a directory.
+     * @param directory directory holding the segments
+     * @return sequence numbers, oldest first; empty if the directory does not exist
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return sequences;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    //not one of ours
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    /**
+     * Writer loop. Takes everything queued, writes it with one fsync and
+     * wakes the callers whose changes are now on disk.
+     */
+    private void runWriter() {
+        while (true) {
+            int count;
+            synchronized (this) {
+                try {
+                    while (pendingTail == pendingHead && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (pendingTail == pendingHead) {
+                    return;
+                }
+                count = (int) (pendingTail - pendingHead);
+                batch.clear();
+                for (int i = 0; i < count; i++) {
+                    int position = (int) ((pendingHead + i) % pendingCapacity) * RECORD_SIZE;
+                    batch.put(batch.position(), pending, position, RECORD_SIZE);
+                    batch.position(batch.position() + RECORD_SIZE);
+                }
+                pendingHead += count;
+                //room has been freed in the ring
+                notifyAll();
+            }
+
+            try {
+                batch.flip();
+                synchronized (channelLock) {
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                System.err.println("Error writing balance log: " + e.getMessage());
+                return;
+            }
+
+            synchronized (this) {
+                durableCount += count;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Throws if changes can no longer be saved.
+     */
+    private void checkWritable() {
+        if (failure != null) {
+            throw new IllegalStateException("Balance log cannot be written: " + failure.getMessage());
+        }
+        if (closed) {
+            throw new IllegalStateException("Balance log is closed");
+        }
+    }
+
+    /**
+     * Opens the current segment for appending, dropping a partly written record left by a crash.
+     * @throws IOException if the segment cannot be opened
+     */
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(directory, segmentSequence),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        long whole = channel.size() / RECORD_SIZE * RECORD_SIZE;
+        if (whole != channel.size()) {
+            channel.truncate(whole);
+        }
+    }
+
+    /**
+     * Gets the file of a segment.
+     * @param directory directory holding the segments
+     * @param sequence the segment sequence number
+     * @return path of the segment
+     */
+    private static Path segmentPath(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+}
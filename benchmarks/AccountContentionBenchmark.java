@@ -0,0 +1,187 @@
+package bank;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares compare-and-set balance updates in Account with a synchronized
+ * baseline, with every thread hammering the same account.
+ * Each thread alternates deposits and withdrawals, so the balance should
+ * end where it started; the old unsynchronized code is run too to show the
+ * updates it loses, which is printed at the end of its run.
+ * Runs on 8 threads; change that with JMH's -t option, e.g.
+ * mvn -P jmh verify -Djmh.args="AccountContention -t 64"
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class AccountContentionBenchmark {
+    /** Starting balance, large enough that withdrawals never fail */
+    private static final long START_BALANCE = 1_000_000_000;
+
+    /** Account updated with compare-and-set */
+    private Checkings account;
+    /** The old code, with every method synchronized */
+    private SynchronizedAccount locked;
+    /** The old code, with no synchronization */
+    private UnsafeAccount unsafe;
+
+    /**
+     * The operations every benchmarked account offers.
+     */
+    private interface Target {
+        /**
+         * Deposits money.
+         * @param amount the amount in cents
+         */
+        void deposit(long amount);
+
+        /**
+         * Withdraws money.
+         * @param amount the amount in cents
+         */
+        void withdraw(long amount);
+
+        /**
+         * Gets the balance.
+         * @return the balance in cents
+         */
+        long getBalance();
+    }
+
+    /**
+     * The balance logic as it was before, with every method synchronized.
+     */
+    private static class SynchronizedAccount implements Target {
+        /** The current balance */
+        private long balance = START_BALANCE;
+
+        @Override
+        public synchronized void deposit(long amount) {
+            if (amount > 0) {
+                balance += amount;
+            } else {
+                throw new IllegalArgumentException("Deposit amount must be positive");
+            }
+        }
+
+        @Override
+        public synchronized void withdraw(long amount) {
+            if (amount > 0 && amount <= balance) {
+                balance -= amount;
+            } else {
+                throw new IllegalArgumentException("Invalid withdrawal amount or insufficient funds");
+            }
+        }
+
+        @Override
+        public synchronized long getBalance() {
+            return balance;
+        }
+    }
+
+    /**
+     * The balance logic as it was before, with no synchronization at all.
+     */
+    private static class UnsafeAccount implements Target {
+        /** The current balance */
+        private long balance = START_BALANCE;
+
+        @Override
+        public void deposit(long amount) {
+            if (amount > 0) {
+                balance += amount;
+            } else {
+                throw new IllegalArgumentException("Deposit amount must be positive");
+            }
+        }
+
+        @Override
+        public void withdraw(long amount) {
+            if (amount > 0 && amount <= balance) {
+                balance -= amount;
+            } else {
+                throw new IllegalArgumentException("Invalid withdrawal amount or insufficient funds");
+            }
+        }
+
+        @Override
+        public long getBalance() {
+            return balance;
+        }
+    }
+
+    /**
+     * Creates the accounts, all with the same balance.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        account = new Checkings("1", START_BALANCE);
+        locked = new SynchronizedAccount();
+        unsafe = new UnsafeAccount();
+    }
+
+    /**
+     * Checks that no update was lost, and prints how many the old code lost.
+     * @throws IllegalStateException if a compare-and-set or synchronized update was lost
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (account.getBalance() != START_BALANCE || locked.getBalance() != START_BALANCE) {
+            throw new IllegalStateException("Lost updates: balances are " + account.getBalance() + " and "
+                + locked.getBalance());
+        }
+        if (unsafe.getBalance() != START_BALANCE) {
+            System.out.printf("%nold code lost %,d cents%n", Math.abs(unsafe.getBalance() - START_BALANCE));
+        }
+    }
+
+    /**
+     * Deposits and withdraws through Account's compare-and-set.
+     * @return the balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public long compareAndSet() {
+        account.deposit(1);
+        account.withdraw(1);
+        return account.getBalance();
+    }
+
+    /**
+     * Deposits and withdraws through synchronized methods.
+     * @return the balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public long synchronizedMethods() {
+        return depositAndWithdraw(locked);
+    }
+
+    /**
+     * Deposits and withdraws with no synchronization, losing updates.
+     * @return the balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public long unsynchronized() {
+        return depositAndWithdraw(unsafe);
+    }
+
+    /**
+     * Deposits one cent and withdraws it again.
+     * @param target the account
+     * @return the balance
+     */
+    private static long depositAndWithdraw(Target target) {
+        target.deposit(1);
+        target.withdraw(1);
+        return target.getBalance();
+    }
+}
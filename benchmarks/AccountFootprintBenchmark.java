@@ -0,0 +1,188 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures heap footprint and garbage collection pauses with millions of
+ * accounts held three ways: one heap object per account with a String
+ * number and double balance, as the bank used to, the same lists holding
+ * AccountTable views, and the AccountTable alone with views made on demand.
+ * Each layout is built once in its own forked JVM, so one layout's garbage
+ * never lands on another's measurement, and its footprint is printed when it
+ * is built. The benchmarks then time a full collection, and making enough
+ * short-lived garbage to need many young collections, which have to scan
+ * whatever old objects point into. Add -prof gc to JMH's options to see the
+ * collection counts and times.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class AccountFootprintBenchmark {
+    /** Accounts per customer, as in the customer CSV */
+    private static final int ACCOUNTS_PER_CUSTOMER = 3;
+    /** Bytes of short-lived garbage made in one measurement of young collections */
+    private static final long CHURN_BYTES = 1L << 30;
+
+    /** How the accounts are held: objects, views or table */
+    @Param({"objects", "views", "table"})
+    public String layout;
+    /** Number of accounts */
+    @Param({"10000000"})
+    public int accounts;
+
+    /** The accounts under measurement, kept reachable until the end */
+    private Object live;
+
+    /**
+     * An account the way the bank held it before AccountTable.
+     */
+    private static class HeapAccount {
+        /** The account number */
+        String accountNumber;
+        /** The balance */
+        double balance;
+
+        /**
+         * Creates an account.
+         * @param accountNumber the account number
+         * @param balance the balance
+         */
+        HeapAccount(String accountNumber, double balance) {
+            this.accountNumber = accountNumber;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * A credit account the way the bank held it before AccountTable.
+     */
+    private static class HeapCredit extends HeapAccount {
+        /** The credit limit */
+        double creditLimit;
+        /** The amount borrowed */
+        double principle;
+
+        /**
+         * Creates a credit account.
+         * @param accountNumber the account number
+         * @param balance the balance
+         * @param creditLimit the credit limit
+         */
+        HeapCredit(String accountNumber, double balance, double creditLimit) {
+            super(accountNumber, balance);
+            this.creditLimit = creditLimit;
+        }
+    }
+
+    /**
+     * Builds the layout and prints the heap it takes.
+     * @throws IllegalArgumentException if the layout is unknown
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        long before = usedAfterGc();
+        switch (layout) {
+            case "objects":
+                live = buildObjects(accounts);
+                break;
+            case "views":
+                live = buildViews(accounts, true);
+                break;
+            case "table":
+                live = buildViews(accounts, false);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        long footprint = usedAfterGc() - before;
+        System.out.printf("%n%s: %,d accounts take %,d MB, %,d bytes per account%n", layout, accounts,
+            footprint >> 20, footprint / accounts);
+    }
+
+    /**
+     * Runs a full collection with the accounts live.
+     * @return the accounts, so they stay reachable
+     */
+    @Benchmark
+    public Object fullCollection() {
+        System.gc();
+        return live;
+    }
+
+    /**
+     * Makes short-lived garbage until many young collections have run.
+     * @return a value from the garbage, so it is not optimized away
+     */
+    @Benchmark
+    public long youngCollections() {
+        Object[] recent = new Object[1024];
+        long sink = 0;
+        for (long made = 0; made < CHURN_BYTES; made += 64) {
+            long[] garbage = new long[6];
+            recent[(int) (made >> 6) & 1023] = garbage;
+            sink += garbage.length;
+        }
+        return sink + (live == null ? 0 : 1);
+    }
+
+    /**
+     * Builds heap accounts in per-customer lists inside a map by customer name.
+     * @param accounts number of accounts
+     * @return the map holding them
+     */
+    private static Map<String, List<HeapAccount>> buildObjects(int accounts) {
+        Map<String, List<HeapAccount>> customers = new HashMap<>();
+        for (int i = 0; i < accounts; i += ACCOUNTS_PER_CUSTOMER) {
+            List<HeapAccount> list = new ArrayList<>();
+            list.add(new HeapAccount(String.valueOf(1_000_000_000L + i), 1234.56));
+            list.add(new HeapAccount(String.valueOf(2_000_000_000L + i), 4567.89));
+            list.add(new HeapCredit(String.valueOf(3_000_000_000L + i), -268.92, 5000));
+            customers.put("customer" + i, list);
+        }
+        return customers;
+    }
+
+    /**
+     * Adds the accounts to a table, and optionally keeps views of them in
+     * per-customer lists inside a map by customer name.
+     * @param accounts number of accounts
+     * @param keepViews true to hold a view of every account
+     * @return the map of views, or the table if views are not kept
+     */
+    private static Object buildViews(int accounts, boolean keepViews) {
+        AccountTable table = new AccountTable();
+        Map<String, List<Account>> customers = new HashMap<>();
+        for (int i = 0; i < accounts; i += ACCOUNTS_PER_CUSTOMER) {
+            int checkings = table.add(AccountTable.CHECKINGS, 1_000_000_000L + i, 123_456, 0);
+            int savings = table.add(AccountTable.SAVINGS, 2_000_000_000L + i, 456_789, 0);
+            int credit = table.add(AccountTable.CREDIT, 3_000_000_000L + i, -26_892, 500_000);
+            if (keepViews) {
+                List<Account> list = new ArrayList<>();
+                list.add(table.view(checkings));
+                list.add(table.view(savings));
+                list.add(table.view(credit));
+                customers.put("customer" + i, list);
+            }
+        }
+        return keepViews ? customers : table;
+    }
+
+    /**
+     * Collects garbage and reports the heap still in use.
+     * @return bytes in use
+     */
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,160 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares reading one account's recent entries through the log's account
+ * history index against scanning the whole log for them.
+ * The log is split into small segments so most of it is compressed, then
+ * reopened so the index is rebuilt from disk, and both ways must return the
+ * same entries. How long reopening took is printed once the log is ready.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountHistoryBenchmark {
+    /** Entries asked for in each query */
+    private static final int LIMIT = 20;
+    /** Accounts checked to read the same entries both ways */
+    private static final int CHECKS = 3;
+
+    /** Number of accounts */
+    @Param({"10000"})
+    public int accounts;
+    /** Number of log entries */
+    @Param({"2000000"})
+    public int entries;
+
+    /** Directory of the log */
+    private Path directory;
+    /** The reopened log */
+    private TransactionLog log;
+    /** Picks the account queried */
+    private SplittableRandom random;
+
+    /**
+     * Fills a log, reopens it and checks that the index and a scan agree.
+     * @throws Exception if the log cannot be written or read
+     * @throws IllegalStateException if the index and a scan disagree
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("history");
+        log = openLog(directory);
+        Random fill = new Random(42);
+        for (int i = 0; i < entries; i++) {
+            long account = 1_000_000_000L + fill.nextInt(accounts);
+            if (fill.nextBoolean()) {
+                log.logEvent(TransactionType.DEPOSIT, account, TransactionEvent.NO_ACCOUNT, 100, i);
+            } else {
+                log.logEvent(TransactionType.TRANSFER, account, 1_000_000_000L + fill.nextInt(accounts),
+                    100, i);
+            }
+        }
+        log.close();
+        //give the last closed segments time to compress
+        Thread.sleep(2000);
+
+        long start = System.nanoTime();
+        log = openLog(directory);
+        System.out.printf("%n%,d accounts, %,d log entries, reopened and indexed in %,d ms%n",
+            accounts, entries, (System.nanoTime() - start) / 1_000_000);
+        random = new SplittableRandom(42);
+        for (int i = 0; i < CHECKS; i++) {
+            long account = nextAccount();
+            if (!describe(lastByScan(log, account)).equals(describe(log.getAccountEvents(account, LIMIT)))) {
+                throw new IllegalStateException("Index and scan disagree for account " + account);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the log.
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        BenchmarkSupport.deleteTree(directory);
+    }
+
+    /**
+     * Reads an account's last entries through the account history index.
+     * @return the entries
+     */
+    @Benchmark
+    public List<TransactionEvent> byIndex() {
+        return log.getAccountEvents(nextAccount(), LIMIT);
+    }
+
+    /**
+     * Reads an account's last entries by scanning the whole log.
+     * @return the entries
+     */
+    @Benchmark
+    public List<TransactionEvent> byScan() {
+        return lastByScan(log, nextAccount());
+    }
+
+    /**
+     * Picks an account at random.
+     * @return the account number
+     */
+    private long nextAccount() {
+        return 1_000_000_000L + random.nextInt(accounts);
+    }
+
+    /**
+     * Opens the log in small segments, so most of it gets compressed.
+     * @param directory directory of the log
+     * @return the log
+     */
+    private static TransactionLog openLog(Path directory) {
+        return new TransactionLog(directory, TransactionLog.Durability.FLUSH_PER_BATCH,
+            256, 50, 65_536, 1000, 8L << 20);
+    }
+
+    /**
+     * Finds an account's most recent entries by reading the whole log.
+     * @param log the log
+     * @param account the account
+     * @return the entries, oldest first
+     */
+    private static List<TransactionEvent> lastByScan(TransactionLog log, long account) {
+        ArrayDeque<TransactionEvent> last = new ArrayDeque<>();
+        try (Stream<TransactionEvent> events = log.streamEvents()) {
+            events.filter(event -> event.getAccountNumber() == account || event.getCounterparty() == account)
+                .forEach(event -> {
+                    if (last.size() == LIMIT) {
+                        last.removeFirst();
+                    }
+                    last.addLast(event);
+                });
+        }
+        return new ArrayList<>(last);
+    }
+
+    /**
+     * Describes entries by their fields so two lists can be compared.
+     * @param events the entries
+     * @return one line per entry
+     */
+    private static List<String> describe(List<TransactionEvent> events) {
+        List<String> lines = new ArrayList<>();
+        for (TransactionEvent event : events) {
+            lines.add(event.getType() + " " + event.getTimestamp() + " " + event.getAccountNumber() + " "
+                + event.getCounterparty() + " " + event.getAmount() + " " + event.getBalance());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,203 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Measures the cost of making balance changes durable, and how long
+ * recovery takes.
+ * Throughput compares the write-ahead log, which commits every waiting
+ * change with one fsync, against opening, writing, fsyncing and closing a
+ * file for each change. Recovery times reading a large log back and folding
+ * it into a snapshot.
+ * Throughput runs on 16 threads; change that with JMH's -t option.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceLogBenchmark {
+    /** Number of accounts the changes are spread over */
+    private static final int ACCOUNTS = 100_000;
+    /** Threads writing the log that recovery reads */
+    private static final int RECOVERY_THREADS = 128;
+
+    /**
+     * The logs being written, shared by every thread.
+     */
+    @State(Scope.Benchmark)
+    public static class Logs {
+        /** Directory of both logs */
+        private Path directory;
+        /** The write-ahead log */
+        private WriteAheadLog log;
+        /** File written once per change */
+        private Path file;
+        /** Lets one thread at a time write the file */
+        private final Object lock = new Object();
+
+        /**
+         * Creates the logs.
+         * @throws IOException if a log cannot be created
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("balance-wal");
+            log = new WriteAheadLog(directory.resolve("wal"));
+            Files.createDirectories(directory.resolve("each"));
+            file = directory.resolve("each").resolve("balances.log");
+        }
+
+        /**
+         * Closes and deletes the logs.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            log.close();
+            BenchmarkSupport.deleteTree(directory);
+        }
+    }
+
+    /**
+     * The accounts one thread changes.
+     */
+    @State(Scope.Thread)
+    public static class Changes {
+        /** Index of the thread */
+        private int thread;
+        /** Changes the thread has made */
+        private long made;
+
+        /**
+         * Remembers which thread this is.
+         * @param params the thread's parameters
+         */
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams params) {
+            thread = params.getThreadIndex();
+        }
+
+        /**
+         * Gets the account of the thread's next change.
+         * @return the account key
+         */
+        long nextAccount() {
+            return (thread * 7919L + made++) % ACCOUNTS;
+        }
+    }
+
+    /**
+     * A large log written before recovery is timed.
+     */
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        /** Number of changes to recover */
+        @Param({"1000000"})
+        public int changes;
+
+        /** Directory of the log */
+        private Path directory;
+
+        /**
+         * Writes the log from many threads, so it is written quickly.
+         * @throws Exception if the log cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("balance-recovery");
+            try (WriteAheadLog log = new WriteAheadLog(directory, 16_384)) {
+                ExecutorService pool = Executors.newFixedThreadPool(RECOVERY_THREADS);
+                List<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < RECOVERY_THREADS; t++) {
+                    int thread = t;
+                    results.add(pool.submit(() -> {
+                        for (int i = 0; i < changes / RECOVERY_THREADS; i++) {
+                            log.log((thread * 7919L + i) % ACCOUNTS, 25);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+                pool.shutdown();
+                log.roll();
+            }
+        }
+
+        /**
+         * Deletes the log.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchmarkSupport.deleteTree(directory);
+        }
+    }
+
+    /**
+     * Makes a change durable through the write-ahead log, which commits
+     * every waiting change with one fsync.
+     * @param logs the logs
+     * @param changes the thread's accounts
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public void writeAheadLog(Logs logs, Changes changes) {
+        logs.log.log(changes.nextAccount(), 100);
+    }
+
+    /**
+     * Makes a change durable by opening the file, appending, fsyncing and closing it.
+     * @param logs the logs
+     * @param changes the thread's accounts
+     * @throws IOException if the file cannot be written
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public void filePerChange(Logs logs, Changes changes) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(WriteAheadLog.RECORD_SIZE);
+        record.putLong(changes.nextAccount()).putLong(100).flip();
+        synchronized (logs.lock) {
+            try (FileChannel channel = FileChannel.open(logs.file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(record);
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Reads the log back, folds it into a snapshot, then writes and reads the snapshot.
+     * @param recovery the log to recover
+     * @return number of accounts recovered
+     * @throws IOException if the log or snapshot cannot be read or written
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public int recover(Recovery recovery) throws IOException {
+        Map<Long, Long> balances = WriteAheadLog.readChanges(recovery.directory, 0, Long.MAX_VALUE);
+        //a file of its own, in case JMH's -t runs this on several threads
+        Path file = Files.createTempFile(recovery.directory, "balances", ".snapshot");
+        try {
+            new BalanceSnapshot(1, balances).write(file);
+            return BalanceSnapshot.read(file).getBalances().size();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
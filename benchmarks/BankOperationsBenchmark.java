@@ -0,0 +1,450 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Baseline numbers for the bank's everyday operations at several bank sizes.
+ * For each size a customer CSV is generated and loaded through CSVHandler,
+ * the same way the bank starts, then every operation is timed on customers
+ * picked at random:
+ * Account.deposit and withdraw, Credit.borrow and pay, Person.pay, both
+ * Person.inquireAccount lookups and the instance one, TransactionLog.logEvent,
+ * CSVHandler.saveCustomerData and loadCustomerData.
+ * Account operations are timed in memory and, for deposit, once more
+ * waiting on the balance write-ahead log as the running bank does.
+ * Other sizes are given with JMH's -p option; ten million customers needs
+ * a heap of about 5 GB:
+ * mvn -P jmh verify -Djmh.args="BankOperations -p customers=10000000 -jvmArgs -Xmx5g"
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BankOperationsBenchmark {
+    /** Random customer picks, reused in order */
+    private static final int PICKS = 1 << 16;
+    /** Deposits made before each timed save, so it has changes to write */
+    private static final int DEPOSITS_PER_SAVE = 10_000;
+
+    /**
+     * A bank generated and loaded through CSVHandler, with its customers
+     * picked at random for each call.
+     */
+    static class LoadedBank {
+        /** Directory of the bank's files */
+        final Path directory;
+        /** Number of customers */
+        final int size;
+        /** Handler that loaded the bank */
+        final CSVHandler handler;
+        /** The loaded customers */
+        final CustomerStore customers;
+        /** Every customer, in file order */
+        final List<Customer> all;
+        /** The account index */
+        final AccountRegistry registry;
+        /** Checking account of each customer */
+        final Account[] checkings;
+        /** Credit account of each customer */
+        final Credit[] credits;
+        /** Checking account number of each customer */
+        final String[] numbers;
+        /** First name of each customer */
+        final String[] firstNames;
+        /** Last name of each customer */
+        final String[] lastNames;
+        /** Customers picked at random */
+        private final int[] picks = new int[PICKS];
+        /** Number of picks made */
+        private int next;
+
+        /**
+         * Generates a bank and loads it.
+         * @param size number of customers
+         * @throws IOException if the CSV cannot be written
+         */
+        LoadedBank(int size) throws IOException {
+            this.size = size;
+            directory = Files.createTempDirectory("bank-ops");
+            BenchmarkSupport.writeCustomers(directory, size);
+            handler = new CSVHandler(directory);
+            customers = handler.loadCustomerData();
+            all = customers.getCustomers();
+            registry = customers.getAccountRegistry();
+            Random random = new Random(42);
+            for (int i = 0; i < PICKS; i++) {
+                picks[i] = random.nextInt(size);
+            }
+            checkings = new Account[size];
+            credits = new Credit[size];
+            numbers = new String[size];
+            firstNames = new String[size];
+            lastNames = new String[size];
+            for (int i = 0; i < size; i++) {
+                Customer customer = all.get(i);
+                List<Account> accounts = customer.getAccounts();
+                checkings[i] = accounts.get(0);
+                credits[i] = (Credit) accounts.get(2);
+                numbers[i] = checkings[i].getAccountNumber();
+                String[] name = customer.getName().split(" ", 2);
+                firstNames[i] = name[0];
+                lastNames[i] = name[1];
+            }
+        }
+
+        /**
+         * Picks the next customer.
+         * @return position of the customer
+         */
+        int pick() {
+            return picks[next++ & (PICKS - 1)];
+        }
+
+        /**
+         * Closes the bank and deletes its files.
+         * @throws IOException if a file cannot be deleted
+         */
+        void close() throws IOException {
+            handler.close();
+            BenchmarkSupport.deleteTree(directory);
+        }
+    }
+
+    /**
+     * A bank whose balance changes wait on the balance write-ahead log, as the running bank's do.
+     */
+    @State(Scope.Benchmark)
+    public static class DurableBank {
+        /** Number of customers */
+        @Param({"100", "10000", "1000000"})
+        public int customers;
+
+        /** The bank */
+        LoadedBank bank;
+
+        /**
+         * Generates and loads the bank.
+         * @throws IOException if the CSV cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            bank = new LoadedBank(customers);
+        }
+
+        /**
+         * Closes the bank and deletes its files.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            bank.close();
+        }
+    }
+
+    /**
+     * A bank held in memory only, as the balance log would only add its own wait.
+     */
+    @State(Scope.Benchmark)
+    public static class Bank {
+        /** Number of customers */
+        @Param({"100", "10000", "1000000"})
+        public int customers;
+
+        /** The bank */
+        LoadedBank bank;
+        /** The balance log, put back before the bank is closed */
+        private WriteAheadLog balanceLog;
+        /** Transaction log for logEvent */
+        TransactionLog log;
+
+        /**
+         * Generates and loads the bank, then stops logging balance changes.
+         * @throws IOException if the CSV cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            bank = new LoadedBank(customers);
+            AccountTable ledger = AccountTable.shared();
+            balanceLog = ledger.getBalanceLog();
+            ledger.setBalanceLog(null);
+            log = BenchmarkSupport.openTransactionLog(bank.directory.resolve("transaction_logs"));
+        }
+
+        /**
+         * Closes the bank and deletes its files.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            log.close();
+            AccountTable.shared().setBalanceLog(balanceLog);
+            bank.close();
+        }
+    }
+
+    /**
+     * A bank with deposits waiting to be saved before each save.
+     */
+    @State(Scope.Benchmark)
+    public static class ChangedBank {
+        /** Number of customers */
+        @Param({"100", "10000", "1000000"})
+        public int customers;
+
+        /** The bank */
+        LoadedBank bank;
+
+        /**
+         * Generates and loads the bank.
+         * @throws IOException if the CSV cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            bank = new LoadedBank(customers);
+        }
+
+        /**
+         * Makes deposits for the next save to write.
+         */
+        @Setup(Level.Invocation)
+        public void deposit() {
+            for (int i = 0; i < Math.min(customers, DEPOSITS_PER_SAVE); i++) {
+                bank.checkings[bank.pick()].deposit(1);
+            }
+        }
+
+        /**
+         * Closes the bank and deletes its files.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            bank.close();
+        }
+    }
+
+    /**
+     * Bank files ready to start from: the CSV alone, for the first start, and
+     * the saved ledger, for later starts.
+     */
+    @State(Scope.Benchmark)
+    public static class SavedBank {
+        /** Number of customers */
+        @Param({"100", "10000", "1000000"})
+        public int customers;
+
+        /** Directory holding only the CSV */
+        private Path csvOnly;
+        /** Directory of a bank that has been started and saved */
+        private Path saved;
+        /** Directory a first start imports into */
+        private Path importing;
+
+        /**
+         * Writes the CSV, and starts and saves a bank from a copy of it.
+         * @throws IOException if a file cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            csvOnly = Files.createTempDirectory("bank-csv");
+            BenchmarkSupport.writeCustomers(csvOnly, customers);
+            saved = Files.createTempDirectory("bank-saved");
+            Files.copy(csvOnly.resolve(BenchmarkSupport.CUSTOMER_FILE), saved.resolve(BenchmarkSupport.CUSTOMER_FILE));
+            CSVHandler handler = new CSVHandler(saved);
+            handler.loadCustomerData();
+            handler.saveCustomerData();
+            handler.close();
+        }
+
+        /**
+         * Copies the CSV into an empty directory for the next first start.
+         * @throws IOException if the CSV cannot be copied
+         */
+        @Setup(Level.Invocation)
+        public void copyCsv() throws IOException {
+            importing = Files.createTempDirectory("bank-import");
+            Files.copy(csvOnly.resolve(BenchmarkSupport.CUSTOMER_FILE),
+                importing.resolve(BenchmarkSupport.CUSTOMER_FILE));
+        }
+
+        /**
+         * Deletes the directory of the last first start.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Invocation)
+        public void deleteImport() throws IOException {
+            BenchmarkSupport.deleteTree(importing);
+        }
+
+        /**
+         * Deletes the bank's files.
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchmarkSupport.deleteTree(csvOnly);
+            BenchmarkSupport.deleteTree(saved);
+        }
+    }
+
+    /**
+     * Deposits a cent and waits until it is in the balance log.
+     * @param state the bank
+     * @return the balance
+     */
+    @Benchmark
+    public long depositLogged(DurableBank state) {
+        Account account = state.bank.checkings[state.bank.pick()];
+        account.deposit(1);
+        return account.getBalance();
+    }
+
+    /**
+     * Deposits and withdraws a dollar.
+     * @param state the bank
+     * @return the balance
+     */
+    @Benchmark
+    public long depositWithdraw(Bank state) {
+        Account account = state.bank.checkings[state.bank.pick()];
+        account.deposit(100);
+        account.withdraw(100);
+        return account.getBalance();
+    }
+
+    /**
+     * Pays a dollar toward a credit account and borrows it again.
+     * @param state the bank
+     * @return the balance
+     */
+    @Benchmark
+    public long creditBorrowPay(Bank state) {
+        Credit credit = state.bank.credits[state.bank.pick()];
+        credit.pay(100);
+        credit.borrow(100);
+        return credit.getBalance();
+    }
+
+    /**
+     * Pays a cent from one customer's savings into another's checking, and
+     * the payee pays it back, so no savings account runs dry.
+     * @param state the bank
+     * @return the payee
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public int personPay(Bank state) {
+        LoadedBank bank = state.bank;
+        int payer = bank.pick();
+        int payee = bank.pick();
+        Customer paying = bank.all.get(payer);
+        Customer paid = bank.all.get(payee);
+        Account savings = paying.getAccounts().get(1);
+        paying.pay(paid, savings, bank.checkings[payee], 1);
+        paid.pay(paying, bank.checkings[payee], savings, 1);
+        return payee;
+    }
+
+    /**
+     * Finds one of a customer's own accounts by number.
+     * @param state the bank
+     * @return the accounts found
+     */
+    @Benchmark
+    public List<Account> inquireOwnAccount(Bank state) {
+        int pick = state.bank.pick();
+        return state.bank.all.get(pick).inquireAccount(state.bank.numbers[pick]);
+    }
+
+    /**
+     * Finds an account by number through the registry.
+     * @param state the bank
+     * @return the accounts found
+     */
+    @Benchmark
+    public List<Account> inquireByNumber(Bank state) {
+        return Person.inquireAccount(state.bank.numbers[state.bank.pick()], state.bank.registry);
+    }
+
+    /**
+     * Finds a customer's accounts by name.
+     * @param state the bank
+     * @return the accounts found
+     */
+    @Benchmark
+    public List<Account> inquireByName(Bank state) {
+        int pick = state.bank.pick();
+        return Person.inquireAccount(state.bank.firstNames[pick], state.bank.lastNames[pick], state.bank.customers);
+    }
+
+    /**
+     * Logs a deposit in the transaction log.
+     * @param state the bank
+     * @return the account logged
+     */
+    @Benchmark
+    public long logEvent(Bank state) {
+        long account = state.bank.checkings[state.bank.pick()].getAccountKey();
+        state.log.logEvent(TransactionType.DEPOSIT, account, TransactionEvent.NO_ACCOUNT, 100, 0);
+        return account;
+    }
+
+    /**
+     * Saves the bank.
+     * @param state the bank
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveCustomerData(ChangedBank state) {
+        state.bank.handler.saveCustomerData();
+    }
+
+    /**
+     * Starts the bank for the first time, importing the CSV into a new ledger.
+     * @param state the bank's files
+     * @return the customers loaded
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadFromCsv(SavedBank state) {
+        CSVHandler handler = new CSVHandler(state.importing);
+        int loaded = checkSize(handler.loadCustomerData(), state.customers);
+        handler.close();
+        return loaded;
+    }
+
+    /**
+     * Starts the bank again, opening the saved ledger and reading the profiles.
+     * @param state the bank's files
+     * @return the customers loaded
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadFromLedger(SavedBank state) {
+        CSVHandler handler = new CSVHandler(state.saved);
+        int loaded = checkSize(handler.loadCustomerData(), state.customers);
+        handler.close();
+        return loaded;
+    }
+
+    /**
+     * Checks that a start loaded every customer.
+     * @param loaded the customers loaded
+     * @param expected number of customers in the CSV
+     * @return number of customers loaded
+     * @throws IllegalStateException if customers are missing
+     */
+    private static int checkSize(CustomerStore loaded, int expected) {
+        if (loaded.size() != expected) {
+            throw new IllegalStateException("Loaded " + loaded.size() + " customers");
+        }
+        return loaded.size();
+    }
+}
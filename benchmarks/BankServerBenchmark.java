@@ -0,0 +1,168 @@
+package bank;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the bank server with thousands of sessions open at once.
+ * Every session logs in as its own customer, then each round sends one
+ * deposit on every session before reading any response, so all sessions
+ * have a request in flight together. Reports the time of one round, and
+ * checks at the end that every deposit reached the ledger.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankServerBenchmark {
+    /** Number of sessions */
+    @Param({"5000"})
+    public int sessions;
+
+    /** Directory of the transaction log */
+    private Path directory;
+    /** The server's transaction log */
+    private TransactionLog log;
+    /** The server */
+    private BankServer server;
+    /** Checking account of each session's customer */
+    private final List<Account> accounts = new ArrayList<>();
+    /** One connection per session */
+    private final List<SocketChannel> clients = new ArrayList<>();
+    /** Deposit request of each session */
+    private String[] deposits;
+    /** Buffer responses are read into */
+    private final ByteBuffer line = ByteBuffer.allocate(1024);
+    /** Rounds run so far */
+    private long rounds;
+
+    /**
+     * Starts a server and logs every session in.
+     * @throws IOException if the server or a connection fails
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AccountTable.setShared(new AccountTable());
+        CustomerStore customers = new CustomerStore();
+        deposits = new String[sessions];
+        for (int i = 1; i <= sessions; i++) {
+            Customer customer = BenchmarkSupport.newCustomer(i, 0);
+            customers.add(customer);
+            accounts.add(customer.getAccounts().get(0));
+            deposits[i - 1] = "DEPOSIT " + WorkloadGenerator.checkingAccount(i) + " 1.00";
+        }
+
+        directory = Files.createTempDirectory("server");
+        log = BenchmarkSupport.openTransactionLog(directory);
+        server = new BankServer(customers, log, 0, Runtime.getRuntime().availableProcessors() * 4);
+        server.start();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        for (int i = 1; i <= sessions; i++) {
+            SocketChannel client = SocketChannel.open(address);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            clients.add(client);
+            send(client, "LOGIN " + i);
+        }
+        for (SocketChannel client : clients) {
+            expectOk(readLine(client, line));
+        }
+        System.out.printf("%n%,d sessions open on the server%n", server.getSessionCount());
+    }
+
+    /**
+     * Checks that every deposit reached the ledger, then stops the server.
+     * @throws IOException if a connection or file cannot be closed
+     * @throws IllegalStateException if a deposit is missing
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try {
+            for (Account account : accounts) {
+                if (account.getBalance() != rounds * 100L) {
+                    throw new IllegalStateException("Account " + account.getAccountNumber() + " has "
+                        + Money.format(account.getBalance()));
+                }
+            }
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            server.stop();
+            log.close();
+            BenchmarkSupport.deleteTree(directory);
+        }
+    }
+
+    /**
+     * Sends a deposit on every session, then reads every response.
+     * @throws IOException if a connection fails
+     */
+    @Benchmark
+    public void depositRound() throws IOException {
+        for (int i = 0; i < sessions; i++) {
+            send(clients.get(i), deposits[i]);
+        }
+        for (SocketChannel client : clients) {
+            expectOk(readLine(client, line));
+        }
+        rounds++;
+    }
+
+    /**
+     * Sends one request line.
+     * @param client the connection
+     * @param request the request, without the line break
+     * @throws IOException if the connection fails
+     */
+    private static void send(SocketChannel client, String request) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((request + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            client.write(bytes);
+        }
+    }
+
+    /**
+     * Reads one response line, a byte at a time so nothing past it is consumed.
+     * @param client the connection
+     * @param line buffer to read into
+     * @return the line, without the line break
+     * @throws IOException if the connection fails or closes
+     */
+    private static String readLine(SocketChannel client, ByteBuffer line) throws IOException {
+        line.clear();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (true) {
+            one.clear();
+            if (client.read(one) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            byte value = one.get(0);
+            if (value == '\n') {
+                return new String(line.array(), 0, line.position(), StandardCharsets.UTF_8);
+            }
+            line.put(value);
+        }
+    }
+
+    /**
+     * Checks that a response is not an error.
+     * @param response the response line
+     * @throws IllegalStateException if it is an error
+     */
+    private static void expectOk(String response) {
+        if (!response.startsWith("OK")) {
+            throw new IllegalStateException("Request failed: " + response);
+        }
+    }
+}
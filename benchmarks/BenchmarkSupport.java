@@ -0,0 +1,115 @@
+package bank;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Files, customers and logs the benchmarks share, so every benchmark builds
+ * its bank the same way.
+ * Customer files come from WorkloadGenerator with its default seed, so
+ * customer i owns the accounts WorkloadGenerator numbers for it.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+public final class BenchmarkSupport {
+    /** Name of the customer CSV the bank starts from */
+    public static final String CUSTOMER_FILE = "CS 3331 - Bank Users.csv";
+    /** Number of different first names, and of last names, of new customers */
+    public static final int NAMES = 500;
+
+    /**
+     * Not used; this class only has static helpers.
+     */
+    private BenchmarkSupport() {}
+
+    /**
+     * Writes the bank's customer CSV into a directory.
+     * @param directory the directory the bank is started from
+     * @param count number of customers, with ids 1 to count
+     * @return the file written
+     * @throws IOException if the file cannot be written
+     */
+    public static Path writeCustomers(Path directory, long count) throws IOException {
+        Path file = directory.resolve(CUSTOMER_FILE);
+        new WorkloadGenerator(WorkloadGenerator.DEFAULT_SEED).writeCustomers(file, count);
+        return file;
+    }
+
+    /**
+     * Writes a file of new customers in the layout CustomerOnboarding imports.
+     * New customer i is named firstName(i) lastName(i).
+     * @param file the file to write
+     * @param count number of customers
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeNewCustomers(Path file, int count) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("First Name,Last Name,Date of Birth,Address,Phone Number,"
+                + "Checking Starting Balance,Savings Starting Balance,Credit Max\n");
+            for (int i = 0; i < count; i++) {
+                writer.write(firstName(i) + "," + lastName(i) + ",1-Jan-90,\""
+                    + i + " Main St, El Paso, TX\",(915) 555-0000,100.00,250.50,1000\n");
+            }
+        }
+    }
+
+    /**
+     * Gets the first name of a new customer.
+     * @param customer position of the customer in the file
+     * @return the first name
+     */
+    public static String firstName(int customer) {
+        return "First" + customer % NAMES;
+    }
+
+    /**
+     * Gets the last name of a new customer.
+     * @param customer position of the customer in the file
+     * @return the last name
+     */
+    public static String lastName(int customer) {
+        return "Last" + customer / NAMES % NAMES;
+    }
+
+    /**
+     * Creates a customer held in memory with a checking and a savings account,
+     * numbered as WorkloadGenerator numbers them.
+     * @param id the customer's id, from 1
+     * @param balance starting balance of both accounts in cents
+     * @return the customer
+     */
+    public static Customer newCustomer(long id, long balance) {
+        Customer customer = new Customer("Customer " + id, String.valueOf(id));
+        customer.getAccounts().add(new Checkings(String.valueOf(WorkloadGenerator.checkingAccount(id)), balance));
+        customer.getAccounts().add(new Savings(String.valueOf(WorkloadGenerator.savingsAccount(id)), balance));
+        return customer;
+    }
+
+    /**
+     * Opens a transaction log with the batching the bank uses.
+     * @param directory directory of the log
+     * @return the log
+     */
+    public static TransactionLog openTransactionLog(Path directory) {
+        return new TransactionLog(directory, TransactionLog.Durability.FLUSH_PER_BATCH,
+            256, 50, 65_536, 1000, 64L << 20);
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     * @param directory the directory
+     * @throws IOException if a file cannot be deleted
+     */
+    public static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (var files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
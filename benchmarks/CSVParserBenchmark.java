@@ -0,0 +1,114 @@
+package bank;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the old regex-split CSV parsing with CSVReader on a large file
+ * generated like the bank users CSV. Both must add up the same balances.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CSVParserBenchmark {
+    /** Number of customer rows */
+    @Param({"2000000"})
+    public int rows;
+
+    /** Directory of the file */
+    private Path directory;
+    /** The customer CSV */
+    private Path file;
+
+    /**
+     * Generates the file and checks that both parsers read the same balances.
+     * @throws IOException if the file cannot be written or read
+     * @throws IllegalStateException if the parsers disagree
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bank-users");
+        file = BenchmarkSupport.writeCustomers(directory, rows);
+        System.out.printf("%n%,d rows, %,d bytes%n", rows, Files.size(file));
+        if (parseWithRegex(file) != parseWithReader(file)) {
+            throw new IllegalStateException("Parsers read different balances");
+        }
+    }
+
+    /**
+     * Deletes the file.
+     * @throws IOException if the file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteTree(directory);
+    }
+
+    /**
+     * Parses the file with a regex split.
+     * @return sum of all balances
+     * @throws IOException if the file cannot be read
+     */
+    @Benchmark
+    public double regex() throws IOException {
+        return parseWithRegex(file);
+    }
+
+    /**
+     * Parses the file with CSVReader.
+     * @return sum of all balances
+     * @throws IOException if the file cannot be read
+     */
+    @Benchmark
+    public double csvReader() throws IOException {
+        return parseWithReader(file);
+    }
+
+    /**
+     * Parses the file the way CSVHandler used to: regex split, strip quotes, trim.
+     * @param file file to parse
+     * @return sum of all balances, so the work can't be skipped
+     * @throws IOException if the file cannot be read
+     */
+    private static double parseWithRegex(Path file) throws IOException {
+        double sum = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = parts[i].replace("\"", "").trim();
+                }
+                sum += Double.parseDouble(parts[7]) + Double.parseDouble(parts[9])
+                    + Double.parseDouble(parts[12]) + Double.parseDouble(parts[11]);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Parses the file with CSVReader, reading numbers straight from the buffer.
+     * @param file file to parse
+     * @return sum of all balances, so the work can't be skipped
+     * @throws IOException if the file cannot be read
+     */
+    private static double parseWithReader(Path file) throws IOException {
+        double sum = 0;
+        try (CSVReader reader = new CSVReader(Files.newInputStream(file))) {
+            reader.next();
+            while (reader.next()) {
+                sum += reader.getDouble(7) + reader.getDouble(9)
+                    + reader.getDouble(12) + reader.getDouble(11);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,113 @@
+package bank;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares starting the bank from the customer CSV with starting it from the
+ * memory-mapped ledger. The CSV start parses every record and adds its three
+ * accounts to a table; the ledger start maps the file and builds the account
+ * number index. Both files are read once first so both come from the page cache.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LedgerStartupBenchmark {
+    /** Number of customers, three accounts each */
+    @Param({"1000000"})
+    public int customers;
+
+    /** Directory of both files */
+    private Path directory;
+    /** The customer CSV */
+    private Path csv;
+    /** The ledger imported from it */
+    private Path ledger;
+
+    /**
+     * Generates the CSV and imports it into a ledger.
+     * @throws IOException if a file cannot be written or read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("ledger-startup");
+        csv = BenchmarkSupport.writeCustomers(directory, customers);
+        ledger = directory.resolve("bank.ledger");
+        try (AccountTable table = AccountTable.open(ledger)) {
+            loadCSV(csv, table);
+        }
+        System.out.printf("%n%,d accounts, CSV %,d bytes, ledger %,d bytes%n",
+            customers * 3L, Files.size(csv), Files.size(ledger));
+    }
+
+    /**
+     * Deletes both files.
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteTree(directory);
+    }
+
+    /**
+     * Starts from the CSV.
+     * @return number of accounts loaded
+     * @throws IOException if the CSV cannot be read
+     */
+    @Benchmark
+    public int parseCsv() throws IOException {
+        AccountTable table = new AccountTable();
+        loadCSV(csv, table);
+        return table.size();
+    }
+
+    /**
+     * Starts from the ledger.
+     * @return number of accounts opened
+     * @throws IOException if the ledger cannot be opened
+     * @throws IllegalStateException if accounts are missing
+     */
+    @Benchmark
+    public int openLedger() throws IOException {
+        try (AccountTable table = AccountTable.open(ledger)) {
+            if (table.size() != customers * 3) {
+                throw new IllegalStateException("Ledger has " + table.size() + " rows");
+            }
+            return table.size();
+        }
+    }
+
+    /**
+     * Parses the CSV in parallel chunks and adds every account to a table.
+     * @param csv the customer CSV
+     * @param table the table to add the accounts to
+     * @throws IOException if the CSV cannot be read
+     */
+    private static void loadCSV(Path csv, AccountTable table) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            CSVSplitter.split(channel).parallelStream().forEach(chunk -> {
+                try (CSVReader reader = chunk.open(channel)) {
+                    if (chunk.getStart() == 0) {
+                        reader.next();
+                    }
+                    while (reader.next()) {
+                        table.add(AccountTable.CHECKINGS, reader.getLong(6), reader.getCents(7), 0);
+                        table.add(AccountTable.SAVINGS, reader.getLong(8), reader.getCents(9), 0);
+                        table.add(AccountTable.CREDIT, reader.getLong(10), reader.getCents(12),
+                            reader.getCents(11));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
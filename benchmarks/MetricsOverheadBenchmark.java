@@ -0,0 +1,99 @@
+package bank;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures what recording into a LatencyHistogram adds to a banking operation.
+ * Times taking the timestamps of a measured no-op with and without recording
+ * it, and records from several threads at once to show the striped counts
+ * don't slow down under contention. Run with JMH's -prof gc option to check
+ * that recording allocates nothing (gc.alloc.rate.norm of 0 bytes per call).
+ * The deposits, withdrawals and inquiries on one account end by printing the
+ * metrics table the bank manager sees.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+    /**
+     * The histogram recorded into, shared by every thread.
+     */
+    @State(Scope.Benchmark)
+    public static class Histogram {
+        /** The histogram */
+        final LatencyHistogram histogram = new LatencyHistogram("Benchmark");
+    }
+
+    /**
+     * An account the real operations run on.
+     */
+    @State(Scope.Benchmark)
+    public static class Operations {
+        /** The account */
+        Checkings account;
+
+        /**
+         * Creates the account and clears the metrics.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            BankMetrics.reset();
+            account = new Checkings("1000000001", 100_000);
+        }
+
+        /**
+         * Prints the metrics, as the bank manager would see them.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.out.println();
+            System.out.print(BankMetrics.report());
+        }
+    }
+
+    /**
+     * Takes the same timestamps as record without recording them.
+     * @return the difference, so the calls are not removed
+     */
+    @Benchmark
+    public long nanoTimePair() {
+        return System.nanoTime() - System.nanoTime();
+    }
+
+    /**
+     * Records a measured no-op.
+     * @param state the histogram
+     */
+    @Benchmark
+    public void record(Histogram state) {
+        state.histogram.recordSince(System.nanoTime());
+    }
+
+    /**
+     * Records a measured no-op from four threads at once.
+     * @param state the histogram
+     */
+    @Benchmark
+    @Threads(4)
+    public void recordContended(Histogram state) {
+        state.histogram.recordSince(System.nanoTime());
+    }
+
+    /**
+     * Deposits, withdraws and checks the balance, each recorded in BankMetrics.
+     * @param state the account
+     * @return the balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(3)
+    public long depositWithdrawInquire(Operations state) {
+        state.account.deposit(100);
+        state.account.withdraw(100);
+        return state.account.inquireBalance();
+    }
+}
@@ -0,0 +1,149 @@
+package bank;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares balances held as double dollars, long cents (Money) and BigDecimal
+ * on the same stream of deposits and withdrawals, for speed and for how far
+ * each ends up from the exact total. How far each ends up after ten million
+ * operations is printed before timing.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MoneyBenchmark {
+    /** Number of deposits and withdrawals the drift is measured over */
+    private static final int DRIFT_OPERATIONS = 10_000_000;
+    /** Number of distinct amounts, reused in order */
+    private static final int AMOUNTS = 4096;
+
+    /** Amounts in dollars */
+    private double[] doubles;
+    /** Amounts in cents */
+    private long[] cents;
+    /** Exact amounts */
+    private BigDecimal[] decimals;
+
+    /**
+     * Generates the amounts and prints how far each representation drifts.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        //amounts with cents, as typed by users, so doubles can't hold them exactly
+        Random random = new Random(42);
+        doubles = new double[AMOUNTS];
+        cents = new long[AMOUNTS];
+        decimals = new BigDecimal[AMOUNTS];
+        for (int i = 0; i < AMOUNTS; i++) {
+            String text = (1 + random.nextInt(500)) + "." + String.format("%02d", random.nextInt(100));
+            doubles[i] = Double.parseDouble(text);
+            cents[i] = Money.parse(text);
+            decimals[i] = new BigDecimal(text);
+        }
+
+        //BigDecimal is exact, so it is the reference for drift
+        BigDecimal exact = runDecimals(decimals, DRIFT_OPERATIONS);
+        BigDecimal doubleResult = new BigDecimal(runDoubles(doubles, DRIFT_OPERATIONS));
+        long centsResult = runCents(cents, DRIFT_OPERATIONS);
+        System.out.printf("%n%,d operations: exact balance %s%n", DRIFT_OPERATIONS, exact.toPlainString());
+        System.out.printf("double      balance %s  off by %s%n", doubleResult.toPlainString(),
+            doubleResult.subtract(exact).abs().toPlainString());
+        System.out.printf("long cents  balance %s  off by %s%n", Money.format(centsResult),
+            new BigDecimal(Money.format(centsResult)).subtract(exact).abs().toPlainString());
+    }
+
+    /**
+     * Runs every amount once on a double balance.
+     * @return final balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(AMOUNTS)
+    public double doubleDollars() {
+        return runDoubles(doubles, AMOUNTS);
+    }
+
+    /**
+     * Runs every amount once on a long balance in cents.
+     * @return final balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(AMOUNTS)
+    public long longCents() {
+        return runCents(cents, AMOUNTS);
+    }
+
+    /**
+     * Runs every amount once on a BigDecimal balance.
+     * @return final balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(AMOUNTS)
+    public BigDecimal bigDecimal() {
+        return runDecimals(decimals, AMOUNTS);
+    }
+
+    /**
+     * Deposits every amount and withdraws every third one, on a double balance.
+     * @param amounts amounts in dollars
+     * @param operations number of operations
+     * @return final balance
+     */
+    private static double runDoubles(double[] amounts, int operations) {
+        double balance = 0;
+        for (int i = 0; i < operations; i++) {
+            double amount = amounts[i & (AMOUNTS - 1)];
+            if (i % 3 == 0 && amount <= balance) {
+                balance -= amount;
+            } else {
+                balance += amount;
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * Deposits every amount and withdraws every third one, on a long balance in cents.
+     * @param amounts amounts in cents
+     * @param operations number of operations
+     * @return final balance in cents
+     */
+    private static long runCents(long[] amounts, int operations) {
+        long balance = 0;
+        for (int i = 0; i < operations; i++) {
+            long amount = amounts[i & (AMOUNTS - 1)];
+            if (i % 3 == 0 && amount <= balance) {
+                balance -= amount;
+            } else {
+                balance += amount;
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * Deposits every amount and withdraws every third one, on a BigDecimal balance.
+     * @param amounts amounts in dollars
+     * @param operations number of operations
+     * @return final balance
+     */
+    private static BigDecimal runDecimals(BigDecimal[] amounts, int operations) {
+        BigDecimal balance = BigDecimal.ZERO;
+        for (int i = 0; i < operations; i++) {
+            BigDecimal amount = amounts[i & (AMOUNTS - 1)];
+            if (i % 3 == 0 && amount.compareTo(balance) <= 0) {
+                balance = balance.subtract(amount);
+            } else {
+                balance = balance.add(amount);
+            }
+        }
+        return balance;
+    }
+}
@@ -0,0 +1,130 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures bulk customer onboarding while other threads keep searching.
+ * A file of new customers is imported over and over while reader threads
+ * look up accounts through the registry and customers by name through the
+ * store. The import's time shows how fast customers are created, and the
+ * readers' sampled times, up to their p1.00, show how long a search was held
+ * up by the customers being published.
+ * New customers are kept in memory only, so the bank's CSV is never touched.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class OnboardingBenchmark {
+    /**
+     * The bank being onboarded into, shared by the importer and the readers.
+     */
+    @State(Scope.Group)
+    public static class Bank {
+        /** Number of customers in the file */
+        @Param({"500000"})
+        public int customers;
+
+        /** The file of new customers */
+        private Path file;
+        /** The bank's customers, started afresh every iteration */
+        private CustomerStore store;
+        /** Imports into the store */
+        private CustomerOnboarding onboarding;
+        /** Customers created this iteration */
+        private long created;
+
+        /**
+         * Writes the file.
+         * @throws IOException if the file cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = Files.createTempFile("new-customers", ".csv");
+            BenchmarkSupport.writeNewCustomers(file, customers);
+        }
+
+        /**
+         * Starts a bank with one customer, so iterations don't pile up customers.
+         */
+        @Setup(Level.Iteration)
+        public void newBank() {
+            AccountTable.setShared(new AccountTable());
+            store = new CustomerStore();
+            Customer existing = new Customer(BenchmarkSupport.firstName(0) + " " + BenchmarkSupport.lastName(0),
+                "1");
+            existing.getAccounts().add(new Checkings("1042", 100));
+            store.add(existing);
+            onboarding = new CustomerOnboarding(store, null);
+            created = 0;
+        }
+
+        /**
+         * Checks that every customer created has its three accounts in the registry.
+         * @throws IllegalStateException if an account is missing
+         */
+        @TearDown(Level.Iteration)
+        public void checkRegistry() {
+            if (store.getAccountRegistry().size() != created * 3 + 1) {
+                throw new IllegalStateException("Registry has " + store.getAccountRegistry().size() + " accounts");
+            }
+        }
+
+        /**
+         * Deletes the file.
+         * @throws IOException if the file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * What one reader searches for.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        /** Picks the account and name searched for */
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    /**
+     * Imports the whole file.
+     * @param bank the bank
+     * @return number of customers created
+     * @throws IOException if the file cannot be read
+     */
+    @Benchmark
+    @Group("onboarding")
+    @GroupThreads(1)
+    public int importFile(Bank bank) throws IOException {
+        int created = bank.onboarding.importFile(bank.file.toString());
+        bank.created += created;
+        return created;
+    }
+
+    /**
+     * Looks up an account by number and customers by first name.
+     * @param bank the bank
+     * @param reader the reader
+     * @return number of customers found
+     */
+    @Benchmark
+    @Group("onboarding")
+    @GroupThreads(2)
+    public int search(Bank bank, Reader reader) {
+        CustomerStore store = bank.store;
+        long number = WorkloadGenerator.checkingAccount(1 + reader.random.nextInt(bank.customers));
+        store.getAccountRegistry().getAccount(number);
+        String firstName = BenchmarkSupport.firstName(reader.random.nextInt(BenchmarkSupport.NAMES));
+        return store.findByFirstName(firstName).size();
+    }
+}
@@ -0,0 +1,245 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Compares the lock-based path with the single-writer PartitionExecutor
+ * when many threads fight over a few hot accounts.
+ * Every thread runs the same mix of transfers, deposits and withdrawals on
+ * a handful of accounts, with every balance change written to a balance
+ * write-ahead log as the bank does. The lock-based path moves money with
+ * TransferEngine and updates the accounts directly; the executor path
+ * submits the same operations and waits for each result, as the customer
+ * menu does, and then again with a window of results in flight, as the
+ * transaction file processor does. Afterwards the money on the hot
+ * accounts must add up to what it was before.
+ * Runs on 16 threads; change that with JMH's -t option, and add -bm sample
+ * for latency percentiles.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class PartitionExecutorBenchmark {
+    /** Starting balance, large enough that few withdrawals fail */
+    private static final long START_BALANCE = 1_000_000_000;
+    /** Results each thread keeps in flight in the pipelined run */
+    private static final int WINDOW = 256;
+
+    /**
+     * The hot accounts, their balance log and the executor, shared by every thread.
+     */
+    @State(Scope.Benchmark)
+    public static class Hot {
+        /** Number of hot accounts */
+        @Param({"4"})
+        public int hotAccounts;
+        /** Number of executor partitions, or 0 for one per processor and at least one per account */
+        @Param({"0"})
+        public int partitions;
+
+        /** Directory of the balance log */
+        private Path directory;
+        /** The balance log */
+        private WriteAheadLog balanceLog;
+        /** The hot accounts */
+        private Account[] accounts;
+        /** The executor */
+        private PartitionExecutor executor;
+        /** Cents deposited less cents withdrawn */
+        private final LongAdder net = new LongAdder();
+
+        /**
+         * Creates the accounts, the balance log and the executor.
+         * @throws IOException if the balance log cannot be created
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("partition-executor");
+            balanceLog = new WriteAheadLog(directory);
+            Account.setBalanceLog(balanceLog);
+            //consecutive customers, so the accounts spread over the partitions
+            accounts = new Account[hotAccounts];
+            for (int i = 0; i < hotAccounts; i++) {
+                accounts[i] = new Checkings(String.valueOf(WorkloadGenerator.checkingAccount(1 + i)), START_BALANCE);
+            }
+            executor = new PartitionExecutor(partitions > 0 ? partitions
+                : Math.max(hotAccounts, Runtime.getRuntime().availableProcessors()));
+        }
+
+        /**
+         * Checks that no money appeared or vanished, then closes everything.
+         * @throws IOException if a file cannot be deleted
+         * @throws IllegalStateException if the balances don't add up
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            executor.close();
+            long total = 0;
+            for (Account account : accounts) {
+                total += account.getBalance();
+            }
+            long expected = START_BALANCE * hotAccounts + net.sum();
+            Account.setBalanceLog(null);
+            balanceLog.close();
+            BenchmarkSupport.deleteTree(directory);
+            if (total != expected) {
+                throw new IllegalStateException("Balances are off by " + (total - expected));
+            }
+        }
+    }
+
+    /**
+     * The random operations of one thread.
+     */
+    @State(Scope.Thread)
+    public static class Operations {
+        /** Picks the operations */
+        private SplittableRandom random;
+        /** Kind of the operation picked: 0 deposit, 1 withdrawal, anything else transfer */
+        private int kind;
+        /** Account debited */
+        private Account from;
+        /** Account credited */
+        private Account to;
+        /** Amount in cents */
+        private long amount;
+
+        /**
+         * Seeds the thread's operations.
+         * @param params the thread's parameters
+         */
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams params) {
+            random = new SplittableRandom(params.getThreadIndex());
+        }
+
+        /**
+         * Picks the next operation.
+         * @param hot the hot accounts
+         */
+        void next(Hot hot) {
+            from = hot.accounts[random.nextInt(hot.hotAccounts)];
+            to = hot.accounts[random.nextInt(hot.hotAccounts)];
+            amount = 1 + random.nextInt(100);
+            kind = random.nextInt(5);
+        }
+
+        /**
+         * Gets how the picked operation changes the total, if it succeeds.
+         * @return cents added to the hot accounts
+         */
+        long netChange() {
+            return kind == 0 ? amount : kind == 1 ? -amount : 0;
+        }
+    }
+
+    /**
+     * Applies an operation directly, taking locks where the bank does.
+     * @param hot the hot accounts
+     * @param operations the thread's operations
+     * @return true if the operation succeeded
+     */
+    @Benchmark
+    public boolean locked(Hot hot, Operations operations) {
+        operations.next(hot);
+        try {
+            if (operations.kind == 0) {
+                operations.to.deposit(operations.amount);
+            } else if (operations.kind == 1) {
+                operations.from.withdraw(operations.amount);
+            } else if (operations.from != operations.to) {
+                TransferEngine.shared().transfer(operations.from, operations.to, operations.amount);
+            } else {
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        hot.net.add(operations.netChange());
+        return true;
+    }
+
+    /**
+     * Submits an operation to the executor and waits for its result.
+     * @param hot the hot accounts
+     * @param operations the thread's operations
+     * @return true if the operation succeeded
+     */
+    @Benchmark
+    public boolean executor(Hot hot, Operations operations) {
+        operations.next(hot);
+        if (succeeded(submit(hot.executor, operations))) {
+            hot.net.add(operations.netChange());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Submits a window of operations to the executor, then waits for all of them.
+     * @param hot the hot accounts
+     * @param operations the thread's operations
+     * @return number of operations that succeeded
+     */
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public int pipelined(Hot hot, Operations operations) {
+        List<CompletableFuture<Long>> results = new ArrayList<>(WINDOW);
+        long[] changes = new long[WINDOW];
+        for (int i = 0; i < WINDOW; i++) {
+            operations.next(hot);
+            results.add(submit(hot.executor, operations));
+            changes[i] = operations.netChange();
+        }
+        int succeeded = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            if (succeeded(results.get(i))) {
+                hot.net.add(changes[i]);
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Submits the picked operation to the executor.
+     * @param executor the executor
+     * @param operations the thread's operations
+     * @return the operation's result
+     */
+    private static CompletableFuture<Long> submit(PartitionExecutor executor, Operations operations) {
+        if (operations.kind == 0) {
+            return executor.deposit(operations.to, operations.amount);
+        } else if (operations.kind == 1) {
+            return executor.withdraw(operations.from, operations.amount);
+        } else if (operations.from != operations.to) {
+            return executor.transfer(operations.from, operations.to, operations.amount);
+        }
+        return CompletableFuture.failedFuture(new IllegalArgumentException("Cannot transfer to same account"));
+    }
+
+    /**
+     * Waits for a result.
+     * @param result the result
+     * @return true if the operation succeeded
+     */
+    private static boolean succeeded(CompletableFuture<Long> result) {
+        try {
+            PartitionExecutor.await(result);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
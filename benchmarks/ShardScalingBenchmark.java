@@ -0,0 +1,155 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Compares account-local throughput with the ledger in one shard and in several.
+ * For each shard count a bank is created from a generated customer file with
+ * its ledger, balance write-ahead log and transaction log split into that
+ * many shards. Every thread then deposits into and withdraws from accounts
+ * of one shard only, logging each step, so the only thing shared between
+ * threads is whatever the shards share. The bank is saved, reopened as one
+ * shard and checked to hold exactly the balances it started with.
+ * Runs on 8 threads; change that with JMH's -t option.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ShardScalingBenchmark {
+    /**
+     * The bank, split into shards.
+     */
+    @State(Scope.Benchmark)
+    public static class Bank {
+        /** Number of shards */
+        @Param({"1", "2", "4", "8"})
+        public int shards;
+        /** Number of customers */
+        @Param({"100000"})
+        public int customers;
+
+        /** Directory of the bank's files */
+        private Path directory;
+        /** Handler that loaded the bank */
+        private CSVHandler handler;
+        /** The transaction log, split into shards */
+        private EventLog log;
+        /** Total balance when the bank was loaded */
+        private long before;
+        /** Checking accounts of each shard */
+        private final List<List<Account>> byShard = new ArrayList<>();
+
+        /**
+         * Generates the bank and loads it into shards.
+         * @throws IOException if the CSV cannot be written
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("shards");
+            BenchmarkSupport.writeCustomers(directory, customers);
+            handler = new CSVHandler(directory, shards);
+            CustomerStore loaded = handler.loadCustomerData();
+            log = new ShardedTransactionLog(directory.resolve("transaction_logs"), shards,
+                TransactionLog.Durability.FLUSH_PER_BATCH, 256, 50, 65_536, 1000, 64L << 20);
+            before = totalBalance(loaded);
+            for (int i = 0; i < shards; i++) {
+                byShard.add(new ArrayList<>());
+            }
+            for (long id = 1; id <= customers; id++) {
+                long number = WorkloadGenerator.checkingAccount(id);
+                byShard.get(ShardedLedger.shardOf(number, shards))
+                    .add(loaded.getAccountRegistry().getAccount(number));
+            }
+        }
+
+        /**
+         * Saves the bank, reopens it as one shard and checks the balances.
+         * @throws IOException if a file cannot be deleted
+         * @throws IllegalStateException if the balances differ
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try {
+                handler.saveCustomerData();
+                log.close();
+                handler.close();
+                CSVHandler reopened = new CSVHandler(directory, 1);
+                long after = totalBalance(reopened.loadCustomerData());
+                reopened.close();
+                if (before != after) {
+                    throw new IllegalStateException("Balances differ by " + (after - before)
+                        + " after reopening as one shard");
+                }
+            } finally {
+                AccountTable.setShared(new AccountTable());
+                BenchmarkSupport.deleteTree(directory);
+            }
+        }
+    }
+
+    /**
+     * The accounts of one thread's shard.
+     */
+    @State(Scope.Thread)
+    public static class ShardAccounts {
+        /** The accounts */
+        private List<Account> accounts;
+        /** Picks the account */
+        private SplittableRandom random;
+
+        /**
+         * Gives the thread the accounts of one shard.
+         * @param bank the bank
+         * @param params the thread's parameters
+         */
+        @Setup(Level.Trial)
+        public void setUp(Bank bank, ThreadParams params) {
+            accounts = bank.byShard.get(params.getThreadIndex() % bank.shards);
+            random = new SplittableRandom(params.getThreadIndex());
+        }
+    }
+
+    /**
+     * Deposits into and withdraws from an account of the thread's shard, logging both.
+     * @param bank the bank
+     * @param shard the thread's accounts
+     * @return the balance
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public long depositWithdraw(Bank bank, ShardAccounts shard) {
+        Account account = shard.accounts.get(shard.random.nextInt(shard.accounts.size()));
+        account.deposit(100);
+        bank.log.logEvent(TransactionType.CUSTOMER_DEPOSIT, account.getAccountKey(),
+            TransactionEvent.NO_ACCOUNT, 100, account.getBalance());
+        account.withdraw(100);
+        bank.log.logEvent(TransactionType.CUSTOMER_WITHDRAWAL, account.getAccountKey(),
+            TransactionEvent.NO_ACCOUNT, 100, account.getBalance());
+        return account.getBalance();
+    }
+
+    /**
+     * Adds up every customer's balances.
+     * @param customers the customers
+     * @return total balance in cents
+     */
+    private static long totalBalance(CustomerStore customers) {
+        long total = 0;
+        for (Customer customer : customers.getCustomers()) {
+            for (Account account : customer.getAccounts()) {
+                total += account.getBalance();
+            }
+        }
+        return total;
+    }
+}
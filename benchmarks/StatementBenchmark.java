@@ -0,0 +1,108 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares writing every customer's monthly statement from one grouped pass
+ * over the transaction log against writing them one customer at a time
+ * through the log's account history index.
+ * One at a time is timed per customer; multiply by the number of customers
+ * to compare it with the grouped pass.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatementBenchmark {
+    /** Number of customers, two accounts each */
+    @Param({"20000"})
+    public int customerCount;
+    /** Number of log entries */
+    @Param({"2000000"})
+    public int entries;
+
+    /** Directory of the log and statements */
+    private Path directory;
+    /** The transaction log */
+    private TransactionLog log;
+    /** Every customer */
+    private List<Customer> all;
+    /** Writes the statements */
+    private StatementGenerator generator;
+    /** Month of the statements */
+    private YearMonth month;
+    /** Customers written one at a time so far */
+    private int next;
+
+    /**
+     * Creates the customers and fills the log.
+     * @throws IOException if the log cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AccountTable.setShared(new AccountTable());
+        CustomerStore customers = new CustomerStore();
+        for (int i = 1; i <= customerCount; i++) {
+            customers.add(BenchmarkSupport.newCustomer(i, 100_000));
+        }
+        all = customers.getCustomers();
+
+        directory = Files.createTempDirectory("statements");
+        log = BenchmarkSupport.openTransactionLog(directory.resolve("log"));
+        Random random = new Random(42);
+        for (int i = 0; i < entries; i++) {
+            long account = WorkloadGenerator.checkingAccount(1 + random.nextInt(customerCount));
+            if (random.nextBoolean()) {
+                log.logEvent(TransactionType.CUSTOMER_DEPOSIT, account, TransactionEvent.NO_ACCOUNT, 100, 100_100);
+            } else {
+                log.logEvent(TransactionType.PAYMENT, account,
+                    WorkloadGenerator.savingsAccount(1 + random.nextInt(customerCount)), 100, 99_900);
+            }
+        }
+        log.flush();
+        generator = new StatementGenerator(customers, log, directory.resolve("out"));
+        month = YearMonth.now();
+    }
+
+    /**
+     * Closes and deletes the log and statements.
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        BenchmarkSupport.deleteTree(directory);
+    }
+
+    /**
+     * Writes every customer's statement from one grouped pass over the log.
+     * @return number of statements written
+     * @throws IOException if a statement cannot be written
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int groupedPass() throws IOException {
+        return generator.generateAll(month);
+    }
+
+    /**
+     * Writes one customer's statement through the account history index.
+     * @return the statement written
+     * @throws IOException if the statement cannot be written
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 2, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public Path oneCustomer() throws IOException {
+        return generator.generate(all.get(next++ % all.size()), month);
+    }
+}
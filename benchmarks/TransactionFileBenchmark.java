@@ -0,0 +1,130 @@
+package bank;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast TransactionFileProcessor applies a large transaction
+ * file. The file mixes deposits, withdrawals, transfers between a customer's
+ * own accounts and payments to other customers, and is held in memory so
+ * disk reads do not count. Each worker count runs once with the balance and
+ * transaction logs on disk, and once with no logs to show the apply cost alone.
+ * The same file is applied again every iteration, so balances drift and more
+ * rows fail as the run goes on, as they would in a real day's files.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionFileBenchmark {
+    /** Starting balance of every account in cents */
+    private static final long START_BALANCE = 1_000_000;
+
+    /** Number of transaction rows */
+    @Param({"2000000"})
+    public int rows;
+    /** Number of customers, two accounts each */
+    @Param({"100000"})
+    public int customers;
+    /** Number of workers */
+    @Param({"1", "2", "4"})
+    public int workers;
+    /** Whether the balance and transaction logs are on disk */
+    @Param({"false", "true"})
+    public boolean logged;
+
+    /** The accounts the rows refer to */
+    private AccountRegistry registry;
+    /** The transaction CSV */
+    private byte[] file;
+    /** Directory of the logs */
+    private Path directory;
+    /** The balance log, or null */
+    private WriteAheadLog balances;
+    /** The transaction log, or null */
+    private TransactionLog logger;
+
+    /**
+     * Creates the customers, the file and, when logged, the logs.
+     * @throws IOException if a log cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AccountTable.setShared(new AccountTable());
+        registry = new AccountRegistry(customers * 2);
+        for (int i = 1; i <= customers; i++) {
+            registry.registerCustomer(BenchmarkSupport.newCustomer(i, START_BALANCE));
+        }
+        file = writeRows(rows, customers);
+        if (logged) {
+            directory = Files.createTempDirectory("transaction-file");
+            logger = BenchmarkSupport.openTransactionLog(directory.resolve("events"));
+            balances = new WriteAheadLog(directory.resolve("wal"), 65_536);
+            Account.setBalanceLog(balances);
+        }
+    }
+
+    /**
+     * Closes and deletes the logs.
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (logged) {
+            Account.setBalanceLog(null);
+            balances.close();
+            logger.close();
+            BenchmarkSupport.deleteTree(directory);
+        }
+    }
+
+    /**
+     * Applies the whole file.
+     * @return the processing report
+     * @throws IOException if the file cannot be read
+     */
+    @Benchmark
+    public TransactionFileProcessor.Report process() throws IOException {
+        return new TransactionFileProcessor(registry, logger, workers).process(new ByteArrayInputStream(file));
+    }
+
+    /**
+     * Writes a transaction CSV of mixed rows.
+     * @param rows number of rows
+     * @param customers number of customers
+     * @return the CSV bytes
+     */
+    private static byte[] writeRows(int rows, int customers) {
+        Random random = new Random(42);
+        StringBuilder out = new StringBuilder(rows * 40);
+        out.append("Action,From Account,To Account,Amount\n");
+        for (int i = 0; i < rows; i++) {
+            long customer = 1 + random.nextInt(customers);
+            long checkings = WorkloadGenerator.checkingAccount(customer);
+            long savings = WorkloadGenerator.savingsAccount(customer);
+            String amount = Money.format(1 + random.nextInt(10_000));
+            int kind = random.nextInt(100);
+            if (kind < 30) {
+                out.append("deposit,,").append(checkings).append(',').append(amount).append('\n');
+            } else if (kind < 50) {
+                out.append("withdraw,").append(savings).append(",,").append(amount).append('\n');
+            } else if (kind < 75) {
+                out.append("transfer,").append(checkings).append(',').append(savings)
+                    .append(',').append(amount).append('\n');
+            } else {
+                long payee = WorkloadGenerator.checkingAccount(1 + random.nextInt(customers));
+                out.append("pay,").append(savings).append(',').append(payee)
+                    .append(',').append(amount).append('\n');
+            }
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,100 @@
+package bank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Soak test of the bank under a generated workload.
+ * WorkloadGenerator writes a customer file and a skewed transaction file to
+ * disk, the bank is started from the customer file through CSVHandler with
+ * its balance and transaction logs, and the transaction file is applied
+ * round after round, with a checkpoint after each. Every round is one
+ * measured iteration and prints its throughput, tail latency and heap in
+ * use, so a slowdown or leak over a long run shows up as a trend; more
+ * rounds are given with JMH's -i option.
+ * @author Daniel Fuentes, Rogelio Lozano
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkloadSoakBenchmark {
+    /** Number of customers */
+    @Param({"100000"})
+    public int customers;
+    /** Number of transactions per round */
+    @Param({"1000000"})
+    public long rows;
+
+    /** Directory of the bank's files */
+    private Path directory;
+    /** The transaction file */
+    private Path transactions;
+    /** Handler that loaded the bank */
+    private CSVHandler handler;
+    /** The transaction log */
+    private TransactionLog log;
+    /** Applies the transaction file */
+    private TransactionFileProcessor processor;
+    /** Report of the last round */
+    private TransactionFileProcessor.Report report;
+
+    /**
+     * Generates the workload and starts the bank.
+     * @throws IOException if a file cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("soak");
+        transactions = directory.resolve("transactions.csv");
+        long start = System.nanoTime();
+        BenchmarkSupport.writeCustomers(directory, customers);
+        new WorkloadGenerator(WorkloadGenerator.DEFAULT_SEED).writeTransactions(transactions, customers, rows);
+        System.out.printf("%n%,d customers and %,d transactions written in %,d ms%n",
+            customers, rows, (System.nanoTime() - start) / 1_000_000);
+
+        handler = new CSVHandler(directory);
+        CustomerStore loaded = handler.loadCustomerData();
+        log = BenchmarkSupport.openTransactionLog(directory.resolve("transaction_logs"));
+        processor = new TransactionFileProcessor(loaded.getAccountRegistry(), log);
+    }
+
+    /**
+     * Prints the round's throughput, failures, latency and heap in use.
+     */
+    @TearDown(Level.Iteration)
+    public void printRound() {
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%n%,10.0f rows/s, %,9d failed, p99 %,7d us, max %,8d us, heap %,6d MB%n",
+            report.getRowsPerSecond(), report.getFailed(), report.getLatencyPercentile(99) / 1000,
+            report.getMaxLatency() / 1000, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+    }
+
+    /**
+     * Closes the bank and deletes its files.
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        handler.close();
+        BenchmarkSupport.deleteTree(directory);
+    }
+
+    /**
+     * Applies the transaction file once, then saves the bank.
+     * @return the processing report
+     * @throws IOException if the transaction file cannot be read
+     */
+    @Benchmark
+    public TransactionFileProcessor.Report round() throws IOException {
+        report = processor.process(transactions.toString());
+        handler.saveCustomerData();
+        return report;
+    }
+}
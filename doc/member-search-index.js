@@ -1 +0,0 @@
-memberSearchIndex = [{"p":"<Unnamed>","c":"Account","l":"Account()","u":"%3Cinit%3E()"},{"p":"<Unnamed>","c":"Account","l":"Account(String, double)","u":"%3Cinit%3E(java.lang.String,double)"},{"p":"<Unnamed>","c":"Account","l":"accountNumber"},{"p":"<Unnamed>","c":"Account","l":"balance"},{"p":"<Unnamed>","c":"BankOperations","l":"BankOperations(Map<String, Customer>, TransactionLog)","u":"%3Cinit%3E(java.util.Map,TransactionLog)"},{"p":"<Unnamed>","c":"Credit","l":"borrow(double)"},{"p":"<Unnamed>","c":"Checkings","l":"Checkings(String, double)","u":"%3Cinit%3E(java.lang.String,double)"},{"p":"<Unnamed>","c":"Credit","l":"Credit(String, double, double)","u":"%3Cinit%3E(java.lang.String,double,double)"},{"p":"<Unnamed>","c":"CSVHandler","l":"CSVHandler()","u":"%3Cinit%3E()"},{"p":"<Unnamed>","c":"Customer","l":"Customer(String, String)","u":"%3Cinit%3E(java.lang.String,java.lang.String)"},{"p":"<Unnamed>","c":"Account","l":"deposit(double)"},{"p":"<Unnamed>","c":"TransactionLog","l":"exitUpdate()"},{"p":"<Unnamed>","c":"Account","l":"getAccountNumber()"},{"p":"<Unnamed>","c":"Person","l":"getAccounts()"},{"p":"<Unnamed>","c":"Account","l":"getBalance()"},{"p":"<Unnamed>","c":"Credit","l":"getCreditLimit()"},{"p":"<Unnamed>","c":"Customer","l":"getCustomerID()"},{"p":"<Unnamed>","c":"TransactionLog","l":"getLogEntries()"},{"p":"<Unnamed>","c":"Person","l":"getName()"},{"p":"<Unnamed>","c":"Credit","l":"getPrinciple()"},{"p":"<Unnamed>","c":"BankOperations","l":"handleBankManager()"},{"p":"<Unnamed>","c":"BankOperations","l":"handleCustomer()"},{"p":"<Unnamed>","c":"Person","l":"inquireAccount(String)","u":"inquireAccount(java.lang.String)"},{"p":"<Unnamed>","c":"Person","l":"inquireAccount(String, Map<String, Customer>)","u":"inquireAccount(java.lang.String,java.util.Map)"},{"p":"<Unnamed>","c":"Person","l":"inquireAccount(String, String, Map<String, Customer>)","u":"inquireAccount(java.lang.String,java.lang.String,java.util.Map)"},{"p":"<Unnamed>","c":"Person","l":"inquireAllAccounts()"},{"p":"<Unnamed>","c":"Account","l":"inquireBalance()"},{"p":"<Unnamed>","c":"CSVHandler","l":"loadCustomerData()"},{"p":"<Unnamed>","c":"TransactionLog","l":"logTransaction(String)","u":"logTransaction(java.lang.String)"},{"p":"<Unnamed>","c":"RunBank","l":"main(String[])","u":"main(java.lang.String[])"},{"p":"<Unnamed>","c":"Credit","l":"pay(double)"},{"p":"<Unnamed>","c":"Person","l":"pay(Person, Account, Account, double)","u":"pay(Person,Account,Account,double)"},{"p":"<Unnamed>","c":"Person","l":"Person(String)","u":"%3Cinit%3E(java.lang.String)"},{"p":"<Unnamed>","c":"RunBank","l":"RunBank()","u":"%3Cinit%3E()"},{"p":"<Unnamed>","c":"CSVHandler","l":"saveCustomerData(Map<String, Customer>)","u":"saveCustomerData(java.util.Map)"},{"p":"<Unnamed>","c":"Savings","l":"Savings(String, double)","u":"%3Cinit%3E(java.lang.String,double)"},{"p":"<Unnamed>","c":"Person","l":"setAccounts(List<Account>)","u":"setAccounts(java.util.List)"},{"p":"<Unnamed>","c":"Account","l":"setBalance(double)"},{"p":"<Unnamed>","c":"Credit","l":"setCreditLimit(double)"},{"p":"<Unnamed>","c":"Customer","l":"setCustomerID(String)","u":"setCustomerID(java.lang.String)"},{"p":"<Unnamed>","c":"Person","l":"setName(String)","u":"setName(java.lang.String)"},{"p":"<Unnamed>","c":"Credit","l":"setPrinciple(double)"},{"p":"<Unnamed>","c":"Account","l":"setTransactionLog(TransactionLog)"},{"p":"<Unnamed>","c":"Checkings","l":"tansfer(Account, double)","u":"tansfer(Account,double)"},{"p":"<Unnamed>","c":"Savings","l":"tansfer(Account, double)","u":"tansfer(Account,double)"},{"p":"<Unnamed>","c":"TransactionLog","l":"TransactionLog()","u":"%3Cinit%3E()"},{"p":"<Unnamed>","c":"Account","l":"withdraw(double)"}];updateSearchResults();
\ No newline at end of file
@@ -1 +0,0 @@
-tagSearchIndex = [];updateSearchResults();
\ No newline at end of file
@@ -1 +0,0 @@
-typeSearchIndex = [{"p":"<Unnamed>","l":"Account"},{"l":"All Classes and Interfaces","u":"allclasses-index.html"},{"p":"<Unnamed>","l":"BankOperations"},{"p":"<Unnamed>","l":"Checkings"},{"p":"<Unnamed>","l":"Credit"},{"p":"<Unnamed>","l":"CSVHandler"},{"p":"<Unnamed>","l":"Customer"},{"p":"<Unnamed>","l":"Person"},{"p":"<Unnamed>","l":"RunBank"},{"p":"<Unnamed>","l":"Savings"},{"p":"<Unnamed>","l":"TransactionLog"}];updateSearchResults();
\ No newline at end of file
@@ -1,18 +1,23 @@
+package bank;
+
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
 
 public class AccountTest {
-    private Checking checkingAccount;
+    private Checkings checkingAccount;
     private Savings savingsAccount;
     private Credit creditAccount;
     
     @BeforeEach
     void setUp() {
-        checkingAccount = new Checking("CHK001", 1000.0);
-        savingsAccount = new Savings("SAV001", 2000.0);
-        creditAccount = new Credit("CRD001", 0.0, 5000.0);
+        checkingAccount = new Checkings("1001", 100_000);
+        savingsAccount = new Savings("2001", 200_000);
+        creditAccount = new Credit("3001", 0, 500_000);
     }
     
     @AfterEach
@@ -24,24 +29,41 @@ public class AccountTest {
     
     @Test
     void testValidDeposit() {
-        checkingAccount.deposit(500.0);
-        assertEquals(1500.0, checkingAccount.getBalance(), 0.001);
+        checkingAccount.deposit(50_000);
+        assertEquals(150_000, checkingAccount.getBalance());
     }
     
     @Test
     void testZeroDeposit() {
         Exception exception = assertThrows(IllegalArgumentException.class, () ->
-            checkingAccount.deposit(0.0));
-        assertEquals("Not Valid Amount: Deposit amount must be positive", 
-                    exception.getMessage());
+            checkingAccount.deposit(0));
+        assertEquals("Deposit amount must be positive", exception.getMessage());
     }
     
     @Test
     void testNegativeDeposit() {
         Exception exception = assertThrows(IllegalArgumentException.class, () ->
-            checkingAccount.deposit(-100.0));
-        assertEquals("Not Valid Amount: Deposit amount must be positive", 
-                    exception.getMessage());
+            checkingAccount.deposit(-10_000));
+        assertEquals("Deposit amount must be positive", exception.getMessage());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testFailedBalanceLogLeavesBalancesUnchanged(@TempDir Path directory) throws Exception {
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.close();
+        Account.setBalanceLog(log);
+        try {
+            assertThrows(IllegalStateException.class, () -> checkingAccount.deposit(50_000));
+            assertThrows(IllegalStateException.class, () -> savingsAccount.withdraw(50_000));
+            assertThrows(IllegalStateException.class, () -> creditAccount.borrow(50_000));
+            assertThrows(IllegalStateException.class, () -> creditAccount.pay(50_000));
+            assertThrows(IllegalStateException.class, () -> checkingAccount.setBalance(0));
+        } finally {
+            Account.setBalanceLog(null);
+        }
+        assertEquals(100_000, checkingAccount.getBalance());
+        assertEquals(200_000, savingsAccount.getBalance());
+        assertEquals(0, creditAccount.getBalance());
+        assertEquals(0, creditAccount.getPrinciple());
+    }
+}
@@ -0,0 +1,173 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BankServerTest {
+    private static final int CLIENTS = 32;
+
+    private TransactionLog log;
+    private BankServer server;
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) throws IOException {
+        AccountTable.setShared(new AccountTable());
+        CustomerStore customers = new CustomerStore();
+        customers.addAll(List.of(
+            customer("Ada Lovelace", "1", new Checkings("1001", 100_000), new Savings("2001", 50_000)),
+            customer("Alan Turing", "2", new Checkings("1002", 20_000))));
+        log = new TransactionLog(directory.resolve("transaction_logs"), TransactionLog.Durability.FLUSH_PER_BATCH,
+            64, 10, 1024, 100, 1 << 20);
+        server = new BankServer(customers, log, 0, 4);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        log.close();
+    }
+
+    private static Customer customer(String name, String id, Account... accounts) {
+        Customer customer = new Customer(name, id);
+        customer.setAccounts(new ArrayList<>(List.of(accounts)));
+        return customer;
+    }
+
+    //one connection to the server
+    private class Client implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        Client() throws IOException {
+            socket = new Socket("localhost", server.getPort());
+            socket.setSoTimeout(10_000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        String send(String request) throws IOException {
+            out.write(request + "\n");
+            out.flush();
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    void testCustomerRequestsRoundTrip() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("ERROR Log in first with LOGIN customerID", client.send("INQUIRE"));
+            assertEquals("ERROR Customer not found", client.send("LOGIN 99"));
+            assertEquals("OK Ada Lovelace", client.send("LOGIN 1"));
+            assertEquals("OK Checkings 1001 1000.00 | Savings 2001 500.00", client.send("inquire"));
+            assertEquals("OK 1012.50", client.send("DEPOSIT 1001 12.50"));
+            assertEquals("OK 490.00", client.send("WITHDRAW 2001 10"));
+            assertEquals("OK 912.50", client.send("TRANSFER 1001 2001 100"));
+            assertEquals("OK 580.00", client.send("PAY 2001 1002 10.00"));
+            assertEquals("OK Checkings 1001 912.50 | Savings 2001 580.00", client.send("INQUIRE"));
+
+            //errors leave the balances and the session as they were
+            assertTrue(client.send("WITHDRAW 2001 5000").startsWith("ERROR "));
+            assertEquals("ERROR Account 1002 is not yours", client.send("DEPOSIT 1002 5"));
+            assertEquals("ERROR Recipient account not found", client.send("PAY 1001 9999 5"));
+            assertTrue(client.send("DEPOSIT 1001 abc").startsWith("ERROR "));
+            assertEquals("ERROR Usage: TRANSFER from to amount", client.send("TRANSFER 1001 2001"));
+            assertEquals("ERROR Unknown request BALANCE", client.send("BALANCE"));
+            assertEquals("ERROR Empty request", client.send(""));
+            assertEquals("ERROR Start a manager session first with MANAGER", client.send("ACCOUNT 1002"));
+            assertEquals("OK Checkings 1001 912.50 | Savings 2001 580.00", client.send("INQUIRE"));
+
+            log.flush();
+            String history = client.send("HISTORY 1001 2");
+            assertTrue(history.startsWith("OK "), history);
+            assertEquals(2, history.split(" \\| ").length, history);
+
+            assertEquals("OK Goodbye", client.send("QUIT"));
+            assertNull(client.in.readLine());
+        }
+    }
+
+    @Test
+    void testManagerRequestsRoundTrip() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("OK Bank manager", client.send("MANAGER"));
+            assertEquals("OK Alan Turing | Checkings 1002 200.00", client.send("ACCOUNT 1002"));
+            assertEquals("ERROR Account not found", client.send("ACCOUNT 9999"));
+            assertEquals("OK 1 Ada Lovelace 1001 1000.00 2001 500.00", client.send("FIND Ada Nobody"));
+            assertEquals("ERROR No customers found with that name", client.send("FIND Grace Hopper"));
+            //a manager session is not a customer's
+            assertEquals("ERROR Log in first with LOGIN customerID", client.send("INQUIRE"));
+        }
+    }
+
+    @Test
+    void testPipelinedRequestsAnsweredInOrder() throws IOException {
+        try (Client client = new Client()) {
+            StringBuilder requests = new StringBuilder("LOGIN 2\n");
+            for (int i = 1; i <= 100; i++) {
+                requests.append("DEPOSIT 1002 1\n");
+            }
+            client.out.write(requests.toString());
+            client.out.flush();
+            assertEquals("OK Alan Turing", client.in.readLine());
+            for (int i = 1; i <= 100; i++) {
+                assertEquals("OK " + Money.format(20_000 + i * 100), client.in.readLine());
+            }
+        }
+    }
+
+    @Test
+    void testLineTooLongRejected() throws IOException {
+        try (Client client = new Client()) {
+            //exactly a full buffer with no line break, so the server reads all of it before closing
+            char[] request = new char[1024];
+            Arrays.fill(request, 'x');
+            client.out.write(request);
+            client.out.flush();
+            assertEquals("ERROR Request too long", client.in.readLine());
+            assertNull(client.in.readLine());
+        }
+    }
+
+    @Test
+    void testConcurrentSessionsSeeEveryChange() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<?>> sessions = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            sessions.add(pool.submit(() -> {
+                try (Client client = new Client()) {
+                    assertEquals("OK Alan Turing", client.send("LOGIN 2"));
+                    for (int i = 0; i < 20; i++) {
+                        assertTrue(client.send("DEPOSIT 1002 0.01").startsWith("OK "));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> session : sessions) {
+            session.get(1, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+        try (Client client = new Client()) {
+            client.send("MANAGER");
+            assertEquals("OK Alan Turing | Checkings 1002 " + Money.format(20_000 + CLIENTS * 20),
+                client.send("ACCOUNT 1002"));
+        }
+    }
+}
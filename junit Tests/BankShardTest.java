@@ -0,0 +1,126 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+public class BankShardTest {
+    private static final long ACCOUNT = 1001;
+    private static final long START_BALANCE = 100_000;
+
+    private BankShard shard;
+
+    @AfterEach
+    void tearDown() {
+        if (shard != null) {
+            shard.close();
+        }
+    }
+
+    //opens the shard as at startup; closing it without a checkpoint stands in for a crash
+    private BankShard restart(Path directory) throws IOException {
+        if (shard != null) {
+            shard.close();
+        }
+        shard = new BankShard(0, directory);
+        shard.recover();
+        return shard;
+    }
+
+    private Account account(long accountNumber) {
+        return shard.getLedger().view(shard.getLedger().findRow(accountNumber));
+    }
+
+    private static Path walDirectory(Path directory) {
+        return directory.resolve("balance_wal");
+    }
+
+    @Test
+    void testTornTailIsDropped(@TempDir Path directory) throws IOException {
+        restart(directory).getLedger().add(AccountTable.CHECKINGS, ACCOUNT, START_BALANCE, 0);
+        shard.getLedger().force();
+        account(ACCOUNT).deposit(2500);
+        account(ACCOUNT).withdraw(1000);
+
+        //a crash part way through the next record leaves some of its bytes
+        List<Long> segments = WriteAheadLog.listSegments(walDirectory(directory));
+        Path segment = walDirectory(directory).resolve(
+            String.format("balance-%06d.wal", segments.get(segments.size() - 1)));
+        shard.close();
+        shard = null;
+        Files.write(segment, new byte[] {0, 0, 0, 0, 0, 0, 3, (byte) 0xE9, 0, 0, 0}, StandardOpenOption.APPEND);
+        assertEquals(Map.of(ACCOUNT, 1500L), WriteAheadLog.readChanges(walDirectory(directory), 0, Long.MAX_VALUE));
+
+        restart(directory);
+        assertEquals(START_BALANCE + 1500, account(ACCOUNT).getBalance());
+        assertEquals(START_BALANCE + 1500, account(ACCOUNT).getSavedBalance());
+
+        //logging carries on after the recovered tail
+        account(ACCOUNT).deposit(100);
+        restart(directory);
+        assertEquals(START_BALANCE + 1600, account(ACCOUNT).getBalance());
+    }
+
+    @Test
+    void testCrashBetweenSnapshotAndSegmentDeleteAppliesChangesOnce(@TempDir Path directory) throws IOException {
+        restart(directory).getLedger().add(AccountTable.CHECKINGS, ACCOUNT, START_BALANCE, 0);
+        shard.getLedger().force();
+        account(ACCOUNT).deposit(2500);
+        shard.close();
+        shard = null;
+
+        //the checkpoint wrote its snapshot, then stopped before deleting the folded segments
+        List<Long> segments = WriteAheadLog.listSegments(walDirectory(directory));
+        long lastSegment = segments.get(segments.size() - 1);
+        new BalanceSnapshot(lastSegment, new HashMap<>(Map.of(ACCOUNT, START_BALANCE + 2500)))
+            .write(walDirectory(directory).resolve("balances.snapshot"));
+        assertFalse(WriteAheadLog.readChanges(walDirectory(directory), 0, lastSegment).isEmpty());
+
+        restart(directory);
+        assertEquals(START_BALANCE + 2500, account(ACCOUNT).getBalance());
+        assertFalse(Files.exists(walDirectory(directory).resolve("balances.snapshot")));
+        assertTrue(WriteAheadLog.readChanges(walDirectory(directory), 0, lastSegment).isEmpty());
+
+        //the same snapshot left after it reached the ledger only writes the same balance again
+        account(ACCOUNT).withdraw(500);
+        shard.checkpoint();
+        long checkpointed = WriteAheadLog.listSegments(walDirectory(directory)).get(0) - 1;
+        new BalanceSnapshot(checkpointed, new HashMap<>(Map.of(ACCOUNT, START_BALANCE + 2000)))
+            .write(walDirectory(directory).resolve("balances.snapshot"));
+        restart(directory);
+        assertEquals(START_BALANCE + 2000, account(ACCOUNT).getBalance());
+    }
+
+    @Test
+    void testPendingChangesWaitForTheirAccount(@TempDir Path directory) throws IOException {
+        long onboarded = 1002;
+        restart(directory).getLedger().add(AccountTable.CHECKINGS, ACCOUNT, START_BALANCE, 0);
+        shard.getLedger().force();
+        //an account onboarded just before a crash: its change is logged, its row never reached the ledger
+        shard.getLedger().getBalanceLog().log(onboarded, 7000);
+        account(ACCOUNT).deposit(300);
+
+        restart(directory);
+        assertEquals(START_BALANCE + 300, account(ACCOUNT).getBalance());
+        assertEquals(-1, shard.getLedger().findRow(onboarded));
+        assertEquals(1, shard.applyPending());
+
+        //still pending after another crash, and applied once the customer csv adds the account back
+        restart(directory);
+        assertEquals(1, shard.applyPending());
+        shard.getLedger().add(AccountTable.CHECKINGS, onboarded, 50_000, 0);
+        assertEquals(0, shard.applyPending());
+        assertEquals(57_000, account(onboarded).getBalance());
+        assertEquals(57_000, account(onboarded).getSavedBalance());
+
+        restart(directory);
+        assertEquals(0, shard.applyPending());
+        assertEquals(57_000, account(onboarded).getBalance());
+        assertEquals(START_BALANCE + 300, account(ACCOUNT).getBalance());
+    }
+}
@@ -0,0 +1,121 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class CSVReaderTest {
+
+    private static CSVReader reader(String text) {
+        return new CSVReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<List<String>> readAll(CSVReader reader, List<Long> lines) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        while (reader.next()) {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < reader.getFieldCount(); i++) {
+                fields.add(reader.getString(i));
+            }
+            records.add(fields);
+            lines.add(reader.getLineNumber());
+        }
+        return records;
+    }
+
+    @Test
+    void testEscapedQuotesAndSeparatorsInsideQuotes() throws IOException {
+        List<Long> lines = new ArrayList<>();
+        List<List<String>> records = readAll(reader(
+            "\"He said \"\"hi\"\"\",\"a,b\",\"\"\n\"\"\"\",plain\n"), lines);
+        assertEquals(List.of(List.of("He said \"hi\"", "a,b", ""), List.of("\"", "plain")), records);
+        assertEquals(List.of(1L, 2L), lines);
+    }
+
+    @Test
+    void testLineBreaksInsideQuotesCountOnce() throws IOException {
+        //the same records with LF, CRLF and CR-only line breaks, inside and between records
+        for (String lineBreak : List.of("\n", "\r\n", "\r")) {
+            String text = "id,\"first" + lineBreak + "second" + lineBreak + "third\"" + lineBreak
+                + "next,value" + lineBreak + "\"a" + lineBreak + "b\",c" + lineBreak + "last,row";
+            List<Long> lines = new ArrayList<>();
+            List<List<String>> records = readAll(reader(text), lines);
+            String name = lineBreak.equals("\n") ? "LF" : lineBreak.equals("\r") ? "CR" : "CRLF";
+            assertEquals(List.of(List.of("id", "first" + lineBreak + "second" + lineBreak + "third"),
+                List.of("next", "value"), List.of("a" + lineBreak + "b", "c"), List.of("last", "row")),
+                records, name);
+            assertEquals(List.of(1L, 4L, 5L, 7L), lines, name);
+        }
+    }
+
+    @Test
+    void testBufferRangeStartsAtGivenLine() throws IOException {
+        byte[] bytes = "skip\r\n\"x\r\ny\",1\r\nz,2\r\n".getBytes(StandardCharsets.UTF_8);
+        CSVReader reader = new CSVReader(ByteBuffer.wrap(bytes), 6, bytes.length, 2);
+        List<Long> lines = new ArrayList<>();
+        assertEquals(List.of(List.of("x\r\ny", "1"), List.of("z", "2")), readAll(reader, lines));
+        assertEquals(List.of(2L, 4L), lines);
+    }
+
+    private static long cents(String field) throws IOException {
+        CSVReader reader = reader(field + ",end\n");
+        assertTrue(reader.next());
+        return reader.getCents(0);
+    }
+
+    private static double number(String field) throws IOException {
+        CSVReader reader = reader(field + ",end\n");
+        assertTrue(reader.next());
+        return reader.getDouble(0);
+    }
+
+    @Test
+    void testCentsRoundHalfUpAwayFromZero() throws IOException {
+        assertEquals(123_456, cents("1234.56"));
+        assertEquals(-128_968, cents("-1289.68"));
+        assertEquals(500, cents("+5"));
+        assertEquals(50, cents("0.5"));
+        assertEquals(710, cents(" 7.10 "));
+        assertEquals(1235, cents("12.345"));
+        assertEquals(1234, cents("12.3449"));
+        assertEquals(-1235, cents("-12.345"));
+        assertEquals(100, cents("0.995"));
+        assertEquals(-1, cents("-0.005"));
+        assertEquals(0, cents("-0.00"));
+    }
+
+    @Test
+    void testCentsMatchMoneyParseOnEveryPath() throws IOException {
+        //long digit runs, dollar signs and quoted fields leave the fast path for Money.parse
+        for (String amount : List.of("1234567890.123456789", "9999999999999999.99", "99999999999999.995",
+                "-0.0000000000000000005", "$20", "-$3.50", "1234567890123456")) {
+            assertEquals(Money.parse(amount), cents(amount), amount);
+            assertEquals(Money.parse(amount), cents("\"" + amount + "\""), amount);
+        }
+        assertEquals(999_999_999_999_999_999L, cents("9999999999999999.99"));
+    }
+
+    @Test
+    void testCentsRejectsWhatMoneyParseRejects() {
+        for (String amount : List.of("", "abc", "1e3", "1.2.3", "12,5", "--1", "$")) {
+            assertThrows(NumberFormatException.class, () -> cents("\"" + amount + "\""), amount);
+        }
+        //too many dollars to count in cents
+        assertThrows(NumberFormatException.class, () -> cents("99999999999999999"));
+    }
+
+    @Test
+    void testDoubleParsedExactlyOrThroughTheStandardParser() throws IOException {
+        assertEquals(-1289.68, number("-1289.68"));
+        assertEquals(0.1, number("0.1"));
+        assertEquals(42.0, number("+42"));
+        assertEquals(1000.0, number("1e3"));
+        assertEquals(Double.parseDouble("12345678901234567890.5"), number("12345678901234567890.5"));
+        assertEquals(Double.parseDouble("0.12345678901234567890123"), number("0.12345678901234567890123"));
+        assertThrows(NumberFormatException.class, () -> number("abc"));
+    }
+}
@@ -0,0 +1,75 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class CSVSplitterTest {
+    //quoted fields with embedded line breaks of every style, escaped quotes and separators
+    private static final String CSV = "ID,Name,Note\n"
+        + "1,\"Lovelace, Ada\",\"first line\nsecond line\"\n"
+        + "2,Turing,\"says \"\"hi\"\"\r\nthen \"\"bye\"\"\"\r\n"
+        + "3,\"Hopper\",\"\n\"\n"
+        + "4,Knuth,\"cr\ronly\"\r"
+        + "5,\"\"\"quoted\"\"\",plain\n"
+        + "6,Last,\"no newline at the end\"";
+
+    private static List<String> parse(CSVReader reader) throws IOException {
+        List<String> records = new ArrayList<>();
+        while (reader.next()) {
+            StringBuilder record = new StringBuilder().append(reader.getLineNumber());
+            for (int i = 0; i < reader.getFieldCount(); i++) {
+                record.append('|').append(reader.getString(i));
+            }
+            records.add(record.toString());
+        }
+        return records;
+    }
+
+    private static List<String> parseChunks(FileChannel channel, List<CSVSplitter.Chunk> chunks) throws IOException {
+        List<String> records = new ArrayList<>();
+        long expectedStart = 0;
+        for (CSVSplitter.Chunk chunk : chunks) {
+            assertEquals(expectedStart, chunk.getStart(), "Chunks must cover the file without gaps");
+            expectedStart = chunk.getEnd();
+            records.addAll(parse(chunk.open(channel)));
+        }
+        assertEquals(channel.size(), expectedStart);
+        return records;
+    }
+
+    @Test
+    void testSplitAtEveryOffsetMatchesSingleParse(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("customers.csv");
+        Files.write(file, CSV.getBytes(StandardCharsets.UTF_8));
+        List<String> expected;
+        try (CSVReader reader = new CSVReader(Files.newInputStream(file))) {
+            expected = parse(reader);
+        }
+        assertEquals(7, expected.size());
+        assertEquals("2|1|Lovelace, Ada|first line\nsecond line", expected.get(1));
+        assertEquals("8|4|Knuth|cr\ronly", expected.get(4));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long cut = 0; cut <= size; cut++) {
+                List<CSVSplitter.Chunk> chunks = CSVSplitter.splitAt(channel, new long[] {0, cut, size});
+                assertEquals(expected, parseChunks(channel, chunks), "Cut at " + cut);
+            }
+
+            //every byte its own range, so every cut lands inside or between records at once
+            long[] everyByte = new long[(int) size + 1];
+            for (int i = 0; i <= size; i++) {
+                everyByte[i] = i;
+            }
+            assertEquals(expected, parseChunks(channel, CSVSplitter.splitAt(channel, everyByte)));
+            assertEquals(expected, parseChunks(channel, CSVSplitter.split(channel, 8)));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CustomerOnboardingTest {
+    private static final int THREADS = 8;
+    private static final int CUSTOMERS_PER_THREAD = 250;
+
+    private CustomerStore customers;
+    private CustomerOnboarding onboarding;
+
+    @BeforeEach
+    void setUp() {
+        AccountTable.setShared(new AccountTable());
+        customers = new CustomerStore();
+        onboarding = new CustomerOnboarding(customers, null);
+    }
+
+    private Customer create(String firstName, String lastName) throws IOException {
+        return onboarding.createCustomer(firstName, lastName, "01/01/2000", "500 W University Ave",
+            "(915) 555-0100", 10_000, 20_000, 50_000);
+    }
+
+    private static Set<String> numbers(Customer customer) {
+        Set<String> numbers = new HashSet<>();
+        for (Account account : customer.getAccounts()) {
+            numbers.add(account.getAccountNumber());
+        }
+        return numbers;
+    }
+
+    @Test
+    void testSamePersonOnboardedTwiceGetsTwoCustomers() throws IOException {
+        Customer first = create("Ada", "Lovelace");
+        Customer second = create("Ada", "Lovelace");
+
+        assertNotEquals(first.getCustomerID(), second.getCustomerID());
+        Set<String> firstNumbers = numbers(first);
+        assertEquals(3, firstNumbers.size());
+        for (String number : numbers(second)) {
+            assertFalse(firstNumbers.contains(number), number);
+        }
+        //neither replaces the other
+        assertSame(first, customers.getById(first.getCustomerID()));
+        assertSame(second, customers.getById(second.getCustomerID()));
+        assertEquals(2, customers.findByFullName("Ada Lovelace").size());
+        assertEquals(6, customers.getAccountRegistry().size());
+        assertSame(first, customers.getAccountRegistry().getOwner(first.getAccounts().get(0).getAccountKey()));
+    }
+
+    @Test
+    void testConcurrentOnboardingNeverReusesNumbers() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<Customer>>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(pool.submit(() -> {
+                List<Customer> created = new ArrayList<>();
+                for (int i = 0; i < CUSTOMERS_PER_THREAD; i++) {
+                    //every thread onboards the same people
+                    created.add(create("Grace", "Hopper" + i));
+                }
+                return created;
+            }));
+        }
+        Set<String> ids = new HashSet<>();
+        Set<String> numbers = new HashSet<>();
+        for (Future<List<Customer>> result : results) {
+            for (Customer customer : result.get(1, TimeUnit.MINUTES)) {
+                assertTrue(ids.add(customer.getCustomerID()), "Id used twice: " + customer.getCustomerID());
+                for (String number : numbers(customer)) {
+                    assertTrue(numbers.add(number), "Account number used twice: " + number);
+                }
+            }
+        }
+        pool.shutdown();
+
+        int total = THREADS * CUSTOMERS_PER_THREAD;
+        assertEquals(total, ids.size());
+        assertEquals(total, customers.getCustomers().size());
+        assertEquals(3 * total, customers.getAccountRegistry().size());
+        assertEquals(THREADS, customers.findByFullName("Grace Hopper7").size());
+    }
+
+    @Test
+    void testNumbersStartAfterThoseInUse() throws IOException {
+        Customer existing = new Customer("Alan Turing", "103");
+        existing.setAccounts(new ArrayList<>(List.of(new Checkings("1000000041", 0), new Savings("2103", 0))));
+        customers.add(existing);
+
+        Customer created = create("Ada", "Lovelace");
+        assertEquals("104", created.getCustomerID());
+        assertEquals(Set.of("1000000042", "2000000042", "3000000042"), numbers(created));
+    }
+
+    @Test
+    void testImportFileSkipsBadRowsAndKeepsNumbersUnique(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("new_customers.csv");
+        Files.write(file, List.of(
+            "First Name,Last Name,Date of Birth,Address,Phone Number,Checking Starting Balance,"
+                + "Savings Starting Balance,Credit Max",
+            "Ada,Lovelace,10-Dec-15,\"12 St James's Square, London\",(915) 555-0101,100.00,200.00,500",
+            ",Nobody,01-Jan-00,Nowhere,(915) 555-0102,1,1,1",
+            "Alan,Turing,23-Jun-12,Wilmslow,(915) 555-0103,-5,0,0",
+            "Grace,Hopper,09-Dec-06,Arlington",
+            "Ada,Lovelace,10-Dec-15,\"12 St James's Square, London\",(915) 555-0101,100.00,200.00,500"),
+            StandardCharsets.UTF_8);
+
+        assertEquals(2, onboarding.importFile(file.toString()));
+        List<Customer> imported = customers.findByFullName("Ada Lovelace");
+        assertEquals(2, imported.size());
+        assertNotEquals(imported.get(0).getCustomerID(), imported.get(1).getCustomerID());
+        assertEquals(10_000, imported.get(0).getAccounts().get(0).getBalance());
+        assertEquals(20_000, imported.get(0).getAccounts().get(1).getBalance());
+
+        //a customer created afterwards continues the sequences
+        Customer created = create("Alan", "Turing");
+        assertEquals(3, customers.getCustomers().size());
+        assertEquals(9, customers.getAccountRegistry().size());
+        assertFalse(numbers(imported.get(1)).contains(created.getAccounts().get(0).getAccountNumber()));
+    }
+}
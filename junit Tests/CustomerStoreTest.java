@@ -0,0 +1,74 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+public class CustomerStoreTest {
+    private CustomerStore customers;
+
+    @BeforeEach
+    void setUp() {
+        AccountTable.setShared(new AccountTable());
+        customers = new CustomerStore();
+    }
+
+    private static Customer customer(String name, String id, Account... accounts) {
+        Customer customer = new Customer(name, id);
+        customer.setAccounts(new ArrayList<>(List.of(accounts)));
+        return customer;
+    }
+
+    @Test
+    void testReplacedCustomerAccountsLeaveTheRegistry() {
+        Account kept = new Checkings("1000000001", 100_000);
+        Customer original = customer("Ada Lovelace", "1", kept, new Savings("2000000001", 50_000));
+        Customer other = customer("Alan Turing", "2", new Checkings("1000000002", 100_000));
+        customers.addAll(List.of(original, other));
+        AccountRegistry registry = customers.getAccountRegistry();
+        assertEquals(3, registry.size());
+
+        Account opened = new Savings("2000000003", 0);
+        Customer replacement = customer("Ada King", "1", kept, opened);
+        customers.add(replacement);
+
+        assertNull(registry.getAccount("2000000001"));
+        assertNull(registry.getOwner(2000000001L));
+        assertSame(replacement, registry.getOwner(1000000001L));
+        assertSame(opened, registry.getAccount(2000000003L));
+        assertSame(other, registry.getOwner(1000000002L));
+        assertEquals(3, registry.size());
+        assertEquals(List.of(replacement), customers.findByFullName("Ada King"));
+        assertTrue(customers.findByFullName("Ada Lovelace").isEmpty());
+    }
+
+    @Test
+    void testRegistryReusesAndDropsRemovedSlots() {
+        AccountRegistry registry = customers.getAccountRegistry();
+        //enough replacements to resize the table past the removed slots
+        for (int i = 0; i < 1000; i++) {
+            customers.add(customer("Ada Lovelace", "1", new Checkings(String.valueOf(1000000000L + i), i)));
+            assertEquals(1, registry.size());
+        }
+        Customer last = customers.getById("1");
+        customers.add(customer("Ada Lovelace", "1", last.getAccounts().get(0), new Savings("2000000000", 5)));
+        assertSame(last.getAccounts().get(0), registry.getAccount(1000000999L));
+        assertEquals(5, registry.getAccount(2000000000L).getBalance());
+        assertNull(registry.getAccount(1000000998L));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void testFailedBackgroundLoadFailsLookups() {
+        customers.loadInBackground(() -> {
+            throw new UncheckedIOException(new IOException("CSV is gone"));
+        });
+        IllegalStateException failure = assertThrows(IllegalStateException.class, () -> customers.getById("1"));
+        assertTrue(failure.getMessage().contains("CSV is gone"));
+        assertThrows(IllegalStateException.class, customers::awaitLoaded);
+        assertThrows(IllegalStateException.class, () -> customers.add(customer("Ada Lovelace", "1")));
+    }
+}
@@ -0,0 +1,124 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LatencyHistogramTest {
+    private static final int THREADS = 16;
+    private static final int PER_THREAD = 10_000;
+
+    //the bucket top is at or above the real value and less than a sixteenth over it
+    private static void assertClose(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + expected / 16,
+            "Expected about " + expected + " but was " + actual);
+    }
+
+    @Test
+    void testSmallLatenciesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("small");
+        for (long nanos = 0; nanos < 16; nanos++) {
+            histogram.record(nanos);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(16, snapshot.getCount());
+        assertEquals(7, snapshot.getPercentile(50));
+        assertEquals(15, snapshot.getPercentile(100));
+        assertEquals(0, snapshot.getPercentile(1));
+        assertEquals(7.5, snapshot.getMean());
+    }
+
+    @Test
+    void testPercentilesOfAUniformSpread() {
+        LatencyHistogram histogram = new LatencyHistogram("uniform");
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertClose(50_000_000, snapshot.getPercentile(50));
+        assertClose(90_000_000, snapshot.getPercentile(90));
+        assertClose(99_000_000, snapshot.getPercentile(99));
+        assertClose(99_900_000, snapshot.getPercentile(99.9));
+        //the top bucket is capped at the real maximum
+        assertEquals(100_000_000, snapshot.getPercentile(100));
+        assertEquals(100_000_000, snapshot.getMax());
+        assertEquals(50_000_500, snapshot.getMean(), 0.001);
+    }
+
+    @Test
+    void testTailOfASkewedSpread() {
+        LatencyHistogram histogram = new LatencyHistogram("skewed");
+        //99% fast operations and 1% stalls a thousand times slower
+        for (int i = 0; i < 99_000; i++) {
+            histogram.record(20_000 + i % 1000);
+        }
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(20_000_000 + i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertClose(20_505, snapshot.getPercentile(50));
+        assertClose(20_999, snapshot.getPercentile(99));
+        assertClose(20_899_000, snapshot.getPercentile(99.9));
+        assertEquals(20_999_000, snapshot.getMax());
+    }
+
+    @Test
+    void testNegativeAndHugeLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram("edges");
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 4);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(50));
+        //too large for a bucket of its own but still counted, and reported as the maximum
+        assertEquals(Long.MAX_VALUE / 4, snapshot.getPercentile(100));
+        assertEquals(Long.MAX_VALUE / 4, snapshot.getMax());
+    }
+
+    @Test
+    void testStripesAddUpToOneHistogram() throws Exception {
+        LatencyHistogram striped = new LatencyHistogram("striped");
+        LatencyHistogram single = new LatencyHistogram("single");
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            workers.add(pool.submit(() -> {
+                start.await();
+                //each thread records its own range, so every bucket gets counts from many stripes
+                for (int i = 0; i < PER_THREAD; i++) {
+                    striped.record((long) (i * THREADS + thread) * 100);
+                }
+                striped.recordFailure();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(1, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+        for (long value = 0; value < (long) THREADS * PER_THREAD; value++) {
+            single.record(value * 100);
+        }
+
+        LatencyHistogram.Snapshot merged = striped.snapshot();
+        LatencyHistogram.Snapshot expected = single.snapshot();
+        assertEquals((long) THREADS * PER_THREAD, merged.getCount());
+        assertEquals(THREADS, merged.getFailures());
+        assertEquals(expected.getMean(), merged.getMean());
+        assertEquals(expected.getMax(), merged.getMax());
+        for (double percentile : new double[] {1, 25, 50, 75, 90, 99, 99.9, 99.99, 100}) {
+            assertEquals(expected.getPercentile(percentile), merged.getPercentile(percentile), "p" + percentile);
+        }
+
+        striped.reset();
+        assertEquals(0, striped.getCount());
+        assertEquals(0, striped.getFailures());
+        assertEquals(0, striped.getMaxMicros());
+    }
+}
@@ -0,0 +1,90 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class MoneyTest {
+
+    @Test
+    void testParseWholeAndFractionalDollars() {
+        assertEquals(123_456, Money.parse("1234.56"));
+        assertEquals(150, Money.parse("1.5"));
+        assertEquals(700, Money.parse("7."));
+        assertEquals(5, Money.parse(".05"));
+        assertEquals(2000, Money.parse("$20"));
+        assertEquals(2000, Money.parse("+$20"));
+        assertEquals(1250, Money.parse("  12.50 "));
+        assertEquals(0, Money.parse("0"));
+    }
+
+    @Test
+    void testParseNegatives() {
+        assertEquals(-128_968, Money.parse("-1289.68"));
+        assertEquals(-50, Money.parse("-0.5"));
+        assertEquals(-350, Money.parse("-$3.50"));
+        assertEquals(0, Money.parse("-0.00"));
+    }
+
+    @Test
+    void testMoreThanTwoDecimalsRoundHalfUpAwayFromZero() {
+        assertEquals(1235, Money.parse("12.345"));
+        assertEquals(1234, Money.parse("12.3449"));
+        assertEquals(1235, Money.parse("12.34999"));
+        assertEquals(-1235, Money.parse("-12.345"));
+        assertEquals(100, Money.parse("0.995"));
+        assertEquals(-1, Money.parse("-0.005"));
+        assertEquals(0, Money.parse("0.0049999"));
+    }
+
+    @Test
+    void testParseOverflowBoundary() {
+        //the largest amount a long holds in cents, and the first cent past it
+        assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+        assertEquals(-Long.MAX_VALUE, Money.parse("-92233720368547758.07"));
+        assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.0749"));
+        for (String amount : List.of("92233720368547758.08", "92233720368547758.075", "92233720368547759",
+                "99999999999999999", "-92233720368547758.09", "123456789012345678901234567890")) {
+            assertThrows(NumberFormatException.class, () -> Money.parse(amount), amount);
+        }
+    }
+
+    @Test
+    void testParseRejectsWhatIsNotAnAmount() {
+        for (String amount : List.of("", " ", "abc", "1e3", "1.2.3", "12,5", "--1", "-", "$", "$-5", "5$",
+                "1 000", "0x10", ".", "NaN", "Infinity")) {
+            assertThrows(NumberFormatException.class, () -> Money.parse(amount), amount);
+        }
+    }
+
+    @Test
+    void testFormat() {
+        assertEquals("1234.56", Money.format(123_456));
+        assertEquals("-1289.68", Money.format(-128_968));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("0.00", Money.format(0));
+        assertEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    void testFormatThenParseGivesTheSameCents() {
+        Random random = new Random(13);
+        for (int i = 0; i < 10_000; i++) {
+            long cents = random.nextLong() / (1 + random.nextInt(1 << 20));
+            assertEquals(cents, Money.parse(Money.format(cents)));
+        }
+        assertEquals(Long.MAX_VALUE, Money.parse(Money.format(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testDoubleConversions() {
+        assertEquals(128_968, Money.fromDouble(1289.68));
+        assertEquals(-128_968, Money.fromDouble(-1289.68));
+        assertEquals(10, Money.fromDouble(0.1));
+        assertEquals(1289.68, Money.toDouble(128_968));
+        assertEquals(-0.05, Money.toDouble(-5));
+    }
+}
@@ -0,0 +1,206 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class PartitionExecutorTest {
+    private static final long START_BALANCE = 100_000;
+
+    private PartitionExecutor executor;
+    private Account first;
+    private Account second;
+
+    @BeforeEach
+    void setUp() {
+        executor = new PartitionExecutor(4, 256);
+        // consecutive customers land on different partitions
+        first = new Checkings(String.valueOf(WorkloadGenerator.checkingAccount(1)), START_BALANCE);
+        second = new Checkings(String.valueOf(WorkloadGenerator.checkingAccount(2)), START_BALANCE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+        Account.setBalanceLog(null);
+    }
+
+    @Test
+    void testCommandsOnOneAccountApplyInOrder() {
+        List<Long> balances = new ArrayList<>();
+        PartitionExecutor.Command[] commands = new PartitionExecutor.Command[1000];
+        for (int i = 0; i < commands.length; i++) {
+            //every third command takes out what the two before it put in
+            PartitionExecutor.Kind kind = i % 3 == 2 ? PartitionExecutor.Kind.WITHDRAW : PartitionExecutor.Kind.DEPOSIT;
+            commands[i] = new PartitionExecutor.Command(kind, first, first, i % 3 == 2 ? 300 : 150) {
+                @Override
+                protected void completed() {
+                    balances.add(isApplied() ? getBalance() : -1);
+                }
+            };
+        }
+        executor.submitAll(commands, commands.length);
+        executor.close();
+
+        assertEquals(commands.length, balances.size());
+        long expected = START_BALANCE;
+        for (int i = 0; i < commands.length; i++) {
+            expected += i % 3 == 2 ? -300 : 150;
+            assertEquals(expected, balances.get(i), "Command " + i + " applied out of order");
+        }
+        assertEquals(expected, first.getBalance());
+    }
+
+    @Test
+    void testTransferBetweenPartitionsLoggedAsOneGroup(@TempDir Path directory) throws Exception {
+        List<String> commits = Collections.synchronizedList(new ArrayList<>());
+        WriteAheadLog log = new WriteAheadLog(directory) {
+            @Override
+            public void logAll(long[] accountNumbers, long[] changes, boolean[] linked, int count) {
+                StringBuilder commit = new StringBuilder();
+                for (int i = 0; i < count; i++) {
+                    commit.append(accountNumbers[i]).append(' ').append(changes[i])
+                        .append(linked != null && linked[i] ? " + " : "; ");
+                }
+                commits.add(commit.toString());
+                super.logAll(accountNumbers, changes, linked, count);
+            }
+        };
+        Account.setBalanceLog(log);
+        assertNotEquals(executor.partitionOf(first), executor.partitionOf(second));
+
+        assertEquals(START_BALANCE - 25_000, PartitionExecutor.await(executor.transfer(first, second, 25_000)));
+        assertEquals(START_BALANCE + 25_000, second.getBalance());
+        //the source logs both sides, so the destination has nothing of its own to log or to fail
+        assertEquals(List.of(first.getAccountNumber() + " -25000 + " + second.getAccountNumber() + " 25000; "),
+            commits);
+        log.close();
+    }
+
+    @Test
+    void testFailedLogMidBatchNeverShowsUnloggedMoney(@TempDir Path directory) throws Exception {
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteAheadLog log = new WriteAheadLog(directory) {
+            @Override
+            public void logAll(long[] accountNumbers, long[] changes, boolean[] linked, int count) {
+                if (Thread.currentThread().getName().startsWith("partition-writer")) {
+                    committing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("Disk full");
+                }
+                super.logAll(accountNumbers, changes, linked, count);
+            }
+        };
+        Account.setBalanceLog(log);
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        PartitionExecutor.Command[] commands = {
+            recording(PartitionExecutor.Kind.DEPOSIT, null, first, 50_000, failures, done),
+            recording(PartitionExecutor.Kind.WITHDRAW, first, null, 30_000, failures, done),
+            recording(PartitionExecutor.Kind.TRANSFER, first, second, 10_000, failures, done)
+        };
+        executor.submitAll(commands, commands.length);
+        try {
+            assertTrue(committing.await(30, TimeUnit.SECONDS), "Batch never reached the log");
+
+            //the debits are out but the deposit is not on disk, so nobody can spend it
+            assertEquals(START_BALANCE - 40_000, first.getBalance());
+            assertEquals(START_BALANCE, second.getBalance());
+            assertThrows(IllegalArgumentException.class, () -> first.withdraw(START_BALANCE - 30_000));
+            first.withdraw(START_BALANCE - 40_000);
+            assertEquals(0, first.getBalance());
+        } finally {
+            release.countDown();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS), "Commands never completed");
+        assertEquals(3, failures.size());
+        for (String failure : failures) {
+            assertNotNull(failure);
+            assertTrue(failure.contains("Disk full"), failure);
+        }
+        //only the money the batch took out comes back, so the balance never goes below zero
+        assertEquals(40_000, first.getBalance());
+        assertEquals(START_BALANCE, second.getBalance());
+        log.close();
+    }
+
+    @Test
+    void testFailedBalanceLogFailsCommandsAndPartition(@TempDir Path directory) throws Exception {
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.close();
+        Account.setBalanceLog(log);
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(4);
+        PartitionExecutor.Command[] commands = {
+            recording(PartitionExecutor.Kind.DEPOSIT, null, first, 5000, failures, done),
+            recording(PartitionExecutor.Kind.WITHDRAW, second, null, 5000, failures, done),
+            recording(PartitionExecutor.Kind.TRANSFER, first, second, 5000, failures, done),
+            recording(PartitionExecutor.Kind.TRANSFER, second, first, 5000, failures, done)
+        };
+        //queued together, so no partition fails before every command is in
+        executor.submitAll(commands, commands.length);
+        assertTrue(done.await(30, TimeUnit.SECONDS), "Commands never completed");
+
+        for (String failure : failures) {
+            assertNotNull(failure);
+        }
+        assertEquals(START_BALANCE, first.getBalance());
+        assertEquals(START_BALANCE, second.getBalance());
+
+        //a failed partition rejects new commands instead of queueing them
+        Exception e = assertThrows(IllegalStateException.class, () -> executor.deposit(first, 5000));
+        assertTrue(e.getMessage().contains("failed"), e.getMessage());
+        assertEquals(START_BALANCE, first.getBalance());
+    }
+
+    private static PartitionExecutor.Command recording(PartitionExecutor.Kind kind, Account from, Account to,
+                                                       long amount, List<String> failures, CountDownLatch done) {
+        return new PartitionExecutor.Command(kind, from, to, amount) {
+            @Override
+            protected void completed() {
+                failures.add(isApplied() ? null : getFailure());
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    void testCloseAppliesQueuedCommands() {
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            results.add(executor.transfer(first, second, 100));
+            results.add(executor.deposit(first, 100));
+        }
+        executor.close();
+
+        for (CompletableFuture<Long> result : results) {
+            assertTrue(result.isDone());
+        }
+        assertEquals(START_BALANCE, first.getBalance());
+        assertEquals(START_BALANCE + 50_000, second.getBalance());
+        assertThrows(IllegalStateException.class, () -> executor.deposit(first, 100));
+    }
+
+    @Test
+    void testAwaitRethrowsRejection() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () ->
+            PartitionExecutor.await(executor.transfer(first, second, START_BALANCE + 1)));
+        assertEquals("Insufficient funds in " + first.getAccountNumber(), e.getMessage());
+        assertEquals(START_BALANCE, first.getBalance());
+        assertEquals(START_BALANCE, second.getBalance());
+        assertThrows(IllegalArgumentException.class, () -> executor.transfer(first, first, 1000));
+    }
+}
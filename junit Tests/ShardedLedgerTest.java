@@ -0,0 +1,87 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+public class ShardedLedgerTest {
+    private static final int SHARDS = 8;
+
+    @Test
+    void testCustomerAccountsShareAShard() {
+        for (long customer = 1; customer <= 999; customer++) {
+            int shard = ShardedLedger.shardOf(1000 + customer, SHARDS);
+            assertEquals(shard, ShardedLedger.shardOf(2000 + customer, SHARDS));
+            assertEquals(shard, ShardedLedger.shardOf(3000 + customer, SHARDS));
+            long onboarded = WorkloadGenerator.checkingAccount(customer);
+            assertEquals(ShardedLedger.shardOf(onboarded, SHARDS),
+                ShardedLedger.shardOf(WorkloadGenerator.savingsAccount(customer), SHARDS));
+        }
+    }
+
+    @Test
+    void testCustomerCsvSpreadsEvenly() {
+        // the customer csv numbers its accounts 1001 to 3103
+        int[] counts = new int[SHARDS];
+        for (long type = 1; type <= 3; type++) {
+            for (long customer = 1; customer <= 103; customer++) {
+                counts[ShardedLedger.shardOf(type * 1000 + customer, SHARDS)]++;
+            }
+        }
+        for (int count : counts) {
+            assertTrue(count >= 36 && count <= 39, "Shard holds " + count + " accounts");
+        }
+    }
+
+    @Test
+    void testCustomerSequence() {
+        assertEquals(42, ShardedLedger.customerSequence(1042));
+        assertEquals(42, ShardedLedger.customerSequence(3042));
+        assertEquals(107, ShardedLedger.customerSequence(1_000_000_107L));
+        assertEquals(0, ShardedLedger.customerSequence(7));
+        assertEquals(0, ShardedLedger.customerSequence(-5));
+    }
+
+    private static ShardedLedger restart(ShardedLedger ledger, Path directory) throws IOException {
+        if (ledger != null) {
+            ledger.close();
+        }
+        ShardedLedger reopened = ShardedLedger.open(directory, 2);
+        reopened.recover();
+        AccountTable.setShared(reopened.getTables());
+        return reopened;
+    }
+
+    @Test
+    void testTransferBetweenShardsRecoveredOnce(@TempDir Path directory) throws IOException {
+        long payer = 1001;
+        long payee = 1002;
+        ShardedLedger ledger = restart(null, directory);
+        try {
+            assertNotEquals(ledger.shardFor(payer), ledger.shardFor(payee));
+            ledger.shardFor(payer).getLedger().add(AccountTable.CHECKINGS, payer, 100_000, 0);
+            ledger.shardFor(payee).getLedger().add(AccountTable.CHECKINGS, payee, 100_000, 0);
+            ledger.force();
+            new TransferEngine(64).transfer(ledger.findAccount(payer), ledger.findAccount(payee), 2500);
+            assertFalse(WriteAheadLog.listSegments(directory.resolve("linked_wal")).isEmpty());
+
+            //closing without a checkpoint stands in for a crash
+            ledger = restart(ledger, directory);
+            assertEquals(97_500, ledger.findAccount(payer).getBalance());
+            assertEquals(102_500, ledger.findAccount(payee).getBalance());
+
+            //once every shard has folded the linked log, restarting again applies nothing twice
+            ledger.checkpoint();
+            ledger = restart(ledger, directory);
+            assertEquals(97_500, ledger.findAccount(payer).getSavedBalance());
+            assertEquals(102_500, ledger.findAccount(payee).getSavedBalance());
+            assertEquals(1, WriteAheadLog.listSegments(directory.resolve("linked_wal")).size());
+        } finally {
+            ledger.close();
+            AccountTable.setShared(new AccountTable());
+        }
+    }
+}
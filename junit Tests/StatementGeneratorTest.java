@@ -0,0 +1,75 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.YearMonth;
+import java.util.*;
+
+public class StatementGeneratorTest {
+    private TransactionLog log;
+    private BankServer server;
+
+    @AfterEach
+    void tearDown() {
+        Account.setTransactionLog(null);
+        if (server != null) {
+            server.stop();
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Test
+    void testEachOperationAppearsOnceOnTheStatement(@TempDir Path directory) throws IOException {
+        AccountTable.setShared(new AccountTable());
+        log = new TransactionLog(directory.resolve("log"), TransactionLog.Durability.FLUSH_PER_BATCH,
+            64, 10, 1024, 100, 1 << 20);
+        // accounts log their own deposits and withdrawals as well as the operation that made them
+        Account.setTransactionLog(log);
+        Customer customer = new Customer("Ada Lovelace", "1");
+        customer.setAccounts(new ArrayList<>(List.of(new Checkings("1000000001", 100_000),
+            new Savings("2000000001", 50_000), new Credit("3000000001", 0, 500_000))));
+        CustomerStore customers = new CustomerStore();
+        customers.add(customer);
+
+        server = new BankServer(customers, log, 0, 2);
+        server.start();
+        try (Socket socket = new Socket("localhost", server.getPort());
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            for (String request : List.of("LOGIN 1", "DEPOSIT 1000000001 12.50",
+                    "TRANSFER 1000000001 2000000001 5.00")) {
+                out.write(request + "\n");
+                out.flush();
+                assertTrue(in.readLine().startsWith("OK"), request);
+            }
+        }
+        log.flush();
+
+        Path statement = new StatementGenerator(customers, log, directory.resolve("statements"))
+            .generate(customer, YearMonth.now());
+        String text = Files.readString(statement);
+        assertEquals(1, count(text, "deposited $12.50"));
+        // shown once on each account it moved money between
+        assertEquals(2, count(text, "transferred $5.00"));
+        assertEquals(0, count(text, "Deposit of"));
+        assertEquals(0, count(text, "Withdrawal of"));
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,97 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class TransactionFileProcessorTest {
+    private AccountRegistry registry;
+    private Account adaChecking;
+    private Account adaSavings;
+    private Account alanChecking;
+
+    @BeforeEach
+    void setUp() {
+        AccountTable.setShared(new AccountTable());
+        adaChecking = new Checkings("1001", 100_000);
+        adaSavings = new Savings("2001", 50_000);
+        alanChecking = new Checkings("1002", 20_000);
+        registry = new AccountRegistry();
+        registry.registerCustomer(customer("Ada Lovelace", "1", adaChecking, adaSavings));
+        registry.registerCustomer(customer("Alan Turing", "2", alanChecking));
+    }
+
+    private static Customer customer(String name, String id, Account... accounts) {
+        Customer customer = new Customer(name, id);
+        customer.setAccounts(new ArrayList<>(List.of(accounts)));
+        return customer;
+    }
+
+    private TransactionFileProcessor.Report process(String csv) throws IOException {
+        return new TransactionFileProcessor(registry, null, 2)
+            .process(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testBadRowsReportedByLineAndTheRestApplied() throws IOException {
+        TransactionFileProcessor.Report report = process("Action,From Account,To Account,Amount\n"
+            + "deposit,,1001,100.00\n"
+            + "withdraw,1001,,abc\n"
+            + "withdraw,1001,,-5\n"
+            + "refund,1001,1002,5\n"
+            + "transfer,1001,1002,10\n"
+            + "pay,1001,9999,10\n"
+            + "withdraw,2001,,5000.00\n"
+            + "deposit,,1001\n"
+            + "transfer,1001,2001,25.50\n"
+            + "pay,1001,1001,1\n"
+            + "pay,2001,1002,10.00\n");
+
+        assertEquals(11, report.getRows());
+        assertEquals(3, report.getApplied());
+        assertEquals(8, report.getFailed());
+        List<String> failures = report.getFailures();
+        assertEquals(8, failures.size());
+        assertEquals("Line 3: Invalid amount abc", failures.get(0));
+        assertEquals("Line 4: Amount must be positive", failures.get(1));
+        assertEquals("Line 5: Unknown action refund", failures.get(2));
+        assertEquals("Line 6: Transfer accounts must belong to the same customer", failures.get(3));
+        assertEquals("Line 7: No account 9999", failures.get(4));
+        //a row that passes validation but finds too little money fails when it is applied
+        assertTrue(failures.get(5).startsWith("Line 8: "), failures.get(5));
+        assertEquals("Line 9: Expected Action, From Account, To Account and Amount", failures.get(6));
+        assertEquals("Line 11: Cannot transfer to same account", failures.get(7));
+
+        assertEquals(107_450, adaChecking.getBalance());
+        assertEquals(51_550, adaSavings.getBalance());
+        assertEquals(21_000, alanChecking.getBalance());
+    }
+
+    @Test
+    void testLineNumbersCountLineBreaksInsideQuotes() throws IOException {
+        TransactionFileProcessor.Report report = process("Action,From Account,To Account,Amount\n"
+            + "\"deposit\",,\"1001\",\"1.00\"\n"
+            + "\"with\ndraw\",1001,,1.00\n"
+            + "deposit,,1002,\"12,5\"\n");
+
+        assertEquals(3, report.getRows());
+        assertEquals(1, report.getApplied());
+        assertEquals(List.of("Line 3: Unknown action with\ndraw", "Line 5: Invalid amount 12,5"),
+            report.getFailures());
+        assertEquals(100_100, adaChecking.getBalance());
+        assertEquals(20_000, alanChecking.getBalance());
+    }
+
+    @Test
+    void testEmptyFileAndHeaderOnly() throws IOException {
+        assertEquals(0, process("").getRows());
+        TransactionFileProcessor.Report report = process("Action,From Account,To Account,Amount\n");
+        assertEquals(0, report.getRows());
+        assertEquals(0, report.getFailed());
+        assertEquals(0, report.getMaxLatency());
+    }
+}
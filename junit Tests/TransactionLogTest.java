@@ -0,0 +1,155 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+public class TransactionLogTest {
+    private static final List<String> LEGACY_LINES = List.of(
+        "Daniel A made a balance inquiry on 3078. Balance: $-786.93",
+        "Daniel A deposited $100.00 to 1078",
+        "Deposit of $100.00 to 1078. New balance: $957.56",
+        "Daniel A transferred $1000.00 from 2078 to 1078",
+        "Withdrawal of $1000.00 from 2078. New balance: $3000.00",
+        "Daniel A paid Daniel S $100.00",
+        "Bank Manager inquired about account 1095. Balance: $3662.26",
+        "Bank Manager inquired about Daniel S's 2095. Balance: $2944.12",
+        "Balance inquiry for 3095: $-718.69");
+
+    private TransactionLog log;
+
+    @AfterEach
+    void tearDown() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private TransactionLog open(Path directory) {
+        TransactionLog opened = new TransactionLog(directory, TransactionLog.Durability.FLUSH_PER_BATCH,
+            64, 10, 1024, 100, 1 << 20);
+        opened.setOwnerResolver(account -> account % 1000 == 78 ? "Daniel A" : "Daniel S");
+        return opened;
+    }
+
+    private static List<Long> amounts(List<TransactionEvent> events) {
+        return events.stream().map(TransactionEvent::getAmount).collect(Collectors.toList());
+    }
+
+    private List<String> allEntries() {
+        try (Stream<String> entries = log.streamLogEntries()) {
+            return entries.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testLegacyFileImportedAtFirstOpen(@TempDir Path directory) throws IOException {
+        Files.write(directory.resolve("transaction_log.txt"), LEGACY_LINES, StandardCharsets.UTF_8);
+        log = open(directory.resolve("transaction_logs"));
+
+        assertEquals(LEGACY_LINES, allEntries());
+        List<TransactionEvent> history = log.getAccountEvents(1078, 10);
+        assertEquals(List.of(TransactionType.CUSTOMER_DEPOSIT, TransactionType.DEPOSIT, TransactionType.TRANSFER),
+            history.stream().map(TransactionEvent::getType).collect(Collectors.toList()));
+        assertEquals(95_756, history.get(1).getBalance());
+        assertEquals(LEGACY_LINES, log.getRecentEntries());
+
+        //new entries follow the imported ones, and opening again imports nothing twice
+        log.logEvent(TransactionType.DEPOSIT, 1078, TransactionEvent.NO_ACCOUNT, 5000, 100_756);
+        log.close();
+        log = open(directory.resolve("transaction_logs"));
+        List<String> expected = new ArrayList<>(LEGACY_LINES);
+        expected.add("Deposit of $50.00 to 1078. New balance: $1007.56");
+        assertEquals(expected, allEntries());
+        assertEquals(4, log.getAccountEvents(1078, 10).size());
+    }
+
+    @Test
+    void testTextSegmentsConvertedToBinary(@TempDir Path directory) throws IOException {
+        //segments as written before entries were binary: one text line per entry, timestamps in the index
+        Path logDirectory = directory.resolve("transaction_logs");
+        Files.createDirectories(logDirectory);
+        long start = System.currentTimeMillis() - 60_000;
+        for (int sequence = 1; sequence <= 2; sequence++) {
+            LogSegment segment = new LogSegment(logDirectory, "transaction_log", sequence);
+            segment.openForAppend();
+            for (int i = 0; i < LEGACY_LINES.size(); i++) {
+                byte[] line = (LEGACY_LINES.get(i) + "\n").getBytes(StandardCharsets.UTF_8);
+                segment.append(ByteBuffer.wrap(line), 0, line.length, start + sequence * 100 + i);
+            }
+            segment.closeForAppend(true);
+            if (sequence == 1) {
+                segment.compress();
+            }
+        }
+        Files.write(directory.resolve("transaction_log.txt"), LEGACY_LINES.subList(0, 2), StandardCharsets.UTF_8);
+
+        log = open(logDirectory);
+        List<String> expected = new ArrayList<>(LEGACY_LINES.subList(0, 2));
+        expected.addAll(LEGACY_LINES);
+        expected.addAll(LEGACY_LINES);
+        assertEquals(expected, allEntries());
+
+        //the second segment keeps its own timestamps
+        assertEquals(LEGACY_LINES, log.getLogEntriesBetween(start + 200, start + 299));
+        assertFalse(Files.exists(logDirectory.resolve("import")));
+    }
+
+    @Test
+    void testAccountHistoryKeptBesideEachClosedSegment(@TempDir Path directory) throws IOException {
+        Path logDirectory = directory.resolve("transaction_logs");
+        //ten entries to a segment
+        log = new TransactionLog(logDirectory, TransactionLog.Durability.FLUSH_PER_BATCH,
+            64, 10, 1024, 100, 10 * TransactionEvent.RECORD_SIZE);
+        Map<Long, List<Long>> expected = new HashMap<>();
+        for (long i = 1; i <= 95; i++) {
+            long account = 1001 + i % 5;
+            long counterparty = i % 3 == 0 ? 1001 + (i + 1) % 5 : TransactionEvent.NO_ACCOUNT;
+            log.logEvent(TransactionType.DEPOSIT, account, counterparty, i, i);
+            expected.computeIfAbsent(account, a -> new ArrayList<>()).add(i);
+            if (counterparty != TransactionEvent.NO_ACCOUNT) {
+                expected.computeIfAbsent(counterparty, a -> new ArrayList<>()).add(i);
+            }
+        }
+        List<Long> all1001 = expected.get(1001L);
+        assertEquals(all1001, amounts(log.getAccountEvents(1001, 1000)));
+        log.close();
+
+        //every closed segment has its sidecar, the active one is indexed from its entries
+        Path sidecar = logDirectory.resolve("transaction_log-000003" + LogSegment.ACCOUNTS_SUFFIX);
+        for (int sequence = 1; sequence <= 9; sequence++) {
+            assertTrue(Files.exists(logDirectory.resolve(
+                String.format("transaction_log-%06d%s", sequence, LogSegment.ACCOUNTS_SUFFIX))), "Segment " + sequence);
+        }
+        assertFalse(Files.exists(logDirectory.resolve("transaction_log-000010" + LogSegment.ACCOUNTS_SUFFIX)));
+
+        //a missing sidecar is written again at startup
+        Files.delete(sidecar);
+        log = open(logDirectory);
+        assertTrue(Files.exists(sidecar));
+        for (long account = 1001; account <= 1005; account++) {
+            List<Long> amounts = expected.get(account);
+            assertEquals(amounts, amounts(log.getAccountEvents(account, 1000)), "Account " + account);
+            assertEquals(amounts.subList(amounts.size() - 7, amounts.size()),
+                amounts(log.getAccountEvents(account, 7)), "Account " + account);
+            assertEquals(amounts, amounts(log.getAccountEventsBetween(account, 0, Long.MAX_VALUE)));
+        }
+        assertEquals(List.of(), log.getAccountEvents(9999, 10));
+        assertEquals(List.of(), log.getAccountEvents(1001, 0));
+
+        //new entries land in the active segment and join the saved history
+        log.logEvent(TransactionType.WITHDRAWAL, 1001, TransactionEvent.NO_ACCOUNT, 500, 0);
+        List<Long> latest = new ArrayList<>(all1001.subList(all1001.size() - 2, all1001.size()));
+        latest.add(500L);
+        assertEquals(latest, amounts(log.getAccountEvents(1001, 3)));
+        assertEquals(List.of(), log.getAccountEventsBetween(1001, 0, 1));
+    }
+}
@@ -0,0 +1,159 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class TransferEngineTest {
+    private static final int ACCOUNTS = 200;
+    private static final int THREADS = 16;
+    private static final int TRANSFERS_PER_THREAD = 20_000;
+    private static final long START_BALANCE = 100_000;
+
+    private TransferEngine engine;
+    private List<Account> accounts;
+    private Account popularPayee;
+
+    @BeforeEach
+    void setUp() {
+        engine = new TransferEngine(64);
+        AccountTable.setShared(new AccountTable());
+        accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            if (i % 2 == 0) {
+                accounts.add(new Checkings(String.valueOf(1000 + i), START_BALANCE));
+            } else {
+                accounts.add(new Savings(String.valueOf(2000 + i), START_BALANCE));
+            }
+        }
+        popularPayee = accounts.get(0);
+    }
+
+    @Test
+    void testTotalMoneyConservedUnderConcurrentTransfers() throws Exception {
+        long expectedTotal = ACCOUNTS * START_BALANCE;
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        // checks the total while transfers are running
+        Future<Integer> auditor = pool.submit(() -> {
+            int audits = 0;
+            while (running.get()) {
+                assertEquals(expectedTotal, engine.totalBalance(accounts));
+                audits++;
+            }
+            return audits;
+        });
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            workers.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    Account from = accounts.get(random.nextInt(ACCOUNTS));
+                    // a fifth of all payments go to the same payee
+                    Account to = random.nextInt(5) == 0 ? popularPayee : accounts.get(random.nextInt(ACCOUNTS));
+                    if (from == to) {
+                        continue;
+                    }
+                    // amounts in cents keep the totals exact
+                    long amount = 1 + random.nextInt(5000);
+                    try {
+                        engine.transfer(from, to, amount);
+                        completed.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get(2, TimeUnit.MINUTES);
+        }
+        running.set(false);
+        assertTrue(auditor.get(1, TimeUnit.MINUTES) > 0);
+        pool.shutdown();
+
+        long total = 0;
+        for (Account account : accounts) {
+            assertTrue(account.getBalance() >= 0, "Balance went negative: " + account.getAccountNumber());
+            total += account.getBalance();
+        }
+        assertEquals(expectedTotal, total);
+        assertTrue(completed.get() > 0);
+    }
+
+    @Test
+    void testInsufficientFundsChangesNothing() {
+        Account from = accounts.get(1);
+        Account to = accounts.get(2);
+        assertThrows(IllegalArgumentException.class, () ->
+            engine.transfer(from, to, START_BALANCE + 1));
+        assertEquals(START_BALANCE, from.getBalance());
+        assertEquals(START_BALANCE, to.getBalance());
+    }
+
+    @Test
+    void testFailedBalanceLogChangesNeitherBalance(@TempDir Path directory) throws IOException {
+        Account from = accounts.get(1);
+        Account to = accounts.get(2);
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.close();
+        Account.setBalanceLog(log);
+        try {
+            assertThrows(IllegalStateException.class, () -> engine.transfer(from, to, 10_000));
+        } finally {
+            Account.setBalanceLog(null);
+        }
+        assertEquals(START_BALANCE, from.getBalance());
+        assertEquals(START_BALANCE, to.getBalance());
+    }
+
+    @Test
+    void testTransferSavedWholeOrNotAtAll(@TempDir Path directory) throws IOException {
+        Account from = accounts.get(1);
+        Account to = accounts.get(2);
+        WriteAheadLog log = new WriteAheadLog(directory);
+        Account.setBalanceLog(log);
+        try {
+            engine.transfer(from, to, 10_000);
+        } finally {
+            Account.setBalanceLog(null);
+            log.close();
+        }
+        assertEquals(Map.of(from.getAccountKey(), -10_000L, to.getAccountKey(), 10_000L),
+            WriteAheadLog.readChanges(directory, 0, Long.MAX_VALUE));
+
+        //a crash anywhere in the group, even after the debit is written, keeps neither side
+        Path segment = directory.resolve("balance-000001.wal");
+        byte[] written = Files.readAllBytes(segment);
+        assertEquals(3 * WriteAheadLog.RECORD_SIZE, written.length);
+        for (int cut = 0; cut < written.length; cut++) {
+            Files.write(segment, Arrays.copyOf(written, cut));
+            assertEquals(Map.of(), WriteAheadLog.readChanges(directory, 0, Long.MAX_VALUE), "Cut at " + cut);
+        }
+        //and so does a group whose last block never reached the disk
+        byte[] torn = written.clone();
+        Arrays.fill(torn, 2 * WriteAheadLog.RECORD_SIZE, torn.length, (byte) 0);
+        Files.write(segment, torn);
+        assertEquals(Map.of(), WriteAheadLog.readChanges(directory, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testSameAccountRejected() {
+        Account account = accounts.get(3);
+        assertThrows(IllegalArgumentException.class, () -> engine.transfer(account, account, 1000));
+        assertEquals(START_BALANCE, account.getBalance());
+    }
+}
@@ -0,0 +1,129 @@
+package bank;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+public class WorkloadGeneratorTest {
+    private static final long CUSTOMERS = 1000;
+    private static final long TRANSACTIONS = 20_000;
+
+    private static byte[] customers(Path directory, String name, long seed) throws IOException {
+        Path file = directory.resolve(name);
+        new WorkloadGenerator(seed).writeCustomers(file, CUSTOMERS);
+        return Files.readAllBytes(file);
+    }
+
+    private static byte[] transactions(Path directory, String name, long seed) throws IOException {
+        Path file = directory.resolve(name);
+        new WorkloadGenerator(seed).writeTransactions(file, CUSTOMERS, TRANSACTIONS);
+        return Files.readAllBytes(file);
+    }
+
+    @Test
+    void testSameSeedWritesTheSameFiles(@TempDir Path directory) throws IOException {
+        assertArrayEquals(customers(directory, "a.csv", 7), customers(directory, "b.csv", 7));
+        assertArrayEquals(transactions(directory, "a.txt", 7), transactions(directory, "b.txt", 7));
+        assertFalse(Arrays.equals(customers(directory, "a.csv", 7), customers(directory, "c.csv", 8)));
+        assertFalse(Arrays.equals(transactions(directory, "a.txt", 7), transactions(directory, "c.txt", 8)));
+    }
+
+    @Test
+    void testCustomerFileHasTheCustomerCsvLayout(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("customers.csv");
+        new WorkloadGenerator(WorkloadGenerator.DEFAULT_SEED).writeCustomers(file, CUSTOMERS);
+        try (CSVReader reader = new CSVReader(Files.newInputStream(file))) {
+            assertTrue(reader.next());
+            assertEquals("Identification Number", reader.getString(0));
+            long id = 0;
+            while (reader.next()) {
+                id++;
+                assertEquals(13, reader.getFieldCount(), "Line " + reader.getLineNumber());
+                assertEquals(id, reader.getLong(0));
+                //the address is quoted because it holds commas
+                assertTrue(reader.getString(4).matches("\\d+ .+, El Paso, TX 799\\d\\d"), reader.getString(4));
+                assertEquals(WorkloadGenerator.checkingAccount(id), reader.getLong(6));
+                assertEquals(WorkloadGenerator.savingsAccount(id), reader.getLong(8));
+                assertEquals(WorkloadGenerator.creditAccount(id), reader.getLong(10));
+                assertTrue(reader.getCents(7) >= 0);
+                assertTrue(reader.getCents(9) >= 0);
+                long creditMax = reader.getCents(11);
+                long creditBalance = reader.getCents(12);
+                assertTrue(creditBalance <= 0 && -creditBalance <= creditMax, "Line " + reader.getLineNumber());
+            }
+            assertEquals(CUSTOMERS, id);
+        }
+    }
+
+    @Test
+    void testTransactionsUseMatchingAccountsWithSkew(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("transactions.csv");
+        new WorkloadGenerator(WorkloadGenerator.DEFAULT_SEED).writeTransactions(file, CUSTOMERS, TRANSACTIONS);
+        Map<String, Integer> actions = new HashMap<>();
+        Map<Long, Integer> activity = new HashMap<>();
+        try (CSVReader reader = new CSVReader(Files.newInputStream(file))) {
+            assertTrue(reader.next());
+            assertEquals("Action", reader.getString(0));
+            long rows = 0;
+            while (reader.next()) {
+                rows++;
+                String action = reader.getString(0);
+                actions.merge(action, 1, Integer::sum);
+                long from = reader.getString(1).isEmpty() ? 0 : reader.getLong(1);
+                long to = reader.getString(2).isEmpty() ? 0 : reader.getLong(2);
+                long actor = from != 0 ? from : to;
+                long customer = ShardedLedger.customerSequence(actor);
+                assertTrue(customer >= 1 && customer <= CUSTOMERS, "Line " + reader.getLineNumber());
+                activity.merge(customer, 1, Integer::sum);
+                assertTrue(reader.getCents(3) > 0);
+                switch (action) {
+                    case "deposit":
+                        assertEquals(WorkloadGenerator.checkingAccount(customer), to);
+                        break;
+                    case "withdraw":
+                        assertEquals(WorkloadGenerator.checkingAccount(customer), from);
+                        break;
+                    case "transfer":
+                        assertEquals(customer, ShardedLedger.customerSequence(to));
+                        assertNotEquals(from, to);
+                        break;
+                    case "pay":
+                        assertEquals(WorkloadGenerator.savingsAccount(customer), from);
+                        long payee = ShardedLedger.customerSequence(to);
+                        assertEquals(WorkloadGenerator.checkingAccount(payee), to);
+                        assertTrue(payee >= 1 && payee <= CUSTOMERS);
+                        break;
+                    default:
+                        fail("Unknown action " + action);
+                }
+            }
+            assertEquals(TRANSACTIONS, rows);
+        }
+        assertEquals(Set.of("deposit", "withdraw", "transfer", "pay"), actions.keySet());
+
+        //a few hot customers see much of the traffic, and they are spread over the file
+        List<Map.Entry<Long, Integer>> hottest = new ArrayList<>(activity.entrySet());
+        hottest.sort(Map.Entry.<Long, Integer>comparingByValue().reversed());
+        int top10 = 0;
+        long highestHot = 0;
+        for (int i = 0; i < 10; i++) {
+            top10 += hottest.get(i).getValue();
+            highestHot = Math.max(highestHot, hottest.get(i).getKey());
+        }
+        assertTrue(top10 > TRANSACTIONS / 5, "Top 10 customers made " + top10 + " transactions");
+        assertTrue(highestHot > CUSTOMERS / 2, "Top 10 customers are all below " + highestHot);
+    }
+
+    @Test
+    void testCustomerCountMustFitTheNumbering(@TempDir Path directory) {
+        WorkloadGenerator generator = new WorkloadGenerator(1);
+        assertThrows(IllegalArgumentException.class, () -> generator.writeCustomers(directory.resolve("a"), 0));
+        assertThrows(IllegalArgumentException.class,
+            () -> generator.writeTransactions(directory.resolve("b"), 1_000_000_000L, 1));
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadGenerator(1, 0, 1));
+    }
+}